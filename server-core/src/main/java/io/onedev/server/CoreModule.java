@@ -158,16 +158,22 @@ import io.onedev.server.entitymanager.impl.DefaultSettingManager;
 import io.onedev.server.entitymanager.impl.DefaultSshKeyManager;
 import io.onedev.server.entitymanager.impl.DefaultUserAuthorizationManager;
 import io.onedev.server.entitymanager.impl.DefaultUserManager;
+import io.onedev.server.git.DefaultGitTransportScheduler;
 import io.onedev.server.git.GitFilter;
 import io.onedev.server.git.GitPostReceiveCallback;
 import io.onedev.server.git.GitPreReceiveCallback;
+import io.onedev.server.git.GitTransportScheduler;
 import io.onedev.server.git.config.GitConfig;
+import io.onedev.server.git.archive.ArchiveCacheManager;
+import io.onedev.server.git.archive.DefaultArchiveCacheManager;
 import io.onedev.server.git.ssh.SimpleGitSshServer;
 import io.onedev.server.infomanager.CodeCommentRelationInfoManager;
 import io.onedev.server.infomanager.CommitInfoManager;
 import io.onedev.server.infomanager.DefaultCodeCommentRelationInfoManager;
 import io.onedev.server.infomanager.DefaultCommitInfoManager;
+import io.onedev.server.infomanager.DefaultLastCommitsInfoManager;
 import io.onedev.server.infomanager.DefaultUserInfoManager;
+import io.onedev.server.infomanager.LastCommitsInfoManager;
 import io.onedev.server.infomanager.UserInfoManager;
 import io.onedev.server.maintenance.ApplyDatabaseConstraints;
 import io.onedev.server.maintenance.BackupDatabase;
@@ -217,8 +223,10 @@ import io.onedev.server.search.code.DefaultIndexManager;
 import io.onedev.server.search.code.DefaultSearchManager;
 import io.onedev.server.search.code.IndexManager;
 import io.onedev.server.search.code.SearchManager;
+import io.onedev.server.security.AuthorizationManager;
 import io.onedev.server.security.BasicAuthenticationFilter;
 import io.onedev.server.security.CodePullAuthorizationSource;
+import io.onedev.server.security.DefaultAuthorizationManager;
 import io.onedev.server.security.FilterChainConfigurator;
 import io.onedev.server.security.OneAuthorizingRealm;
 import io.onedev.server.security.OneFilterChainResolver;
@@ -230,6 +238,8 @@ import io.onedev.server.storage.DefaultAttachmentStorageManager;
 import io.onedev.server.storage.DefaultStorageManager;
 import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.SecurityUtils;
+import io.onedev.server.util.diff.DefaultDiffCacheManager;
+import io.onedev.server.util.diff.DiffCacheManager;
 import io.onedev.server.util.jackson.ObjectMapperConfigurator;
 import io.onedev.server.util.jackson.ObjectMapperProvider;
 import io.onedev.server.util.jackson.git.GitObjectMapperConfigurator;
@@ -278,6 +288,7 @@ import io.onedev.server.web.mapper.OnePageMapper;
 import io.onedev.server.web.page.DashboardPage;
 import io.onedev.server.web.page.base.BasePage;
 import io.onedev.server.web.page.layout.BuildListTab;
+import io.onedev.server.web.page.layout.CodeSearchTab;
 import io.onedev.server.web.page.layout.IssueListTab;
 import io.onedev.server.web.page.layout.MainTab;
 import io.onedev.server.web.page.layout.ProjectListTab;
@@ -326,6 +337,8 @@ public class CoreModule extends AbstractPluginModule {
 
 		// configure markdown
 		bind(MarkdownManager.class).to(DefaultMarkdownManager.class);		
+		bind(DiffCacheManager.class).to(DefaultDiffCacheManager.class);
+		bind(ArchiveCacheManager.class).to(DefaultArchiveCacheManager.class);
 		
 		configurePersistence();
 		configureRestServices();
@@ -364,6 +377,7 @@ public class CoreModule extends AbstractPluginModule {
 		bind(RoleManager.class).to(DefaultRoleManager.class);
 		bind(CommitInfoManager.class).to(DefaultCommitInfoManager.class);
 		bind(UserInfoManager.class).to(DefaultUserInfoManager.class);
+		bind(LastCommitsInfoManager.class).to(DefaultLastCommitsInfoManager.class);
 		bind(BatchWorkManager.class).to(DefaultBatchWorkManager.class);
 		bind(GroupManager.class).to(DefaultGroupManager.class);
 		bind(MembershipManager.class).to(DefaultMembershipManager.class);
@@ -404,6 +418,7 @@ public class CoreModule extends AbstractPluginModule {
 	    contribute(ObjectMapperConfigurator.class, HibernateObjectMapperConfigurator.class);
 	    
 		bind(Realm.class).to(OneAuthorizingRealm.class);
+		bind(AuthorizationManager.class).to(DefaultAuthorizationManager.class);
 		bind(RememberMeManager.class).to(OneRememberMeManager.class);
 		bind(WebSecurityManager.class).to(OneWebSecurityManager.class);
 		bind(FilterChainResolver.class).to(OneFilterChainResolver.class);
@@ -445,6 +460,7 @@ public class CoreModule extends AbstractPluginModule {
 		bind(EntityValidator.class).to(DefaultEntityValidator.class);
 		
 		bind(GitFilter.class);
+		bind(GitTransportScheduler.class).to(DefaultGitTransportScheduler.class);
 		bind(GitPreReceiveCallback.class);
 		bind(GitPostReceiveCallback.class);
 		
@@ -617,7 +633,7 @@ public class CoreModule extends AbstractPluginModule {
 			public List<MainTab> getMainTabs() {
 				return Lists.newArrayList(
 						new ProjectListTab(), new IssueListTab(), 
-						new PullRequestListTab(), new BuildListTab());
+						new PullRequestListTab(), new BuildListTab(), new CodeSearchTab());
 			}
 
 		});
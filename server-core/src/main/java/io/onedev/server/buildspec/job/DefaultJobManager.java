@@ -7,18 +7,20 @@ import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
@@ -106,12 +108,20 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 
 	private static final int CHECK_INTERVAL = 1000; // check internal in milli-seconds
 	
+	private static final int RECONCILE_INTERVAL = 60000; // reconcile interval in milli-seconds
+	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultJobManager.class);
 	
 	private final Map<String, JobContext> jobContexts = new ConcurrentHashMap<>();
 	
 	private final Map<Long, JobExecution> jobExecutions = new ConcurrentHashMap<>();
 	
+	// id of builds whose state should be checked by the scheduler thread
+	private final BlockingQueue<Long> buildsToCheck = new LinkedBlockingQueue<>();
+	
+	// map of unfinished dependency build id to id of builds waiting for it
+	private final Map<Long, Set<Long>> waitingDependents = new ConcurrentHashMap<>();
+	
 	private final ProjectManager projectManager;
 	
 	private final BuildManager buildManager;
@@ -791,88 +801,149 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 		}
 	}
 
+	private void requestCheck(Long buildId) {
+		transactionManager.runAfterCommit(new Runnable() {
+
+			@Override
+			public void run() {
+				buildsToCheck.offer(buildId);
+			}
+			
+		});
+	}
+	
+	private void check(Build build) {
+		JobExecution execution = jobExecutions.get(build.getId());
+		if (build.isFinished()) {
+			if (execution != null) {
+				jobExecutions.remove(build.getId());
+				execution.cancel(null);
+			}
+		} else if (execution != null) {
+			if (execution.isDone()) {
+				jobExecutions.remove(build.getId());
+				try {
+					execution.check();
+					build.setStatus(Build.Status.SUCCESSFUL);
+				} catch (TimeoutException e) {
+					build.setStatus(Build.Status.TIMED_OUT);
+				} catch (CancellationException e) {
+					if (e instanceof CancellerAwareCancellationException) {
+						Long cancellerId = ((CancellerAwareCancellationException) e).getCancellerId();
+						if (cancellerId != null)
+							build.setCanceller(userManager.load(cancellerId));
+					}
+					build.setStatus(Build.Status.CANCELLED);
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof OneException)
+						build.setStatus(Build.Status.FAILED, e.getCause().getMessage());
+					else
+						build.setStatus(Build.Status.FAILED, e.getMessage());
+				} catch (InterruptedException e) {
+				} finally {
+					build.setFinishDate(new Date());
+					listenerRegistry.post(new BuildFinished(build));
+				}
+			} else if (execution.isTimedout()) {
+				execution.cancel(null);
+			}
+		} else if (build.getStatus() == Build.Status.RUNNING || build.getStatus() == Build.Status.PENDING) {
+			if (thread != null) {
+				try {
+					jobExecutions.put(build.getId(), execute(build));
+					if (build.getPendingDate() != null) {
+						logger.debug("Dispatched build (id: {}, dispatch latency: {} ms)", build.getId(), 
+								System.currentTimeMillis() - build.getPendingDate().getTime());
+					}
+				} catch (Throwable t) {
+					if (t instanceof OneException)
+						markBuildError(build, t.getMessage());
+					else
+						markBuildError(build, Throwables.getStackTraceAsString(t));
+				}
+			}
+		} else if (build.getStatus() == Build.Status.WAITING) {
+			if (build.getRetryDate() != null) {
+				if (thread != null) {
+					build.setStatus(Build.Status.PENDING);
+					build.setPendingDate(new Date());
+					listenerRegistry.post(new BuildPending(build));
+				}
+			} else if (build.getDependencies().stream().anyMatch(it -> it.isRequireSuccessful() 
+					&& it.getDependency().isFinished() 
+					&& it.getDependency().getStatus() != Build.Status.SUCCESSFUL)) {
+				markBuildError(build, "Some dependencies are required to be successful but failed");
+			} else if (build.getDependencies().stream().allMatch(it->it.getDependency().isFinished())) {
+				build.setStatus(Build.Status.PENDING);
+				build.setPendingDate(new Date());
+				listenerRegistry.post(new BuildPending(build));
+			} else {
+				for (BuildDependence dependence: build.getDependencies()) {
+					if (!dependence.getDependency().isFinished()) {
+						waitingDependents.computeIfAbsent(dependence.getDependency().getId(), 
+								key -> ConcurrentHashMap.newKeySet()).add(build.getId());
+					}
+				}
+			}
+		} 
+	}
+	
+	/*
+	 * Builds are checked when they are submitted, become pending, or when their dependencies 
+	 * or executions finish. Unfinished builds are also reconciled periodically as a safety 
+	 * net in case some state change is missed
+	 */
 	@Override
 	public void run() {
+		long lastReconcileTime = 0;
 		while (!jobExecutions.isEmpty() || thread != null) {
 			try {
-				synchronized (this) {
-					transactionManager.run(new Runnable() {
-		
-						@Override
-						public void run() {
-							for (Build build: buildManager.queryUnfinished()) {
-								if (build.getStatus() == Build.Status.RUNNING || build.getStatus() == Build.Status.PENDING) {
-									JobExecution execution = jobExecutions.get(build.getId());
-									if (execution != null) {
-										if (execution.isTimedout())
-											execution.cancel(null);
-									} else if (thread != null) {
-										try {
-											jobExecutions.put(build.getId(), execute(build));
-										} catch (Throwable t) {
-											if (t instanceof OneException)
-												markBuildError(build, t.getMessage());
-											else
-												markBuildError(build, Throwables.getStackTraceAsString(t));
-										}
-									}
-								} else if (build.getStatus() == Build.Status.WAITING) {
-									if (build.getRetryDate() != null) {
-										JobExecution execution = jobExecutions.get(build.getId());
-										if (execution == null && thread != null) {
-											build.setStatus(Build.Status.PENDING);
-											build.setPendingDate(new Date());
-											listenerRegistry.post(new BuildPending(build));
-										}
-									} else if (build.getDependencies().stream().anyMatch(it -> it.isRequireSuccessful() 
-											&& it.getDependency().isFinished() 
-											&& it.getDependency().getStatus() != Build.Status.SUCCESSFUL)) {
-										markBuildError(build, "Some dependencies are required to be successful but failed");
-									} else if (build.getDependencies().stream().allMatch(it->it.getDependency().isFinished())) {
-										build.setStatus(Build.Status.PENDING);
-										build.setPendingDate(new Date());
-										listenerRegistry.post(new BuildPending(build));
+				Set<Long> buildIds = new LinkedHashSet<>();
+				Long polledId = buildsToCheck.poll(CHECK_INTERVAL, TimeUnit.MILLISECONDS);
+				if (polledId != null)
+					buildIds.add(polledId);
+				buildsToCheck.drainTo(buildIds);
+				
+				for (Map.Entry<Long, JobExecution> entry: jobExecutions.entrySet()) {
+					if (entry.getValue().isDone() || entry.getValue().isTimedout())
+						buildIds.add(entry.getKey());
+				}
+				
+				boolean reconcile = System.currentTimeMillis() - lastReconcileTime > RECONCILE_INTERVAL;
+				if (reconcile || !buildIds.isEmpty()) {
+					long time = System.currentTimeMillis();
+					synchronized (this) {
+						transactionManager.run(new Runnable() {
+			
+							@Override
+							public void run() {
+								if (reconcile) {
+									waitingDependents.clear();
+									buildIds.addAll(jobExecutions.keySet());
+									for (Build build: buildManager.queryUnfinished()) {
+										buildIds.remove(build.getId());
+										check(build);
 									}
-								} 
-							}
-							for (Iterator<Map.Entry<Long, JobExecution>> it = jobExecutions.entrySet().iterator(); it.hasNext();) {
-								Map.Entry<Long, JobExecution> entry = it.next();
-								Build build = buildManager.get(entry.getKey());
-								JobExecution execution = entry.getValue();
-								if (build == null || build.isFinished()) {
-									it.remove();
-									execution.cancel(null);
-								} else if (execution.isDone()) {
-									it.remove();
-									try {
-										execution.check();
-										build.setStatus(Build.Status.SUCCESSFUL);
-									} catch (TimeoutException e) {
-										build.setStatus(Build.Status.TIMED_OUT);
-									} catch (CancellationException e) {
-										if (e instanceof CancellerAwareCancellationException) {
-											Long cancellerId = ((CancellerAwareCancellationException) e).getCancellerId();
-											if (cancellerId != null)
-												build.setCanceller(userManager.load(cancellerId));
-										}
-										build.setStatus(Build.Status.CANCELLED);
-									} catch (ExecutionException e) {
-										if (e.getCause() instanceof OneException)
-											build.setStatus(Build.Status.FAILED, e.getCause().getMessage());
-										else
-											build.setStatus(Build.Status.FAILED, e.getMessage());
-									} catch (InterruptedException e) {
-									} finally {
-										build.setFinishDate(new Date());
-										listenerRegistry.post(new BuildFinished(build));
+								}
+								for (Long buildId: buildIds) {
+									Build build = buildManager.get(buildId);
+									if (build != null) {
+										check(build);
+									} else {
+										JobExecution execution = jobExecutions.remove(buildId);
+										if (execution != null)
+											execution.cancel(null);
 									}
 								}
 							}
-						}
-						
-					});
+							
+						});
+					}
+					if (reconcile)
+						lastReconcileTime = System.currentTimeMillis();
+					logger.debug("Checked builds (count: {}, reconcile: {}, queue depth: {}, duration: {} ms)", 
+							buildIds.size(), reconcile, buildsToCheck.size(), System.currentTimeMillis() - time);
 				}
-				Thread.sleep(CHECK_INTERVAL);
 			} catch (Throwable e) {
 				logger.error("Error checking unfinished builds", e);
 			} 
@@ -883,12 +954,24 @@ public class DefaultJobManager implements JobManager, Runnable, CodePullAuthoriz
 	public void on(BuildSubmitted event) {
 		Build build = event.getBuild();
 		FileUtils.deleteDir(build.getPublishDir());
+		requestCheck(build.getId());
+	}
+	
+	@Listen
+	public void on(BuildPending event) {
+		requestCheck(event.getBuild().getId());
 	}
 
 	@Transactional
 	@Listen
 	public void on(BuildFinished event) {
 		Build build = event.getBuild();
+		Set<Long> dependentIds = waitingDependents.remove(build.getId());
+		if (dependentIds != null) {
+			for (Long dependentId: dependentIds)
+				requestCheck(dependentId);
+		}
+		
 		for (BuildParam param: build.getParams()) {
 			if (param.getType().equals(ParamSpec.SECRET)) 
 				param.setValue(null);
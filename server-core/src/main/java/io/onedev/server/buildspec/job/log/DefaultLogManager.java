@@ -1,23 +1,26 @@
 package io.onedev.server.buildspec.job.log;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.locks.Lock;
 import java.util.regex.Pattern;
 
@@ -34,9 +37,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
 
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.LockUtils;
 import io.onedev.server.OneDev;
 import io.onedev.server.buildspec.job.log.instruction.LogInstruction;
@@ -44,6 +49,8 @@ import io.onedev.server.buildspec.job.log.instruction.LogInstructionParser.Instr
 import io.onedev.server.buildspec.job.log.instruction.LogInstructionParser.ParamContext;
 import io.onedev.server.entitymanager.BuildManager;
 import io.onedev.server.event.build.BuildFinished;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.model.Build;
 import io.onedev.server.persistence.annotation.Sessional;
 import io.onedev.server.storage.StorageManager;
@@ -52,7 +59,7 @@ import io.onedev.server.util.inputspec.SecretInput;
 import io.onedev.server.web.websocket.WebSocketManager;
 
 @Singleton
-public class DefaultLogManager implements LogManager {
+public class DefaultLogManager implements LogManager, Runnable {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultLogManager.class);
 	
@@ -60,7 +67,16 @@ public class DefaultLogManager implements LogManager {
 
 	private static final int MAX_CACHE_ENTRIES = 10000;
 	
-	private static final String LOG_FILE = "build.log";
+	private static final int FLUSH_INTERVAL = 500; // flush interval in milli-seconds
+	
+	// log written with java serialization by previous versions
+	private static final String LEGACY_LOG_FILE = "build.log";
+	
+	private static final String LOG_DATA_FILE = "log.data";
+	
+	private static final String LOG_INDEX_FILE = "log.index";
+	
+	private static final String LOG_TEXT_FILE = "log.txt";
 	
 	private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormat.forPattern("HH:mm:ss");	
 	
@@ -74,6 +90,15 @@ public class DefaultLogManager implements LogManager {
 	
 	private final Map<Long, LogSnippet> recentSnippets = new ConcurrentHashMap<>();
 	
+	/*
+	 * Entries logged by running builds but not yet moved into recent snippets. Loggers 
+	 * only append to these queues, so that chatty builds do not contend with log readers 
+	 * on the build lock 
+	 */
+	private final Map<Long, PendingLog> pendingLogs = new ConcurrentHashMap<>();
+	
+	private volatile Thread thread;
+	
 	@Inject
 	public DefaultLogManager(StorageManager storageManager, WebSocketManager webSocketManager, 
 			BuildManager buildManager) {
@@ -82,9 +107,51 @@ public class DefaultLogManager implements LogManager {
 		this.buildManager = buildManager;
 	}
 	
-	private File getLogFile(Long projectId, Long buildNumber) {
+	private LogFile getLogFile(Long projectId, Long buildNumber) {
 		File buildDir = storageManager.getBuildDir(projectId, buildNumber);
-		return new File(buildDir, LOG_FILE);
+		return new LogFile(new File(buildDir, LOG_DATA_FILE), new File(buildDir, LOG_INDEX_FILE));
+	}
+	
+	private File getLegacyLogFile(Long projectId, Long buildNumber) {
+		File buildDir = storageManager.getBuildDir(projectId, buildNumber);
+		return new File(buildDir, LEGACY_LOG_FILE);
+	}
+	
+	/*
+	 * Convert legacy log of specified build lazily when it is accessed
+	 */
+	private void migrateLegacyLog(Build build) {
+		File legacyLogFile = getLegacyLogFile(build.getProject().getId(), build.getNumber());
+		if (legacyLogFile.exists()) {
+			Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).writeLock();
+			lock.lock();
+			try {
+				if (legacyLogFile.exists()) {
+					LogFile logFile = getLogFile(build.getProject().getId(), build.getNumber());
+					
+					// clean up partially converted log if any
+					logFile.delete();
+					
+					List<JobLogEntry> entries = new ArrayList<>();
+					try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(legacyLogFile)))) {
+						while (true) {
+							entries.add((JobLogEntry) ois.readObject());
+							if (entries.size() == MIN_CACHE_ENTRIES) {
+								logFile.append(entries);
+								entries.clear();
+							}
+						}
+					} catch (EOFException e) {
+					} catch (IOException|ClassNotFoundException e) {
+						throw new RuntimeException(e);
+					}
+					logFile.append(entries);
+					FileUtils.deleteFile(legacyLogFile);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
 	}
 	
 	@Override
@@ -100,37 +167,25 @@ public class DefaultLogManager implements LogManager {
 				for (String maskSecret: secretValuesToMask)
 					message = StringUtils.replace(message, maskSecret, SecretInput.MASK);
 				
-				Lock lock = LockUtils.getReadWriteLock(getLockKey(buildId)).writeLock();
-				lock.lock();
-				try {
-					LogSnippet snippet = recentSnippets.get(buildId);
-					if (snippet == null) {
-						File logFile = getLogFile(projectId, buildNumber);
-						if (!logFile.exists())	{
-							snippet = new LogSnippet();
-							recentSnippets.put(buildId, snippet);
-						}
-					}
-					if (snippet != null) {
-						snippet.entries.add(new JobLogEntry(new Date(), message));
-						if (snippet.entries.size() > MAX_CACHE_ENTRIES) {
-							File logFile = getLogFile(projectId, buildNumber);
-							try (ObjectOutputStream oos = newOutputStream(logFile)) {
-								while (snippet.entries.size() > MIN_CACHE_ENTRIES) {
-									JobLogEntry entry = snippet.entries.remove(0);
-									oos.writeObject(entry);
-									snippet.offset++;
-								}
-							} catch (IOException e) {
-								throw new RuntimeException(e);
-							}
-						}
-						
-						webSocketManager.notifyObservableChange(Build.getLogWebSocketObservable(buildId));
-					}
-				} finally {
-					lock.unlock();
+				JobLogEntry entry = new JobLogEntry(new Date(), message);
+				PendingLog pendingLog = pendingLogs.get(buildId);
+				if (pendingLog == null && !recentSnippets.containsKey(buildId) 
+						&& appendToLogFile(buildId, projectId, buildNumber, entry)) {
+					return;
 				}
+				if (pendingLog == null) {
+					pendingLog = pendingLogs.computeIfAbsent(buildId, 
+							key -> new PendingLog(projectId, buildNumber));
+				}
+				pendingLog.entries.add(entry);
+				
+				/*
+				 * Pending log is detached from the map before its entries are drained when build 
+				 * finishes. Move our entry ourselves if this happens concurrently, as it may have 
+				 * been added after the drain
+				 */
+				if (pendingLogs.get(buildId) != pendingLog)
+					flush(buildId, pendingLog);
 			}
 			
 			@Override
@@ -184,12 +239,142 @@ public class DefaultLogManager implements LogManager {
 		instruction.execute(buildManager.load(buildId), params);
 	}
 
+	/**
+	 * Append specified entry to log file directly if the build has neither pending entries nor 
+	 * recent snippet while its log file exists, which means that the build is finished
+	 * 
+	 * @return
+	 * 			whether or not the entry is appended
+	 */
+	private boolean appendToLogFile(Long buildId, Long projectId, Long buildNumber, JobLogEntry entry) {
+		LogFile logFile = getLogFile(projectId, buildNumber);
+		if (!logFile.exists())
+			return false;
+		Lock lock = LockUtils.getReadWriteLock(getLockKey(buildId)).writeLock();
+		lock.lock();
+		try {
+			if (pendingLogs.containsKey(buildId) || recentSnippets.containsKey(buildId))
+				return false;
+			logFile.append(Lists.newArrayList(entry));
+		} finally {
+			lock.unlock();
+		}
+		webSocketManager.notifyObservableChange(Build.getLogWebSocketObservable(buildId));
+		return true;
+	}
+	
+	/**
+	 * Move pending entries of specified build into its recent snippet, and spill the snippet 
+	 * to log file if it grows too large. If the build is finished, entries are appended to log 
+	 * file directly
+	 * 
+	 * @return
+	 * 			whether or not any entry is moved
+	 */
+	private boolean flush(Long buildId, PendingLog pendingLog) {
+		Lock lock = LockUtils.getReadWriteLock(getLockKey(buildId)).writeLock();
+		lock.lock();
+		try {
+			LogFile logFile = getLogFile(pendingLog.projectId, pendingLog.buildNumber);
+			LogSnippet snippet = recentSnippets.get(buildId);
+			if (snippet == null) {
+				if (!logFile.exists() && !getLegacyLogFile(pendingLog.projectId, pendingLog.buildNumber).exists())	{
+					snippet = new LogSnippet();
+					recentSnippets.put(buildId, snippet);
+				}
+			}
+			if (snippet != null) {
+				boolean moved = false;
+				JobLogEntry entry;
+				while ((entry = pendingLog.entries.poll()) != null) {
+					snippet.entries.add(entry);
+					moved = true;
+					if (snippet.entries.size() > MAX_CACHE_ENTRIES) {
+						List<JobLogEntry> entriesToFlush = snippet.entries.subList(0, 
+								snippet.entries.size() - MIN_CACHE_ENTRIES);
+						logFile.append(entriesToFlush);
+						snippet.offset += entriesToFlush.size();
+						entriesToFlush.clear();
+					}
+				}
+				return moved;
+			} else {
+				pendingLogs.remove(buildId, pendingLog);
+				List<JobLogEntry> entries = new ArrayList<>();
+				JobLogEntry entry;
+				while ((entry = pendingLog.entries.poll()) != null)
+					entries.add(entry);
+				if (!entries.isEmpty()) {
+					logFile.append(entries);
+					return true;
+				} else {
+					return false;
+				}
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+	
+	/*
+	 * Called by readers so that entries logged since last periodical flush are visible to them
+	 */
+	private void flushPendingLog(Long buildId) {
+		PendingLog pendingLog = pendingLogs.get(buildId);
+		if (pendingLog != null && !pendingLog.entries.isEmpty() && flush(buildId, pendingLog))
+			webSocketManager.notifyObservableChange(Build.getLogWebSocketObservable(buildId));
+	}
+	
+	private void flushPendingLogs() {
+		for (Map.Entry<Long, PendingLog> entry: pendingLogs.entrySet()) {
+			Long buildId = entry.getKey();
+			try {
+				if (flush(buildId, entry.getValue()))
+					webSocketManager.notifyObservableChange(Build.getLogWebSocketObservable(buildId));
+			} catch (Exception e) {
+				logger.error("Error flushing log of build (id: " + buildId + ")", e);
+			}
+		}
+	}
+	
+	@Listen
+	public void on(SystemStarted event) {
+		thread = new Thread(this);
+		thread.start();
+	}
+	
+	@Listen
+	public void on(SystemStopping event) {
+		if (thread != null) {
+			Thread copy = thread;
+			thread = null;
+			copy.interrupt();
+			try {
+				copy.join();
+			} catch (InterruptedException e) {
+			}
+		}
+	}
+	
+	@Override
+	public void run() {
+		while (thread != null) {
+			try {
+				Thread.sleep(FLUSH_INTERVAL);
+			} catch (InterruptedException e) {
+			}
+			flushPendingLogs();
+		}
+	}
+	
 	private String getLockKey(Long buildId) {
 		return "build-log: " + buildId;
 	}
 
 	@Override
 	public boolean matches(Build build, Pattern pattern) {
+		migrateLegacyLog(build);
+		flushPendingLog(build.getId());
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 		lock.lock();
 		try {
@@ -203,20 +388,14 @@ public class DefaultLogManager implements LogManager {
 				}
 			}
 			
-			File logFile = getLogFile(build.getProject().getId(), build.getNumber());
-			
-			if (logFile.exists()) {
-				try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-					while (true) {
-						JobLogEntry entry  = (JobLogEntry) ois.readObject();
-						if ((build.getRetryDate() == null || !entry.getDate().before(build.getRetryDate())) 
-								&& pattern.matcher(entry.getMessage()).find()) {
-							return true;
-						}
+			LogFile logFile = getLogFile(build.getProject().getId(), build.getNumber());
+			try (LogFile.Reader reader = logFile.openReader(0)) {
+				JobLogEntry entry;
+				while ((entry = reader.read()) != null) {
+					if ((build.getRetryDate() == null || !entry.getDate().before(build.getRetryDate())) 
+							&& pattern.matcher(entry.getMessage()).find()) {
+						return true;
 					}
-				} catch (EOFException e) {
-				} catch (IOException|ClassNotFoundException e) {
-					throw new RuntimeException(e);
 				}
 			}
 			return false;
@@ -225,43 +404,10 @@ public class DefaultLogManager implements LogManager {
 		}
 	}
 	
-	private List<JobLogEntry> readLogEntries(File logFile, int from, int count) {
-		List<JobLogEntry> entries = new ArrayList<>();
-		if (logFile.exists()) {
-			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-				int numOfReadEntries = 0;
-				while (numOfReadEntries < from) {
-					ois.readObject();
-					numOfReadEntries++;
-				}
-				while (count == 0 || numOfReadEntries - from < count) {
-					entries.add((JobLogEntry) ois.readObject());
-					numOfReadEntries++;
-				}
-			} catch (EOFException e) {
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
-		}
-		return entries;
-	}
-	
-	private LogSnippet readLogSnippetReversely(File logFile, int count) {
+	private LogSnippet readLogSnippetReversely(LogFile logFile, int count) {
 		LogSnippet snippet = new LogSnippet();
-		if (logFile.exists()) {
-			try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)))) {
-				while (true) {
-					snippet.entries.add((JobLogEntry) ois.readObject());
-					if (snippet.entries.size() > count) {
-						snippet.entries.remove(0);
-						snippet.offset ++;
-					}
-				}
-			} catch (EOFException e) {
-			} catch (IOException | ClassNotFoundException e) {
-				throw new RuntimeException(e);
-			}
-		}
+		snippet.offset = Math.max(logFile.count() - count, 0);
+		snippet.entries.addAll(logFile.read(snippet.offset, 0));
 		return snippet;
 	}
 	
@@ -279,17 +425,19 @@ public class DefaultLogManager implements LogManager {
 	@Sessional
 	@Override
 	public List<JobLogEntry> readLogEntries(Build build, int from, int count) {
+		migrateLegacyLog(build);
+		flushPendingLog(build.getId());
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 		lock.lock();
 		try {
-			File logFile = getLogFile(build.getProject().getId(), build.getNumber());
+			LogFile logFile = getLogFile(build.getProject().getId(), build.getNumber());
 			LogSnippet snippet = recentSnippets.get(build.getId());
 			if (snippet != null) {
 				if (from >= snippet.offset) {
 					return readLogEntries(snippet.entries, from - snippet.offset, count);
 				} else {
 					List<JobLogEntry> entries = new ArrayList<>();
-					entries.addAll(readLogEntries(logFile, from, count));
+					entries.addAll(logFile.read(from, count));
 					if (count == 0)
 						entries.addAll(snippet.entries);
 					else if (entries.size() < count) 
@@ -297,7 +445,7 @@ public class DefaultLogManager implements LogManager {
 					return entries;
 				}
 			} else {
-				return readLogEntries(logFile, from, count);
+				return logFile.read(from, count);
 			}
 		} finally {
 			lock.unlock();
@@ -307,10 +455,12 @@ public class DefaultLogManager implements LogManager {
 	@Sessional
 	@Override
 	public LogSnippet readLogSnippetReversely(Build build, int count) {
+		migrateLegacyLog(build);
+		flushPendingLog(build.getId());
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 		lock.lock();
 		try {
-			File logFile = getLogFile(build.getProject().getId(), build.getNumber());
+			LogFile logFile = getLogFile(build.getProject().getId(), build.getNumber());
 			LogSnippet recentSnippet = recentSnippets.get(build.getId());
 			if (recentSnippet != null) {
 				LogSnippet snippet = new LogSnippet();
@@ -331,25 +481,6 @@ public class DefaultLogManager implements LogManager {
 		}
 	}
 	
-	private ObjectOutputStream newOutputStream(File logFile) {
-		try {
-			if (logFile.exists()) {
-				return new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile, true))) {
-
-					@Override
-					protected void writeStreamHeader() throws IOException {
-						reset();
-					}
-					
-				};
-			} else {
-				return new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(logFile)));
-			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
-		}
-	}
-	
 	@Sessional
 	@Listen
 	public void on(BuildFinished event) {
@@ -357,29 +488,77 @@ public class DefaultLogManager implements LogManager {
 		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).writeLock();
 		lock.lock();
 		try {
+			PendingLog pendingLog = pendingLogs.remove(build.getId());
+			if (pendingLog != null)
+				flush(build.getId(), pendingLog);
 			LogSnippet snippet = recentSnippets.remove(build.getId());
-			if (snippet != null) {
-				File logFile = getLogFile(build.getProject().getId(), build.getNumber());
-				try (ObjectOutputStream oos = newOutputStream(logFile)) {
-					for (JobLogEntry entry: snippet.entries)
-						oos.writeObject(entry);
-				} catch (IOException e) {
-					throw new RuntimeException(e);
-				} 
-			}
+			
+			/*
+			 * Create log file even if nothing is logged, otherwise entries logged after build 
+			 * finishes will be put into a recent snippet which is never removed
+			 */
+			LogFile logFile = getLogFile(build.getProject().getId(), build.getNumber());
+			if (snippet != null) 
+				logFile.append(snippet.entries);
+			else if (!logFile.exists() && !getLegacyLogFile(build.getProject().getId(), build.getNumber()).exists())
+				logFile.append(new ArrayList<>());
 		} finally {
 			lock.unlock();
 		}
+		webSocketManager.notifyObservableChange(Build.getLogWebSocketObservable(build.getId()));
 	}
 
 	@Override
 	public InputStream openLogStream(Build build) {
+		migrateLegacyLog(build);
+		flushPendingLog(build.getId());
 		return new LogStream(build);
 	}
 
+	@Sessional
+	@Override
+	public File getLogTextFile(Build build) {
+		if (!build.isFinished() || pendingLogs.containsKey(build.getId()) 
+				|| recentSnippets.containsKey(build.getId())) {
+			return null;
+		}
+		migrateLegacyLog(build);
+		
+		File buildDir = storageManager.getBuildDir(build.getProject().getId(), build.getNumber());
+		File dataFile = new File(buildDir, LOG_DATA_FILE);
+		if (!dataFile.exists())
+			return null;
+		
+		File textFile = new File(buildDir, LOG_TEXT_FILE);
+		Lock lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).writeLock();
+		lock.lock();
+		try {
+			// log data may be rewritten if build is retried
+			if (!textFile.exists() || textFile.lastModified() <= dataFile.lastModified()) {
+				File tempFile = new File(buildDir, LOG_TEXT_FILE + "." + UUID.randomUUID());
+				try {
+					try (	InputStream is = new LogStream(build); 
+							OutputStream os = Files.newOutputStream(tempFile.toPath())) {
+						IOUtils.copy(is, os);
+					}
+					Files.move(tempFile.toPath(), textFile.toPath(), StandardCopyOption.REPLACE_EXISTING, 
+							StandardCopyOption.ATOMIC_MOVE);
+				} finally {
+					if (tempFile.exists())
+						FileUtils.deleteFile(tempFile);
+				}
+			}
+			return textFile;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	class LogStream extends InputStream {
 
-		private ObjectInputStream ois;
+		private LogFile.Reader reader;
 		
 		private final Lock lock;
 
@@ -393,10 +572,7 @@ public class DefaultLogManager implements LogManager {
 			lock = LockUtils.getReadWriteLock(getLockKey(build.getId())).readLock();
 			lock.lock();
 			try {
-				File logFile = getLogFile(build.getProject().getId(), build.getNumber());
-				
-				if (logFile.exists())
-					ois = new ObjectInputStream(new BufferedInputStream(new FileInputStream(logFile)));
+				reader = getLogFile(build.getProject().getId(), build.getNumber()).openReader(0);
 				
 				LogSnippet snippet = recentSnippets.get(build.getId());
 				if (snippet != null) {
@@ -430,21 +606,9 @@ public class DefaultLogManager implements LogManager {
 		@Override
 		public int read() throws IOException {
 			if (pos == buffer.length) {
-				if (ois != null) {
-					try {
-						buffer = (renderAsText((JobLogEntry) ois.readObject()) + "\n").getBytes(StandardCharsets.UTF_8);
-					} catch (EOFException e) {
-						IOUtils.closeQuietly(ois);
-						ois = null;
-						if (recentBuffer != null) {
-							buffer = recentBuffer;
-							recentBuffer = null;
-						} else {
-							return -1;
-						}
-					} catch (ClassNotFoundException e) {
-						throw new RuntimeException(e);
-					}
+				JobLogEntry entry;
+				if (reader != null && (entry = reader.read()) != null) {
+					buffer = (renderAsText(entry) + "\n").getBytes(StandardCharsets.UTF_8);
 				} else if (recentBuffer != null) {
 					buffer = recentBuffer;
 					recentBuffer = null;
@@ -460,9 +624,26 @@ public class DefaultLogManager implements LogManager {
 		
 		@Override
 		public void close() throws IOException {
-			IOUtils.closeQuietly(ois);
+			if (reader != null)
+				reader.close();
 			lock.unlock();
 		}
 				
 	}
-}
+	
+	private static class PendingLog {
+		
+		final Long projectId;
+		
+		final Long buildNumber;
+		
+		final Queue<JobLogEntry> entries = new ConcurrentLinkedQueue<>();
+		
+		PendingLog(Long projectId, Long buildNumber) {
+			this.projectId = projectId;
+			this.buildNumber = buildNumber;
+		}
+		
+	}
+	
+}
\ No newline at end of file
@@ -0,0 +1,267 @@
+package io.onedev.server.buildspec.job.log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * Append-only binary storage of job log entries. Each entry is stored in the data file as
+ * its timestamp, length of its UTF-8 encoded message, and the message itself. Offset of
+ * every {@link #INDEX_INTERVAL}th entry is recorded in the index file, so that reading
+ * from arbitrary entry only needs to skip less than {@link #INDEX_INTERVAL} entries.
+ * <p>
+ * This class is not thread-safe, caller should synchronize access to the same log.
+ */
+public class LogFile {
+
+	static final int INDEX_INTERVAL = 1000;
+
+	private static final int OFFSET_SIZE = Long.BYTES;
+
+	private final File dataFile;
+
+	private final File indexFile;
+
+	public LogFile(File dataFile, File indexFile) {
+		this.dataFile = dataFile;
+		this.indexFile = indexFile;
+	}
+
+	public boolean exists() {
+		return dataFile.exists();
+	}
+
+	public void append(Collection<JobLogEntry> entries) {
+		int index;
+		try {
+			index = recover();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		long offset = dataFile.length();
+		try (	DataOutputStream dataOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(dataFile, true)));
+				DataOutputStream indexOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile, true)))) {
+			for (JobLogEntry entry: entries) {
+				if (index % INDEX_INTERVAL == 0)
+					indexOut.writeLong(offset);
+				byte[] bytes = entry.getMessage().getBytes(StandardCharsets.UTF_8);
+				dataOut.writeLong(entry.getDate().getTime());
+				dataOut.writeInt(bytes.length);
+				dataOut.write(bytes);
+				offset += Long.BYTES + Integer.BYTES + bytes.length;
+				index++;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	/*
+	 * Server may crash while appending, leaving a partially written entry, or entries without
+	 * matching index record, or index record without matching entry. Truncate data file and
+	 * index file to last valid entry, so that subsequent entries are appended and indexed at
+	 * correct offset
+	 *
+	 * @return
+	 * 			number of valid entries
+	 */
+	private int recover() throws IOException {
+		long dataLength = dataFile.exists()? dataFile.length(): 0;
+		int indexedCount = (int) (indexFile.length() / OFFSET_SIZE);
+		long validLength = 0;
+		while (indexedCount != 0) {
+			try (RandomAccessFile indexAccess = new RandomAccessFile(indexFile, "r")) {
+				indexAccess.seek((long)(indexedCount-1) * OFFSET_SIZE);
+				validLength = indexAccess.readLong();
+			}
+			if (validLength >= 0 && validLength < dataLength)
+				break;
+			indexedCount--;
+		}
+		
+		int count = 0;
+		if (indexedCount != 0) {
+			count = (indexedCount-1) * INDEX_INTERVAL;
+			try (RandomAccessFile dataAccess = new RandomAccessFile(dataFile, "r")) {
+				dataAccess.seek(validLength);
+				DataInputStream input = new DataInputStream(new BufferedInputStream(
+						Channels.newInputStream(dataAccess.getChannel())));
+				// entries after next index position are not indexed
+				while (count < indexedCount * INDEX_INTERVAL
+						&& validLength + Long.BYTES + Integer.BYTES <= dataLength) {
+					input.readLong();
+					int length = input.readInt();
+					long entryLength = Long.BYTES + Integer.BYTES + length;
+					if (length < 0 || validLength + entryLength > dataLength || input.skipBytes(length) != length)
+						break;
+					validLength += entryLength;
+					count++;
+				}
+			}
+		}
+		
+		if (indexFile.exists() && indexFile.length() != (long)indexedCount * OFFSET_SIZE) {
+			try (RandomAccessFile indexAccess = new RandomAccessFile(indexFile, "rw")) {
+				indexAccess.setLength((long)indexedCount * OFFSET_SIZE);
+			}
+		}
+		if (dataLength != validLength) {
+			try (RandomAccessFile dataAccess = new RandomAccessFile(dataFile, "rw")) {
+				dataAccess.setLength(validLength);
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * @return
+	 * 			number of entries in the log, calculated by only reading entries after last
+	 * 			indexed one
+	 */
+	public int count() {
+		int indexedCount = (int) (indexFile.length() / OFFSET_SIZE);
+		if (indexedCount != 0) {
+			int lastIndexed = (indexedCount - 1) * INDEX_INTERVAL;
+			try (Reader reader = openReader(lastIndexed)) {
+				int count = lastIndexed;
+				while (reader.skip())
+					count++;
+				return count;
+			}
+		} else {
+			return 0;
+		}
+	}
+
+	/**
+	 * Read entries starting from specified index
+	 *
+	 * @param count
+	 * 			number of entries to read, <tt>0</tt> to read all remaining entries
+	 */
+	public List<JobLogEntry> read(int from, int count) {
+		List<JobLogEntry> entries = new ArrayList<>();
+		try (Reader reader = openReader(from)) {
+			JobLogEntry entry;
+			while ((count == 0 || entries.size() < count) && (entry = reader.read()) != null)
+				entries.add(entry);
+		}
+		return entries;
+	}
+
+	/**
+	 * Open a reader positioned at entry of specified index. The reader reaches end
+	 * immediately if there are not that many entries
+	 */
+	public Reader openReader(int from) {
+		int chunk = from / INDEX_INTERVAL;
+		if (!dataFile.exists() || (long)(chunk+1) * OFFSET_SIZE > indexFile.length())
+			return new Reader(null);
+
+		try (RandomAccessFile indexAccess = new RandomAccessFile(indexFile, "r")) {
+			indexAccess.seek((long)chunk * OFFSET_SIZE);
+			long offset = indexAccess.readLong();
+			RandomAccessFile dataAccess = new RandomAccessFile(dataFile, "r");
+			try {
+				dataAccess.seek(offset);
+				Reader reader = new Reader(new DataInputStream(new BufferedInputStream(
+						Channels.newInputStream(dataAccess.getChannel()))));
+				for (int i=chunk*INDEX_INTERVAL; i<from; i++) {
+					if (!reader.skip())
+						break;
+				}
+				return reader;
+			} catch (Exception e) {
+				dataAccess.close();
+				throw e;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public void delete() {
+		dataFile.delete();
+		indexFile.delete();
+	}
+
+	public static class Reader implements Closeable {
+
+		private final DataInputStream input;
+
+		private boolean eof;
+
+		Reader(@Nullable DataInputStream input) {
+			this.input = input;
+			eof = input == null;
+		}
+
+		/**
+		 * @return
+		 * 			next entry, or <tt>null</tt> if end of log is reached
+		 */
+		@Nullable
+		public JobLogEntry read() {
+			if (!eof) {
+				try {
+					long time = input.readLong();
+					byte[] bytes = new byte[input.readInt()];
+					input.readFully(bytes);
+					return new JobLogEntry(new Date(time), new String(bytes, StandardCharsets.UTF_8));
+				} catch (EOFException e) {
+					// partially written entry is treated as end of log
+					eof = true;
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return null;
+		}
+
+		boolean skip() {
+			if (!eof) {
+				try {
+					input.readLong();
+					int length = input.readInt();
+					if (input.skipBytes(length) == length)
+						return true;
+					else
+						eof = true;
+				} catch (EOFException e) {
+					eof = true;
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+			return false;
+		}
+
+		@Override
+		public void close() {
+			if (input != null) {
+				try {
+					input.close();
+				} catch (IOException e) {
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+	}
+
+}
@@ -1,10 +1,13 @@
 package io.onedev.server.buildspec.job.log;
 
+import java.io.File;
 import java.io.InputStream;
 import java.util.Collection;
 import java.util.List;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
+
 import io.onedev.server.model.Build;
 import io.onedev.server.util.JobLogger;
 
@@ -45,4 +48,17 @@ public interface LogManager {
 	
 	InputStream openLogStream(Build build);
 	
+	/**
+	 * Get log of specified build rendered as text file. The file is rendered on first access 
+	 * and reused afterwards
+	 * 
+	 * @param build
+	 * 			build to get log text file of
+	 * @return
+	 * 			log text file, or <tt>null</tt> if build is still running and log should be 
+	 * 			read via {@link #openLogStream(Build)} instead
+	 */
+	@Nullable
+	File getLogTextFile(Build build);
+	
 }
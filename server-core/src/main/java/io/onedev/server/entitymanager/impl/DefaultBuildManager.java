@@ -1,6 +1,8 @@
 package io.onedev.server.entitymanager.impl;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
@@ -10,7 +12,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReadWriteLock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
@@ -42,8 +43,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.server.entitymanager.BuildDependenceManager;
@@ -80,11 +83,15 @@ import io.onedev.server.search.entity.build.BuildQuery;
 import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.ProjectScopedNumber;
 import io.onedev.server.util.SecurityUtils;
+import io.onedev.server.util.concurrent.Prioritized;
 import io.onedev.server.util.facade.BuildFacade;
+import io.onedev.server.util.facade.FacadeStore;
 import io.onedev.server.util.match.StringMatcher;
 import io.onedev.server.util.patternset.PatternSet;
 import io.onedev.server.util.schedule.SchedulableTask;
 import io.onedev.server.util.schedule.TaskScheduler;
+import io.onedev.server.util.work.BatchWorkManager;
+import io.onedev.server.util.work.BatchWorker;
 
 @Singleton
 public class DefaultBuildManager extends AbstractEntityManager<Build> implements BuildManager, SchedulableTask {
@@ -93,6 +100,12 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	
 	private static final int CLEANUP_BATCH = 5000;
 	
+	private static final int DELETE_BATCH = 100;
+	
+	private static final String CLEANUP_CHECKPOINT = "build-cleanup.checkpoint";
+	
+	private static final int DELETE_BUILD_DIR_PRIORITY = 100;
+	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultBuildManager.class);
 	
 	private final BuildParamManager buildParamManager;
@@ -111,9 +124,10 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	
 	private final TransactionManager transactionManager;
 	
-	private final Map<Long, BuildFacade> builds = new HashMap<>();
+	private final BatchWorkManager batchWorkManager;
 	
-	private final ReadWriteLock buildsLock = new ReentrantReadWriteLock();
+	// keyed by first 128 bits of commit hash
+	private final FacadeStore builds = new FacadeStore(2);
 	
 	private final Map<Long, Collection<String>> jobNames = new HashMap<>();
 	
@@ -121,12 +135,29 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	
 	private String taskId;
 	
+	private final BatchWorker buildDirDeleter = new BatchWorker("deleteBuildDirs") {
+
+		@Override
+		public void doWorks(Collection<Prioritized> works) {
+			for (Prioritized work: works) {
+				DeleteBuildDirWork deleteWork = (DeleteBuildDirWork) work;
+				File buildDir = storageManager.getBuildDir(deleteWork.projectId, deleteWork.buildNumber);
+				try {
+					FileUtils.deleteDir(buildDir);
+				} catch (Exception e) {
+					logger.error("Error deleting build directory: " + buildDir.getAbsolutePath(), e);
+				}
+			}
+		}
+		
+	};
+	
 	@Inject
 	public DefaultBuildManager(Dao dao, BuildParamManager buildParamManager, 
 			TaskScheduler taskScheduler, BuildDependenceManager buildDependenceManager,
 			GroupManager groupManager, StorageManager storageManager, 
 			ProjectManager projectManager, SessionManager sessionManager, 
-			TransactionManager transactionManager) {
+			TransactionManager transactionManager, BatchWorkManager batchWorkManager) {
 		super(dao);
 		this.buildParamManager = buildParamManager;
 		this.buildDependenceManager = buildDependenceManager;
@@ -136,6 +167,7 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 		this.taskScheduler = taskScheduler;
 		this.sessionManager = sessionManager;
 		this.transactionManager = transactionManager;
+		this.batchWorkManager = batchWorkManager;
 	}
 
 	@Transactional
@@ -143,18 +175,19 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	public void delete(Build build) {
     	super.delete(build);
     	
-		FileUtils.deleteDir(storageManager.getBuildDir(build.getProject().getId(), build.getNumber()));
+		Long projectId = build.getProject().getId();
 		Long buildId = build.getId();
+		Long buildNumber = build.getNumber();
 		transactionManager.runAfterCommit(new Runnable() {
 
 			@Override
 			public void run() {
-				buildsLock.writeLock().lock();
-				try {
-					builds.remove(buildId);
-				} finally {
-					buildsLock.writeLock().unlock();
-				}
+				builds.remove(projectId, buildId);
+				
+				// Build directory may be large, remove it off the committing thread. Directories
+				// are removed by a single worker in batches so that deleting lots of builds does
+				// not flood the thread pool
+				batchWorkManager.submit(buildDirDeleter, new DeleteBuildDirWork(projectId, buildNumber));
 			}
 		});
 	}
@@ -192,12 +225,7 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 
 			@Override
 			public void run() {
-				buildsLock.writeLock().lock();
-				try {
-					builds.put(facade.getId(), facade);
-				} finally {
-					buildsLock.writeLock().unlock();
-				}
+				builds.put(facade.getProjectId(), facade.getId(), getCommitKey(facade.getCommitHash()));
 				jobNamesLock.writeLock().lock();
 				try {
 					populateJobNames(facade.getProjectId(), jobName);
@@ -218,16 +246,7 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 
 				@Override
 				public void run() {
-					buildsLock.writeLock().lock();
-					try {
-						for (Iterator<Map.Entry<Long, BuildFacade>> it = builds.entrySet().iterator(); it.hasNext();) {
-							BuildFacade build = it.next().getValue();
-							if (build.getProjectId().equals(projectId))
-								it.remove();
-						}
-					} finally {
-						buildsLock.writeLock().unlock();
-					}
+					builds.remove(projectId);
 					jobNamesLock.writeLock().lock();
 					try {
 						for (Iterator<Map.Entry<Long, Collection<String>>> it = jobNames.entrySet().iterator(); it.hasNext();) {
@@ -559,66 +578,153 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 		return maxId!=null?maxId:0;
 	}
 
+	/*
+	 * Clean up builds project by project. Builds to be deleted are located via id ranges, and 
+	 * deleted in small transactions. Id of last cleaned project is written to a checkpoint 
+	 * file, so that an interrupted cleanup resumes from next project in next run
+	 */
 	@Override
 	public void execute() {
+		long time = System.currentTimeMillis();
 		long maxId = getMaxId();
-		Collection<Long> idsToPreserve = new HashSet<>();
 		
-		sessionManager.run(new Runnable() {
+		File checkpointFile = new File(Bootstrap.getSiteDir(), CLEANUP_CHECKPOINT);
+		long checkpoint = 0;
+		if (checkpointFile.exists()) {
+			try {
+				checkpoint = Long.parseLong(FileUtils.readFileToString(checkpointFile, StandardCharsets.UTF_8).trim());
+				logger.info("Resuming build cleanup after project {}...", checkpoint);
+			} catch (Exception e) {
+				logger.error("Error reading build cleanup checkpoint", e);
+			}
+		}
+		
+		long lastProjectId = checkpoint;
+		List<Long> projectIds = sessionManager.call(new Callable<List<Long>>() {
 
+			@SuppressWarnings("unchecked")
 			@Override
-			public void run() {
-				for (Project project: projectManager.query()) {
-					logger.debug("Populating preserved build ids of project '" + project.getName() + "'...");
-					List<BuildPreservation> preservations = project.getBuildSetting().getBuildPreservations();
-					if (preservations.isEmpty()) {
-						idsToPreserve.addAll(queryIds(project, new BuildQuery(), 0, Integer.MAX_VALUE));
-					} else {
-						for (BuildPreservation preservation: preservations) {
-							try {
-								BuildQuery query = BuildQuery.parse(project, preservation.getCondition(), false, false);
-								int count;
-								if (preservation.getCount() != null)
-									count = preservation.getCount();
-								else
-									count = Integer.MAX_VALUE;
-								idsToPreserve.addAll(queryIds(project, query, 0, count));
-							} catch (Exception e) {
-								String message = String.format("Error parsing build preserve condition(project: %s, condition: %s)", 
-										project.getName(), preservation.getCondition());
-								logger.error(message, e);
-								idsToPreserve.addAll(queryIds(project, new BuildQuery(), 0, Integer.MAX_VALUE));
-							}
-						}
-					}
-				}
+			public List<Long> call() throws Exception {
+				Query<?> query = getSession().createQuery("select id from Project where id>:lastProjectId order by id");
+				query.setParameter("lastProjectId", lastProjectId);
+				return (List<Long>) query.list();
 			}
 			
 		});
 
-		EntityCriteria<Build> criteria = newCriteria();
-		AtomicInteger firstResult = new AtomicInteger(0);
+		int checkedCount = 0;
+		int deletedCount = 0;
+		for (Long projectId: projectIds) {
+			int[] counts = cleanup(projectId, maxId);
+			checkedCount += counts[0];
+			deletedCount += counts[1];
+			FileUtils.writeFile(checkpointFile, String.valueOf(projectId));
+		}
+		FileUtils.deleteFile(checkpointFile);
 		
-		while (transactionManager.call(new Callable<Boolean>() {
+		long elapsed = System.currentTimeMillis() - time;
+		logger.info("Build cleanup finished (projects: {}, checked builds: {}, deleted builds: {}, "
+				+ "elapsed: {} ms, throughput: {} builds/s)", projectIds.size(), checkedCount, deletedCount, 
+				elapsed, checkedCount * 1000L / Math.max(elapsed, 1));
+	}
+	
+	/*
+	 * @return
+	 * 			number of checked builds and number of deleted builds
+	 */
+	private int[] cleanup(Long projectId, long maxId) {
+		Collection<Long> idsToPreserve = sessionManager.call(new Callable<Collection<Long>>() {
 
 			@Override
-			public Boolean call() {
-				List<Build> builds = query(criteria, firstResult.get(), CLEANUP_BATCH);
-				if (!builds.isEmpty()) {
-					logger.debug("Checking build preservation: {}->{}", 
-							firstResult.get()+1, firstResult.get()+builds.size());
+			public Collection<Long> call() throws Exception {
+				return getIdsToPreserve(projectManager.load(projectId));
+			}
+			
+		});
+		
+		int checkedCount = 0;
+		int deletedCount = 0;
+		long lastId = 0;
+		while (true) {
+			long fromId = lastId;
+			List<Long> candidateIds = sessionManager.call(new Callable<List<Long>>() {
+
+				@SuppressWarnings("unchecked")
+				@Override
+				public List<Long> call() throws Exception {
+					Query<?> query = getSession().createQuery("select id from Build where project.id=:projectId "
+							+ "and id>:fromId and id<=:maxId and status in :statuses order by id");
+					query.setParameter("projectId", projectId);
+					query.setParameter("fromId", fromId);
+					query.setParameter("maxId", maxId);
+					query.setParameterList("statuses", Lists.newArrayList(Status.SUCCESSFUL, Status.FAILED, 
+							Status.CANCELLED, Status.TIMED_OUT));
+					query.setMaxResults(CLEANUP_BATCH);
+					return (List<Long>) query.list();
 				}
-				for (Build build: builds) {
-					if (build.isFinished() && build.getId() <= maxId && !idsToPreserve.contains(build.getId())) {
-						logger.debug("Deleting build " + build.getFQN() + "...");
-						delete(build);
+				
+			});
+			if (candidateIds.isEmpty())
+				break;
+			
+			checkedCount += candidateIds.size();
+			lastId = candidateIds.get(candidateIds.size()-1);
+			
+			List<Long> idsToDelete = new ArrayList<>();
+			for (Long id: candidateIds) {
+				if (!idsToPreserve.contains(id))
+					idsToDelete.add(id);
+			}
+			for (List<Long> batch: Lists.partition(idsToDelete, DELETE_BATCH)) {
+				transactionManager.run(new Runnable() {
+
+					@Override
+					public void run() {
+						EntityCriteria<Build> criteria = newCriteria();
+						criteria.add(Restrictions.in(Build.PROP_ID, batch));
+						for (Build build: query(criteria)) {
+							logger.debug("Deleting build " + build.getFQN() + "...");
+							delete(build);
+						}
 					}
-				}
-				firstResult.set(firstResult.get() + CLEANUP_BATCH);
-				return builds.size() == CLEANUP_BATCH;
+					
+				});
+				deletedCount += batch.size();
 			}
 			
-		})) {}
+			if (candidateIds.size() < CLEANUP_BATCH)
+				break;
+		}
+		
+		if (deletedCount != 0)
+			logger.debug("Deleted {} builds of project {}", deletedCount, projectId);
+		return new int[] {checkedCount, deletedCount};
+	}
+	
+	private Collection<Long> getIdsToPreserve(Project project) {
+		Collection<Long> idsToPreserve = new HashSet<>();
+		List<BuildPreservation> preservations = project.getBuildSetting().getBuildPreservations();
+		if (preservations.isEmpty()) {
+			idsToPreserve.addAll(queryIds(project, new BuildQuery(), 0, Integer.MAX_VALUE));
+		} else {
+			for (BuildPreservation preservation: preservations) {
+				try {
+					BuildQuery query = BuildQuery.parse(project, preservation.getCondition(), false, false);
+					int count;
+					if (preservation.getCount() != null)
+						count = preservation.getCount();
+					else
+						count = Integer.MAX_VALUE;
+					idsToPreserve.addAll(queryIds(project, query, 0, count));
+				} catch (Exception e) {
+					String message = String.format("Error parsing build preserve condition(project: %s, condition: %s)", 
+							project.getName(), preservation.getCondition());
+					logger.error(message, e);
+					idsToPreserve.addAll(queryIds(project, new BuildQuery(), 0, Integer.MAX_VALUE));
+				}
+			}
+		}
+		return idsToPreserve;
 	}
 
 	@Override
@@ -631,11 +737,11 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	public void on(SystemStarted event) {
 		logger.info("Caching build info...");
 		
-		Query<?> query = dao.getSession().createQuery("select id, project.id, commitHash, jobName from Build");
+		Query<?> query = dao.getSession().createQuery("select id, project.id, commitHash, jobName from Build order by id");
 		for (Object[] fields: (List<Object[]>)query.list()) {
 			Long buildId = (Long) fields[0];
 			Long projectId = (Long)fields[1];
-			builds.put(buildId, new BuildFacade(buildId, projectId, (String)fields[2]));
+			builds.put(projectId, buildId, getCommitKey((String)fields[2]));
 			populateJobNames(projectId, (String)fields[3]);
 		}
 		taskId = taskScheduler.schedule(this);
@@ -725,34 +831,21 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 	
 	@Override
 	public Collection<Long> getIdsByProject(Long projectId) {
-		buildsLock.readLock().lock();
-		try {
-			Collection<Long> buildIds = new HashSet<>();
-			for (BuildFacade build: builds.values()) {
-				if (build.getProjectId().equals(projectId))
-					buildIds.add(build.getId());
-			}
-			return buildIds;
-		} finally {
-			buildsLock.readLock().unlock();
-		}
+		return builds.getIds(projectId);
 	}
 
 	@Override
 	public Collection<Long> filterIds(Long projectId, Collection<String> commitHashes) {
-		buildsLock.readLock().lock();
-		try {
-			Collection<Long> buildIds = new HashSet<>();
-			for (BuildFacade build: builds.values()) {
-				if (build.getProjectId().equals(projectId) 
-						&& commitHashes.contains(build.getCommitHash())) {
-					buildIds.add(build.getId());
-				}
-			}
-			return buildIds;
-		} finally {
-			buildsLock.readLock().unlock();
-		}
+		Collection<long[]> commitKeys = new ArrayList<>();
+		for (String commitHash: commitHashes)
+			commitKeys.add(getCommitKey(commitHash));
+		return builds.getIds(projectId, commitKeys);
+	}
+	
+	private static long[] getCommitKey(String commitHash) {
+		return new long[] {
+				Long.parseUnsignedLong(commitHash.substring(0, 16), 16), 
+				Long.parseUnsignedLong(commitHash.substring(16, 32), 16)};
 	}
 	
 	private void populateJobNames(Long projectId, String jobName) {
@@ -854,4 +947,18 @@ public class DefaultBuildManager extends AbstractEntityManager<Build> implements
 		}
 	}
 
+	private static class DeleteBuildDirWork extends Prioritized {
+		
+		private final Long projectId;
+		
+		private final Long buildNumber;
+		
+		public DeleteBuildDirWork(Long projectId, Long buildNumber) {
+			super(DELETE_BUILD_DIR_PRIORITY);
+			this.projectId = projectId;
+			this.buildNumber = buildNumber;
+		}
+		
+	}
+	
 }
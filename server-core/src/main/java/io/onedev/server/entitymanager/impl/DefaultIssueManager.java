@@ -3,13 +3,10 @@ package io.onedev.server.entitymanager.impl;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
@@ -76,6 +73,7 @@ import io.onedev.server.security.permission.AccessProject;
 import io.onedev.server.util.MilestoneAndState;
 import io.onedev.server.util.ProjectScopedNumber;
 import io.onedev.server.util.SecurityUtils;
+import io.onedev.server.util.facade.FacadeStore;
 import io.onedev.server.util.facade.IssueFacade;
 import io.onedev.server.util.inputspec.choiceinput.choiceprovider.SpecifiedChoices;
 import io.onedev.server.web.component.issue.workflowreconcile.UndefinedFieldResolution;
@@ -104,9 +102,8 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 	
 	private final RoleManager roleManager;
 	
-	private final Map<Long, IssueFacade> issues = new HashMap<>();
-	
-	private final ReadWriteLock issuesLock = new ReentrantReadWriteLock();
+	// keyed by issue number
+	private final FacadeStore issues = new FacadeStore(1);
 	
 	@Inject
 	public DefaultIssueManager(Dao dao, IssueFieldManager issueFieldManager, 
@@ -130,11 +127,9 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 	public void on(SystemStarted event) {
 		logger.info("Caching issue info...");
 		
-		Query<?> query = dao.getSession().createQuery("select id, project.id, number from Issue");
-		for (Object[] fields: (List<Object[]>)query.list()) {
-			Long issueId = (Long) fields[0];
-			issues.put(issueId, new IssueFacade(issueId, (Long)fields[1], (Long)fields[2]));
-		}
+		Query<?> query = dao.getSession().createQuery("select id, project.id, number from Issue order by id");
+		for (Object[] fields: (List<Object[]>)query.list()) 
+			issues.put((Long)fields[1], (Long)fields[0], (Long)fields[2]);
 	}
 	
 	@Sessional
@@ -189,12 +184,7 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 
 			@Override
 			public void run() {
-				issuesLock.writeLock().lock();
-				try {
-					issues.put(facade.getId(), facade);
-				} finally {
-					issuesLock.writeLock().unlock();
-				}
+				issues.put(facade.getProjectId(), facade.getId(), facade.getNumber());
 			}
 			
 		});
@@ -640,17 +630,13 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 	public void delete(Issue issue) {
 		super.delete(issue);
 		
+		Long projectId = issue.getProject().getId();
 		Long issueId = issue.getId();
 		transactionManager.runAfterCommit(new Runnable() {
 
 			@Override
 			public void run() {
-				issuesLock.writeLock().lock();
-				try {
-					issues.remove(issueId);
-				} finally {
-					issuesLock.writeLock().unlock();
-				}
+				issues.remove(projectId, issueId);
 			}
 		});
 	}
@@ -664,16 +650,7 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 
 				@Override
 				public void run() {
-					issuesLock.writeLock().lock();
-					try {
-						for (Iterator<Map.Entry<Long, IssueFacade>> it = issues.entrySet().iterator(); it.hasNext();) {
-							IssueFacade issue = it.next().getValue();
-							if (issue.getProjectId().equals(projectId))
-								it.remove();
-						}
-					} finally {
-						issuesLock.writeLock().unlock();
-					}
+					issues.remove(projectId);
 				}
 			});
 		}
@@ -681,17 +658,7 @@ public class DefaultIssueManager extends AbstractEntityManager<Issue> implements
 
 	@Override
 	public Collection<Long> getIssueNumbers(Long projectId) {
-		issuesLock.readLock().lock();
-		try {
-			Collection<Long> issueNumbers = new HashSet<>();
-			for (IssueFacade issue: issues.values()) {
-				if (projectId.equals(issue.getProjectId()))
-					issueNumbers.add(issue.getNumber());
-			}
-			return issueNumbers;
-		} finally {
-			issuesLock.readLock().unlock();
-		}
+		return issues.getKeys(projectId, 0);
 	}
 
 	@Sessional
@@ -13,7 +13,6 @@ import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.stream.Collectors;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -48,7 +47,6 @@ import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.entitymanager.BuildManager;
-import io.onedev.server.entitymanager.GroupManager;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.entitymanager.RoleManager;
 import io.onedev.server.entitymanager.SettingManager;
@@ -62,10 +60,7 @@ import io.onedev.server.git.GitUtils;
 import io.onedev.server.git.command.CloneCommand;
 import io.onedev.server.infomanager.CommitInfoManager;
 import io.onedev.server.model.Build;
-import io.onedev.server.model.Group;
-import io.onedev.server.model.GroupAuthorization;
 import io.onedev.server.model.Issue;
-import io.onedev.server.model.Membership;
 import io.onedev.server.model.Project;
 import io.onedev.server.model.PullRequest;
 import io.onedev.server.model.User;
@@ -85,6 +80,7 @@ import io.onedev.server.search.entity.EntityQuery;
 import io.onedev.server.search.entity.EntitySort;
 import io.onedev.server.search.entity.EntitySort.Direction;
 import io.onedev.server.search.entity.project.ProjectQuery;
+import io.onedev.server.security.AuthorizationManager;
 import io.onedev.server.security.permission.AccessProject;
 import io.onedev.server.util.SecurityUtils;
 import io.onedev.server.util.Usage;
@@ -103,8 +99,6 @@ public class DefaultProjectManager extends AbstractEntityManager<Project>
     
     private final BuildManager buildManager;
     
-    private final GroupManager groupManager;
-    
     private final AvatarManager avatarManager;
     
     private final SettingManager settingManager;
@@ -121,6 +115,8 @@ public class DefaultProjectManager extends AbstractEntityManager<Project>
     
     private final UserAuthorizationManager userAuthorizationManager;
     
+    private final AuthorizationManager authorizationManager;
+    
     private final String gitReceiveHook;
     
 	private final Map<Long, Repository> repositoryCache = new ConcurrentHashMap<>();
@@ -131,16 +127,15 @@ public class DefaultProjectManager extends AbstractEntityManager<Project>
 	
     @Inject
     public DefaultProjectManager(Dao dao, CommitInfoManager commitInfoManager,  
-    		BuildManager buildManager, AvatarManager avatarManager, GroupManager groupManager,
+    		BuildManager buildManager, AvatarManager avatarManager,
     		SettingManager settingManager, TransactionManager transactionManager, 
     		SessionManager sessionManager, ListenerRegistry listenerRegistry, 
     		TaskScheduler taskScheduler, UserAuthorizationManager userAuthorizationManager, 
-    		RoleManager roleManager) {
+    		RoleManager roleManager, AuthorizationManager authorizationManager) {
     	super(dao);
     	
         this.commitInfoManager = commitInfoManager;
         this.buildManager = buildManager;
-        this.groupManager = groupManager;
         this.avatarManager = avatarManager;
         this.settingManager = settingManager;
         this.transactionManager = transactionManager;
@@ -149,6 +144,7 @@ public class DefaultProjectManager extends AbstractEntityManager<Project>
         this.taskScheduler = taskScheduler;
         this.userAuthorizationManager = userAuthorizationManager;
         this.roleManager = roleManager;
+        this.authorizationManager = authorizationManager;
         
         try (InputStream is = getClass().getClassLoader().getResourceAsStream("git-receive-hook")) {
         	Preconditions.checkNotNull(is);
@@ -514,26 +510,8 @@ public class DefaultProjectManager extends AbstractEntityManager<Project>
 		if (SecurityUtils.isAdministrator()) {
 			projects.addAll(query());
 		} else {
-			User user = SecurityUtils.getUser();
-			if (user != null) {
-				for (Membership membership: user.getMemberships()) {
-					for (GroupAuthorization authorization: membership.getGroup().getProjectAuthorizations()) {
-						if (authorization.getRole().implies(permission))
-							projects.add(authorization.getProject());
-					}
-				}
-				for (UserAuthorization authorization: user.getProjectAuthorizations()) { 
-					if (authorization.getRole().implies(permission))
-						projects.add(authorization.getProject());
-				}
-			}
-			Group group = groupManager.findAnonymous();
-			if (group != null) {
-				for (GroupAuthorization authorization: group.getProjectAuthorizations()) { 
-					if (authorization.getRole().implies(permission))
-						projects.add(authorization.getProject());
-				}
-			}
+			for (Long projectId: authorizationManager.getPermittedProjectIds(SecurityUtils.getUserId(), permission))
+				projects.add(load(projectId));
 		}
 		
 		return projects;
@@ -566,8 +544,8 @@ public class DefaultProjectManager extends AbstractEntityManager<Project>
 			Root<Project> root, CriteriaBuilder builder) {
 		List<Predicate> predicates = new ArrayList<>();
 		if (!SecurityUtils.isAdministrator()) {
-			Collection<Long> projectIds = getPermittedProjects(new AccessProject())
-					.stream().map(it->it.getId()).collect(Collectors.toSet());
+			Collection<Long> projectIds = authorizationManager.getPermittedProjectIds(
+					SecurityUtils.getUserId(), new AccessProject());
 			if (!projectIds.isEmpty())
 				predicates.add(root.get(Project.PROP_ID).in(projectIds));
 			else
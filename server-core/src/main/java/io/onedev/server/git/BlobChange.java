@@ -14,7 +14,9 @@ import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import com.google.common.base.Preconditions;
 
 import io.onedev.commons.jsyntax.Tokenized;
+import io.onedev.server.OneDev;
 import io.onedev.server.util.diff.DiffBlock;
+import io.onedev.server.util.diff.DiffCacheManager;
 import io.onedev.server.util.diff.DiffUtils;
 import io.onedev.server.util.diff.WhitespaceOption;
 import io.onedev.server.util.diff.DiffMatchPatch.Operation;
@@ -89,45 +91,31 @@ public abstract class BlobChange implements Serializable {
 				if (type == ChangeType.ADD || type == ChangeType.COPY) {
 					if (getNewText() != null) {
 						List<String> newLines = getNewText().getLines();
-						if (newLines.size() <= DiffUtils.MAX_DIFF_SIZE) {
-							List<String> oldLines = new ArrayList<>();
-							diffBlocks = DiffUtils.diff(
-									oldLines, "a.txt", 
-									newLines, newBlobIdent.isFile()?newBlobIdent.path:"b.txt", 
-									WhitespaceOption.DEFAULT);
-						} else {
-							diffBlocks = new ArrayList<>();
-						}
+						List<String> oldLines = new ArrayList<>();
+						diffBlocks = DiffUtils.diff(
+								oldLines, "a.txt", 
+								newLines, newBlobIdent.isFile()?newBlobIdent.path:"b.txt", 
+								WhitespaceOption.DEFAULT);
 					} else {
 						diffBlocks = new ArrayList<>();
 					}
 				} else if (type == ChangeType.DELETE) {
 					if (getOldText() != null) {
 						List<String> oldLines = getOldText().getLines();
-						if (oldLines.size() <= DiffUtils.MAX_DIFF_SIZE) {
-							List<String> newLines = new ArrayList<>();
-							diffBlocks = DiffUtils.diff(
-									oldLines, oldBlobIdent.isFile()?oldBlobIdent.path:"a.txt", 
-									newLines, "b.txt", 
-									WhitespaceOption.DEFAULT);
-						} else {
-							diffBlocks = new ArrayList<>();
-						}
+						List<String> newLines = new ArrayList<>();
+						diffBlocks = DiffUtils.diff(
+								oldLines, oldBlobIdent.isFile()?oldBlobIdent.path:"a.txt", 
+								newLines, "b.txt", 
+								WhitespaceOption.DEFAULT);
 					} else {
 						diffBlocks = new ArrayList<>();
 					}
 				} else {
 					if (getOldText() != null && getNewText() != null) {
-						List<String> oldLines = getOldText().getLines();
-						List<String> newLines = getNewText().getLines();
-						if (oldLines.size() + newLines.size() <= DiffUtils.MAX_DIFF_SIZE) {
-							diffBlocks = DiffUtils.diff(
-									oldLines, oldBlobIdent.isFile()?newBlobIdent.path:"a.txt", 
-									newLines, newBlobIdent.isFile()?newBlobIdent.path:"b.txt", 
-									whitespaceOption);
-						} else { 
-							diffBlocks = new ArrayList<>();
-						}
+						diffBlocks = OneDev.getInstance(DiffCacheManager.class).diff(
+								getOldBlob(), oldBlobIdent.isFile()?newBlobIdent.path:"a.txt", 
+								getNewBlob(), newBlobIdent.isFile()?newBlobIdent.path:"b.txt", 
+								whitespaceOption);
 					} else {
 						diffBlocks = new ArrayList<>();
 					}
@@ -0,0 +1,198 @@
+package io.onedev.server.git;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.server.git.exception.ServerBusyException;
+
+@Singleton
+public class DefaultGitTransportScheduler implements GitTransportScheduler {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultGitTransportScheduler.class);
+
+	private static final long DEFAULT_ADMISSION_TIMEOUT = TimeUnit.MINUTES.toNanos(5);
+
+	private static final long SLOW_ADMISSION = TimeUnit.SECONDS.toNanos(10);
+
+	private final int maxTotal;
+
+	private final int maxPerUser;
+
+	private final int maxPerProject;
+
+	private final long admissionTimeout;
+
+	private final Lock lock = new ReentrantLock();
+
+	private final LinkedList<Admission> queue = new LinkedList<>();
+
+	private final Map<String, Integer> requesterCounts = new HashMap<>();
+
+	private final Map<Long, Integer> projectCounts = new HashMap<>();
+
+	private int totalCount;
+
+	@Inject
+	public DefaultGitTransportScheduler() {
+		this(Math.max(4, Runtime.getRuntime().availableProcessors()*2));
+	}
+
+	public DefaultGitTransportScheduler(int maxTotal) {
+		this(maxTotal, Math.max(1, maxTotal/4), Math.max(1, maxTotal/2));
+	}
+
+	public DefaultGitTransportScheduler(int maxTotal, int maxPerUser, int maxPerProject) {
+		this(maxTotal, maxPerUser, maxPerProject, DEFAULT_ADMISSION_TIMEOUT);
+	}
+
+	DefaultGitTransportScheduler(int maxTotal, int maxPerUser, int maxPerProject, long admissionTimeout) {
+		this.maxTotal = maxTotal;
+		this.maxPerUser = maxPerUser;
+		this.maxPerProject = maxPerProject;
+		this.admissionTimeout = admissionTimeout;
+	}
+
+	@Override
+	public <T> T call(Long userId, @Nullable String remoteAddress, Long projectId, Callable<T> task)
+			throws InterruptedException, ExecutionException {
+		Admission admission = admit(getRequester(userId, remoteAddress), projectId);
+		try {
+			return task.call();
+		} catch (Exception e) {
+			throw new ExecutionException(e);
+		} finally {
+			release(admission);
+		}
+	}
+
+	/*
+	 * Anonymous requests all have user id 0, and are told apart by remote address instead
+	 */
+	private String getRequester(Long userId, @Nullable String remoteAddress) {
+		if (userId != 0L)
+			return "user:" + userId;
+		else
+			return "address:" + remoteAddress;
+	}
+	
+	private Admission admit(String requester, Long projectId) throws InterruptedException {
+		long time = System.nanoTime();
+		Admission admission;
+		int queued;
+		lock.lock();
+		try {
+			admission = new Admission(requester, projectId, lock.newCondition());
+			queue.add(admission);
+			dispatch();
+			queued = queue.size();
+			long nanos = admissionTimeout;
+			try {
+				while (!admission.admitted) {
+					if (nanos <= 0) {
+						queue.remove(admission);
+						logger.warn("Git request not admitted in time (requester: {}, project id: {}, queued: {})",
+								requester, projectId, queue.size());
+						throw new ServerBusyException("Server is too busy to serve git request, please retry later");
+					}
+					nanos = admission.condition.awaitNanos(nanos);
+				}
+			} catch (InterruptedException e) {
+				if (admission.admitted)
+					release(admission);
+				else
+					queue.remove(admission);
+				throw e;
+			}
+		} finally {
+			lock.unlock();
+		}
+
+		long waited = System.nanoTime() - time;
+		if (waited >= SLOW_ADMISSION) {
+			logger.info("Git request admitted after waiting {} ms (requester: {}, project id: {}, queued: {})",
+					TimeUnit.NANOSECONDS.toMillis(waited), requester, projectId, queued);
+		} else if (logger.isDebugEnabled()) {
+			logger.debug("Git request admitted after waiting {} ms (requester: {}, project id: {}, queued: {})",
+					TimeUnit.NANOSECONDS.toMillis(waited), requester, projectId, queued);
+		}
+		return admission;
+	}
+
+	private void release(Admission admission) {
+		lock.lock();
+		try {
+			totalCount--;
+			decrease(requesterCounts, admission.requester);
+			decrease(projectCounts, admission.projectId);
+			dispatch();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/*
+	 * Admit queued requests in arrival order. Requests blocked by their user or project quota
+	 * are skipped so that they do not hold up requests of other users and projects
+	 */
+	private void dispatch() {
+		for (Iterator<Admission> it = queue.iterator(); it.hasNext() && totalCount < maxTotal;) {
+			Admission admission = it.next();
+			if (getCount(requesterCounts, admission.requester) < maxPerUser
+					&& getCount(projectCounts, admission.projectId) < maxPerProject) {
+				it.remove();
+				totalCount++;
+				requesterCounts.put(admission.requester, getCount(requesterCounts, admission.requester) + 1);
+				projectCounts.put(admission.projectId, getCount(projectCounts, admission.projectId) + 1);
+				admission.admitted = true;
+				admission.condition.signal();
+			}
+		}
+	}
+
+	private <K> int getCount(Map<K, Integer> counts, K key) {
+		Integer count = counts.get(key);
+		return count != null? count: 0;
+	}
+
+	private <K> void decrease(Map<K, Integer> counts, K key) {
+		int count = getCount(counts, key) - 1;
+		if (count > 0)
+			counts.put(key, count);
+		else
+			counts.remove(key);
+	}
+
+	private static class Admission {
+
+		final String requester;
+
+		final Long projectId;
+
+		final Condition condition;
+
+		boolean admitted;
+
+		Admission(String requester, Long projectId, Condition condition) {
+			this.requester = requester;
+			this.projectId = projectId;
+			this.condition = condition;
+		}
+
+	}
+
+}
@@ -7,6 +7,7 @@ import java.io.OutputStream;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 
 import javax.inject.Inject;
@@ -37,31 +38,32 @@ import io.onedev.server.git.command.AdvertiseUploadRefsCommand;
 import io.onedev.server.git.command.ReceiveCommand;
 import io.onedev.server.git.command.UploadCommand;
 import io.onedev.server.git.exception.GitException;
+import io.onedev.server.git.exception.ServerBusyException;
 import io.onedev.server.model.Project;
 import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.security.CodePullAuthorizationSource;
 import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.SecurityUtils;
 import io.onedev.server.util.ServerConfig;
-import io.onedev.server.util.concurrent.PrioritizedRunnable;
-import io.onedev.server.util.work.WorkExecutor;
 
 @Singleton
 public class GitFilter implements Filter {
 	
 	private static final Logger logger = LoggerFactory.getLogger(GitFilter.class);
 
-	private static final int PRIORITY = 2;
-	
 	private static final String INFO_REFS = "info/refs";
 	
+	private static final String HEADER_RETRY_AFTER = "Retry-After";
+	
+	private static final int RETRY_AFTER_SECONDS = 60;
+	
 	private final OneDev oneDev;
 	
 	private final StorageManager storageManager;
 	
 	private final ProjectManager projectManager;
 	
-	private final WorkExecutor workExecutor;
+	private final GitTransportScheduler transportScheduler;
 	
 	private final ServerConfig serverConfig;
 	
@@ -73,12 +75,12 @@ public class GitFilter implements Filter {
 	
 	@Inject
 	public GitFilter(OneDev oneDev, StorageManager storageManager, ProjectManager projectManager, 
-			WorkExecutor workManager, ServerConfig serverConfig, SettingManager configManager,
+			GitTransportScheduler transportScheduler, ServerConfig serverConfig, SettingManager configManager,
 			SessionManager sessionManager, Set<CodePullAuthorizationSource> codePullAuthorizationSources) {
 		this.oneDev = oneDev;
 		this.storageManager = storageManager;
 		this.projectManager = projectManager;
-		this.workExecutor = workManager;
+		this.transportScheduler = transportScheduler;
 		this.serverConfig = serverConfig;
 		this.configManager = configManager;
 		this.sessionManager = sessionManager;
@@ -121,6 +123,7 @@ public class GitFilter implements Filter {
 			throws ServletException, IOException, InterruptedException, ExecutionException {
 		File gitDir;
 		boolean upload;
+		Long projectId;
 		Map<String, String> environments = new HashMap<>();
 		
 		sessionManager.openSession();
@@ -153,6 +156,7 @@ public class GitFilter implements Filter {
 			environments.put("GITPLEX_REPOSITORY_ID", project.getId().toString());
 			
 			gitDir = storageManager.getProjectGitDir(project.getId());
+			projectId = project.getId();
 
 			if (GitSmartHttpTools.isUploadPack(request)) {
 				checkPullPermission(request, project);
@@ -166,36 +170,32 @@ public class GitFilter implements Filter {
 			sessionManager.closeSession();
 		}
 		
+		Long userId = SecurityUtils.getUserId();
+		String remoteAddress = request.getHeader("X-Forwarded-For");
+		if (remoteAddress == null)
+			remoteAddress = request.getRemoteAddr();
 		if (upload) {
-			workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
+			transportScheduler.call(userId, remoteAddress, projectId, new Callable<Void>() {
 				
 				@Override
-				public void run() {
-					try {
-						InputStream is = ServletUtils.getInputStream(request);
-						OutputStream os = response.getOutputStream();
-						new UploadCommand(gitDir, environments).input(is).output(os).call();
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}
+				public Void call() throws Exception {
+					InputStream is = ServletUtils.getInputStream(request);
+					OutputStream os = response.getOutputStream();
+					return new UploadCommand(gitDir, environments).input(is).output(os).call();
 				}
 				
-			}).get();
+			});
 		} else {
-			workExecutor.submit(new PrioritizedRunnable(PRIORITY) {
+			transportScheduler.call(userId, remoteAddress, projectId, new Callable<Void>() {
 				
 				@Override
-				public void run() {
-					try {
-						InputStream is = ServletUtils.getInputStream(request);
-						OutputStream os = response.getOutputStream();
-						new ReceiveCommand(gitDir, environments).input(is).output(os).call();
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}
+				public Void call() throws Exception {
+					InputStream is = ServletUtils.getInputStream(request);
+					OutputStream os = response.getOutputStream();
+					return new ReceiveCommand(gitDir, environments).input(is).output(os).call();
 				}
 				
-			}).get();
+			});
 		}
 	}
 	
@@ -282,6 +282,10 @@ public class GitFilter implements Filter {
 			} else {
 				chain.doFilter(request, response);
 			}
+		} catch (ServerBusyException e) {
+			logger.warn("Rejected git request: " + e.getMessage());
+			httpResponse.setHeader(HEADER_RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDS));
+			GitSmartHttpTools.sendError(httpRequest, httpResponse, HttpServletResponse.SC_SERVICE_UNAVAILABLE, e.getMessage());
 		} catch (GitException|InterruptedException|ExecutionException e) {
 			logger.error("Error serving git request", e);
 			GitSmartHttpTools.sendError(httpRequest, httpResponse, HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e.getMessage());
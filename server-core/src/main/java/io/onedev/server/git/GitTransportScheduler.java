@@ -0,0 +1,41 @@
+package io.onedev.server.git;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+/**
+ * Admission control of git fetch/push requests over http and ssh. Git transport is kept
+ * off the shared work executor, so that a burst of clones does not starve background work
+ * such as indexing, and vice versa.
+ */
+public interface GitTransportScheduler {
+
+	/**
+	 * Run specified git transport task in calling thread once it is admitted. The task
+	 * waits in a fifo admission queue if total, per-user or per-project concurrency quota
+	 * is exhausted.
+	 *
+	 * @param userId
+	 * 			id of user issuing the git request, <tt>0</tt> for anonymous user
+	 * @param remoteAddress
+	 * 			address of the requester. Anonymous requests are accounted against per-user 
+	 * 			quota of this address. May be <tt>null</tt> if user is not anonymous
+	 * @param projectId
+	 * 			id of project the git request is against
+	 * @param task
+	 * 			task to run
+	 * @return
+	 * 			result of the task
+	 * @throws InterruptedException
+	 * 			if interrupted while waiting for admission
+	 * @throws ExecutionException
+	 * 			wrapping exception thrown by the task
+	 * @throws io.onedev.server.git.exception.ServerBusyException
+	 * 			if the task is not admitted within admission timeout
+	 */
+	<T> T call(Long userId, @Nullable String remoteAddress, Long projectId, Callable<T> task)
+			throws InterruptedException, ExecutionException;
+
+}
@@ -0,0 +1,44 @@
+package io.onedev.server.git.archive;
+
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.ObjectId;
+
+import io.onedev.server.model.Project;
+
+public interface ArchiveCacheManager {
+
+	/**
+	 * Open cached archive of specified commit
+	 *
+	 * @param commitId
+	 * 			commit to get archive of
+	 * @param format
+	 * 			archive format, either <tt>zip</tt> or <tt>tgz</tt>
+	 * @return
+	 * 			channel of cached archive, or <tt>null</tt> if archive is not cached yet. 
+	 * 			Caller is responsible for closing the channel
+	 */
+	@Nullable
+	FileChannel openArchive(ObjectId commitId, String format);
+
+	/**
+	 * Generate archive of specified commit into cache. Concurrent calls for the same commit
+	 * and format share a single generation, and the returned stream follows the archive as
+	 * it is being generated
+	 *
+	 * @param project
+	 * 			project containing the commit
+	 * @param commitId
+	 * 			commit to generate archive of
+	 * @param format
+	 * 			archive format, either <tt>zip</tt> or <tt>tgz</tt>
+	 * @return
+	 * 			stream of archive content. Caller is responsible for closing the stream
+	 */
+	InputStream generateArchive(Project project, ObjectId commitId, String format);
+
+}
@@ -0,0 +1,353 @@
+package io.onedev.server.git.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.eclipse.jgit.api.ArchiveCommand;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.archive.TgzFormat;
+import org.eclipse.jgit.archive.ZipFormat;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.model.Project;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
+
+/**
+ * Archives are generated into a temp file in background, and moved in place once done.
+ * Requests arriving during generation read the temp file as it grows, so that neither
+ * the requester nor the cache waits for the other. Cached archives are handed out as 
+ * opened channels, so that eviction does not affect archives being downloaded.
+ */
+@Singleton
+public class DefaultArchiveCacheManager implements ArchiveCacheManager, SchedulableTask {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultArchiveCacheManager.class);
+
+	private static final String CACHE_DIR = "cache/archive";
+
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	private static final long MAX_DISK_SIZE = 2048L*1024*1024;
+
+	private static final int BUFFER_SIZE = 64*1024;
+
+	private final TaskScheduler taskScheduler;
+
+	private final ExecutorService executorService;
+
+	// guarded by itself together with moving of generated archive into place
+	private final Map<String, Generation> generations = new HashMap<>();
+
+	private String taskId;
+
+	@Inject
+	public DefaultArchiveCacheManager(TaskScheduler taskScheduler, ExecutorService executorService) {
+		this.taskScheduler = taskScheduler;
+		this.executorService = executorService;
+	}
+
+	private File getCacheDir() {
+		return new File(Bootstrap.getSiteDir(), CACHE_DIR);
+	}
+
+	private String getKey(ObjectId commitId, String format) {
+		return commitId.name() + "." + format;
+	}
+
+	private File getCacheFile(String key) {
+		return new File(getCacheDir(), key.substring(0, 2) + "/" + key);
+	}
+
+	@Override
+	public FileChannel openArchive(ObjectId commitId, String format) {
+		File cacheFile = getCacheFile(getKey(commitId, format));
+		try {
+			// content of an opened file remains readable even if it is evicted afterwards
+			FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ);
+			cacheFile.setLastModified(System.currentTimeMillis());
+			return channel;
+		} catch (NoSuchFileException e) {
+			return null;
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public InputStream generateArchive(Project project, ObjectId commitId, String format) {
+		String key = getKey(commitId, format);
+		File cacheFile = getCacheFile(key);
+		Generation generation;
+		try {
+			synchronized (generations) {
+				try {
+					return Files.newInputStream(cacheFile.toPath());
+				} catch (NoSuchFileException e) {
+					// not cached yet, or evicted since looked up by caller
+				}
+				generation = generations.get(key);
+				if (generation == null) {
+					FileUtils.createDir(cacheFile.getParentFile());
+					File tempFile = new File(cacheFile.getParentFile(),
+							key + "." + UUID.randomUUID() + TEMP_SUFFIX);
+					generation = new Generation(tempFile);
+					Files.createFile(tempFile.toPath());
+					generations.put(key, generation);
+					generate(project.getRepository(), commitId, format, key, generation);
+				}
+				// open before generated archive is moved in place
+				return new GenerationInputStream(generation,
+						FileChannel.open(generation.tempFile.toPath(), StandardOpenOption.READ));
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void generate(Repository repository, ObjectId commitId, String format, String key,
+			Generation generation) {
+		executorService.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				long time = System.currentTimeMillis();
+				Exception error = null;
+				if (format.equals("zip"))
+					ArchiveCommand.registerFormat(format, new ZipFormat());
+				else
+					ArchiveCommand.registerFormat(format, new TgzFormat());
+				try (OutputStream os = new BufferedOutputStream(new FilterOutputStream(
+						Files.newOutputStream(generation.tempFile.toPath(), StandardOpenOption.WRITE)) {
+
+					@Override
+					public void write(byte[] b, int off, int len) throws IOException {
+						out.write(b, off, len);
+						generation.advance(len);
+					}
+
+					@Override
+					public void write(int b) throws IOException {
+						out.write(b);
+						generation.advance(1);
+					}
+
+				}, BUFFER_SIZE)) {
+					ArchiveCommand archive = Git.wrap(repository).archive();
+					archive.setFormat(format);
+					archive.setTree(commitId);
+					archive.setOutputStream(os);
+					archive.call();
+				} catch (Exception e) {
+					error = e;
+					logger.error("Error generating archive " + key, e);
+				} finally {
+					ArchiveCommand.unregisterFormat(format);
+				}
+
+				synchronized (generations) {
+					try {
+						if (error == null) {
+							Files.move(generation.tempFile.toPath(), getCacheFile(key).toPath(),
+									StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+						} else {
+							FileUtils.deleteFile(generation.tempFile);
+						}
+					} catch (Exception e) {
+						logger.error("Error caching archive " + key, e);
+					} finally {
+						generations.remove(key);
+					}
+				}
+				generation.finish(error);
+				logger.debug("Generated archive {} in {} ms", key, System.currentTimeMillis()-time);
+			}
+
+		});
+	}
+
+	@Listen
+	public void on(SystemStarted event) {
+		// remove archives left partially generated by last run
+		File cacheDir = getCacheDir();
+		if (cacheDir.exists()) {
+			for (File subDir: cacheDir.listFiles()) {
+				File[] files = subDir.listFiles();
+				if (files != null) {
+					for (File file: files) {
+						if (file.getName().endsWith(TEMP_SUFFIX))
+							FileUtils.deleteFile(file);
+					}
+				}
+			}
+		}
+		taskId = taskScheduler.schedule(this);
+	}
+
+	@Listen
+	public void on(SystemStopping event) {
+		taskScheduler.unschedule(taskId);
+	}
+
+	/*
+	 * Remove least recently used archives if cache directory grows too large. Archives are
+	 * touched when served, so last modified time reflects last access time
+	 */
+	@Override
+	public void execute() {
+		try {
+			File cacheDir = getCacheDir();
+			if (cacheDir.exists()) {
+				List<File> cacheFiles = new ArrayList<>();
+				long totalSize = 0;
+				for (File subDir: cacheDir.listFiles()) {
+					File[] files = subDir.listFiles();
+					if (files != null) {
+						for (File file: files) {
+							if (!file.getName().endsWith(TEMP_SUFFIX)) {
+								cacheFiles.add(file);
+								totalSize += file.length();
+							}
+						}
+					}
+				}
+				if (totalSize > MAX_DISK_SIZE) {
+					cacheFiles.sort(Comparator.comparing(File::lastModified));
+					for (File file: cacheFiles) {
+						if (totalSize <= MAX_DISK_SIZE*3/4)
+							break;
+						totalSize -= file.length();
+						try {
+							FileUtils.deleteFile(file);
+						} catch (Exception e) {
+							logger.error("Error deleting cached archive '" + file.getAbsolutePath() + "'", e);
+						}
+					}
+				}
+			}
+		} catch (Exception e) {
+			logger.error("Error cleaning up archive cache", e);
+		}
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatHourlyForever();
+	}
+
+	private static class Generation {
+
+		final File tempFile;
+
+		long written;
+
+		boolean finished;
+
+		Exception error;
+
+		Generation(File tempFile) {
+			this.tempFile = tempFile;
+		}
+
+		synchronized void advance(long count) {
+			written += count;
+			notifyAll();
+		}
+
+		synchronized void finish(Exception error) {
+			finished = true;
+			this.error = error;
+			notifyAll();
+		}
+
+		/*
+		 * Wait until content beyond specified position is written, or generation is finished
+		 */
+		synchronized long await(long position) throws IOException {
+			try {
+				while (written <= position && !finished)
+					wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+			if (error != null)
+				throw new IOException("Error generating archive", error);
+			return written;
+		}
+
+	}
+
+	private static class GenerationInputStream extends InputStream {
+
+		private final Generation generation;
+
+		private final FileChannel channel;
+
+		private long position;
+
+		GenerationInputStream(Generation generation, FileChannel channel) {
+			this.generation = generation;
+			this.channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			if (read(b, 0, 1) == -1)
+				return -1;
+			else
+				return b[0] & 0xff;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0)
+				return 0;
+			long written = generation.await(position);
+			if (written <= position)
+				return -1;
+			int count = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, written-position)), position);
+			if (count > 0)
+				position += count;
+			return count;
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+	}
+
+}
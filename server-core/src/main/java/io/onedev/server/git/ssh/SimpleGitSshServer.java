@@ -4,6 +4,7 @@ import java.io.IOException;
 import java.security.PublicKey;
 import java.text.MessageFormat;
 import java.util.Collections;
+import java.util.concurrent.Callable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 import org.apache.sshd.common.config.keys.KeyUtils;
@@ -20,6 +21,7 @@ import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.UploadPack;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.entitymanager.SshKeyManager;
+import io.onedev.server.git.GitTransportScheduler;
 import io.onedev.server.git.ssh.command.AbstractProjectAwareGitCommand;
 import io.onedev.server.git.ssh.util.SshServerUtils;
 import io.onedev.server.model.Project;
@@ -30,7 +32,6 @@ import io.onedev.server.persistence.dao.Dao;
 import io.onedev.server.security.permission.ReadCode;
 import io.onedev.server.security.permission.WriteCode;
 import io.onedev.server.util.ServerConfig;
-import io.onedev.server.util.work.WorkExecutor;
 
 @Singleton
 public class SimpleGitSshServer {
@@ -49,7 +50,7 @@ public class SimpleGitSshServer {
             ProjectManager projectManager,
             KeyPairProvider keyPairProvider,
             ServerConfig serverConfig,
-            WorkExecutor workExecutor,
+            GitTransportScheduler transportScheduler,
             SshKeyManager sshKeyManager,
             SessionManager sessionManager) {
         this.projectManager = projectManager;
@@ -63,9 +64,9 @@ public class SimpleGitSshServer {
         configureAuthentication();
         this.server.setCommandFactory(command -> {
             if (command.startsWith(RemoteConfig.DEFAULT_UPLOAD_PACK)) {
-                return new GitUploadPackCommand(command, workExecutor, projectManager);
+                return new GitUploadPackCommand(command, transportScheduler, projectManager);
             } else if (command.startsWith(RemoteConfig.DEFAULT_RECEIVE_PACK)) {
-                return new GitReceivePackCommand(command, workExecutor, projectManager);
+                return new GitReceivePackCommand(command, transportScheduler, projectManager);
             }
             return new UnknownCommand(command);
         });
@@ -129,8 +130,8 @@ public class SimpleGitSshServer {
     private class GitUploadPackCommand extends AbstractProjectAwareGitCommand {
 
 
-        public GitUploadPackCommand(String command, WorkExecutor workExecutor, ProjectManager projectManager) {
-            super(command, workExecutor, projectManager);
+        public GitUploadPackCommand(String command, GitTransportScheduler transportScheduler, ProjectManager projectManager) {
+            super(command, transportScheduler, projectManager);
         }
 
         @Override
@@ -161,10 +162,19 @@ public class SimpleGitSshServer {
                         .setExtraParameters(Collections.singleton(gitProtocol));
             }
             try {
-                uploadPack.upload(getInputStream(), getOutputStream(),
-                        getErrorStream());
+                // ssh requests are always authenticated, so remote address is not needed
+                transportScheduler.call(getUserId(), null, project.getId(), new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        uploadPack.upload(getInputStream(), getOutputStream(),
+                                getErrorStream());
+                        return null;
+                    }
+
+                });
                 onExit(0, "Ok");
-            } catch (IOException e) {
+            } catch (Exception e) {
                 log.warn(
                         MessageFormat.format("Could not run {0}", getCommand()),
                         e);
@@ -177,8 +187,8 @@ public class SimpleGitSshServer {
     private class GitReceivePackCommand extends AbstractProjectAwareGitCommand {
 
         
-        public GitReceivePackCommand(String command, WorkExecutor workExecutor, ProjectManager projectManager) {
-            super(command, workExecutor, projectManager);
+        public GitReceivePackCommand(String command, GitTransportScheduler transportScheduler, ProjectManager projectManager) {
+            super(command, transportScheduler, projectManager);
         }
 
         @Override
@@ -203,10 +213,18 @@ public class SimpleGitSshServer {
             }
             
             try {
-                new ReceivePack(project.getRepository()).receive(getInputStream(),
-                        getOutputStream(), getErrorStream());
+                transportScheduler.call(getUserId(), null, project.getId(), new Callable<Void>() {
+
+                    @Override
+                    public Void call() throws Exception {
+                        new ReceivePack(project.getRepository()).receive(getInputStream(),
+                                getOutputStream(), getErrorStream());
+                        return null;
+                    }
+
+                });
                 onExit(0, "Ok");
-            } catch (IOException e) {
+            } catch (Exception e) {
                 log.warn(
                         MessageFormat.format("Could not run {0}", getCommand()),
                         e);
@@ -17,10 +17,10 @@ import org.apache.sshd.server.session.ServerSessionHolder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.git.GitTransportScheduler;
 import io.onedev.server.git.ssh.util.SshServerUtils;
 import io.onedev.server.model.Project;
 import io.onedev.server.util.concurrent.PrioritizedRunnable;
-import io.onedev.server.util.work.WorkExecutor;
 
 public abstract class AbstractProjectAwareGitCommand
         implements Command, SessionAware, SessionHolder<Session>, ServerSessionHolder {
@@ -29,7 +29,7 @@ public abstract class AbstractProjectAwareGitCommand
     private static final int PRIORITY = 2;
 
     protected final String command;
-    protected final WorkExecutor workExecutor;
+    protected final GitTransportScheduler transportScheduler;
     private InputStream inputStream;
     private OutputStream outputStream;
     private OutputStream errorStream;
@@ -40,9 +40,9 @@ public abstract class AbstractProjectAwareGitCommand
     private ProjectManager projectManager;
 
 
-    public AbstractProjectAwareGitCommand(String command, WorkExecutor workExecutor, ProjectManager projectManager) {
+    public AbstractProjectAwareGitCommand(String command, GitTransportScheduler transportScheduler, ProjectManager projectManager) {
         this.command = command;
-        this.workExecutor = workExecutor;
+        this.transportScheduler = transportScheduler;
         this.projectManager = projectManager;
 
         this.log = LoggerFactory.getLogger(getClass());
@@ -137,10 +137,11 @@ public abstract class AbstractProjectAwareGitCommand
         this.session = session;
     }
 
+    protected Long getUserId() {
+        return getServerSession().getAttribute(SshServerUtils.SESSION_USER_ID);
+    }
+
     protected boolean isUserAllowed(Project project, Permission permission) {
-        ServerSession session = getServerSession();
-        Long userId = session.getAttribute(SshServerUtils.SESSION_USER_ID);
-        
-        return projectManager.isUserAuthorized(project, userId, permission);
+        return projectManager.isUserAuthorized(project, getUserId(), permission);
     }
 }
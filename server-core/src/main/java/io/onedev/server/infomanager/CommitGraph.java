@@ -0,0 +1,751 @@
+package io.onedev.server.infomanager;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+import io.onedev.commons.utils.FileUtils;
+
+/**
+ * In-memory commit graph of a project. Commits are mapped to int ordinals, and parent/child
+ * relations are stored as linked edge lists in primitive int arrays, so that traversals do
+ * not allocate objects per visited commit. 
+ * 
+ * The graph is persisted to a file as a header followed by a list of records. Each save 
+ * appends a record containing only commits, edges and collected marks added since last save, 
+ * and then updates stamp and valid length in the header, so that saving after each collection 
+ * does not rewrite the whole graph.
+ *
+ * This class is thread-safe.
+ *
+ */
+public class CommitGraph {
+
+	private static final int MAGIC = 0x4f444347;
+
+	private static final int VERSION = 2;
+
+	/*
+	 * magic, version, stamp and valid length of the file 
+	 */
+	private static final int HEADER_LENGTH = 4 + 4 + Constants.OBJECT_ID_LENGTH + 8;
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static final int ID_LENGTH = Constants.OBJECT_ID_LENGTH;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private byte[] ids = new byte[INITIAL_CAPACITY * ID_LENGTH];
+
+	private int size;
+
+	/*
+	 * Open addressing hash table of ordinal+1, 0 means empty slot
+	 */
+	private int[] slots = new int[INITIAL_CAPACITY * 2];
+
+	private int[] parentHeads = newHeads(INITIAL_CAPACITY);
+
+	private int[] childHeads = newHeads(INITIAL_CAPACITY);
+
+	/*
+	 * Edges are stored in pairs: edge 2n links child to parent, and edge 2n+1 links
+	 * parent to child
+	 */
+	private int[] edgeTargets = new int[INITIAL_CAPACITY * 2];
+
+	private int[] edgeNexts = new int[INITIAL_CAPACITY * 2];
+
+	private int edgeCount;
+
+	/*
+	 * Commits whose parents have been recorded
+	 */
+	private final BitSet collected = new BitSet();
+
+	/*
+	 * Generation numbers of commits, computed lazily and reset when graph changes. Generation
+	 * of a commit is one more than the max generation of its parents, and 0 means unknown as 
+	 * some ancestors have not been collected yet
+	 */
+	private volatile int[] generations;
+
+	/*
+	 * File this graph was last saved to or loaded from, together with number of commits and 
+	 * edges contained in that file. Next save to the same file only appends what comes after
+	 */
+	private File savedFile;
+	
+	private int savedSize;
+	
+	private int savedEdgeCount;
+	
+	/*
+	 * Commits marked as collected since last save
+	 */
+	private final BitSet unsavedCollected = new BitSet();
+	
+	private volatile long accessTime = System.currentTimeMillis();
+
+	private static int[] newHeads(int capacity) {
+		int[] heads = new int[capacity];
+		Arrays.fill(heads, -1);
+		return heads;
+	}
+
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Record parents of specified commit. This does nothing if parents of the commit have
+	 * already been recorded
+	 *
+	 * @param commitId
+	 * 			commit to record parents for
+	 * @param parentIds
+	 * 			parents of the commit
+	 * @return
+	 * 			<tt>true</tt> if graph is changed
+	 */
+	public boolean addCommit(AnyObjectId commitId, Collection<? extends AnyObjectId> parentIds) {
+		lock.writeLock().lock();
+		try {
+			int ordinal = getOrAddOrdinal(commitId);
+			if (!collected.get(ordinal)) {
+				generations = null;
+				collected.set(ordinal);
+				unsavedCollected.set(ordinal);
+				for (AnyObjectId parentId: parentIds)
+					addEdge(ordinal, getOrAddOrdinal(parentId));
+				return true;
+			} else {
+				return false;
+			}
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Record a child of specified commit. This is used to rebuild the graph from stored 
+	 * child lists
+	 */
+	void addChild(AnyObjectId commitId, AnyObjectId childId) {
+		lock.writeLock().lock();
+		try {
+			generations = null;
+			addEdge(getOrAddOrdinal(childId), getOrAddOrdinal(commitId));
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	void markCollected(AnyObjectId commitId) {
+		lock.writeLock().lock();
+		try {
+			generations = null;
+			int ordinal = getOrAddOrdinal(commitId);
+			collected.set(ordinal);
+			unsavedCollected.set(ordinal);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Mark this graph as being accessed. Graphs not accessed for some time can be evicted 
+	 * from memory by their owner
+	 */
+	void touch() {
+		accessTime = System.currentTimeMillis();
+	}
+	
+	long getAccessTime() {
+		return accessTime;
+	}
+	
+	public boolean contains(AnyObjectId commitId) {
+		lock.readLock().lock();
+		try {
+			return getOrdinal(commitId) != -1;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get descendants of specified commits, including specified commits themselves
+	 */
+	public Set<ObjectId> getDescendants(Collection<? extends AnyObjectId> commitIds) {
+		Set<ObjectId> descendants = new HashSet<>();
+		for (AnyObjectId commitId: commitIds)
+			descendants.add(commitId.copy());
+
+		lock.readLock().lock();
+		try {
+			BitSet visited = traverse(commitIds, childHeads);
+			for (int ordinal = visited.nextSetBit(0); ordinal >= 0; ordinal = visited.nextSetBit(ordinal+1))
+				descendants.add(ObjectId.fromRaw(ids, ordinal*ID_LENGTH));
+		} finally {
+			lock.readLock().unlock();
+		}
+		return descendants;
+	}
+
+	/**
+	 * Get ancestors of specified commits, including specified commits themselves
+	 */
+	public Set<ObjectId> getAncestors(Collection<? extends AnyObjectId> commitIds) {
+		Set<ObjectId> ancestors = new HashSet<>();
+		for (AnyObjectId commitId: commitIds)
+			ancestors.add(commitId.copy());
+
+		lock.readLock().lock();
+		try {
+			BitSet visited = traverse(commitIds, parentHeads);
+			for (int ordinal = visited.nextSetBit(0); ordinal >= 0; ordinal = visited.nextSetBit(ordinal+1))
+				ancestors.add(ObjectId.fromRaw(ids, ordinal*ID_LENGTH));
+		} finally {
+			lock.readLock().unlock();
+		}
+		return ancestors;
+	}
+
+	/**
+	 * Check if specified ancestor is reachable from specified descendant via parent links
+	 *
+	 * @return
+	 * 			<tt>null</tt> if this can not be determined as ancestor is not in the graph or
+	 * 			some commits on the way have not been collected yet
+	 */
+	@Nullable
+	public Boolean isAncestor(AnyObjectId ancestorId, AnyObjectId descendantId) {
+		lock.readLock().lock();
+		try {
+			int ancestor = getOrdinal(ancestorId);
+			int descendant = getOrdinal(descendantId);
+			if (ancestor == -1 || descendant == -1)
+				return null;
+			if (ancestor == descendant)
+				return true;
+
+			int[] generations = getGenerations();
+			int ancestorGeneration = generations[ancestor];
+			
+			BitSet visited = new BitSet(size);
+			int[] stack = new int[64];
+			int top = 0;
+			stack[top++] = descendant;
+			visited.set(descendant);
+			boolean complete = true;
+			while (top != 0) {
+				int current = stack[--top];
+				if (!collected.get(current))
+					complete = false;
+				for (int edge = parentHeads[current]; edge != -1; edge = edgeNexts[edge]) {
+					int parent = edgeTargets[edge];
+					if (parent == ancestor)
+						return true;
+					/*
+					 * Generation strictly decreases along parent links, so ancestor can not be 
+					 * reached from a commit whose generation is not larger than ancestor's
+					 */
+					if (ancestorGeneration != 0 && generations[parent] != 0 
+							&& generations[parent] <= ancestorGeneration) {
+						continue;
+					}
+					if (!visited.get(parent)) {
+						visited.set(parent);
+						if (top == stack.length)
+							stack = Arrays.copyOf(stack, top*2);
+						stack[top++] = parent;
+					}
+				}
+			}
+			return complete? false: null;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Get merge base of specified commits. If there are multiple best common ancestors, the one 
+	 * with largest generation is returned
+	 * 
+	 * @return
+	 * 			<tt>null</tt> if this can not be determined as some commits are not in the graph or 
+	 * 			history of some commits has not been collected completely. Empty optional if 
+	 * 			the two commits do not have common ancestors
+	 */
+	@Nullable
+	public Optional<ObjectId> getMergeBase(AnyObjectId commitId1, AnyObjectId commitId2) {
+		lock.readLock().lock();
+		try {
+			int commit1 = getOrdinal(commitId1);
+			int commit2 = getOrdinal(commitId2);
+			if (commit1 == -1 || commit2 == -1)
+				return null;
+			
+			int[] generations = getGenerations();
+			if (generations[commit1] == 0 || generations[commit2] == 0)
+				return null;
+			
+			BitSet ancestors1 = traverse(commit1, parentHeads, null);
+			
+			/*
+			 * Do not walk beyond common ancestors as ancestors of a common ancestor have 
+			 * smaller generations and can not be the best one
+			 */
+			int mergeBase = -1;
+			BitSet visited = new BitSet(size);
+			int[] stack = new int[64];
+			int top = 0;
+			stack[top++] = commit2;
+			visited.set(commit2);
+			while (top != 0) {
+				int current = stack[--top];
+				if (ancestors1.get(current)) {
+					if (mergeBase == -1 || generations[current] > generations[mergeBase])
+						mergeBase = current;
+				} else {
+					for (int edge = parentHeads[current]; edge != -1; edge = edgeNexts[edge]) {
+						int parent = edgeTargets[edge];
+						if (!visited.get(parent)) {
+							visited.set(parent);
+							if (top == stack.length)
+								stack = Arrays.copyOf(stack, top*2);
+							stack[top++] = parent;
+						}
+					}
+				}
+			}
+			if (mergeBase != -1)
+				return Optional.of(ObjectId.fromRaw(ids, mergeBase*ID_LENGTH));
+			else
+				return Optional.empty();
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/**
+	 * Get generation number of specified commit
+	 * 
+	 * @return
+	 * 			generation number of the commit, or 0 if the commit is not in graph, or some 
+	 * 			of its ancestors have not been collected yet 
+	 */
+	public int getGeneration(AnyObjectId commitId) {
+		lock.readLock().lock();
+		try {
+			int ordinal = getOrdinal(commitId);
+			if (ordinal != -1)
+				return getGenerations()[ordinal];
+			else
+				return 0;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+	
+	/*
+	 * Must be called with read lock held. Writers reset generations with write lock held, so 
+	 * computing it under read lock is safe as long as computations are serialized
+	 */
+	private int[] getGenerations() {
+		int[] generations = this.generations;
+		if (generations == null) {
+			synchronized (this) {
+				generations = this.generations;
+				if (generations == null) {
+					generations = computeGenerations();
+					this.generations = generations;
+				}
+			}
+		}
+		return generations;
+	}
+	
+	private int[] computeGenerations() {
+		int[] generations = new int[size];
+		int[] stack = new int[64];
+		for (int ordinal=0; ordinal<size; ordinal++) {
+			if (generations[ordinal] != 0)
+				continue;
+			int top = 0;
+			stack[top++] = ordinal;
+			while (top != 0) {
+				int current = stack[top-1];
+				if (generations[current] != 0) {
+					top--;
+					continue;
+				}
+				boolean parentsComputed = true;
+				for (int edge = parentHeads[current]; edge != -1; edge = edgeNexts[edge]) {
+					int parent = edgeTargets[edge];
+					if (generations[parent] == 0) {
+						parentsComputed = false;
+						if (top == stack.length)
+							stack = Arrays.copyOf(stack, top*2);
+						stack[top++] = parent;
+					}
+				}
+				if (parentsComputed) {
+					top--;
+					int generation = 1;
+					if (collected.get(current)) {
+						for (int edge = parentHeads[current]; edge != -1; edge = edgeNexts[edge]) {
+							int parentGeneration = generations[edgeTargets[edge]];
+							if (parentGeneration == -1) {
+								generation = -1;
+								break;
+							} else {
+								generation = Math.max(generation, parentGeneration+1);
+							}
+						}
+					} else {
+						generation = -1;
+					}
+					generations[current] = generation;
+				}
+			}
+		}
+		for (int ordinal=0; ordinal<size; ordinal++) {
+			if (generations[ordinal] == -1)
+				generations[ordinal] = 0;
+		}
+		return generations;
+	}
+
+	private BitSet traverse(Collection<? extends AnyObjectId> commitIds, int[] heads) {
+		BitSet visited = new BitSet(size);
+		for (AnyObjectId commitId: commitIds) {
+			int ordinal = getOrdinal(commitId);
+			if (ordinal != -1 && !visited.get(ordinal)) 
+				traverse(ordinal, heads, visited);
+		}
+		return visited;
+	}
+	
+	private BitSet traverse(int start, int[] heads, @Nullable BitSet visited) {
+		if (visited == null)
+			visited = new BitSet(size);
+		int[] stack = new int[64];
+		int top = 0;
+		visited.set(start);
+		stack[top++] = start;
+		while (top != 0) {
+			int current = stack[--top];
+			for (int edge = heads[current]; edge != -1; edge = edgeNexts[edge]) {
+				int target = edgeTargets[edge];
+				if (!visited.get(target)) {
+					visited.set(target);
+					if (top == stack.length)
+						stack = Arrays.copyOf(stack, top*2);
+					stack[top++] = target;
+				}
+			}
+		}
+		return visited;
+	}
+
+	private int getOrdinal(AnyObjectId commitId) {
+		int mask = slots.length - 1;
+		int slot = commitId.hashCode() & mask;
+		while (true) {
+			int value = slots[slot];
+			if (value == 0)
+				return -1;
+			else if (commitId.compareTo(ids, (value-1)*ID_LENGTH) == 0)
+				return value-1;
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private int getOrAddOrdinal(AnyObjectId commitId) {
+		int ordinal = getOrdinal(commitId);
+		if (ordinal == -1) {
+			ordinal = size++;
+			if (size > parentHeads.length) {
+				int capacity = parentHeads.length * 2;
+				ids = Arrays.copyOf(ids, capacity * ID_LENGTH);
+				parentHeads = Arrays.copyOf(parentHeads, capacity);
+				Arrays.fill(parentHeads, size-1, capacity, -1);
+				childHeads = Arrays.copyOf(childHeads, capacity);
+				Arrays.fill(childHeads, size-1, capacity, -1);
+			}
+			commitId.copyRawTo(ids, ordinal*ID_LENGTH);
+			if (size*2 > slots.length)
+				rehash(slots.length*2);
+			else
+				putSlot(ordinal);
+		}
+		return ordinal;
+	}
+
+	private void putSlot(int ordinal) {
+		int mask = slots.length - 1;
+		int slot = hash(ordinal) & mask;
+		while (slots[slot] != 0)
+			slot = (slot + 1) & mask;
+		slots[slot] = ordinal + 1;
+	}
+
+	/*
+	 * Same as AnyObjectId.hashCode(), which takes the second word of the id
+	 */
+	private int hash(int ordinal) {
+		int pos = ordinal*ID_LENGTH + 4;
+		return (ids[pos] << 24) | ((ids[pos+1] & 0xff) << 16) | ((ids[pos+2] & 0xff) << 8) | (ids[pos+3] & 0xff);
+	}
+
+	private void rehash(int capacity) {
+		slots = new int[capacity];
+		for (int ordinal=0; ordinal<size; ordinal++)
+			putSlot(ordinal);
+	}
+
+	private void addEdge(int child, int parent) {
+		for (int edge = parentHeads[child]; edge != -1; edge = edgeNexts[edge]) {
+			if (edgeTargets[edge] == parent)
+				return;
+		}
+		if (edgeCount + 2 > edgeTargets.length) {
+			edgeTargets = Arrays.copyOf(edgeTargets, edgeTargets.length*2);
+			edgeNexts = Arrays.copyOf(edgeNexts, edgeNexts.length*2);
+		}
+		int edge = edgeCount++;
+		edgeTargets[edge] = parent;
+		edgeNexts[edge] = parentHeads[child];
+		parentHeads[child] = edge;
+
+		edge = edgeCount++;
+		edgeTargets[edge] = child;
+		edgeNexts[edge] = childHeads[parent];
+		childHeads[parent] = edge;
+	}
+
+	/**
+	 * Save this graph to specified file. If this graph was saved to or loaded from the same file 
+	 * before, only changes since then are appended, and the header is updated after appended 
+	 * data is synced to disk, so that a crash during saving does not leave a corrupted file. 
+	 * Otherwise the whole graph is written to a temporary file which is then renamed
+	 *
+	 * @param file
+	 * 			file to save graph into
+	 * @param stamp
+	 * 			commit id identifying state of the graph, will be returned by {@link #load(File, AnyObjectId)}
+	 */
+	public void save(File file, AnyObjectId stamp) {
+		boolean append;
+		byte[] newIds;
+		int[] newCollected;
+		int[] newEdges;
+		lock.writeLock().lock();
+		try {
+			append = file.equals(savedFile) && file.exists();
+			int fromOrdinal = append? savedSize: 0;
+			int fromEdge = append? savedEdgeCount: 0;
+			newIds = Arrays.copyOfRange(ids, fromOrdinal*ID_LENGTH, size*ID_LENGTH);
+			newCollected = (append? unsavedCollected: collected).stream().toArray();
+			newEdges = new int[edgeCount-fromEdge];
+			for (int edge=fromEdge; edge<edgeCount; edge+=2) {
+				newEdges[edge-fromEdge] = edgeTargets[edge+1];
+				newEdges[edge-fromEdge+1] = edgeTargets[edge];
+			}
+			savedFile = file;
+			savedSize = size;
+			savedEdgeCount = edgeCount;
+			unsavedCollected.clear();
+		} finally {
+			lock.writeLock().unlock();
+		}
+		
+		byte[] stampBytes = new byte[ID_LENGTH];
+		stamp.copyRawTo(stampBytes, 0);
+		boolean written;
+		try {
+			if (append) 
+				written = appendRecord(file, stampBytes, newIds, newCollected, newEdges);
+			else 
+				written = writeFile(file, stampBytes, newIds, newCollected, newEdges);
+		} catch (Exception e) {
+			forgetSavedFile();
+			throw new RuntimeException(e);
+		}
+		if (!written) {
+			// Existing file is not recognized, write the whole graph again
+			forgetSavedFile();
+			save(file, stamp);
+		}
+	}
+	
+	private void forgetSavedFile() {
+		lock.writeLock().lock();
+		try {
+			savedFile = null;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+	
+	private static long getRecordLength(byte[] ids, int[] collected, int[] edges) {
+		return 4L + ids.length + 4 + collected.length*4L + 4 + edges.length*4L;
+	}
+	
+	private static void writeRecord(DataOutputStream os, byte[] ids, int[] collected, 
+			int[] edges) throws IOException {
+		os.writeInt(ids.length/ID_LENGTH);
+		os.write(ids);
+		os.writeInt(collected.length);
+		for (int ordinal: collected)
+			os.writeInt(ordinal);
+		os.writeInt(edges.length/2);
+		for (int value: edges)
+			os.writeInt(value);
+	}
+	
+	private static boolean writeFile(File file, byte[] stampBytes, byte[] ids, int[] collected, 
+			int[] edges) throws IOException {
+		File tempFile = new File(file.getParentFile(), file.getName() + ".tmp");
+		try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+			os.writeInt(MAGIC);
+			os.writeInt(VERSION);
+			os.write(stampBytes);
+			os.writeLong(HEADER_LENGTH + getRecordLength(ids, collected, edges));
+			writeRecord(os, ids, collected, edges);
+		}
+		FileUtils.deleteFile(file);
+		if (!tempFile.renameTo(file))
+			throw new IOException("Unable to rename file '" + tempFile.getAbsolutePath() + "'");
+		return true;
+	}
+	
+	/*
+	 * Append a record to existing file. Data beyond valid length of the file (left by an 
+	 * interrupted save) is overwritten. Returns false if existing file is not recognized
+	 */
+	private static boolean appendRecord(File file, byte[] stampBytes, byte[] ids, int[] collected, 
+			int[] edges) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			if (raf.length() < HEADER_LENGTH || raf.readInt() != MAGIC || raf.readInt() != VERSION)
+				return false;
+			raf.seek(8 + ID_LENGTH);
+			long length = raf.readLong();
+			if (length < HEADER_LENGTH || length > raf.length())
+				return false;
+			
+			raf.seek(length);
+			DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+					Channels.newOutputStream(raf.getChannel())));
+			writeRecord(os, ids, collected, edges);
+			os.flush();
+			length += getRecordLength(ids, collected, edges);
+			raf.setLength(length);
+			raf.getChannel().force(false);
+			
+			raf.seek(8);
+			raf.write(stampBytes);
+			raf.writeLong(length);
+			raf.getChannel().force(false);
+			return true;
+		}
+	}
+
+	/**
+	 * Load graph previously saved with {@link #save(File, AnyObjectId)}
+	 *
+	 * @param file
+	 * 			file to load graph from
+	 * @param stamp
+	 * 			expected stamp of the graph
+	 * @return
+	 * 			loaded graph, or <tt>null</tt> if file does not exist, is not readable, or its stamp
+	 * 			does not match specified stamp
+	 */
+	@Nullable
+	public static CommitGraph load(File file, AnyObjectId stamp) {
+		if (!file.exists())
+			return null;
+		try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if (is.readInt() != MAGIC || is.readInt() != VERSION)
+				return null;
+			byte[] stampBytes = new byte[ID_LENGTH];
+			is.readFully(stampBytes);
+			if (stamp.compareTo(stampBytes, 0) != 0)
+				return null;
+			long length = is.readLong();
+			if (length > file.length())
+				return null;
+
+			CommitGraph graph = new CommitGraph();
+			long position = HEADER_LENGTH;
+			byte[] idBytes = new byte[ID_LENGTH];
+			while (position < length) {
+				int count = is.readInt();
+				for (int i=0; i<count; i++) {
+					is.readFully(idBytes);
+					graph.getOrAddOrdinal(ObjectId.fromRaw(idBytes));
+				}
+				position += 4L + count*ID_LENGTH;
+				
+				count = is.readInt();
+				for (int i=0; i<count; i++) {
+					int ordinal = is.readInt();
+					if (ordinal < 0 || ordinal >= graph.size)
+						return null;
+					graph.collected.set(ordinal);
+				}
+				position += 4L + count*4L;
+				
+				count = is.readInt();
+				for (int i=0; i<count; i++) {
+					int child = is.readInt();
+					int parent = is.readInt();
+					if (child < 0 || child >= graph.size || parent < 0 || parent >= graph.size)
+						return null;
+					graph.addEdge(child, parent);
+				}
+				position += 4L + count*8L;
+			}
+			if (position != length)
+				return null;
+			
+			graph.savedFile = file;
+			graph.savedSize = graph.size;
+			graph.savedEdgeCount = graph.edgeCount;
+			return graph;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+}
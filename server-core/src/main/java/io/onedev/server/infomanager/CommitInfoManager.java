@@ -4,6 +4,8 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 
+import javax.annotation.Nullable;
+
 import org.eclipse.jgit.lib.ObjectId;
 
 import io.onedev.server.git.Contribution;
@@ -12,6 +14,7 @@ import io.onedev.server.git.NameAndEmail;
 import io.onedev.server.model.Project;
 import io.onedev.server.model.User;
 import io.onedev.server.util.Day;
+import io.onedev.server.util.WorkProgress;
 
 public interface CommitInfoManager {
 	
@@ -36,6 +39,45 @@ public interface CommitInfoManager {
 	 */
 	Collection<ObjectId> getDescendants(Project project, Collection<ObjectId> ancestors);
 	
+	/**
+	 * Given descendant commits, get all their ancestor commits including the descendant commits 
+	 * themselves. The result might be incomplete if some commits have not be cached yet
+	 *  
+	 * @param project
+	 * 			project to get ancestor commits
+	 * @param descendants
+	 * 			for which commits to get ancestors
+	 * @return
+	 * 			ancestor commits
+	 */
+	Collection<ObjectId> getAncestors(Project project, Collection<ObjectId> descendants);
+	
+	/**
+	 * Check if base commit is merged into tip commit. Commit graph of the project is consulted 
+	 * first, and git repository will be walked only if this can not be determined from the graph
+	 * 
+	 * @param project
+	 * 			project to check commits in
+	 * @param base
+	 * 			base commit
+	 * @param tip
+	 * 			tip commit
+	 * @return
+	 * 			<tt>true</tt> if base commit is an ancestor of tip commit or is the same commit
+	 */
+	boolean isMergedInto(Project project, ObjectId base, ObjectId tip);
+	
+	/**
+	 * Get merge base of specified commits. Commit graph of the project is consulted first, and 
+	 * git repository will be walked only if this can not be determined from the graph
+	 * 
+	 * @return
+	 * 			merge base of specified commits, or <tt>null</tt> if the commits do not have 
+	 * 			related history
+	 */
+	@Nullable
+	ObjectId getMergeBase(Project project, ObjectId commit1, ObjectId commit2);
+	
 	void cloneInfo(Project from, Project to);
 	
 	Collection<String> getHistoryPaths(Project project, String path);
@@ -80,4 +122,15 @@ public interface CommitInfoManager {
 
 	Collection<ObjectId> getFixCommits(Project project, Long issueNumber);
 	
+	/**
+	 * Get progress of commit information collection
+	 * 
+	 * @param project
+	 * 			project to get collecting progress for
+	 * @return
+	 * 			collecting progress, or <tt>null</tt> if no collection is in progress
+	 */
+	@Nullable
+	WorkProgress getCollectingProgress(Project project);
+	
 }
\ No newline at end of file
@@ -5,23 +5,30 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
-import java.util.Stack;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
 import java.util.function.Consumer;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -34,6 +41,8 @@ import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -42,12 +51,14 @@ import com.google.common.base.Splitter;
 
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.FileUtils;
+import io.onedev.commons.utils.LockUtils;
 import io.onedev.commons.utils.PathUtils;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.event.RefUpdated;
 import io.onedev.server.event.entity.EntityRemoved;
 import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
 import io.onedev.server.git.Contribution;
 import io.onedev.server.git.Contributor;
 import io.onedev.server.git.GitUtils;
@@ -67,7 +78,10 @@ import io.onedev.server.util.Day;
 import io.onedev.server.util.ElementPumper;
 import io.onedev.server.util.IssueUtils;
 import io.onedev.server.util.Pair;
+import io.onedev.server.util.WorkProgress;
 import io.onedev.server.util.concurrent.Prioritized;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
 import io.onedev.server.util.work.BatchWorkManager;
 import io.onedev.server.util.work.BatchWorker;
 import jetbrains.exodus.ArrayByteIterable;
@@ -75,6 +89,7 @@ import jetbrains.exodus.ByteIterable;
 import jetbrains.exodus.backup.BackupStrategy;
 import jetbrains.exodus.backup.BackupStrategy.FileDescriptor;
 import jetbrains.exodus.backup.VirtualFileDescriptor;
+import jetbrains.exodus.env.Cursor;
 import jetbrains.exodus.env.Environment;
 import jetbrains.exodus.env.Store;
 import jetbrains.exodus.env.Transaction;
@@ -82,7 +97,8 @@ import jetbrains.exodus.env.TransactionalComputable;
 import jetbrains.exodus.env.TransactionalExecutable;
 
 @Singleton
-public class DefaultCommitInfoManager extends AbstractEnvironmentManager implements CommitInfoManager {
+public class DefaultCommitInfoManager extends AbstractEnvironmentManager 
+		implements CommitInfoManager, SchedulableTask {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultCommitInfoManager.class);
 	
@@ -92,6 +108,8 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	private static final int COLLECT_BATCH_SIZE = 10000;
 	
+	private static final int MAX_PARSING_SLICES = Runtime.getRuntime().availableProcessors();
+	
 	private static final int MAX_COLLECTING_FILES = 50000;
 	
 	private static final int MAX_HISTORY_PATHS = 100;
@@ -118,6 +136,10 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	private static final String DAILY_CONTRIBUTIONS_STORE = "dailyContributions";
 	
+	private static final String COMMIT_GRAPH_FILE = "commit_graph";
+	
+	private static final long COMMIT_GRAPH_IDLE_TIMEOUT = 3600*1000L;
+	
 	private static final ByteIterable NEXT_PATH_INDEX_KEY = new StringByteIterable("nextPathIndex");
 	
 	private static final ByteIterable NEXT_USER_INDEX_KEY = new StringByteIterable("nextUserIndex");
@@ -278,19 +300,32 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 	
 	private final SessionManager sessionManager;
 	
+	private final ExecutorService executorService;
+	
+	private final TaskScheduler taskScheduler;
+	
+	private final Map<Long, WorkProgress> collectingProgresses = new ConcurrentHashMap<>();
+	
+	private final Map<Long, CommitGraph> commitGraphs = new ConcurrentHashMap<>();
+	
 	private final Map<Long, List<String>> filesCache = new ConcurrentHashMap<>();
 	
 	private final Map<Long, Integer> totalCommitCountCache = new ConcurrentHashMap<>();
 	
 	private final Map<Long, List<NameAndEmail>> usersCache = new ConcurrentHashMap<>();
 	
+	private String taskId;
+	
 	@Inject
 	public DefaultCommitInfoManager(ProjectManager projectManager, StorageManager storageManager, 
-			BatchWorkManager batchWorkManager, SessionManager sessionManager) {
+			BatchWorkManager batchWorkManager, SessionManager sessionManager, 
+			ExecutorService executorService, TaskScheduler taskScheduler) {
 		this.projectManager = projectManager;
 		this.storageManager = storageManager;
 		this.batchWorkManager = batchWorkManager;
 		this.sessionManager = sessionManager;
+		this.executorService = executorService;
+		this.taskScheduler = taskScheduler;
 	}
 	
 	private boolean isCommitCollected(byte[] commitBytes) {
@@ -307,13 +342,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		Environment env = getEnv(project.getId().toString());
 		Store defaultStore = getStore(env, DEFAULT_STORE);
 		Store commitsStore = getStore(env, COMMITS_STORE);
-		Store commitCountsStore = getStore(env, COMMIT_COUNTS_STORE); 
-		Store historyPathsStore = getStore(env, HISTORY_PATHS_STORE);
-		Store pathToIndexStore = getStore(env, PATH_TO_INDEX_STORE);
-		Store indexToPathStore = getStore(env, INDEX_TO_PATH_STORE);
 		Store emailToIndexStore = getStore(env, EMAIL_TO_INDEX_STORE);
-		Store indexToUserStore = getStore(env, INDEX_TO_USER_STORE);
-		Store fixCommitsStore = getStore(env, FIX_COMMITS_STORE);
 		Store dailyContributionsStore = getStore(env, DAILY_CONTRIBUTIONS_STORE);	
 		
 		Repository repository = project.getRepository();
@@ -340,12 +369,12 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		});
 		
 		if (!isCommitCollected(result.getFirst())) {
-			AtomicReference<ObjectId> lastCommitIdRef = new AtomicReference<>(result.getSecond());
+			ObjectId lastCommitId = result.getSecond();
 			RevListCommand revList = new RevListCommand(project.getGitDir());
 			List<String> revisions = new ArrayList<>();
 			revisions.add(commitId.name());
-			if (lastCommitIdRef.get() != null) 
-				revisions.add("^" + lastCommitIdRef.get().name());
+			if (lastCommitId != null) 
+				revisions.add("^" + lastCommitId.name());
 			revList.revisions(revisions).order(Order.TOPO);
 			
 			List<ObjectId> historyIds = new ArrayList<>();
@@ -386,224 +415,55 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 			Collections.reverse(intermediateCommitIds);
 			intermediateCommitIds.add(commitId);
 			
-			for(ObjectId intermediateCommitId: intermediateCommitIds) {
-				env.executeInTransaction(new TransactionalExecutable() {
-					
-					@SuppressWarnings("unchecked")
-					@Override
-					public void execute(Transaction txn) {
-						AtomicInteger totalCommitCount = new AtomicInteger(readInt(defaultStore, txn, COMMIT_COUNT_KEY, 0));
-						
-						NextIndex nextIndex = new NextIndex();
-						nextIndex.user = readInt(defaultStore, txn, NEXT_USER_INDEX_KEY, 0);
-						nextIndex.path = readInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, 0);
-						
-						Map<Long, Integer> commitCountCache = new HashMap<>();
-						
-						Set<NameAndEmail> users;
-						byte[] userBytes = readBytes(defaultStore, txn, USERS_KEY);
-						if (userBytes != null)
-							users = (Set<NameAndEmail>) SerializationUtils.deserialize(userBytes);
-						else
-							users = new HashSet<>();
-
-						Map<String, Long> files;
-						byte[] fileBytes = readBytes(defaultStore, txn, FILES_KEY);
-						if (fileBytes != null)
-							files = (Map<String, Long>) SerializationUtils.deserialize(fileBytes);
-						else
-							files = new HashMap<>();
-
-						new ElementPumper<GitCommit>() {
-
-							@Override
-							public void generate(Consumer<GitCommit> consumer) {
-								List<String> revisions = new ArrayList<>();
-								revisions.add(intermediateCommitId.name());
-
-								if (lastCommitIdRef.get() != null)
-									revisions.add("^" + lastCommitIdRef.get().name());
-
-								EnumSet<LogCommand.Field> fields = EnumSet.allOf(LogCommand.Field.class);
-								fields.remove(LogCommand.Field.LINE_CHANGES);
-								new LogCommand(project.getGitDir()) {
-
-									@Override
-									protected void consume(GitCommit commit) {
-										consumer.accept(commit);
-									}
-									
-								}.revisions(revisions).fields(fields).call();
-							}
+			WorkProgress progress = new WorkProgress();
+			progress.addTotal(historyIds.size());
+			collectingProgresses.put(project.getId(), progress);
+			
+			/*
+			 * Slices are parsed in parallel by separate git processes, while a single writer (current 
+			 * thread) applies them in order, each in its own transaction. Number of slices being parsed 
+			 * ahead of the writer is bounded to avoid holding too many commits in memory 
+			 */
+			File gitDir = project.getGitDir();
+			Deque<Future<CommitSlice>> parsingSlices = new ArrayDeque<>();
+			Iterator<ObjectId> sliceIt = intermediateCommitIds.iterator();
+			ObjectId sliceBaseId = lastCommitId;
+			try {
+				while (sliceIt.hasNext() || !parsingSlices.isEmpty()) {
+					while (sliceIt.hasNext() && parsingSlices.size() < MAX_PARSING_SLICES) {
+						ObjectId sliceCommitId = sliceIt.next();
+						ObjectId baseId = sliceBaseId;
+						parsingSlices.add(executorService.submit(new Callable<CommitSlice>() {
 
 							@Override
-							public void process(GitCommit currentCommit) {
-								ObjectId currentCommitId = ObjectId.fromString(currentCommit.getHash());
-								ByteIterable currentCommitKey = new CommitByteIterable(currentCommitId);
-								byte[] currentCommitBytes = readBytes(commitsStore, txn, currentCommitKey);
-								
-								if (!isCommitCollected(currentCommitBytes)) {
-									totalCommitCount.incrementAndGet();
-									
-									byte[] newCurrentCommitBytes;
-									if (currentCommitBytes == null) {
-										newCurrentCommitBytes = new byte[1];
-									} else {
-										newCurrentCommitBytes = new byte[1+currentCommitBytes.length];
-										System.arraycopy(currentCommitBytes, 0, newCurrentCommitBytes, 1, currentCommitBytes.length);
-									}
-									
-									commitsStore.put(txn, currentCommitKey, new ArrayByteIterable(newCurrentCommitBytes));
-									
-									for (String parentCommitHash: currentCommit.getParentHashes()) {
-										ByteIterable parentCommitKey = new CommitByteIterable(ObjectId.fromString(parentCommitHash));
-										byte[] parentCommitBytes = readBytes(commitsStore, txn, parentCommitKey);
-										byte[] newParentCommitBytes;
-										if (parentCommitBytes != null) {
-											newParentCommitBytes = new byte[parentCommitBytes.length+20];
-											System.arraycopy(parentCommitBytes, 0, newParentCommitBytes, 0, parentCommitBytes.length);
-										} else {
-											newParentCommitBytes = new byte[20];
-										}
-										currentCommitId.copyRawTo(newParentCommitBytes, newParentCommitBytes.length-20);
-										commitsStore.put(txn, parentCommitKey, new ArrayByteIterable(newParentCommitBytes));
-									}
-									
-									String commitMessage = currentCommit.getSubject();
-									if (currentCommit.getBody() != null)
-										commitMessage += "\n\n" + currentCommit.getBody();
-									
-									for (Long issueNumber: IssueUtils.parseFixedIssueNumbers(commitMessage)) {
-										ByteIterable issueKey = new LongByteIterable(issueNumber);
-										Collection<ObjectId> fixingCommits = readCommits(fixCommitsStore, txn, issueKey);
-										
-										boolean addNextCommit = true;
-										for (Iterator<ObjectId> it = fixingCommits.iterator(); it.hasNext();) {
-											ObjectId fixCommit = it.next();
-											if (GitUtils.isMergedInto(project.getRepository(), null, fixCommit, currentCommitId)) { 
-												it.remove();
-											} else if (GitUtils.isMergedInto(project.getRepository(), null, currentCommitId, fixCommit)) {
-												addNextCommit = false;
-												break;
-											}
-										}
-										if (addNextCommit)
-											fixingCommits.add(currentCommitId);
-										writeCommits(fixCommitsStore, txn, issueKey, fixingCommits);
-									}
-									
-									if (currentCommit.getCommitDate() != null) {
-										for (String file: currentCommit.getChangedFiles())
-											files.put(file, currentCommit.getCommitDate().getTime());
-									}
-									
-									if (currentCommit.getCommitter() != null)
-										users.add(new NameAndEmail(currentCommit.getCommitter()));
-
-									if (currentCommit.getAuthor() != null) {
-										NameAndEmail nameAndEmail = new NameAndEmail(currentCommit.getAuthor());
-										users.add(nameAndEmail);
-										
-										String emailAddress = currentCommit.getAuthor().getEmailAddress();
-										if (StringUtils.isNotBlank(emailAddress)) {
-											ByteIterable emailKey = new StringByteIterable(emailAddress);
-											int userIndex = readInt(emailToIndexStore, txn, emailKey, -1);
-											if (userIndex == -1) {
-												userIndex = nextIndex.user++;
-												writeInt(emailToIndexStore, txn, emailKey, userIndex);
-												indexToUserStore.put(txn, 
-														new IntByteIterable(userIndex), 
-														new ArrayByteIterable(SerializationUtils.serialize(nameAndEmail)));
-											}
-											
-											for (FileChange change: currentCommit.getFileChanges()) {
-												for (String path: change.getPaths()) {
-													int pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
-															nextIndex, path);
-													updateCommitCount(commitCountsStore, txn, commitCountCache, userIndex, pathIndex);
-													while (path.contains("/")) {
-														path = StringUtils.substringBeforeLast(path, "/");
-														pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
-																nextIndex, path);
-														updateCommitCount(commitCountsStore, txn, commitCountCache, userIndex, pathIndex);
-													}
-													pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
-															nextIndex, "");
-													updateCommitCount(commitCountsStore, txn, commitCountCache, userIndex, pathIndex);
-												}
-											}
-										}
-									}
-									
-									for (FileChange change: currentCommit.getFileChanges()) {
-										if (change.getOldPath() != null && change.getNewPath() != null 
-												&& !change.getOldPath().equals(change.getNewPath())) {
-											int pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
-													nextIndex, change.getNewPath());
-											ByteIterable pathKey = new IntByteIterable(pathIndex);
-											Set<Integer> historyPathIndexes = new HashSet<>();
-											byte[] bytesOfHistoryPaths = readBytes(historyPathsStore, txn, pathKey);
-											if (bytesOfHistoryPaths == null) {
-												bytesOfHistoryPaths = new byte[0];
-												int pos = 0;
-												for (int i=0; i<bytesOfHistoryPaths.length/Integer.SIZE; i++) {
-													historyPathIndexes.add(ByteBuffer.wrap(bytesOfHistoryPaths, pos, Integer.SIZE).getInt());
-													pos += Integer.SIZE;
-												}
-											} else {
-												historyPathIndexes = new HashSet<>();
-											}
-											if (historyPathIndexes.size() < MAX_HISTORY_PATHS) {
-												int oldPathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
-														nextIndex, change.getOldPath());
-												if (!historyPathIndexes.contains(oldPathIndex)) {
-													historyPathIndexes.add(oldPathIndex);
-													byte[] newBytesOfHistoryPaths = 
-															new byte[bytesOfHistoryPaths.length+Integer.SIZE];
-													System.arraycopy(bytesOfHistoryPaths, 0, 
-															newBytesOfHistoryPaths, 0, bytesOfHistoryPaths.length);
-													ByteBuffer buffer = ByteBuffer.wrap(newBytesOfHistoryPaths, 
-															bytesOfHistoryPaths.length, Integer.BYTES);
-													buffer.putInt(oldPathIndex);
-													historyPathsStore.put(txn, pathKey, 
-															new ArrayByteIterable(newBytesOfHistoryPaths));
-												}
-											}
-										}
-									}											
-								}
+							public CommitSlice call() throws Exception {
+								return parseSlice(gitDir, sliceCommitId, baseId);
 							}
-
-						}.pump();
-
-						writeInt(defaultStore, txn, COMMIT_COUNT_KEY, totalCommitCount.get());
-						totalCommitCountCache.remove(project.getId());
-						
-						writeInt(defaultStore, txn, NEXT_USER_INDEX_KEY, nextIndex.user);
-						writeInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, nextIndex.path);
-						
-						userBytes = SerializationUtils.serialize((Serializable) users);
-						defaultStore.put(txn, USERS_KEY, new ArrayByteIterable(userBytes));
-						usersCache.remove(project.getId());
-						
-						if (files.size() > MAX_COLLECTING_FILES) {
-							List<String> fileList = new ArrayList<>(files.keySet());
-							fileList.sort((file1, file2)->files.get(file1).compareTo(files.get(file2)));
-							for (int i=0; i<fileList.size() - MAX_COLLECTING_FILES; i++)
-								files.remove(fileList.get(i));
-						}
-						fileBytes = SerializationUtils.serialize((Serializable) files);
-						defaultStore.put(txn, FILES_KEY, new ArrayByteIterable(fileBytes));
-						filesCache.remove(project.getId());
-						
-						for (Map.Entry<Long, Integer> entry: commitCountCache.entrySet()) 
-							writeInt(commitCountsStore, txn, new LongByteIterable(entry.getKey()), entry.getValue());
-						
-						lastCommitIdRef.set(intermediateCommitId);
-						defaultStore.put(txn, LAST_COMMIT_KEY, new CommitByteIterable(lastCommitIdRef.get()));
+							
+						}));
+						sliceBaseId = sliceCommitId;
 					}
-				});
-			}		
+					
+					CommitSlice slice;
+					try {
+						slice = parsingSlices.remove().get();
+					} catch (InterruptedException | ExecutionException e) {
+						throw new RuntimeException(e);
+					}
+					writeSlice(project, env, slice);
+					progress.addProcessed(slice.commits.size());
+					
+					logger.debug("Collected {} of {} commits (project: {}, commits/second: {})", 
+							progress.getProcessed(), progress.getTotal(), project.getName(), 
+							progress.getProcessedPerSecond());
+				}
+				
+				getCommitGraph(project.getId()).save(getCommitGraphFile(project.getId()), commitId);
+			} finally {
+				for (Future<CommitSlice> future: parsingSlices)
+					future.cancel(true);
+				collectingProgresses.remove(project.getId());
+			}
 		}
 		
 		if (GitUtils.branch2ref(project.getDefaultBranch()).equals(refName)) {
@@ -615,7 +475,7 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 					if (lastCommitBytes != null) {
 						ObjectId lastCommitId = ObjectId.fromRaw(lastCommitBytes);
 						if (repository.hasObject(lastCommitId) 
-								&& GitUtils.isMergedInto(repository, null, lastCommitId, commitId)) {
+								&& isMergedInto(project, lastCommitId, commitId)) {
 							return lastCommitId;
 						} 
 					} 
@@ -737,6 +597,217 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		logger.debug("Collected commit information (project: {}, ref: {})", project.getName(), refName);
 	}
 	
+	private CommitSlice parseSlice(File gitDir, ObjectId sliceCommitId, @Nullable ObjectId sliceBaseId) {
+		List<String> revisions = new ArrayList<>();
+		revisions.add(sliceCommitId.name());
+		if (sliceBaseId != null)
+			revisions.add("^" + sliceBaseId.name());
+
+		EnumSet<LogCommand.Field> fields = EnumSet.allOf(LogCommand.Field.class);
+		fields.remove(LogCommand.Field.LINE_CHANGES);
+		
+		List<CollectedCommit> commits = new ArrayList<>();
+		new LogCommand(gitDir) {
+
+			@Override
+			protected void consume(GitCommit commit) {
+				commits.add(new CollectedCommit(commit));
+			}
+			
+		}.revisions(revisions).fields(fields).call();
+		
+		return new CommitSlice(sliceCommitId, commits);
+	}
+	
+	private void writeSlice(Project project, Environment env, CommitSlice slice) {
+		Store defaultStore = getStore(env, DEFAULT_STORE);
+		Store commitsStore = getStore(env, COMMITS_STORE);
+		Store commitCountsStore = getStore(env, COMMIT_COUNTS_STORE); 
+		Store historyPathsStore = getStore(env, HISTORY_PATHS_STORE);
+		Store pathToIndexStore = getStore(env, PATH_TO_INDEX_STORE);
+		Store indexToPathStore = getStore(env, INDEX_TO_PATH_STORE);
+		Store emailToIndexStore = getStore(env, EMAIL_TO_INDEX_STORE);
+		Store indexToUserStore = getStore(env, INDEX_TO_USER_STORE);
+		Store fixCommitsStore = getStore(env, FIX_COMMITS_STORE);
+		
+		env.executeInTransaction(new TransactionalExecutable() {
+			
+			@SuppressWarnings("unchecked")
+			@Override
+			public void execute(Transaction txn) {
+				int totalCommitCount = readInt(defaultStore, txn, COMMIT_COUNT_KEY, 0);
+				
+				NextIndex nextIndex = new NextIndex();
+				nextIndex.user = readInt(defaultStore, txn, NEXT_USER_INDEX_KEY, 0);
+				nextIndex.path = readInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, 0);
+				
+				Map<Long, Integer> commitCountCache = new HashMap<>();
+				
+				Set<NameAndEmail> users;
+				byte[] userBytes = readBytes(defaultStore, txn, USERS_KEY);
+				if (userBytes != null)
+					users = (Set<NameAndEmail>) SerializationUtils.deserialize(userBytes);
+				else
+					users = new HashSet<>();
+
+				Map<String, Long> files;
+				byte[] fileBytes = readBytes(defaultStore, txn, FILES_KEY);
+				if (fileBytes != null)
+					files = (Map<String, Long>) SerializationUtils.deserialize(fileBytes);
+				else
+					files = new HashMap<>();
+
+				for (CollectedCommit currentCommit: slice.commits) {
+					ObjectId currentCommitId = currentCommit.id;
+					ByteIterable currentCommitKey = new CommitByteIterable(currentCommitId);
+					byte[] currentCommitBytes = readBytes(commitsStore, txn, currentCommitKey);
+					
+					if (isCommitCollected(currentCommitBytes)) 
+						continue;
+					
+					totalCommitCount++;
+					
+					byte[] newCurrentCommitBytes;
+					if (currentCommitBytes == null) {
+						newCurrentCommitBytes = new byte[1];
+					} else {
+						newCurrentCommitBytes = new byte[1+currentCommitBytes.length];
+						System.arraycopy(currentCommitBytes, 0, newCurrentCommitBytes, 1, currentCommitBytes.length);
+					}
+					
+					commitsStore.put(txn, currentCommitKey, new ArrayByteIterable(newCurrentCommitBytes));
+					
+					for (ObjectId parentCommitId: currentCommit.parentIds) {
+						ByteIterable parentCommitKey = new CommitByteIterable(parentCommitId);
+						byte[] parentCommitBytes = readBytes(commitsStore, txn, parentCommitKey);
+						byte[] newParentCommitBytes;
+						if (parentCommitBytes != null) {
+							newParentCommitBytes = new byte[parentCommitBytes.length+20];
+							System.arraycopy(parentCommitBytes, 0, newParentCommitBytes, 0, parentCommitBytes.length);
+						} else {
+							newParentCommitBytes = new byte[20];
+						}
+						currentCommitId.copyRawTo(newParentCommitBytes, newParentCommitBytes.length-20);
+						commitsStore.put(txn, parentCommitKey, new ArrayByteIterable(newParentCommitBytes));
+					}
+					
+					for (Long issueNumber: currentCommit.fixedIssueNumbers) {
+						ByteIterable issueKey = new LongByteIterable(issueNumber);
+						Collection<ObjectId> fixingCommits = readCommits(fixCommitsStore, txn, issueKey);
+						
+						boolean addNextCommit = true;
+						for (Iterator<ObjectId> it = fixingCommits.iterator(); it.hasNext();) {
+							ObjectId fixCommit = it.next();
+							if (GitUtils.isMergedInto(project.getRepository(), null, fixCommit, currentCommitId)) { 
+								it.remove();
+							} else if (GitUtils.isMergedInto(project.getRepository(), null, currentCommitId, fixCommit)) {
+								addNextCommit = false;
+								break;
+							}
+						}
+						if (addNextCommit)
+							fixingCommits.add(currentCommitId);
+						writeCommits(fixCommitsStore, txn, issueKey, fixingCommits);
+					}
+					
+					if (currentCommit.commitTime != null) {
+						for (String file: currentCommit.changedFiles)
+							files.put(file, currentCommit.commitTime);
+					}
+					
+					if (currentCommit.committer != null)
+						users.add(currentCommit.committer);
+
+					if (currentCommit.author != null) {
+						users.add(currentCommit.author);
+						
+						String emailAddress = currentCommit.author.getEmailAddress();
+						if (StringUtils.isNotBlank(emailAddress)) {
+							ByteIterable emailKey = new StringByteIterable(emailAddress);
+							int userIndex = readInt(emailToIndexStore, txn, emailKey, -1);
+							if (userIndex == -1) {
+								userIndex = nextIndex.user++;
+								writeInt(emailToIndexStore, txn, emailKey, userIndex);
+								indexToUserStore.put(txn, 
+										new IntByteIterable(userIndex), 
+										new ArrayByteIterable(SerializationUtils.serialize(currentCommit.author)));
+							}
+							
+							for (String path: currentCommit.countingPaths) {
+								int pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
+										nextIndex, path);
+								updateCommitCount(commitCountsStore, txn, commitCountCache, userIndex, pathIndex);
+							}
+						}
+					}
+					
+					for (Pair<String, String> rename: currentCommit.renames) {
+						int pathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
+								nextIndex, rename.getSecond());
+						ByteIterable pathKey = new IntByteIterable(pathIndex);
+						Set<Integer> historyPathIndexes = new HashSet<>();
+						byte[] bytesOfHistoryPaths = readBytes(historyPathsStore, txn, pathKey);
+						if (bytesOfHistoryPaths == null) {
+							bytesOfHistoryPaths = new byte[0];
+							int pos = 0;
+							for (int i=0; i<bytesOfHistoryPaths.length/Integer.SIZE; i++) {
+								historyPathIndexes.add(ByteBuffer.wrap(bytesOfHistoryPaths, pos, Integer.SIZE).getInt());
+								pos += Integer.SIZE;
+							}
+						} else {
+							historyPathIndexes = new HashSet<>();
+						}
+						if (historyPathIndexes.size() < MAX_HISTORY_PATHS) {
+							int oldPathIndex = getPathIndex(pathToIndexStore, indexToPathStore, txn, 
+									nextIndex, rename.getFirst());
+							if (!historyPathIndexes.contains(oldPathIndex)) {
+								historyPathIndexes.add(oldPathIndex);
+								byte[] newBytesOfHistoryPaths = 
+										new byte[bytesOfHistoryPaths.length+Integer.SIZE];
+								System.arraycopy(bytesOfHistoryPaths, 0, 
+										newBytesOfHistoryPaths, 0, bytesOfHistoryPaths.length);
+								ByteBuffer buffer = ByteBuffer.wrap(newBytesOfHistoryPaths, 
+										bytesOfHistoryPaths.length, Integer.BYTES);
+								buffer.putInt(oldPathIndex);
+								historyPathsStore.put(txn, pathKey, 
+										new ArrayByteIterable(newBytesOfHistoryPaths));
+							}
+						}
+					}											
+				}
+
+				writeInt(defaultStore, txn, COMMIT_COUNT_KEY, totalCommitCount);
+				totalCommitCountCache.remove(project.getId());
+				
+				writeInt(defaultStore, txn, NEXT_USER_INDEX_KEY, nextIndex.user);
+				writeInt(defaultStore, txn, NEXT_PATH_INDEX_KEY, nextIndex.path);
+				
+				userBytes = SerializationUtils.serialize((Serializable) users);
+				defaultStore.put(txn, USERS_KEY, new ArrayByteIterable(userBytes));
+				usersCache.remove(project.getId());
+				
+				if (files.size() > MAX_COLLECTING_FILES) {
+					List<String> fileList = new ArrayList<>(files.keySet());
+					fileList.sort((file1, file2)->files.get(file1).compareTo(files.get(file2)));
+					for (int i=0; i<fileList.size() - MAX_COLLECTING_FILES; i++)
+						files.remove(fileList.get(i));
+				}
+				fileBytes = SerializationUtils.serialize((Serializable) files);
+				defaultStore.put(txn, FILES_KEY, new ArrayByteIterable(fileBytes));
+				filesCache.remove(project.getId());
+				
+				for (Map.Entry<Long, Integer> entry: commitCountCache.entrySet()) 
+					writeInt(commitCountsStore, txn, new LongByteIterable(entry.getKey()), entry.getValue());
+				
+				defaultStore.put(txn, LAST_COMMIT_KEY, new CommitByteIterable(slice.commitId));
+			}
+		});
+		
+		CommitGraph commitGraph = getCommitGraph(project.getId());
+		for (CollectedCommit commit: slice.commits)
+			commitGraph.addCommit(commit.id, commit.parentIds);
+	}
+	
 	private void updateContribution(Transaction txn, Store emailToIndexStore, 
 			GitCommit currentCommit, Map<Integer, Contribution> contributionsOnDay) {
 		if (currentCommit.getAuthor() != null 
@@ -943,56 +1014,109 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		}
 	}
 	
-	@Override
-	public Collection<ObjectId> getDescendants(Project project, Collection<ObjectId> ancestors) {
-		Environment env = getEnv(project.getId().toString());
-		final Store store = getStore(env, COMMITS_STORE);
-
-		return env.computeInReadonlyTransaction(new TransactionalComputable<Set<ObjectId>>() {
+	private File getCommitGraphFile(Long projectId) {
+		return new File(storageManager.getProjectInfoDir(projectId), COMMIT_GRAPH_FILE);
+	}
+	
+	private CommitGraph getCommitGraph(Long projectId) {
+		CommitGraph commitGraph = commitGraphs.get(projectId);
+		if (commitGraph == null) {
+			// lock per project so that loading a large graph does not block other projects
+			Lock lock = LockUtils.getLock("commit-graph:" + projectId);
+			lock.lock();
+			try {
+				commitGraph = commitGraphs.get(projectId);
+				if (commitGraph == null) {
+					commitGraph = loadCommitGraph(projectId);
+					commitGraphs.put(projectId, commitGraph);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		commitGraph.touch();
+		return commitGraph;
+	}
+	
+	/*
+	 * Load commit graph from graph file if it is up to date, otherwise rebuild it from 
+	 * child lists in commits store
+	 */
+	private CommitGraph loadCommitGraph(Long projectId) {
+		Environment env = getEnv(projectId.toString());
+		Store defaultStore = getStore(env, DEFAULT_STORE);
+		Store commitsStore = getStore(env, COMMITS_STORE);
+		
+		return env.computeInReadonlyTransaction(new TransactionalComputable<CommitGraph>() {
 
 			@Override
-			public Set<ObjectId> compute(Transaction txn) {
-				Set<ObjectId> descendants = new HashSet<>();
+			public CommitGraph compute(Transaction txn) {
+				byte[] lastCommitBytes = readBytes(defaultStore, txn, LAST_COMMIT_KEY);
+				if (lastCommitBytes != null) {
+					CommitGraph commitGraph = CommitGraph.load(getCommitGraphFile(projectId), 
+							ObjectId.fromRaw(lastCommitBytes));
+					if (commitGraph != null)
+						return commitGraph;
+				}
 				
-				// Use stack instead of recursion to avoid StackOverflowException
-				Stack<ObjectId> stack = new Stack<>();
-				descendants.addAll(ancestors);
-				stack.addAll(ancestors);
-				while (!stack.isEmpty()) {
-					ObjectId current = stack.pop();
-					byte[] valueBytes = readBytes(store, txn, new CommitByteIterable(current));
-					if (valueBytes != null) {
-						if (valueBytes.length % 20 == 0) {
-							for (int i=0; i<valueBytes.length/20; i++) {
-								ObjectId child = ObjectId.fromRaw(valueBytes, i*20);
-								if (!descendants.contains(child)) {
-									descendants.add(child);
-									stack.push(child);
-								}
-							}
-						} else { 
-							for (int i=0; i<(valueBytes.length-1)/20; i++) {
-								ObjectId child = ObjectId.fromRaw(valueBytes, i*20+1);
-								if (!descendants.contains(child)) {
-									descendants.add(child);
-									stack.push(child);
-								}
-							}
+				CommitGraph commitGraph = new CommitGraph();
+				try (Cursor cursor = commitsStore.openCursor(txn)) {
+					while (cursor.getNext()) {
+						ObjectId commitId = ObjectId.fromRaw(cursor.getKey().getBytesUnsafe());
+						ByteIterable value = cursor.getValue();
+						byte[] valueBytes = Arrays.copyOf(value.getBytesUnsafe(), value.getLength());
+						int offset;
+						if (isCommitCollected(valueBytes)) {
+							commitGraph.markCollected(commitId);
+							offset = 1;
+						} else {
+							offset = 0;
 						}
+						for (int i=0; i<(valueBytes.length-offset)/20; i++) 
+							commitGraph.addChild(commitId, ObjectId.fromRaw(valueBytes, i*20+offset));
 					}
 				}
-				
-				return descendants;
+				return commitGraph;
 			}
 			
 		});
 	}
+	
+	@Override
+	public Collection<ObjectId> getDescendants(Project project, Collection<ObjectId> ancestors) {
+		return getCommitGraph(project.getId()).getDescendants(ancestors);
+	}
 
+	@Override
+	public Collection<ObjectId> getAncestors(Project project, Collection<ObjectId> descendants) {
+		return getCommitGraph(project.getId()).getAncestors(descendants);
+	}
+	
+	@Override
+	public boolean isMergedInto(Project project, ObjectId base, ObjectId tip) {
+		Boolean merged = getCommitGraph(project.getId()).isAncestor(base, tip);
+		if (merged != null)
+			return merged;
+		else
+			return GitUtils.isMergedInto(project.getRepository(), null, base, tip);
+	}
+
+	@Override
+	public ObjectId getMergeBase(Project project, ObjectId commit1, ObjectId commit2) {
+		Optional<ObjectId> mergeBase = getCommitGraph(project.getId()).getMergeBase(commit1, commit2);
+		if (mergeBase != null)
+			return mergeBase.orElse(null);
+		else
+			return GitUtils.getMergeBase(project.getRepository(), commit1, commit2);
+	}
+	
 	@Listen
 	public void on(EntityRemoved event) {
 		if (event.getEntity() instanceof Project) {
 			Long projectId = event.getEntity().getId();
 			removeEnv(projectId.toString());
+			commitGraphs.remove(projectId);
+			FileUtils.deleteFile(getCommitGraphFile(projectId));
 			filesCache.remove(projectId);
 			totalCommitCountCache.remove(projectId);
 			usersCache.remove(projectId);
@@ -1053,6 +1177,35 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 			checkVersion(project.getId().toString());
 			collect(project);
 		}
+		taskId = taskScheduler.schedule(this);
+	}
+	
+	@Listen
+	@Override
+	public void on(SystemStopping event) {
+		taskScheduler.unschedule(taskId);
+		super.on(event);
+	}
+	
+	/*
+	 * Evict commit graphs of inactive projects from memory. They will be loaded from graph file 
+	 * again when accessed. Graphs of projects being collected are kept as collecting thread 
+	 * updates them 
+	 */
+	@Override
+	public void execute() {
+		long threshold = System.currentTimeMillis() - COMMIT_GRAPH_IDLE_TIMEOUT;
+		for (Map.Entry<Long, CommitGraph> entry: commitGraphs.entrySet()) {
+			if (entry.getValue().getAccessTime() < threshold 
+					&& !collectingProgresses.containsKey(entry.getKey())) {
+				commitGraphs.remove(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatHourlyForever();
 	}
 	
 	@Sessional
@@ -1393,6 +1546,81 @@ public class DefaultCommitInfoManager extends AbstractEnvironmentManager impleme
 		
 	}
 
+	@Override
+	public WorkProgress getCollectingProgress(Project project) {
+		return collectingProgresses.get(project.getId());
+	}
+	
+	private static class CommitSlice {
+		
+		final ObjectId commitId;
+		
+		final List<CollectedCommit> commits;
+		
+		CommitSlice(ObjectId commitId, List<CollectedCommit> commits) {
+			this.commitId = commitId;
+			this.commits = commits;
+		}
+		
+	}
+	
+	/*
+	 * Commit information derived from git log output. This is computed in parsing threads 
+	 * so that the writer only needs to apply store mutations
+	 */
+	private static class CollectedCommit {
+		
+		final ObjectId id;
+		
+		final List<ObjectId> parentIds = new ArrayList<>();
+		
+		final Collection<Long> fixedIssueNumbers;
+		
+		final Long commitTime;
+		
+		final Collection<String> changedFiles;
+		
+		final NameAndEmail committer;
+		
+		final NameAndEmail author;
+		
+		final List<String> countingPaths = new ArrayList<>();
+		
+		final List<Pair<String, String>> renames = new ArrayList<>();
+		
+		CollectedCommit(GitCommit commit) {
+			id = ObjectId.fromString(commit.getHash());
+			for (String parentHash: commit.getParentHashes())
+				parentIds.add(ObjectId.fromString(parentHash));
+			
+			String commitMessage = commit.getSubject();
+			if (commit.getBody() != null)
+				commitMessage += "\n\n" + commit.getBody();
+			fixedIssueNumbers = IssueUtils.parseFixedIssueNumbers(commitMessage);
+			
+			commitTime = commit.getCommitDate()!=null? commit.getCommitDate().getTime(): null;
+			changedFiles = commit.getChangedFiles();
+			committer = commit.getCommitter()!=null? new NameAndEmail(commit.getCommitter()): null;
+			author = commit.getAuthor()!=null? new NameAndEmail(commit.getAuthor()): null;
+			
+			for (FileChange change: commit.getFileChanges()) {
+				for (String path: change.getPaths()) {
+					countingPaths.add(path);
+					while (path.contains("/")) {
+						path = StringUtils.substringBeforeLast(path, "/");
+						countingPaths.add(path);
+					}
+					countingPaths.add("");
+				}
+				if (change.getOldPath() != null && change.getNewPath() != null 
+						&& !change.getOldPath().equals(change.getNewPath())) {
+					renames.add(new Pair<>(change.getOldPath(), change.getNewPath()));
+				}
+			}
+		}
+		
+	}
+	
 	private static class NextIndex {
 		int user;
 		
@@ -0,0 +1,462 @@
+package io.onedev.server.infomanager;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang3.SerializationUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren.Value;
+import org.joda.time.DateTime;
+import org.quartz.CronScheduleBuilder;
+import org.quartz.ScheduleBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.event.RefUpdated;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.git.GitUtils;
+import io.onedev.server.model.Project;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.storage.StorageManager;
+import io.onedev.server.util.concurrent.Prioritized;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
+import io.onedev.server.util.work.BatchWorkManager;
+import io.onedev.server.util.work.BatchWorker;
+import jetbrains.exodus.ArrayByteIterable;
+import jetbrains.exodus.ByteIterable;
+import jetbrains.exodus.env.Cursor;
+import jetbrains.exodus.env.Environment;
+import jetbrains.exodus.env.Store;
+import jetbrains.exodus.env.Transaction;
+import jetbrains.exodus.env.TransactionalComputable;
+import jetbrains.exodus.env.TransactionalExecutable;
+
+/**
+ * Store last commits of children of folders in a per-project database. Each entry is keyed by
+ * commit and folder path, and holds compressed last commits. Entries not accessed for a long
+ * time are evicted daily, and so are least recently accessed entries exceeding the limit.
+ * <p>
+ * When default branch is updated, last commits of root folder and recently viewed folders
+ * are calculated in background so that these folders are served from the store.
+ */
+@Singleton
+public class DefaultLastCommitsInfoManager extends AbstractEnvironmentManager
+		implements LastCommitsInfoManager, SchedulableTask {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultLastCommitsInfoManager.class);
+
+	private static final int INFO_VERSION = 1;
+
+	private static final String INFO_DIR = "last_commits";
+
+	private static final String LAST_COMMITS_STORE = "lastCommits";
+
+	private static final String PATH_COMMITS_STORE = "pathCommits";
+
+	private static final String ACCESS_STORE = "access";
+
+	// calculation taking less than this many milliseconds is not stored
+	private static final int CACHE_THRESHOLD = 100;
+
+	private static final int MAX_ENTRIES = 5000;
+
+	private static final int MAX_AGE_DAYS = 30;
+
+	private static final long ACCESS_UPDATE_INTERVAL = 3600*1000L;
+
+	private static final int MAX_VIEWED_PATHS = 50;
+
+	private static final int PRIORITY = 200;
+
+	private final StorageManager storageManager;
+
+	private final ProjectManager projectManager;
+
+	private final SessionManager sessionManager;
+
+	private final BatchWorkManager batchWorkManager;
+
+	private final TaskScheduler taskScheduler;
+
+	private final Map<Long, Map<String, Boolean>> viewedPaths = new ConcurrentHashMap<>();
+
+	private String taskId;
+
+	@Inject
+	public DefaultLastCommitsInfoManager(StorageManager storageManager, ProjectManager projectManager,
+			SessionManager sessionManager, BatchWorkManager batchWorkManager, TaskScheduler taskScheduler) {
+		this.storageManager = storageManager;
+		this.projectManager = projectManager;
+		this.sessionManager = sessionManager;
+		this.batchWorkManager = batchWorkManager;
+		this.taskScheduler = taskScheduler;
+	}
+
+	@Override
+	protected File getEnvDir(String envKey) {
+		return new File(storageManager.getProjectInfoDir(Long.valueOf(envKey)), INFO_DIR);
+	}
+
+	@Override
+	protected int getEnvVersion() {
+		return INFO_VERSION;
+	}
+
+	@Override
+	public LastCommitsOfChildren getLastCommitsOfChildren(Project project, ObjectId commitId, String path) {
+		if (path == null)
+			path = "";
+
+		Map<String, Boolean> projectViewedPaths = viewedPaths.get(project.getId());
+		if (projectViewedPaths == null) {
+			projectViewedPaths = Collections.synchronizedMap(new LinkedHashMap<String, Boolean>(16, 0.75f, true) {
+
+				private static final long serialVersionUID = 1L;
+
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+					return size() > MAX_VIEWED_PATHS;
+				}
+
+			});
+			Map<String, Boolean> existing = viewedPaths.putIfAbsent(project.getId(), projectViewedPaths);
+			if (existing != null)
+				projectViewedPaths = existing;
+		}
+		projectViewedPaths.put(path, Boolean.TRUE);
+
+		return getLastCommitsOfChildren(project, commitId, path, CACHE_THRESHOLD);
+	}
+
+	private LastCommitsOfChildren getLastCommitsOfChildren(Project project, ObjectId commitId,
+			String path, long cacheThreshold) {
+		Environment env = getEnv(project.getId().toString());
+		Store lastCommitsStore = getStore(env, LAST_COMMITS_STORE);
+		Store pathCommitsStore = getStore(env, PATH_COMMITS_STORE);
+		Store accessStore = getStore(env, ACCESS_STORE);
+
+		ByteIterable pathKey = new StringByteIterable(path);
+		Collection<ObjectId> commitIds = env.computeInReadonlyTransaction(new TransactionalComputable<Collection<ObjectId>>() {
+
+			@Override
+			public Collection<ObjectId> compute(Transaction txn) {
+				return readCommits(pathCommitsStore, txn, pathKey);
+			}
+
+		});
+
+		LastCommitsOfChildren.Cache cache;
+		if (!commitIds.isEmpty()) {
+			cache = new LastCommitsOfChildren.Cache() {
+
+				@Override
+				public Map<String, Value> getLastCommitsOfChildren(ObjectId commitId) {
+					if (commitIds.contains(commitId))
+						return readLastCommits(env, lastCommitsStore, accessStore, getKey(commitId, path));
+					else
+						return null;
+				}
+
+			};
+		} else {
+			cache = null;
+		}
+
+		long time = System.currentTimeMillis();
+		LastCommitsOfChildren lastCommits = new LastCommitsOfChildren(project.getRepository(), commitId, path, cache);
+		long elapsed = System.currentTimeMillis() - time;
+		if (elapsed >= cacheThreshold && !commitIds.contains(commitId)) {
+			byte[] bytes = encode(lastCommits);
+			env.executeInTransaction(new TransactionalExecutable() {
+
+				@Override
+				public void execute(Transaction txn) {
+					ByteIterable key = getKey(commitId, path);
+					lastCommitsStore.put(txn, key, new ArrayByteIterable(bytes));
+					writeLong(accessStore, txn, key, System.currentTimeMillis());
+					Collection<ObjectId> commitIds = readCommits(pathCommitsStore, txn, pathKey);
+					commitIds.add(commitId);
+					writeCommits(pathCommitsStore, txn, pathKey, commitIds);
+				}
+
+			});
+		}
+		return lastCommits;
+	}
+
+	@Nullable
+	private Map<String, Value> readLastCommits(Environment env, Store lastCommitsStore,
+			Store accessStore, ByteIterable key) {
+		long now = System.currentTimeMillis();
+		AtomicBoolean accessOutdated = new AtomicBoolean(false);
+		byte[] bytes = env.computeInReadonlyTransaction(new TransactionalComputable<byte[]>() {
+
+			@Override
+			public byte[] compute(Transaction txn) {
+				accessOutdated.set(readLong(accessStore, txn, key, 0) < now - ACCESS_UPDATE_INTERVAL);
+				return readBytes(lastCommitsStore, txn, key);
+			}
+
+		});
+		if (bytes != null) {
+			// Only record access time occasionally to avoid a write for every read 
+			if (accessOutdated.get()) {
+				env.executeInTransaction(new TransactionalExecutable() {
+	
+					@Override
+					public void execute(Transaction txn) {
+						if (lastCommitsStore.get(txn, key) != null)
+							writeLong(accessStore, txn, key, now);
+					}
+	
+				});
+			}
+			return decode(bytes);
+		} else {
+			return null;
+		}
+	}
+
+	private ByteIterable getKey(ObjectId commitId, String path) {
+		byte[] pathBytes = path.getBytes(StandardCharsets.UTF_8);
+		byte[] keyBytes = new byte[20 + pathBytes.length];
+		commitId.copyRawTo(keyBytes, 0);
+		System.arraycopy(pathBytes, 0, keyBytes, 20, pathBytes.length);
+		return new ArrayByteIterable(keyBytes);
+	}
+
+	/*
+	 * Value of last commits is only known to be serializable, so we compress its
+	 * serialized form, which contains lots of repeated class descriptors and names
+	 */
+	private byte[] encode(LastCommitsOfChildren lastCommits) {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try (DeflaterOutputStream os = new DeflaterOutputStream(baos)) {
+			SerializationUtils.serialize(new HashMap<>(lastCommits), os);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return baos.toByteArray();
+	}
+
+	@SuppressWarnings("unchecked")
+	private Map<String, Value> decode(byte[] bytes) {
+		try (InflaterInputStream is = new InflaterInputStream(new ByteArrayInputStream(bytes))) {
+			return (Map<String, Value>) SerializationUtils.deserialize(is);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Sessional
+	@Listen
+	public void on(RefUpdated event) {
+		Project project = event.getProject();
+		if (!event.getNewCommitId().equals(ObjectId.zeroId()) && project.getDefaultBranch() != null
+				&& GitUtils.branch2ref(project.getDefaultBranch()).equals(event.getRefName())) {
+			Long projectId = project.getId();
+			BatchWorker worker = new BatchWorker("project-" + projectId + "-precomputeLastCommits") {
+
+				@Override
+				public void doWorks(Collection<Prioritized> works) {
+					sessionManager.run(new Runnable() {
+
+						@Override
+						public void run() {
+							precompute(projectManager.load(projectId));
+						}
+
+					});
+				}
+
+			};
+			batchWorkManager.submit(worker, new Prioritized(PRIORITY));
+		}
+	}
+
+	private void precompute(Project project) {
+		if (project.getDefaultBranch() == null)
+			return;
+		ObjectId commitId = project.getObjectId(GitUtils.branch2ref(project.getDefaultBranch()), false);
+		if (commitId == null)
+			return;
+
+		Collection<String> paths = new LinkedHashSet<>();
+		paths.add("");
+		Map<String, Boolean> projectViewedPaths = viewedPaths.get(project.getId());
+		if (projectViewedPaths != null) {
+			synchronized (projectViewedPaths) {
+				paths.addAll(projectViewedPaths.keySet());
+			}
+		}
+
+		for (String path: paths) {
+			try {
+				getLastCommitsOfChildren(project, commitId, path, 0);
+			} catch (Exception e) {
+				// folder may no longer exist in new commit
+				logger.debug("Error calculating last commits (project: " + project.getName()
+						+ ", path: " + path + ")", e);
+			}
+		}
+	}
+
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project) {
+			Long projectId = event.getEntity().getId();
+			removeEnv(projectId.toString());
+			viewedPaths.remove(projectId);
+		}
+	}
+
+	@Listen
+	public void on(SystemStarted event) {
+		taskId = taskScheduler.schedule(this);
+	}
+
+	@Listen
+	@Override
+	public void on(SystemStopping event) {
+		taskScheduler.unschedule(taskId);
+		super.on(event);
+	}
+
+	@Override
+	public void execute() {
+		List<Long> projectIds = sessionManager.call(new Callable<List<Long>>() {
+
+			@Override
+			public List<Long> call() throws Exception {
+				List<Long> projectIds = new ArrayList<>();
+				for (Project project: projectManager.query())
+					projectIds.add(project.getId());
+				return projectIds;
+			}
+
+		});
+
+		long threshold = new DateTime().minusDays(MAX_AGE_DAYS).getMillis();
+		for (Long projectId: projectIds) {
+			if (getEnvDir(projectId.toString()).exists()) {
+				try {
+					evict(projectId, threshold);
+				} catch (Exception e) {
+					logger.error("Error evicting last commits of project " + projectId, e);
+				}
+			}
+		}
+	}
+
+	private void evict(Long projectId, long threshold) {
+		Environment env = getEnv(projectId.toString());
+		Store lastCommitsStore = getStore(env, LAST_COMMITS_STORE);
+		Store pathCommitsStore = getStore(env, PATH_COMMITS_STORE);
+		Store accessStore = getStore(env, ACCESS_STORE);
+
+		env.executeInTransaction(new TransactionalExecutable() {
+
+			@Override
+			public void execute(Transaction txn) {
+				List<Entry> entries = new ArrayList<>();
+				try (Cursor cursor = accessStore.openCursor(txn)) {
+					while (cursor.getNext()) {
+						ByteIterable key = cursor.getKey();
+						byte[] keyBytes = Arrays.copyOf(key.getBytesUnsafe(), key.getLength());
+						ByteIterable value = cursor.getValue();
+						long accessTime = ByteBuffer.wrap(value.getBytesUnsafe(), 0, Long.BYTES).getLong();
+						entries.add(new Entry(keyBytes, accessTime));
+					}
+				}
+				entries.sort(new Comparator<Entry>() {
+
+					@Override
+					public int compare(Entry o1, Entry o2) {
+						return Long.compare(o2.accessTime, o1.accessTime);
+					}
+
+				});
+
+				int evicted = 0;
+				Map<String, Collection<ObjectId>> evictedCommits = new HashMap<>();
+				for (int i=0; i<entries.size(); i++) {
+					Entry entry = entries.get(i);
+					if (i >= MAX_ENTRIES || entry.accessTime < threshold) {
+						ByteIterable key = new ArrayByteIterable(entry.key);
+						lastCommitsStore.delete(txn, key);
+						accessStore.delete(txn, key);
+						evicted++;
+						String path = new String(entry.key, 20, entry.key.length-20, StandardCharsets.UTF_8);
+						Collection<ObjectId> commitIds = evictedCommits.get(path);
+						if (commitIds == null) {
+							commitIds = new ArrayList<>();
+							evictedCommits.put(path, commitIds);
+						}
+						commitIds.add(ObjectId.fromRaw(entry.key, 0));
+					}
+				}
+				for (Map.Entry<String, Collection<ObjectId>> mapEntry: evictedCommits.entrySet()) {
+					ByteIterable pathKey = new StringByteIterable(mapEntry.getKey());
+					Collection<ObjectId> commitIds = readCommits(pathCommitsStore, txn, pathKey);
+					commitIds.removeAll(mapEntry.getValue());
+					if (!commitIds.isEmpty())
+						writeCommits(pathCommitsStore, txn, pathKey, commitIds);
+					else
+						pathCommitsStore.delete(txn, pathKey);
+				}
+				if (evicted != 0)
+					logger.debug("Evicted {} last commits entries of project {}", evicted, projectId);
+			}
+
+		});
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return CronScheduleBuilder.dailyAtHourAndMinute(2, 0);
+	}
+
+	private static class Entry {
+
+		final byte[] key;
+
+		final long accessTime;
+
+		Entry(byte[] key, long accessTime) {
+			this.key = key;
+			this.accessTime = accessTime;
+		}
+
+	}
+
+}
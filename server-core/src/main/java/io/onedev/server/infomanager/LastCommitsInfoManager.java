@@ -0,0 +1,26 @@
+package io.onedev.server.infomanager;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.LastCommitsOfChildren;
+
+import io.onedev.server.model.Project;
+
+public interface LastCommitsInfoManager {
+
+	/**
+	 * Get last commits of children of specified path. Result is served from the project's
+	 * last commits store if available, and is added to the store if it is expensive to
+	 * calculate
+	 *
+	 * @param project
+	 * 			project to get last commits in
+	 * @param commitId
+	 * 			commit to start from
+	 * @param path
+	 * 			path of the folder, <tt>null</tt> for repository root
+	 */
+	LastCommitsOfChildren getLastCommitsOfChildren(Project project, ObjectId commitId, @Nullable String path);
+
+}
@@ -2,7 +2,12 @@ package io.onedev.server.maintenance;
 
 import java.io.File;
 import java.io.ObjectStreamException;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
@@ -20,6 +25,8 @@ import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.quartz.CronScheduleBuilder;
 import org.quartz.ScheduleBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.Lists;
@@ -30,7 +37,6 @@ import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.launcher.loader.ManagedSerializedForm;
 import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.FileUtils;
-import io.onedev.commons.utils.ZipUtils;
 import io.onedev.server.OneDev;
 import io.onedev.server.crypto.ServerKeyPairPopulator;
 import io.onedev.server.entitymanager.RoleManager;
@@ -64,6 +70,8 @@ import io.onedev.server.util.schedule.TaskScheduler;
 @Singleton
 public class DefaultDataManager implements DataManager, Serializable {
 
+	private static final Logger logger = LoggerFactory.getLogger(DefaultDataManager.class);
+	
 	private final UserManager userManager;
 	
 	private final SettingManager settingManager;
@@ -289,20 +297,36 @@ public class DefaultDataManager implements DataManager, Serializable {
 
 				@Override
 				public void execute() {
-					File tempDir = FileUtils.createTempDir("backup");
-					try {
-						File backupDir = new File(Bootstrap.getSiteDir(), Upgrade.DB_BACKUP_DIR);
-						FileUtils.createDir(backupDir);
-						persistManager.exportData(tempDir);
-						File backupFile = new File(backupDir, 
-								DateTimeFormat.forPattern(Upgrade.BACKUP_DATETIME_FORMAT).print(new DateTime()) + ".zip");
-						ZipUtils.zip(tempDir, backupFile);
+					File backupDir = new File(Bootstrap.getSiteDir(), Upgrade.DB_BACKUP_DIR);
+					FileUtils.createDir(backupDir);
+					File backupFile = new File(backupDir, 
+							DateTimeFormat.forPattern(Upgrade.BACKUP_DATETIME_FORMAT).print(new DateTime()) + ".zip");
+					
+					List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+					for (MemoryPoolMXBean pool: ManagementFactory.getMemoryPoolMXBeans()) {
+						if (pool.getType() == MemoryType.HEAP) {
+							pool.resetPeakUsage();
+							heapPools.add(pool);
+						}
+					}
+					long time = System.currentTimeMillis();
+					try (OutputStream os = Files.newOutputStream(backupFile.toPath())) {
+						persistManager.exportData(os);
 					} catch (Exception e) {
+						if (backupFile.exists())
+							FileUtils.deleteFile(backupFile);
 						notifyBackupError(e);
 						throw ExceptionUtils.unchecked(e);
-					} finally {
-						FileUtils.deleteDir(tempDir);
 					}
+					
+					long elapsed = Math.max(System.currentTimeMillis()-time, 1);
+					long peakHeap = 0;
+					for (MemoryPoolMXBean pool: heapPools)
+						peakHeap += pool.getPeakUsage().getUsed();
+					logger.info("Database backed up to {} (size: {} KB, elapsed: {} seconds, "
+							+ "throughput: {} KB/second, peak heap usage: {} MB)", 
+							backupFile.getName(), backupFile.length()/1024, elapsed/1000, 
+							backupFile.length()*1000/1024/elapsed, peakHeap/1024/1024);
 				}
 
 				@Override
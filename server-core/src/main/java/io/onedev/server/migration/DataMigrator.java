@@ -6,10 +6,12 @@ import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
@@ -18,7 +20,6 @@ import javax.inject.Singleton;
 
 import org.apache.commons.io.IOUtils;
 import org.dom4j.Element;
-import org.dom4j.Node;
 
 import com.google.common.base.Preconditions;
 
@@ -1278,135 +1279,167 @@ public class DataMigrator {
 	
 	private void migrate27(File dataDir, Stack<Integer> versions) {
 		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Projects.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					Element buildSettingElement = element.element("buildSetting");
-					buildSettingElement.element("buildsToPreserve").detach();
-					buildSettingElement.addElement("preservations");
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("IssueChanges.xml")) {
+			if (file.getName().startsWith("IssueChanges.xml"))
 				FileUtils.deleteFile(file);
-			}
 		}
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return fileName.startsWith("Projects.xml");
+			}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				Element buildSettingElement = element.element("buildSetting");
+				buildSettingElement.element("buildsToPreserve").detach();
+				buildSettingElement.addElement("preservations");
+				return true;
+			}
+			
+		});
 	}
 	
 	private void migrate28(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Users.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					Element buildSettingElement = element.addElement("buildSetting");
-					buildSettingElement.addElement("secrets");
-					buildSettingElement.addElement("buildPreservations");
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Projects.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return fileName.startsWith("Users.xml") || fileName.startsWith("Projects.xml");
+			}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				if (fileName.startsWith("Projects.xml")) {
 					element.element("secrets").detach();
 					element.element("buildSetting").detach();
-					Element buildSettingElement = element.addElement("buildSetting");
-					buildSettingElement.addElement("secrets");
-					buildSettingElement.addElement("buildPreservations");
 				}
-				dom.writeToFile(file, false);
+				Element buildSettingElement = element.addElement("buildSetting");
+				buildSettingElement.addElement("secrets");
+				buildSettingElement.addElement("buildPreservations");
+				return true;
 			}
-		}
+			
+		});
 	}
 	
 	private void migrate29(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Users.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements())
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return fileName.startsWith("Users.xml") || fileName.startsWith("Projects.xml");
+			}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				if (fileName.startsWith("Users.xml")) {
 					element.addElement("webHooks");
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Projects.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
+				} else {
 					for (Element branchProtectionElement: element.element("branchProtections").elements())
 						branchProtectionElement.element("user").setName("userMatch");
 					for (Element tagProtectionElement: element.element("tagProtections").elements())
 						tagProtectionElement.element("user").setName("userMatch");
 				}
-				dom.writeToFile(file, false);
+				return true;
 			}
-		}
+			
+		});
 	}
 	
 	private void migrate30(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Settings.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					String key = element.elementTextTrim("key"); 
-					if (key.equals("JOB_EXECUTORS")) 
-						element.detach();
-				}
-				dom.writeToFile(file, false);
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return fileName.startsWith("Settings.xml");
 			}
-		}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				return !element.elementTextTrim("key").equals("JOB_EXECUTORS");
+			}
+			
+		});
 	}
 	
 	private void migrate31(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Roles.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					Element editableIssueFieldsElement = element.element("editableIssueFields");
-					editableIssueFieldsElement.detach();
-					element.addElement("editableIssueFields").addAttribute(
-							"class", "io.onedev.server.model.support.role.AllIssueFields");
-				}
-				dom.writeToFile(file, false);
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return fileName.startsWith("Roles.xml");
 			}
-		}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				Element editableIssueFieldsElement = element.element("editableIssueFields");
+				editableIssueFieldsElement.detach();
+				element.addElement("editableIssueFields").addAttribute(
+						"class", "io.onedev.server.model.support.role.AllIssueFields");
+				return true;
+			}
+			
+		});
 	}
 
 	private void migrate32(File dataDir, Stack<Integer> versions) {
 		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Settings.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					String key = element.elementTextTrim("key"); 
-					if (key.equals("ISSUE"))
-						element.detach();
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("IssueChanges.xml")) { 
+			if (file.getName().startsWith("IssueChanges.xml"))
 				FileUtils.deleteFile(file);
-			}
 		}
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return fileName.startsWith("Settings.xml");
+			}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				return !element.elementTextTrim("key").equals("ISSUE");
+			}
+			
+		});
 	}
 	
 	private void migrate33(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Projects.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					for (Element branchProtectionElement: element.element("branchProtections").elements()) {
-						branchProtectionElement.element("noCreation").setName("preventCreation");
-						branchProtectionElement.element("noDeletion").setName("preventDeletion");
-						branchProtectionElement.element("noForcedPush").setName("preventForcedPush");
-					}
-					for (Element tagProtectionElement: element.element("tagProtections").elements()) {
-						tagProtectionElement.element("noCreation").setName("preventCreation");
-						tagProtectionElement.element("noDeletion").setName("preventDeletion");
-						tagProtectionElement.element("noUpdate").setName("preventUpdate");
-					}
-				}
-				dom.writeToFile(file, false);
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return fileName.startsWith("Projects.xml");
 			}
-		}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				for (Element branchProtectionElement: element.element("branchProtections").elements()) {
+					branchProtectionElement.element("noCreation").setName("preventCreation");
+					branchProtectionElement.element("noDeletion").setName("preventDeletion");
+					branchProtectionElement.element("noForcedPush").setName("preventForcedPush");
+				}
+				for (Element tagProtectionElement: element.element("tagProtections").elements()) {
+					tagProtectionElement.element("noCreation").setName("preventCreation");
+					tagProtectionElement.element("noDeletion").setName("preventDeletion");
+					tagProtectionElement.element("noUpdate").setName("preventUpdate");
+				}
+				return true;
+			}
+			
+		});
 	}
 	
 	private void migrate34(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Settings.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return fileName.startsWith("Settings.xml") || fileName.startsWith("Milestones.xml");
+			}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				if (fileName.startsWith("Settings.xml")) {
 					if (element.elementTextTrim("key").equals("ISSUE")) {
 						Element valueElement = element.element("value");
 						if (valueElement != null) {
@@ -1417,78 +1450,53 @@ public class DataMigrator {
 							}
 						}
 					}
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Milestones.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
+				} else {
 					element.element("numOfOpenIssues").setName("numOfIssuesTodo");
 					element.element("numOfClosedIssues").setName("numOfIssuesDone");
 				}
-				dom.writeToFile(file, false);
+				return true;
 			}
-		}
+			
+		});
+	}
+	
+	private void migrateLastUpdate35(Element element, String dateElementName, String userElementName, 
+			String activity) {
+		element.element("updateDate").detach();
+		Element dateElement = element.element(dateElementName);
+		Element lastUpdateElement = element.addElement("lastUpdate");
+		Element userElement = element.element(userElementName);
+		Element lastUpdateUserElement = lastUpdateElement.addElement("user");
+		if (userElement != null)
+			lastUpdateUserElement.setText(userElement.getTextTrim());
+		else
+			lastUpdateUserElement.setText("1");
+		lastUpdateElement.addElement("activity").setText(activity);
+		Element lastUpdateDateElement = lastUpdateElement.addElement("date");
+		lastUpdateDateElement.addAttribute("class", dateElement.attributeValue("class"));
+		lastUpdateDateElement.setText(dateElement.getTextTrim());
 	}
 	
 	private void migrate35(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("CodeComments.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					element.element("updateDate").detach();
-					Element createDateElement = element.element("createDate");
-					Element lastUpdateElement = element.addElement("lastUpdate");
-					Element userElement = element.element("user");
-					Element lastUpdateUserElement = lastUpdateElement.addElement("user");
-					if (userElement != null)
-						lastUpdateUserElement.setText(userElement.getTextTrim());
-					else
-						lastUpdateUserElement.setText("1");
-					lastUpdateElement.addElement("activity").setText("created");
-					Element dateElement = lastUpdateElement.addElement("date");
-					dateElement.addAttribute("class", createDateElement.attributeValue("class"));
-					dateElement.setText(createDateElement.getTextTrim());
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("PullRequests.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					element.element("updateDate").detach();
-					Element submitDateElement = element.element("submitDate");
-					Element lastUpdateElement = element.addElement("lastUpdate");
-					Element submitterElement = element.element("submitter");
-					Element lastUpdateUserElement = lastUpdateElement.addElement("user");
-					if (submitterElement != null)
-						lastUpdateUserElement.setText(submitterElement.getTextTrim());
-					else
-						lastUpdateUserElement.setText("1");
-					lastUpdateElement.addElement("activity").setText("opened");
-					Element dateElement = lastUpdateElement.addElement("date");
-					dateElement.addAttribute("class", submitDateElement.attributeValue("class"));
-					dateElement.setText(submitDateElement.getTextTrim());
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Issues.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					element.element("updateDate").detach();
-					Element submitDateElement = element.element("submitDate");
-					Element lastUpdateElement = element.addElement("lastUpdate");
-					Element submitterElement = element.element("submitter");
-					Element lastUpdateUserElement = lastUpdateElement.addElement("user");
-					if (submitterElement != null)
-						lastUpdateUserElement.setText(submitterElement.getTextTrim());
-					else
-						lastUpdateUserElement.setText("1");
-					lastUpdateElement.addElement("activity").setText("opened");
-					Element dateElement = lastUpdateElement.addElement("date");
-					dateElement.addAttribute("class", submitDateElement.attributeValue("class"));
-					dateElement.setText(submitDateElement.getTextTrim());
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Projects.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return fileName.startsWith("CodeComments.xml") || fileName.startsWith("PullRequests.xml")
+						|| fileName.startsWith("Issues.xml") || fileName.startsWith("Projects.xml")
+						|| fileName.startsWith("Users.xml") || fileName.startsWith("BuildQuerySettings.xml")
+						|| fileName.startsWith("Settings.xml") || fileName.startsWith("Milestones.xml");
+			}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				if (fileName.startsWith("CodeComments.xml")) {
+					migrateLastUpdate35(element, "createDate", "user", "created");
+				} else if (fileName.startsWith("PullRequests.xml")) {
+					migrateLastUpdate35(element, "submitDate", "submitter", "opened");
+				} else if (fileName.startsWith("Issues.xml")) {
+					migrateLastUpdate35(element, "submitDate", "submitter", "opened");
+				} else if (fileName.startsWith("Projects.xml")) {
 					Element buildSettingElement = element.element("buildSetting");
 					Element namedQueriesElement = buildSettingElement.element("namedQueries");
 					if (namedQueriesElement != null) {
@@ -1508,11 +1516,7 @@ public class DataMigrator {
 						if (buildBranchesElement != null)
 							buildBranchesElement.detach();
 					}
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Users.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
+				} else if (fileName.startsWith("Users.xml")) {
 					for (Element queryElement: element.element("userBuildQueries").elements())
 						queryElement.setName("io.onedev.server.model.support.build.NamedBuildQuery");
 					Element buildSettingElement = element.element("buildSetting");
@@ -1528,18 +1532,10 @@ public class DataMigrator {
 						element.addElement("password").setText("external_managed");
 					else if (StringUtils.isBlank(passwordElement.getText()))
 						passwordElement.setText("external_managed");
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("BuildQuerySettings.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
+				} else if (fileName.startsWith("BuildQuerySettings.xml")) {
 					for (Element queryElement: element.element("userQueries").elements()) 
 						queryElement.setName("io.onedev.server.model.support.build.NamedBuildQuery");
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Settings.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
+				} else if (fileName.startsWith("Settings.xml")) {
 					if (element.elementTextTrim("key").equals("ISSUE")) {
 						Element valueElement = element.element("value");
 						if (valueElement != null) {
@@ -1554,17 +1550,14 @@ public class DataMigrator {
 								queryElement.setName("io.onedev.server.model.support.build.NamedBuildQuery");
 						}
 					}
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Milestones.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
+				} else {
 					element.element("numOfIssuesTodo").detach();
 					element.element("numOfIssuesDone").detach();
 				}
-				dom.writeToFile(file, false);
+				return true;
 			}
-		}
+			
+		});
 	}	
 
 	// Database schema changed
@@ -1572,16 +1565,19 @@ public class DataMigrator {
 	}
 	
 	private void migrate37(File dataDir, Stack<Integer> versions) {
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Settings.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
-					if (element.elementTextTrim("key").equals("LICENSE"))
-						element.detach();
-				}
-				dom.writeToFile(file, false);
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return fileName.startsWith("Settings.xml");
 			}
-		}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				return !element.elementTextTrim("key").equals("LICENSE");
+			}
+			
+		});
 	}	
 	
 	private Long getForkedRoot38(Map<Long, Long> forkedFroms, Long projectId) {
@@ -1592,89 +1588,105 @@ public class DataMigrator {
 			return projectId;
 	}
 	
+	/*
+	 * Equivalent of xpath "//<name>" on a single entity element 
+	 */
+	private List<Element> findElements38(Element element, String name) {
+		List<Element> found = new ArrayList<>();
+		if (element.getName().equals(name))
+			found.add(element);
+		for (Element child: element.elements())
+			found.addAll(findElements38(child, name));
+		return found;
+	}
+	
+	private void migrateNumber38(Element element, String projectElementName, 
+			Map<Long, Long> forkedRoots, Map<Long, Set<Long>> numbers) {
+		Element numberElement = element.element("number");
+		Long number = Long.valueOf(numberElement.getTextTrim());
+		Long projectId = Long.valueOf(element.elementTextTrim(projectElementName));
+		Long forkedRoot = forkedRoots.get(projectId);
+		element.addElement("numberScope").setText(forkedRoot.toString());
+		if (!projectId.equals(forkedRoot)) {
+			Set<Long> numbersOfForkedRoot = numbers.get(forkedRoot);
+			synchronized (numbersOfForkedRoot) {
+				if (numbersOfForkedRoot.contains(number)) {
+					number = Collections.max(numbersOfForkedRoot) + 1;
+					numberElement.setText(number.toString());
+				} 
+				numbersOfForkedRoot.add(number);
+			}
+		}
+	}
+	
+	private void collectNumber38(Element element, String projectElementName, 
+			Map<Long, Long> forkedRoots, Map<Long, Set<Long>> numbers) {
+		Long number = Long.valueOf(element.elementTextTrim("number"));
+		Long projectId = Long.valueOf(element.elementTextTrim(projectElementName));
+		if (projectId.equals(forkedRoots.get(projectId))) {
+			Set<Long> numbersOfForkedRoot = numbers.get(projectId);
+			synchronized (numbersOfForkedRoot) {
+				numbersOfForkedRoot.add(number);
+			}
+		}
+	}
+	
 	// from 3.0.10 to 3.0.11
 	private void migrate38(File dataDir, Stack<Integer> versions) {
-		Map<Long, Long> forkedFroms = new HashMap<>();
+		Map<Long, Long> forkedFroms = Collections.synchronizedMap(new HashMap<>());
 		
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().contains(".xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Node node: dom.selectNodes("//io.onedev.server.model.support.pullrequest.NamedPullRequestQuery")) {
-					if (node instanceof Element) {
-						Element element = (Element) node;
-						if (element.elementTextTrim("query").equals("all"))
-							element.element("query").detach();
-					}
-				}
-				for (Node node: dom.selectNodes("//io.onedev.server.model.support.issue.NamedIssueQuery")) {
-					if (node instanceof Element) {
-						Element element = (Element) node;
-						if (element.elementTextTrim("query").equals("all"))
-							element.element("query").detach();
-					}
-				}
-				for (Node node: dom.selectNodes("//io.onedev.server.model.support.build.NamedBuildQuery")) {
-					if (node instanceof Element) {
-						Element element = (Element) node;
-						if (element.elementTextTrim("query").equals("all"))
-							element.element("query").detach();
-					}
-				}
-				for (Node node: dom.selectNodes("//io.onedev.server.model.support.NamedProjectQuery")) {
-					if (node instanceof Element) {
-						Element element = (Element) node;
-						if (element.elementTextTrim("query").equals("all"))
-							element.element("query").detach();
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return true;
+			}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				for (String queryClass: new String[] {
+						"io.onedev.server.model.support.pullrequest.NamedPullRequestQuery", 
+						"io.onedev.server.model.support.issue.NamedIssueQuery", 
+						"io.onedev.server.model.support.build.NamedBuildQuery", 
+						"io.onedev.server.model.support.NamedProjectQuery"}) {
+					for (Element queryElement: findElements38(element, queryClass)) {
+						if (queryElement.elementTextTrim("query").equals("all"))
+							queryElement.element("query").detach();
 					}
 				}
-				for (Node node: dom.selectNodes("//issueQuery")) {
-					if (node instanceof Element) {
-						Element element = (Element) node;
-						if (element.getTextTrim().equals("all"))
-							element.detach();
+				for (Element issueQueryElement: findElements38(element, "issueQuery")) {
+					if (issueQueryElement.getTextTrim().equals("all")) {
+						if (issueQueryElement == element)
+							return false;
+						issueQueryElement.detach();
 					}
 				}
-				for (Node node: dom.selectNodes("//io.onedev.server.model.support.build.BuildPreservation")) {
-					if (node instanceof Element) {
-						Element element = (Element) node;
-						Element conditionElement = element.element("condition");
-						if (conditionElement.getTextTrim().equals("all"))
-							conditionElement.detach();
-					}
+				for (Element preservationElement: findElements38(element, 
+						"io.onedev.server.model.support.build.BuildPreservation")) {
+					Element conditionElement = preservationElement.element("condition");
+					if (conditionElement.getTextTrim().equals("all"))
+						conditionElement.detach();
 				}
-				for (Node node: dom.selectNodes("//listFields")) {
-					if (node instanceof Element) {
-						Element element = (Element) node;
-						Element stateElement = element.addElement("string");
-						stateElement.setText("State");
-						stateElement.detach();
-						element.elements().add(0, stateElement);
-					}
+				for (Element listFieldsElement: findElements38(element, "listFields")) {
+					Element stateElement = listFieldsElement.addElement("string");
+					stateElement.setText("State");
+					stateElement.detach();
+					listFieldsElement.elements().add(0, stateElement);
 				}
-				dom.writeToFile(file, false);
-			}
-			if (file.getName().startsWith("IssueChanges.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
+				
+				if (fileName.startsWith("IssueChanges.xml")) {
 					Element dataElement = element.element("data");
 					String className = dataElement.attributeValue("class");
 					if (className.contains("IssueCommittedData") || className.contains("IssuePullRequest")) 
-						element.detach();
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Projects.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
+						return false;
+				} else if (fileName.startsWith("Projects.xml")) {
 					Long projectId = Long.valueOf(element.elementTextTrim("id"));
 					Element forkedFromElement = element.element("forkedFrom");
 					if (forkedFromElement != null)
 						forkedFroms.put(projectId, Long.valueOf(forkedFromElement.getTextTrim()));
 					else
 						forkedFroms.put(projectId, null);
-				}				
-			} else if (file.getName().startsWith("Settings.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) {
+				} else if (fileName.startsWith("Settings.xml")) {
 					if (element.elementTextTrim("key").equals("MAIL")) {
 						Element valueElement = element.element("value");
 						if (valueElement != null) {
@@ -1683,9 +1695,10 @@ public class DataMigrator {
 						}
 					}
 				}
-				dom.writeToFile(file, false);
+				return true;
 			}
-		}
+			
+		});
 		
 		Map<Long, Long> forkedRoots = new HashMap<>();
 		for (Long projectId: forkedFroms.keySet()) {
@@ -1702,95 +1715,68 @@ public class DataMigrator {
 			pullRequestNumbers.put(forkedRoot, new HashSet<>());
 		}
 		
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Issues.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) { 
-					Long issueNumber = Long.valueOf(element.elementTextTrim("number"));
-					Long projectId = Long.valueOf(element.elementTextTrim("project"));
-					if (projectId.equals(forkedRoots.get(projectId)))
-						issueNumbers.get(projectId).add(issueNumber); 
-				}
-			} else if (file.getName().startsWith("Builds.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) { 
-					Long buildNumber = Long.valueOf(element.elementTextTrim("number"));
-					Long projectId = Long.valueOf(element.elementTextTrim("project"));
-					if (projectId.equals(forkedRoots.get(projectId)))
-						buildNumbers.get(projectId).add(buildNumber);
-				}
-			} else if (file.getName().startsWith("PullRequests.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) { 
-					Long requestNumber = Long.valueOf(element.elementTextTrim("number"));
-					Long projectId = Long.valueOf(element.elementTextTrim("targetProject"));
-					if (projectId.equals(forkedRoots.get(projectId)))
-						pullRequestNumbers.get(projectId).add(requestNumber);
-				}
-			} 
-		}
+		ElementTransformer numberCollector = new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return fileName.startsWith("Issues.xml") || fileName.startsWith("Builds.xml") 
+						|| fileName.startsWith("PullRequests.xml");
+			}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				if (fileName.startsWith("Issues.xml")) 
+					collectNumber38(element, "project", forkedRoots, issueNumbers);
+				else if (fileName.startsWith("Builds.xml")) 
+					collectNumber38(element, "project", forkedRoots, buildNumbers);
+				else 
+					collectNumber38(element, "targetProject", forkedRoots, pullRequestNumbers);
+				return true;
+			}
+			
+		};
+		XmlDataFiles.scan(dataDir, numberCollector);
 		
-		for (File file: dataDir.listFiles()) {
-			if (file.getName().startsWith("Issues.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) { 
-					Element numberElement = element.element("number");
-					Long issueNumber = Long.valueOf(numberElement.getTextTrim());
-					Long projectId = Long.valueOf(element.elementTextTrim("project"));
-					Long forkedRoot = forkedRoots.get(projectId);
-					element.addElement("numberScope").setText(forkedRoot.toString());
-					if (!projectId.equals(forkedRoot)) {
-						Set<Long> issueNumbersOfForkedRoot = issueNumbers.get(forkedRoot);
-						if (issueNumbersOfForkedRoot.contains(issueNumber)) {
-							issueNumber = Collections.max(issueNumbersOfForkedRoot) + 1;
-							numberElement.setText(issueNumber.toString());
-						} 
-						issueNumbersOfForkedRoot.add(issueNumber);
-					}
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("Builds.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) { 
-					Element numberElement = element.element("number");
-					Long buildNumber = Long.valueOf(numberElement.getTextTrim());
-					Long projectId = Long.valueOf(element.elementTextTrim("project"));
-					Long forkedRoot = forkedRoots.get(projectId);
-					element.addElement("numberScope").setText(forkedRoot.toString());
-					if (!projectId.equals(forkedRoot)) {
-						Set<Long> buildNumbersOfForkedRoot = buildNumbers.get(forkedRoot);
-						if (buildNumbersOfForkedRoot.contains(buildNumber)) {
-							buildNumber = Collections.max(buildNumbersOfForkedRoot) + 1;
-							numberElement.setText(buildNumber.toString());
-						} 
-						buildNumbersOfForkedRoot.add(buildNumber);
-					}
-				}
-				dom.writeToFile(file, false);
-			} else if (file.getName().startsWith("PullRequests.xml")) {
-				VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-				for (Element element: dom.getRootElement().elements()) { 
-					Element numberElement = element.element("number");
-					Long requestNumber = Long.valueOf(numberElement.getTextTrim());
-					Long projectId = Long.valueOf(element.elementTextTrim("targetProject"));
-					Long forkedRoot = forkedRoots.get(projectId);
-					element.addElement("numberScope").setText(forkedRoot.toString());
-					if (!projectId.equals(forkedRoot)) {
-						Set<Long> requestNumbersOfForkedRoot = pullRequestNumbers.get(forkedRoot);
-						if (requestNumbersOfForkedRoot.contains(requestNumber)) {
-							requestNumber = Collections.max(requestNumbersOfForkedRoot) + 1;
-							numberElement.setText(requestNumber.toString());
-						} 
-						requestNumbersOfForkedRoot.add(requestNumber);
-					}
-				}
-				dom.writeToFile(file, false);
-			} 
-		}
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return numberCollector.isApplicable(fileName);
+			}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				if (fileName.startsWith("Issues.xml")) 
+					migrateNumber38(element, "project", forkedRoots, issueNumbers);
+				else if (fileName.startsWith("Builds.xml")) 
+					migrateNumber38(element, "project", forkedRoots, buildNumbers);
+				else 
+					migrateNumber38(element, "targetProject", forkedRoots, pullRequestNumbers);
+				return true;
+			}
+			
+		});
 	}
 	
 	// from 3.0.11 to 3.0.12
 	private void migrate39(File dataDir, Stack<Integer> versions) {
 	}
 	
+	private void migrate40(File dataDir, Stack<Integer> versions) {
+		XmlDataFiles.transform(dataDir, new ElementTransformer() {
+
+			@Override
+			public boolean isApplicable(String fileName) {
+				return fileName.startsWith("Projects.xml");
+			}
+
+			@Override
+			public boolean transform(String fileName, Element element) {
+				element.addElement("storeIndexedContent").setText("false");
+				return true;
+			}
+			
+		});
+	}
+	
 }
@@ -0,0 +1,27 @@
+package io.onedev.server.migration;
+
+import org.dom4j.Element;
+
+public interface ElementTransformer {
+
+	/**
+	 * @param fileName
+	 * 			name of the data file
+	 * @return
+	 * 			whether or not entity elements of specified data file should be transformed
+	 */
+	boolean isApplicable(String fileName);
+
+	/**
+	 * Transform specified entity element in place
+	 *
+	 * @param fileName
+	 * 			name of the data file containing the element
+	 * @param element
+	 * 			entity element to transform
+	 * @return
+	 * 			<tt>false</tt> if the element should be removed
+	 */
+	boolean transform(String fileName, Element element);
+
+}
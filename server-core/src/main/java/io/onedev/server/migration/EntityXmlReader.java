@@ -0,0 +1,90 @@
+package io.onedev.server.migration;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+
+/**
+ * Reads entity elements of a data file one by one, so that only one entity is
+ * held in memory at a time
+ */
+public class EntityXmlReader implements Closeable {
+
+	private final InputStream is;
+
+	private final XMLStreamReader reader;
+
+	private final String rootName;
+
+	public EntityXmlReader(File file) throws IOException, XMLStreamException {
+		is = new BufferedInputStream(new FileInputStream(file));
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		reader = factory.createXMLStreamReader(is);
+
+		// move to root element
+		while (reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT);
+		rootName = reader.getLocalName();
+	}
+
+	public String getRootName() {
+		return rootName;
+	}
+
+	/**
+	 * @return
+	 * 			next entity element, or <tt>null</tt> if all entity elements are read
+	 */
+	@Nullable
+	public Element next() throws XMLStreamException {
+		while (reader.hasNext()) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				return readElement();
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				return null;
+		}
+		return null;
+	}
+
+	private Element readElement() throws XMLStreamException {
+		Element element = DocumentHelper.createElement(reader.getLocalName());
+		for (int i=0; i<reader.getAttributeCount(); i++)
+			element.addAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+		while (true) {
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+				element.add(readElement());
+			else if (event == XMLStreamConstants.CHARACTERS || event == XMLStreamConstants.CDATA
+					|| event == XMLStreamConstants.SPACE)
+				element.addText(reader.getText());
+			else if (event == XMLStreamConstants.END_ELEMENT)
+				return element;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			reader.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			is.close();
+		}
+	}
+
+}
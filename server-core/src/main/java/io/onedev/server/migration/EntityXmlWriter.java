@@ -0,0 +1,61 @@
+package io.onedev.server.migration;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.dom4j.Attribute;
+import org.dom4j.CDATA;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.dom4j.Text;
+
+/**
+ * Writes entity elements into a data file one by one. Closing the writer also closes
+ * the underlying stream
+ */
+public class EntityXmlWriter implements Closeable {
+
+	private final OutputStream os;
+
+	private final XMLStreamWriter writer;
+
+	public EntityXmlWriter(OutputStream os, String rootName) throws XMLStreamException {
+		this.os = os;
+		writer = XMLOutputFactory.newInstance().createXMLStreamWriter(os, StandardCharsets.UTF_8.name());
+		writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+		writer.writeStartElement(rootName);
+	}
+
+	public void write(Element element) throws XMLStreamException {
+		writer.writeStartElement(element.getName());
+		for (Attribute attribute: element.attributes())
+			writer.writeAttribute(attribute.getName(), attribute.getValue());
+		for (Node node: element.content()) {
+			if (node instanceof Element)
+				write((Element) node);
+			else if (node instanceof Text || node instanceof CDATA)
+				writer.writeCharacters(node.getText());
+		}
+		writer.writeEndElement();
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			writer.writeEndElement();
+			writer.writeEndDocument();
+			writer.close();
+		} catch (XMLStreamException e) {
+			throw new IOException(e);
+		} finally {
+			os.close();
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+package io.onedev.server.migration;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.dom4j.Element;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.ExceptionUtils;
+import io.onedev.commons.utils.FileUtils;
+
+/**
+ * Migrates data files by streaming their entity elements through an {@link ElementTransformer},
+ * instead of loading whole files into DOM. Data files of different entity types are processed in
+ * parallel, while parts of a data file (for instance <tt>Issues.xml</tt>, <tt>Issues.xml.1</tt>,
+ * ...) are processed in order by a single task, so that transformers keeping state across
+ * elements of an entity type get deterministic result.
+ */
+public class XmlDataFiles {
+
+	private static final Logger logger = LoggerFactory.getLogger(XmlDataFiles.class);
+
+	/**
+	 * Transform entity elements of applicable data files in specified directory. Transformed
+	 * elements are written back to the data file
+	 */
+	public static void transform(File dataDir, ElementTransformer transformer) {
+		process(dataDir, transformer, true);
+	}
+
+	/**
+	 * Pass entity elements of applicable data files in specified directory to specified
+	 * transformer without writing them back. This is normally used to collect information
+	 * for subsequent transformations
+	 */
+	public static void scan(File dataDir, ElementTransformer transformer) {
+		process(dataDir, transformer, false);
+	}
+
+	private static void process(File dataDir, ElementTransformer transformer, boolean writeBack) {
+		// parts of data files keyed by entity type
+		Map<String, List<File>> dataFiles = new TreeMap<>();
+		for (File file: dataDir.listFiles()) {
+			String fileName = file.getName();
+			if (file.isFile() && fileName.contains(".xml") && transformer.isApplicable(fileName)) {
+				String entityType = fileName.substring(0, fileName.indexOf(".xml"));
+				List<File> parts = dataFiles.get(entityType);
+				if (parts == null) {
+					parts = new ArrayList<>();
+					dataFiles.put(entityType, parts);
+				}
+				parts.add(file);
+			}
+		}
+		if (dataFiles.isEmpty())
+			return;
+
+		// Temp files are written into a separate directory, so that they are never mistaken
+		// as data files by name
+		File tempDir = new File(dataDir, "migrating");
+		if (writeBack)
+			FileUtils.cleanDir(tempDir);
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(dataFiles.size(), Runtime.getRuntime().availableProcessors()));
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (List<File> parts: dataFiles.values()) {
+				Collections.sort(parts, new Comparator<File>() {
+
+					@Override
+					public int compare(File o1, File o2) {
+						return getPartIndex(o1) - getPartIndex(o2);
+					}
+
+				});
+				futures.add(executor.submit(new Runnable() {
+
+					@Override
+					public void run() {
+						for (File part: parts)
+							process(part, tempDir, transformer, writeBack);
+					}
+
+				}));
+			}
+			for (Future<?> future: futures)
+				future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw ExceptionUtils.unchecked(e);
+		} finally {
+			executor.shutdownNow();
+			if (writeBack)
+				FileUtils.deleteDir(tempDir);
+		}
+	}
+
+	/*
+	 * Index of a part of data file, <tt>0</tt> for <tt>Issues.xml</tt>, <tt>1</tt> for
+	 * <tt>Issues.xml.1</tt>, etc.
+	 */
+	private static int getPartIndex(File file) {
+		String suffix = file.getName().substring(file.getName().indexOf(".xml") + ".xml".length());
+		if (suffix.startsWith(".")) {
+			try {
+				return Integer.parseInt(suffix.substring(1));
+			} catch (NumberFormatException e) {
+			}
+		}
+		return 0;
+	}
+
+	private static void process(File file, File tempDir, ElementTransformer transformer, boolean writeBack) {
+		if (writeBack)
+			logger.info("Migrating data file '{}'...", file.getName());
+		else
+			logger.info("Scanning data file '{}'...", file.getName());
+		long time = System.currentTimeMillis();
+		int count = 0;
+		File tempFile = new File(tempDir, file.getName());
+		try (EntityXmlReader reader = new EntityXmlReader(file)) {
+			if (writeBack) {
+				try (	OutputStream os = Files.newOutputStream(tempFile.toPath());
+						EntityXmlWriter writer = new EntityXmlWriter(os, reader.getRootName())) {
+					Element element;
+					while ((element = reader.next()) != null) {
+						if (transformer.transform(file.getName(), element))
+							writer.write(element);
+						count++;
+					}
+				}
+			} else {
+				Element element;
+				while ((element = reader.next()) != null) {
+					transformer.transform(file.getName(), element);
+					count++;
+				}
+			}
+		} catch (Exception e) {
+			if (tempFile.exists())
+				FileUtils.deleteFile(tempFile);
+			throw ExceptionUtils.unchecked(e);
+		}
+
+		try {
+			if (writeBack)
+				Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		} catch (Exception e) {
+			throw ExceptionUtils.unchecked(e);
+		}
+		logger.info("Processed data file '{}' ({} elements in {} ms)",
+				file.getName(), count, System.currentTimeMillis()-time);
+	}
+
+}
@@ -243,17 +243,25 @@ public class Role extends AbstractEntity implements Permission {
 
 	@Override
 	public boolean implies(Permission p) {
-		for (Permission each: getPermissions()) {
+		for (Permission each: getPermissions(SecurityUtils.getUser() == null)) {
 			if (each.implies(p))
 				return true;
 		}
 		return false;
 	}
 	
-	private Collection<Permission> getPermissions() {
+	/**
+	 * Get privileges granted by this role
+	 * 
+	 * @param anonymous
+	 * 			whether or not privileges are granted to anonymous user
+	 * @return
+	 * 			privileges granted by this role
+	 */
+	public Collection<Permission> getPermissions(boolean anonymous) {
 		Collection<Permission> permissions = Lists.newArrayList(new AccessProject());
 		
-		if (SecurityUtils.getUser() != null) {
+		if (!anonymous) {
 			if (manageProject) 
 				permissions.add(new ManageProject());
 			if (manageCodeComments)
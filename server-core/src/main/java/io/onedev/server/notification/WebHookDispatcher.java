@@ -0,0 +1,416 @@
+package io.onedev.server.notification;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.DelayQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.apache.http.HttpHeaders;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.model.support.WebHook;
+
+/**
+ * Delivers web hook payloads with a shared pooled http client. Deliveries are persisted in
+ * an outbox directory until they succeed or are given up, so that they survive server
+ * restart. At most {@link #MAX_ENDPOINT_CONCURRENCY} deliveries run concurrently for the
+ * same post url, and failed deliveries are retried with exponential backoff. Web hook 
+ * secrets are not persisted: deliveries record the project of the web hook, and the secret is 
+ * looked up each time the delivery is attempted.
+ */
+public class WebHookDispatcher implements Runnable {
+
+	private static final Logger logger = LoggerFactory.getLogger(WebHookDispatcher.class);
+
+	public static final String SIGNATURE_HEAD = "X-OneDev-Signature";
+
+	static final int MAX_RETRIES = 5;
+
+	static final int MAX_ENDPOINT_CONCURRENCY = 2;
+
+	// max number of deliveries waiting for the same endpoint, oldest ones will be dropped
+	static final int MAX_WAITING_DELIVERIES = 1000;
+
+	private static final int MAX_CONNECTIONS = 100;
+
+	private static final int CONNECT_TIMEOUT = 10000;
+
+	private static final int SOCKET_TIMEOUT = 30000;
+
+	private final ExecutorService executor;
+
+	private final File outboxDir;
+
+	private final long retryDelay;
+
+	private final WebHookResolver webHookResolver;
+
+	private final CloseableHttpClient client;
+
+	private final DelayQueue<Delivery> dueDeliveries = new DelayQueue<>();
+
+	private final Map<String, Endpoint> endpoints = new HashMap<>();
+
+	private volatile Thread thread;
+
+	/**
+	 * @param executor
+	 * 			executor to run deliveries
+	 * @param outboxDir
+	 * 			directory to persist pending deliveries
+	 * @param retryDelay
+	 * 			delay in milliseconds before first retry. Delay doubles for each subsequent retry
+	 * @param webHookResolver
+	 * 			resolver to find web hook of deliveries when they are attempted
+	 */
+	public WebHookDispatcher(ExecutorService executor, File outboxDir, long retryDelay, 
+			WebHookResolver webHookResolver) {
+		this.executor = executor;
+		this.outboxDir = outboxDir;
+		this.retryDelay = retryDelay;
+		this.webHookResolver = webHookResolver;
+
+		PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setMaxTotal(MAX_CONNECTIONS);
+		connectionManager.setDefaultMaxPerRoute(MAX_ENDPOINT_CONCURRENCY);
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(CONNECT_TIMEOUT)
+				.setConnectionRequestTimeout(CONNECT_TIMEOUT)
+				.setSocketTimeout(SOCKET_TIMEOUT)
+				.build();
+		client = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.build();
+	}
+
+	/**
+	 * Start dispatching. Deliveries left in outbox directory from last run will be
+	 * dispatched again
+	 */
+	public void start() {
+		FileUtils.createDir(outboxDir);
+		Set<String> queuedIds = new HashSet<>();
+		for (Delivery delivery: dueDeliveries)
+			queuedIds.add(delivery.id);
+		for (File file: outboxDir.listFiles()) {
+			if (file.getName().endsWith(".tmp")) {
+				FileUtils.deleteFile(file);
+			} else if (!queuedIds.contains(file.getName())) {
+				try {
+					dueDeliveries.offer(read(file));
+				} catch (Exception e) {
+					logger.error("Error reading web hook delivery '" + file.getAbsolutePath() + "'", e);
+					FileUtils.deleteFile(file);
+				}
+			}
+		}
+		thread = new Thread(this, "WebHook Dispatcher");
+		thread.start();
+	}
+
+	public void stop() {
+		if (thread != null) {
+			Thread copy = thread;
+			thread = null;
+			copy.interrupt();
+			try {
+				copy.join();
+			} catch (InterruptedException e) {
+			}
+		}
+		try {
+			client.close();
+		} catch (IOException e) {
+		}
+	}
+
+	/**
+	 * @param projectId
+	 * 			id of project defining the web hook
+	 * @param postUrl
+	 * 			post url of the web hook
+	 * @param payload
+	 * 			payload to post
+	 */
+	public void dispatch(Long projectId, String postUrl, String payload) {
+		Delivery delivery = new Delivery(UUID.randomUUID().toString(), projectId, postUrl, payload);
+		try {
+			write(delivery);
+		} catch (Exception e) {
+			logger.error("Error persisting web hook delivery", e);
+		}
+		dueDeliveries.offer(delivery);
+	}
+
+	/**
+	 * @return
+	 * 			number of deliveries not finished yet, including those being delivered,
+	 * 			waiting for endpoint, or waiting for retry
+	 */
+	public synchronized int getQueueDepth() {
+		int depth = dueDeliveries.size();
+		for (Endpoint endpoint: endpoints.values())
+			depth += endpoint.active + endpoint.waiting.size();
+		return depth;
+	}
+
+	@Override
+	public void run() {
+		while (thread != null) {
+			try {
+				schedule(dueDeliveries.take());
+			} catch (InterruptedException e) {
+			} catch (Throwable e) {
+				logger.error("Error dispatching web hook delivery", e);
+			}
+		}
+	}
+
+	private synchronized void schedule(Delivery delivery) {
+		Endpoint endpoint = endpoints.computeIfAbsent(delivery.postUrl, key -> new Endpoint());
+		if (endpoint.active < MAX_ENDPOINT_CONCURRENCY) {
+			endpoint.active++;
+			execute(delivery);
+		} else {
+			if (endpoint.waiting.size() >= MAX_WAITING_DELIVERIES) {
+				Delivery dropped = endpoint.waiting.removeFirst();
+				logger.warn("Too many pending web hook deliveries, dropping oldest one (post url: {})",
+						dropped.postUrl);
+				delete(dropped);
+			}
+			endpoint.waiting.add(delivery);
+		}
+	}
+
+	private void execute(Delivery delivery) {
+		executor.execute(new Runnable() {
+
+			@Override
+			public void run() {
+				try {
+					deliver(delivery);
+				} finally {
+					release(delivery.postUrl);
+				}
+			}
+
+		});
+	}
+
+	private synchronized void release(String postUrl) {
+		Endpoint endpoint = endpoints.get(postUrl);
+		Delivery next = endpoint.waiting.poll();
+		if (next != null) {
+			execute(next);
+		} else if (--endpoint.active == 0) {
+			endpoints.remove(postUrl);
+		}
+	}
+
+	private void deliver(Delivery delivery) {
+		boolean retry;
+		try {
+			WebHook webHook = webHookResolver.getWebHook(delivery.projectId, delivery.postUrl);
+			if (webHook != null) {
+				retry = post(delivery, webHook.getSecret());
+			} else {
+				logger.debug("Web hook no longer exists, dropping its delivery (post url: {})", delivery.postUrl);
+				retry = false;
+			}
+		} catch (IllegalArgumentException e) {
+			// thrown for malformed post url, retrying will not help
+			logger.error("Error calling web hook (post url: " + delivery.postUrl + ")", e);
+			retry = false;
+		} catch (Exception e) {
+			logger.warn("Error calling web hook (post url: " + delivery.postUrl + ")", e);
+			retry = true;
+		}
+
+		if (retry && thread != null && delivery.attempts < MAX_RETRIES) {
+			delivery.attempts++;
+			delivery.dueTime = System.currentTimeMillis() + (retryDelay << (delivery.attempts-1));
+			try {
+				write(delivery);
+			} catch (Exception e) {
+				logger.error("Error persisting web hook delivery", e);
+			}
+			dueDeliveries.offer(delivery);
+		} else if (retry && thread == null) {
+			// keep persisted delivery so that it can be retried after restart
+		} else {
+			if (retry)
+				logger.error("Giving up web hook delivery after {} retries (post url: {})", MAX_RETRIES, delivery.postUrl);
+			delete(delivery);
+		}
+	}
+
+	/*
+	 * Post payload of specified delivery
+	 * 
+	 * @return
+	 * 			whether or not the delivery should be retried
+	 */
+	private boolean post(Delivery delivery, @Nullable String secret) throws IOException {
+		HttpPost httpPost = new HttpPost(delivery.postUrl);
+		httpPost.setEntity(new StringEntity(delivery.payload, StandardCharsets.UTF_8.name()));
+		httpPost.setHeader(HttpHeaders.ACCEPT, ContentType.APPLICATION_JSON.getMimeType());
+		httpPost.setHeader(HttpHeaders.CONTENT_TYPE, ContentType.APPLICATION_JSON.getMimeType());
+		httpPost.setHeader(HttpHeaders.ACCEPT_CHARSET, StandardCharsets.UTF_8.name());
+		if (secret != null)
+			httpPost.setHeader(SIGNATURE_HEAD, secret);
+
+		try (CloseableHttpResponse response = client.execute(httpPost)) {
+			// consume response fully so that connection can be reused
+			String responseText = EntityUtils.toString(response.getEntity());
+			int statusCode = response.getStatusLine().getStatusCode();
+			if (statusCode >= 200 && statusCode < 300) {
+				logger.debug("Delivered web hook (post url: {}, attempts: {}, latency: {} ms, queue depth: {})",
+						delivery.postUrl, delivery.attempts+1,
+						System.currentTimeMillis() - delivery.createTime, getQueueDepth());
+				return false;
+			} else if (statusCode >= 500 || statusCode == 408 || statusCode == 429) {
+				logger.warn("Error calling web hook (post url: {}, status code: {}): {}",
+						delivery.postUrl, statusCode, responseText);
+				return true;
+			} else {
+				logger.error("Error calling web hook (post url: {}, status code: {}): {}",
+						delivery.postUrl, statusCode, responseText);
+				return false;
+			}
+		}
+	}
+
+	private File getFile(Delivery delivery) {
+		return new File(outboxDir, delivery.id);
+	}
+
+	private void delete(Delivery delivery) {
+		File file = getFile(delivery);
+		if (file.exists())
+			FileUtils.deleteFile(file);
+	}
+
+	private void write(Delivery delivery) throws IOException {
+		FileUtils.createDir(outboxDir);
+		File file = getFile(delivery);
+		File tempFile = new File(outboxDir, delivery.id + ".tmp");
+		try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+			os.writeLong(delivery.projectId);
+			os.writeUTF(delivery.postUrl);
+			os.writeLong(delivery.createTime);
+			os.writeInt(delivery.attempts);
+			byte[] bytes = delivery.payload.getBytes(StandardCharsets.UTF_8);
+			os.writeInt(bytes.length);
+			os.write(bytes);
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private Delivery read(File file) throws IOException {
+		try (DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			Long projectId = is.readLong();
+			String postUrl = is.readUTF();
+			long createTime = is.readLong();
+			int attempts = is.readInt();
+			byte[] bytes = new byte[is.readInt()];
+			is.readFully(bytes);
+			Delivery delivery = new Delivery(file.getName(), projectId, postUrl,
+					new String(bytes, StandardCharsets.UTF_8));
+			delivery.createTime = createTime;
+			delivery.attempts = attempts;
+			return delivery;
+		}
+	}
+
+	/**
+	 * Resolves web hook of a delivery when it is attempted, so that secret of the web hook 
+	 * does not need to be persisted along with the delivery
+	 */
+	public interface WebHookResolver {
+
+		/**
+		 * @return
+		 * 			web hook with specified post url in specified project, or <tt>null</tt> if 
+		 * 			it no longer exists
+		 */
+		@Nullable
+		WebHook getWebHook(Long projectId, String postUrl);
+
+	}
+
+	private static class Endpoint {
+
+		int active;
+
+		final LinkedList<Delivery> waiting = new LinkedList<>();
+
+	}
+
+	private static class Delivery implements Delayed {
+
+		final String id;
+
+		final Long projectId;
+
+		final String postUrl;
+
+		final String payload;
+
+		long createTime = System.currentTimeMillis();
+
+		volatile long dueTime = createTime;
+
+		int attempts;
+
+		Delivery(String id, Long projectId, String postUrl, String payload) {
+			this.id = id;
+			this.projectId = projectId;
+			this.postUrl = postUrl;
+			this.payload = payload;
+		}
+
+		@Override
+		public int compareTo(Delayed o) {
+			return Long.compare(dueTime, ((Delivery)o).dueTime);
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(dueTime - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+		}
+
+	}
+
+}
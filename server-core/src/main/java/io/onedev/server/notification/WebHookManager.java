@@ -1,50 +1,76 @@
 package io.onedev.server.notification;
 
-import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.File;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
-import javax.ws.rs.core.HttpHeaders;
-import javax.ws.rs.core.MediaType;
-
-import org.apache.commons.httpclient.HttpStatus;
-import org.apache.http.HttpEntity;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
 import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.event.ProjectEvent;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.model.Project;
 import io.onedev.server.model.support.WebHook;
+import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.persistence.annotation.Sessional;
 import io.onedev.server.util.jackson.RestView;
 
 @Singleton
 public class WebHookManager {
 
-	private static final Logger logger = LoggerFactory.getLogger(WebHookManager.class);
+	private static final long RETRY_DELAY = 10000;
 	
-	private static final String SIGNATURE_HEAD = "X-OneDev-Signature";
+	private static final String OUTBOX_DIR = "webhook-outbox";
 	
 	private final ObjectMapper mapper;
 	
-	private final ExecutorService executor;
+	private final WebHookDispatcher dispatcher;
 
 	@Inject
-	public WebHookManager(ObjectMapper mapper, ExecutorService executor) {
+	public WebHookManager(ObjectMapper mapper, ExecutorService executor, ProjectManager projectManager, 
+			SessionManager sessionManager) {
 		this.mapper = mapper.copy();
 		this.mapper.setConfig(this.mapper.getSerializationConfig().withView(RestView.class));
-		this.executor = executor;
+		dispatcher = new WebHookDispatcher(executor, new File(Bootstrap.getSiteDir(), OUTBOX_DIR), RETRY_DELAY, 
+				new WebHookDispatcher.WebHookResolver() {
+
+			@Override
+			public WebHook getWebHook(Long projectId, String postUrl) {
+				return sessionManager.call(new Callable<WebHook>() {
+
+					@Override
+					public WebHook call() throws Exception {
+						Project project = projectManager.get(projectId);
+						if (project != null) {
+							for (WebHook webHook: project.getWebHooks()) {
+								if (webHook.getPostUrl().equals(postUrl))
+									return webHook;
+							}
+						}
+						return null;
+					}
+					
+				});
+			}
+			
+		});
+	}
+	
+	@Listen
+	public void on(SystemStarted event) {
+		dispatcher.start();
+	}
+	
+	@Listen
+	public void on(SystemStopping event) {
+		dispatcher.stop();
 	}
 	
 	@Sessional
@@ -59,44 +85,7 @@ public class WebHookManager {
 		for (WebHook webHook: event.getProject().getWebHooks()) {
 			for (WebHook.EventType eventType: webHook.getEventTypes()) {
 				if (eventType.includes(event)) {
-					executor.submit(new Runnable() {
-
-						@Override
-						public void run() {
-							CloseableHttpClient client = HttpClients.createDefault();
-							try {
-							    HttpPost httpPost = new HttpPost(webHook.getPostUrl());
-							 
-							    StringEntity entity = new StringEntity(jsonOfEvent, StandardCharsets.UTF_8.name());
-							    httpPost.setEntity(entity);
-							    httpPost.setHeader(HttpHeaders.ACCEPT, MediaType.APPLICATION_JSON);
-							    httpPost.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
-							    httpPost.setHeader(HttpHeaders.ACCEPT_CHARSET, StandardCharsets.UTF_8.name());
-							    httpPost.setHeader(SIGNATURE_HEAD, webHook.getSecret());
-							 
-							    CloseableHttpResponse response = client.execute(httpPost);
-							    try {
-							    	HttpEntity responseEntity = response.getEntity();
-							    	String responseText = EntityUtils.toString(responseEntity);
-							    	if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK)
-							    		logger.error("Error calling web hooks: " + responseText);
-							    } finally {
-							    	try {
-										response.close();
-									} catch (IOException e) {
-									}
-							    }
-							} catch (IOException e) {
-								logger.error("Error calling web hooks", e);
-							} finally {
-								try {
-									client.close();
-								} catch (IOException e) {
-								}
-							}
-						}
-						
-					});
+					dispatcher.dispatch(event.getProject().getId(), webHook.getPostUrl(), jsonOfEvent);
 					break;
 				}
 			}
@@ -1,8 +1,10 @@
 package io.onedev.server.persistence;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.nio.charset.Charset;
 import java.sql.Connection;
@@ -15,12 +17,18 @@ import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import javax.annotation.Nullable;
 import javax.persistence.EntityManagerFactory;
 import javax.persistence.ManyToOne;
-import javax.persistence.criteria.CriteriaBuilder;
-import javax.persistence.criteria.CriteriaQuery;
-import javax.persistence.criteria.Root;
 import javax.persistence.metamodel.EntityType;
 
 import org.dom4j.DocumentHelper;
@@ -53,6 +61,8 @@ import io.onedev.commons.utils.ClassUtils;
 import io.onedev.commons.utils.ExceptionUtils;
 import io.onedev.commons.utils.FileUtils;
 import io.onedev.server.migration.DataMigrator;
+import io.onedev.server.migration.EntityXmlReader;
+import io.onedev.server.migration.EntityXmlWriter;
 import io.onedev.server.migration.MigrationHelper;
 import io.onedev.server.migration.VersionedXmlDoc;
 import io.onedev.server.model.AbstractEntity;
@@ -67,6 +77,10 @@ public class DefaultPersistManager implements PersistManager {
 
 	private static final int BACKUP_BATCH_SIZE = 1000;
 	
+	private static final int IMPORT_BATCH_SIZE = 1000;
+	
+	private static final int MAX_EXPORT_CONCURRENCY = 4;
+	
 	private static final Logger logger = LoggerFactory.getLogger(DefaultPersistManager.class);
 	
 	protected final PhysicalNamingStrategy physicalNamingStrategy;
@@ -386,124 +400,202 @@ public class DefaultPersistManager implements PersistManager {
 	}
 	
 	@Override
-	public void exportData(File exportDir) {
-		exportData(exportDir, BACKUP_BATCH_SIZE);
+	public void exportData(OutputStream os) {
+		exportData(os, BACKUP_BATCH_SIZE);
 	}
 	
-	@Sessional
+	/*
+	 * Entity types are exported in parallel, each with its own session. Every batch of 
+	 * entities is rendered as a separate data file, and handed over to current thread to 
+	 * be written into the zip stream. The queue between them is bounded so that memory 
+	 * usage does not grow with size of the database. If current thread stops consuming the 
+	 * queue, for instance when download of the backup is cancelled, export is marked as 
+	 * cancelled so that workers waiting for space of the queue give up. 
+	 */
 	@Override
-	public void exportData(File exportDir, int batchSize) {
-		Session session = sessionFactory.openSession();
-		for (Class<?> entityType: getEntityTypes(sessionFactory)) {
-			logger.info("Exporting table '" + entityType.getSimpleName() + "'...");
-			
-			logger.info("Querying table ids...");
-			
-			CriteriaBuilder builder = sessionFactory.getCriteriaBuilder();
-			CriteriaQuery<Number> query = builder.createQuery(Number.class);
-			Root<?> root = query.from(entityType);
-			query.select(root.get("id")).orderBy(builder.asc(root.get("id")));
-			
-			List<Number> ids = session.createQuery(query).list();
-			
-			int count = ids.size();
-			
-			for (int i=0; i<count/batchSize; i++) {
-				exportEntity(session, entityType, ids, i*batchSize, batchSize, batchSize, exportDir);
-				// clear session to free memory
-				session.clear();
+	public void exportData(OutputStream os, int batchSize) {
+		long time = System.currentTimeMillis();
+		List<Class<?>> entityTypes = getEntityTypes(sessionFactory);
+		int concurrency = Math.min(MAX_EXPORT_CONCURRENCY, Runtime.getRuntime().availableProcessors());
+		BlockingQueue<ExportChunk> chunks = new ArrayBlockingQueue<>(concurrency*2);
+		ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+		AtomicBoolean cancelled = new AtomicBoolean(false);
+		try {
+			for (Class<?> entityType: entityTypes) {
+				executor.execute(new Runnable() {
+
+					@Override
+					public void run() {
+						Exception error = null;
+						try {
+							exportEntities(entityType, batchSize, chunks, cancelled);
+						} catch (Exception e) {
+							error = e;
+						}
+						try {
+							offerChunk(chunks, new ExportChunk(error), cancelled);
+						} catch (InterruptedException e) {
+						}
+					}
+					
+				});
 			}
 			
-			if (count%batchSize != 0) {
-				exportEntity(session, entityType, ids, count/batchSize*batchSize, count%batchSize, batchSize, exportDir);
+			long entityCount = 0;
+			ZipOutputStream zos = new ZipOutputStream(os);
+			int finished = 0;
+			while (finished < entityTypes.size()) {
+				ExportChunk chunk = chunks.take();
+				if (chunk.error != null) {
+					throw ExceptionUtils.unchecked(chunk.error);
+				} else if (chunk.fileName == null) {
+					finished++;
+				} else {
+					zos.putNextEntry(new ZipEntry(chunk.fileName));
+					zos.write(chunk.content);
+					zos.closeEntry();
+					entityCount += chunk.entityCount;
+				}
 			}
-			logger.info("");
+			zos.finish();
+			zos.flush();
+			
+			long elapsed = Math.max(System.currentTimeMillis()-time, 1);
+			logger.info("Exported {} rows in {} seconds ({} rows/second)", 
+					entityCount, elapsed/1000, entityCount*1000/elapsed);
+		} catch (InterruptedException | IOException e) {
+			throw ExceptionUtils.unchecked(e);
+		} finally {
+			cancelled.set(true);
+			chunks.clear();
+			executor.shutdownNow();
 		}
 	}
+	
+	/*
+	 * Returns false if export is cancelled, in which case the chunk is dropped as nobody is 
+	 * consuming the queue any more
+	 */
+	private boolean offerChunk(BlockingQueue<ExportChunk> chunks, ExportChunk chunk, 
+			AtomicBoolean cancelled) throws InterruptedException {
+		while (!cancelled.get()) {
+			if (chunks.offer(chunk, 1, TimeUnit.SECONDS))
+				return true;
+		}
+		return false;
+	}
 
-	private void exportEntity(Session session, Class<?> entityType, List<Number> ids, int start, int count, int batchSize, File exportDir) {
-		logger.info("Loading table rows ({}->{}) from database...", String.valueOf(start+1), (start + count));
-		
-		Query<?> query = session.createQuery("from " + entityType.getSimpleName() + " where id>=:fromId and id<=:toId");
-		query.setParameter("fromId", ids.get(start));
-		query.setParameter("toId", ids.get(start+count-1));
-		
-		logger.info("Converting table rows to XML...");
-		VersionedXmlDoc dom = new VersionedXmlDoc();
-		Element rootElement = dom.addElement("list");
-		for (Object entity: query.list())
-			rootElement.appendContent(VersionedXmlDoc.fromBean(entity));
-		String fileName;
+	private void exportEntities(Class<?> entityType, int batchSize, BlockingQueue<ExportChunk> chunks, 
+			AtomicBoolean cancelled) throws Exception {
+		logger.info("Exporting table '" + entityType.getSimpleName() + "'...");
+		Session session = sessionFactory.openSession();
+		try {
+			session.setDefaultReadOnly(true);
+			Long lastId = 0L;
+			int batch = 0;
+			while (true) {
+				Query<?> query = session.createQuery("from " + entityType.getSimpleName() 
+						+ " where id>:lastId order by id");
+				query.setParameter("lastId", lastId);
+				query.setMaxResults(batchSize);
+				List<?> entities = query.list();
+				if (entities.isEmpty())
+					break;
+				
+				ByteArrayOutputStream baos = new ByteArrayOutputStream();
+				try (EntityXmlWriter writer = new EntityXmlWriter(baos, "list")) {
+					for (Object entity: entities) {
+						writer.write(VersionedXmlDoc.fromBean(entity).getRootElement());
+						lastId = ((AbstractEntity) entity).getId();
+					}
+				}
+				
+				String fileName;
+				if (batch++ == 0)
+					fileName = entityType.getSimpleName() + "s.xml";
+				else
+					fileName = entityType.getSimpleName() + "s.xml." + batch;
+				if (!offerChunk(chunks, new ExportChunk(fileName, baos.toByteArray(), entities.size()), cancelled))
+					break;
 
-		if (start == 0)
-			fileName = entityType.getSimpleName() + "s.xml";
-		else
-			fileName = entityType.getSimpleName() + "s.xml." + (start/batchSize + 1);
-		
-		logger.info("Writing resulting XML to file '" + fileName + "...");
-		dom.writeToFile(new File(exportDir, fileName), true);
+				// clear session to free memory
+				session.clear();
+				
+				if (entities.size() < batchSize)
+					break;
+			}
+		} finally {
+			session.close();
+		}
 	}
+	
+	private File[] getDataFiles(File dataDir, Class<?> entityType) {
+		return dataDir.listFiles(new FilenameFilter() {
 
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.startsWith(entityType.getSimpleName() + "s.xml");
+			}
+			
+		});
+	}
+	
 	/*
 	 * We do not use @Transactional annotation and will manage the session and transaction manually 
-	 * in this method to reduce memory usage if importing a large database.
+	 * in this method to reduce memory usage if importing a large database. Data files are read 
+	 * element by element, and rows are inserted with JDBC batches. Each data file is imported in 
+	 * a single transaction which is flushed and cleared periodically, so that a failure in the 
+	 * middle of a file does not leave part of it in database. 
 	 */
 	@Sessional
 	@Override
 	public void importData(Metadata metadata, File dataDir) {
+		long time = System.currentTimeMillis();
+		long entityCount = 0;
 		Session session = dao.getSession();
+		session.setJdbcBatchSize(IMPORT_BATCH_SIZE);
 		List<Class<?>> entityTypes = getEntityTypes(sessionFactory);
 		Collections.reverse(entityTypes);
 		for (Class<?> entityType: entityTypes) {
-			File[] dataFiles = dataDir.listFiles(new FilenameFilter() {
-
-				@Override
-				public boolean accept(File dir, String name) {
-					return name.startsWith(entityType.getSimpleName() + "s.xml");
-				}
-				
-			});
-			for (File file: dataFiles) {
+			for (File file: getDataFiles(dataDir, entityType)) {
+				logger.info("Importing from data file '" + file.getName() + "'...");
 				Transaction transaction = session.beginTransaction();
-				try {
-					logger.info("Importing from data file '" + file.getName() + "'...");
-					VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-					
-					for (Element element: dom.getRootElement().elements()) {
-						element.detach();
+				try (EntityXmlReader reader = new EntityXmlReader(file)) {
+					int count = 0;
+					Element element;
+					while ((element = reader.next()) != null) {
 						AbstractEntity entity = (AbstractEntity) new VersionedXmlDoc(DocumentHelper.createDocument(element)).toBean();
+						// replicating with exception mode inserts directly without checking existing rows
 						session.replicate(entity, ReplicationMode.EXCEPTION);
+						if (++count % IMPORT_BATCH_SIZE == 0) {
+							session.flush();
+							session.clear();
+						}
 					}
 					session.flush();
 					session.clear();
 					transaction.commit();
+					entityCount += count;
 				} catch (Exception e) {
 					transaction.rollback();
 					throw ExceptionUtils.unchecked(e);
 				}
 			}
 		}	
+		long elapsed = Math.max(System.currentTimeMillis()-time, 1);
+		logger.info("Imported {} rows in {} seconds ({} rows/second)", 
+				entityCount, elapsed/1000, entityCount*1000/elapsed);
 	}
 	
 	protected void validateData(Metadata metadata, File dataDir) {
 		List<Class<?>> entityTypes = getEntityTypes(sessionFactory);
 		Collections.reverse(entityTypes);
 		for (Class<?> entityType: entityTypes) {
-			File[] dataFiles = dataDir.listFiles(new FilenameFilter() {
-
-				@Override
-				public boolean accept(File dir, String name) {
-					return name.startsWith(entityType.getSimpleName() + "s.xml");
-				}
-				
-			});
-			for (File file: dataFiles) {
-				try {
-					logger.info("Validating data file '" + file.getName() + "'...");
-					VersionedXmlDoc dom = VersionedXmlDoc.fromFile(file);
-					
-					for (Element element: dom.getRootElement().elements()) {
-						element.detach();
+			for (File file: getDataFiles(dataDir, entityType)) {
+				logger.info("Validating data file '" + file.getName() + "'...");
+				try (EntityXmlReader reader = new EntityXmlReader(file)) {
+					Element element;
+					while ((element = reader.next()) != null) {
 						AbstractEntity entity = (AbstractEntity) new VersionedXmlDoc(DocumentHelper.createDocument(element)).toBean();
 						validator.validate(entity);
 					}
@@ -618,4 +710,33 @@ public class DefaultPersistManager implements PersistManager {
 		return sessionFactory;
 	}
 	
+	private static class ExportChunk {
+		
+		final String fileName;
+		
+		final byte[] content;
+		
+		final int entityCount;
+		
+		final Exception error;
+		
+		ExportChunk(String fileName, byte[] content, int entityCount) {
+			this.fileName = fileName;
+			this.content = content;
+			this.entityCount = entityCount;
+			error = null;
+		}
+		
+		/*
+		 * Mark end of export of an entity type
+		 */
+		ExportChunk(@Nullable Exception error) {
+			fileName = null;
+			content = null;
+			entityCount = 0;
+			this.error = error;
+		}
+		
+	}
+	
 }
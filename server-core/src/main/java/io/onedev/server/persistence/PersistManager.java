@@ -1,6 +1,7 @@
 package io.onedev.server.persistence;
 
 import java.io.File;
+import java.io.OutputStream;
 
 import org.hibernate.SessionFactory;
 import org.hibernate.boot.Metadata;
@@ -13,9 +14,17 @@ public interface PersistManager {
 	
 	void stop();
 	
-	void exportData(File dataDir, int batchSize);
+	/**
+	 * Export data as zip of data files into specified stream. The stream will not be closed
+	 * 
+	 * @param os
+	 * 			stream to write zip content into
+	 * @param batchSize
+	 * 			number of entities to be written into a single data file
+	 */
+	void exportData(OutputStream os, int batchSize);
 
-	void exportData(File dataDir);
+	void exportData(OutputStream os);
 	
 	// This method should only be called by a bootstrap action. That is, when the 
 	// server is stopped. So it does not need an exclusive database lock.
@@ -1,6 +1,6 @@
 package io.onedev.server.rest;
 
-import java.util.Collection;
+import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -11,11 +11,14 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.apache.shiro.authz.UnauthorizedException;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 
 import io.onedev.server.entitymanager.BuildManager;
@@ -39,9 +42,11 @@ public class BuildResource {
 	
 	@ValidQueryParams
 	@GET
+	@Produces({MediaType.APPLICATION_JSON, RestConstants.NDJSON})
     public Response query(@QueryParam("job") String jobName, @QueryParam("commit") String commit, 
     		@QueryParam("number") Long number, @QueryParam("offset") Integer offset, 
-    		@QueryParam("count") Integer count, @Context UriInfo uriInfo) {
+    		@QueryParam("after") Long after, @QueryParam("count") Integer count, @Context UriInfo uriInfo, 
+			@Context HttpHeaders headers) {
 		EntityCriteria<Build> criteria = buildManager.newCriteria();
 		if (jobName != null)
 			criteria.add(Restrictions.eq("jobName", jobName));
@@ -50,19 +55,31 @@ public class BuildResource {
 		if (number != null)
 			criteria.add(Restrictions.eq("number", number));
 		
+		if (after != null)
+			criteria.add(Restrictions.gt("id", after));
+		criteria.addOrder(Order.asc("id"));
+		
+		if (PageUtils.isStreamRequested(headers)) {
+			StreamingOutput output = new EntityStreamingOutput<>(criteria, count, 
+					build -> SecurityUtils.canAccess(build.getProject()));
+			return Response.ok(output, RestConstants.NDJSON_UTF8).build();
+		}
+		
     	if (offset == null)
     		offset = 0;
     	
     	if (count == null || count > RestConstants.PAGE_SIZE) 
     		count = RestConstants.PAGE_SIZE;
 
-    	Collection<Build> builds = buildManager.query(criteria, offset, count);
+    	List<Build> builds = buildManager.query(criteria, offset, count);
 		for (Build build: builds) {
 			if (!SecurityUtils.canAccess(build.getProject()))
 				throw new UnauthorizedException("Unable to access project '" + build.getProject().getName() + "'");
 		}
 		
-		return Response.ok(builds, RestConstants.JSON_UTF8).build();
+		return Response.ok(builds, RestConstants.JSON_UTF8)
+				.links(PageUtils.getCursorLinks(uriInfo, builds, count))
+				.build();
 		
     }
     
@@ -0,0 +1,105 @@
+package io.onedev.server.rest;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Callable;
+import java.util.function.Predicate;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.core.StreamingOutput;
+
+import org.hibernate.CacheMode;
+import org.hibernate.Criteria;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import io.onedev.server.OneDev;
+import io.onedev.server.model.AbstractEntity;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.dao.EntityCriteria;
+import io.onedev.server.util.jackson.RestView;
+
+/**
+ * Writes entities matching specified criteria as newline delimited json. Entities are
+ * scrolled with a bounded fetch size and evicted from session once written, so that memory
+ * usage does not grow with number of entities. Entities not passing specified filter are
+ * skipped, as response is already committed when they are encountered. Entities are
+ * serialized with {@link RestView} the same as other rest responses, so that fields hidden
+ * from rest api are not exposed.
+ */
+public class EntityStreamingOutput<T extends AbstractEntity> implements StreamingOutput {
+
+	private static final int FETCH_SIZE = 100;
+
+	private final EntityCriteria<T> criteria;
+
+	private final Integer count;
+
+	private final Predicate<T> filter;
+
+	/**
+	 * @param criteria
+	 * 			criteria to query entities
+	 * @param count
+	 * 			max number of entities to write, <tt>null</tt> to write all matching entities
+	 * @param filter
+	 * 			filter to check whether an entity can be written
+	 */
+	public EntityStreamingOutput(EntityCriteria<T> criteria, @Nullable Integer count, Predicate<T> filter) {
+		this.criteria = criteria;
+		this.count = count;
+		this.filter = filter;
+	}
+
+	@Override
+	public void write(OutputStream os) throws IOException {
+		ObjectWriter objectWriter = newObjectWriter(OneDev.getInstance(ObjectMapper.class));
+		SessionManager sessionManager = OneDev.getInstance(SessionManager.class);
+		sessionManager.call(new Callable<Void>() {
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Void call() throws Exception {
+				Session session = sessionManager.getSession();
+				Criteria executableCriteria = criteria.getExecutableCriteria(session);
+				executableCriteria.setFetchSize(FETCH_SIZE);
+				executableCriteria.setReadOnly(true);
+				executableCriteria.setCacheMode(CacheMode.IGNORE);
+				if (count != null)
+					executableCriteria.setMaxResults(count);
+				ScrollableResults results = executableCriteria.scroll(ScrollMode.FORWARD_ONLY);
+				try {
+					int index = 0;
+					while (results.next()) {
+						T entity = (T) results.get(0);
+						if (filter.test(entity)) {
+							os.write(objectWriter.writeValueAsBytes(entity));
+							os.write('\n');
+						}
+						if (++index % FETCH_SIZE == 0) {
+							session.clear();
+							os.flush();
+						}
+					}
+				} finally {
+					results.close();
+				}
+				return null;
+			}
+
+		});
+	}
+
+	/*
+	 * Each entity should be written in a single line
+	 */
+	static ObjectWriter newObjectWriter(ObjectMapper objectMapper) {
+		return objectMapper.writerWithView(RestView.class).without(SerializationFeature.INDENT_OUTPUT);
+	}
+
+}
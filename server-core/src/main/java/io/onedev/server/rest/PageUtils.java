@@ -3,16 +3,28 @@ package io.onedev.server.rest;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.Link;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
 
+import io.onedev.server.model.AbstractEntity;
+
 public class PageUtils {
 
 	public static final String PARAM_PER_PAGE = "per_page";
 	
 	public static final String PARAM_PAGE = "page";
 	
+	public static final String PARAM_OFFSET = "offset";
+	
+	public static final String PARAM_COUNT = "count";
+	
+	public static final String PARAM_AFTER = "after";
+	
+	private static final MediaType NDJSON_TYPE = MediaType.valueOf(RestConstants.NDJSON);
+	
 	public static int getLastPage(int totalCount, int pageSize) {
 		if (totalCount % pageSize == 0)
 			return totalCount / pageSize;
@@ -58,4 +70,44 @@ public class PageUtils {
 		return links.toArray(new Link[links.size()]);
 	}
 	
+	/**
+	 * Get link of next page for cursor based pagination. Other query params of current request
+	 * are preserved, and offset param is removed as cursor is used instead
+	 * 
+	 * @param uriInfo
+	 * 			uri info of current request
+	 * @param lastId
+	 * 			id of last entity in current page
+	 * @param count
+	 * 			page size
+	 */
+	public static Link getNextLink(UriInfo uriInfo, Long lastId, int count) {
+		UriBuilder uriBuilder = uriInfo.getRequestUriBuilder()
+				.replaceQueryParam(PARAM_OFFSET)
+				.replaceQueryParam(PARAM_AFTER, lastId)
+				.replaceQueryParam(PARAM_COUNT, count);
+		return Link.fromUriBuilder(uriBuilder).rel("next").type("GET").build();
+	}
+	
+	/**
+	 * Get links for a page of entities queried in ascending order of id 
+	 */
+	public static Link[] getCursorLinks(UriInfo uriInfo, List<? extends AbstractEntity> entities, int count) {
+		if (entities.size() == count && count != 0) 
+			return new Link[] {getNextLink(uriInfo, entities.get(entities.size()-1).getId(), count)};
+		else
+			return new Link[0];
+	}
+	
+	/**
+	 * Check whether client asks for newline delimited json stream via accept header
+	 */
+	public static boolean isStreamRequested(HttpHeaders headers) {
+		for (MediaType mediaType: headers.getAcceptableMediaTypes()) {
+			if (!mediaType.isWildcardType() && !mediaType.isWildcardSubtype() && mediaType.isCompatible(NDJSON_TYPE))
+				return true;
+		}
+		return false;
+	}
+	
 }
@@ -1,6 +1,6 @@
 package io.onedev.server.rest;
 
-import java.util.Collection;
+import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -11,11 +11,14 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.apache.shiro.authz.UnauthorizedException;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 
 import io.onedev.server.entitymanager.ProjectManager;
@@ -39,25 +42,38 @@ public class ProjectResource {
 	
 	@ValidQueryParams
 	@GET
+	@Produces({MediaType.APPLICATION_JSON, RestConstants.NDJSON})
     public Response query(@QueryParam("name") String projectName, @QueryParam("offset") Integer offset, 
-    		@QueryParam("count") Integer count, @Context UriInfo uriInfo) {
+    		@QueryParam("after") Long after, @QueryParam("count") Integer count, @Context UriInfo uriInfo, 
+			@Context HttpHeaders headers) {
 		EntityCriteria<Project> criteria = projectManager.newCriteria();
 		if (projectName != null)
 			criteria.add(Restrictions.eq("name", projectName));
 		
+		if (after != null)
+			criteria.add(Restrictions.gt("id", after));
+		criteria.addOrder(Order.asc("id"));
+		
+		if (PageUtils.isStreamRequested(headers)) {
+			StreamingOutput output = new EntityStreamingOutput<>(criteria, count, project -> SecurityUtils.canAccess(project));
+			return Response.ok(output, RestConstants.NDJSON_UTF8).build();
+		}
+		
     	if (offset == null)
     		offset = 0;
     	
     	if (count == null || count > RestConstants.PAGE_SIZE) 
     		count = RestConstants.PAGE_SIZE;
 
-    	Collection<Project> projects = projectManager.query(criteria, offset, count);
+    	List<Project> projects = projectManager.query(criteria, offset, count);
 		for (Project project: projects) {
 			if (!SecurityUtils.canAccess(project))
 				throw new UnauthorizedException("Unable to access project '" + project.getName() + "'");
 		}
 		
-		return Response.ok(projects, RestConstants.JSON_UTF8).build();
+		return Response.ok(projects, RestConstants.JSON_UTF8)
+				.links(PageUtils.getCursorLinks(uriInfo, projects, count))
+				.build();
     }
     
 	@Path("/{projectId}")
@@ -1,7 +1,7 @@
 package io.onedev.server.rest;
 
-import java.util.Collection;
 import java.util.Date;
+import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -12,11 +12,14 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.apache.shiro.authz.UnauthorizedException;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 
 import io.onedev.server.entitymanager.PullRequestManager;
@@ -50,6 +53,7 @@ public class PullRequestResource {
         
     @ValidQueryParams
     @GET
+    @Produces({MediaType.APPLICATION_JSON, RestConstants.NDJSON})
     public Response query(
     		@QueryParam("targetProject") Long targetProjectId, @QueryParam("targetBranch") String targetBranch,
     		@QueryParam("sourceProject") Long sourceProjectId, @QueryParam("sourceBranch") String sourceBranch,
@@ -57,7 +61,8 @@ public class PullRequestResource {
     		@QueryParam("submittedBefore") Date submittedBefore, @QueryParam("submittedAfter") Date submittedAfter,   
     		@QueryParam("status") String status, @QueryParam("closeUser") Long closeUserId, 
     		@QueryParam("closedBefore") Date closedBefore, @QueryParam("closedAfter") Date closedAfter,   
-    		@QueryParam("offset") Integer offset, @QueryParam("count") Integer count, @Context UriInfo uriInfo) {
+    		@QueryParam("offset") Integer offset, @QueryParam("after") Long after, 
+			@QueryParam("count") Integer count, @Context UriInfo uriInfo, @Context HttpHeaders headers) {
     	
     	EntityCriteria<PullRequest> criteria = EntityCriteria.of(PullRequest.class);
 
@@ -94,13 +99,23 @@ public class PullRequestResource {
 		if (closedAfter != null)
 			criteria.add(Restrictions.ge("closeInfo.date", closedAfter));
 		
+		if (after != null)
+			criteria.add(Restrictions.gt("id", after));
+		criteria.addOrder(Order.asc("id"));
+		
+		if (PageUtils.isStreamRequested(headers)) {
+			StreamingOutput output = new EntityStreamingOutput<>(criteria, count, 
+					request -> SecurityUtils.canReadCode(request.getTargetProject()));
+			return Response.ok(output, RestConstants.NDJSON_UTF8).build();
+		}
+		
     	if (offset == null)
     		offset = 0;
     	
     	if (count == null || count > RestConstants.PAGE_SIZE) 
     		count = RestConstants.PAGE_SIZE;
 
-    	Collection<PullRequest> requests = pullRequestManager.query(criteria, offset, count);
+    	List<PullRequest> requests = pullRequestManager.query(criteria, offset, count);
 		for (PullRequest request: requests) {
 	    	if (!SecurityUtils.canReadCode(request.getTargetProject())) {
 	    		throw new UnauthorizedException("Unable to access pull requests of project '" 
@@ -108,7 +123,9 @@ public class PullRequestResource {
 	    	}
 		}
 
-		return Response.ok(requests, RestConstants.JSON_UTF8).build();
+		return Response.ok(requests, RestConstants.JSON_UTF8)
+				.links(PageUtils.getCursorLinks(uriInfo, requests, count))
+				.build();
     }
     
 }
\ No newline at end of file
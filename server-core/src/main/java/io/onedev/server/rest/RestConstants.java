@@ -8,6 +8,10 @@ public class RestConstants {
 
 	public static final String JSON_UTF8 = MediaType.APPLICATION_JSON + ";charset=utf-8";
 	
+	public static final String NDJSON = "application/x-ndjson";
+	
+	public static final String NDJSON_UTF8 = NDJSON + ";charset=utf-8";
+	
 	public static final String DATE_FORMAT = "yyyy-MM-dd'T'HH:mm:ss'Z'";
 	
 }
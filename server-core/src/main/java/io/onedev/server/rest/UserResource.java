@@ -1,6 +1,6 @@
 package io.onedev.server.rest;
 
-import java.util.Collection;
+import java.util.List;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
@@ -11,11 +11,14 @@ import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 import javax.ws.rs.core.UriInfo;
 
 import org.apache.shiro.authz.UnauthorizedException;
+import org.hibernate.criterion.Order;
 import org.hibernate.criterion.Restrictions;
 import org.hibernate.validator.constraints.Email;
 
@@ -40,8 +43,10 @@ public class UserResource {
 	
 	@ValidQueryParams
 	@GET
+	@Produces({MediaType.APPLICATION_JSON, RestConstants.NDJSON})
 	public Response query(@QueryParam("name") String name, @Email @QueryParam("email") String email, 
-			@QueryParam("offset") Integer offset, @QueryParam("count") Integer count, @Context UriInfo uriInfo) {
+			@QueryParam("offset") Integer offset, @QueryParam("after") Long after, 
+			@QueryParam("count") Integer count, @Context UriInfo uriInfo, @Context HttpHeaders headers) {
     	if (!SecurityUtils.isAdministrator())
     		throw new UnauthorizedException("Unauthorized access to user profiles");
     	
@@ -51,15 +56,26 @@ public class UserResource {
 		if (email != null)
 			criteria.add(Restrictions.eq("email", email));
 		
+		if (after != null)
+			criteria.add(Restrictions.gt("id", after));
+		criteria.addOrder(Order.asc("id"));
+		
+		if (PageUtils.isStreamRequested(headers)) {
+			StreamingOutput output = new EntityStreamingOutput<>(criteria, count, user -> true);
+			return Response.ok(output, RestConstants.NDJSON_UTF8).build();
+		}
+		
     	if (offset == null)
     		offset = 0;
     	
     	if (count == null || count > RestConstants.PAGE_SIZE) 
     		count = RestConstants.PAGE_SIZE;
 
-    	Collection<User> users = userManager.query(criteria, offset, count);
+    	List<User> users = userManager.query(criteria, offset, count);
 		
-		return Response.ok(users, RestConstants.JSON_UTF8).build();
+		return Response.ok(users, RestConstants.JSON_UTF8)
+				.links(PageUtils.getCursorLinks(uriInfo, users, count))
+				.build();
 	}
 	
     @GET
@@ -1,5 +1,6 @@
 package io.onedev.server.search.code;
 
+import static io.onedev.server.search.code.FieldConstants.BLOB_CONTENT;
 import static io.onedev.server.search.code.FieldConstants.BLOB_HASH;
 import static io.onedev.server.search.code.FieldConstants.BLOB_INDEX_VERSION;
 import static io.onedev.server.search.code.FieldConstants.BLOB_NAME;
@@ -23,8 +24,15 @@ import java.io.Serializable;
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -43,6 +51,7 @@ import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
@@ -83,6 +92,7 @@ import io.onedev.server.persistence.annotation.Sessional;
 import io.onedev.server.storage.StorageManager;
 import io.onedev.server.util.ContentDetector;
 import io.onedev.server.util.IndexResult;
+import io.onedev.server.util.WorkProgress;
 import io.onedev.server.util.concurrent.Prioritized;
 import io.onedev.server.util.work.BatchWorkManager;
 import io.onedev.server.util.work.BatchWorker;
@@ -96,7 +106,13 @@ public class DefaultIndexManager implements IndexManager {
 	
 	private static final int BACKEND_INDEXING_PRIORITY = 50;
 	
-	private static final int DATA_VERSION = 5;
+	private static final int DATA_VERSION = 6;
+	
+	private static final int INDEXING_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+	
+	private static final double INDEXING_RAM_BUFFER_MB = 128;
+	
+	private static final int INDEXING_SEGMENTS_PER_TIER = 20;
 	
 	private final StorageManager storageManager;
 	
@@ -108,14 +124,28 @@ public class DefaultIndexManager implements IndexManager {
 	
 	private final ListenerRegistry listenerRegistry;
 	
+	private final ExecutorService executorService;
+	
+	private final Map<Long, WorkProgress> indexingProgresses = new ConcurrentHashMap<>();
+	
+	/*
+	 * Extractors returned by SymbolExtractorRegistry are shared instances which are not 
+	 * guaranteed to be thread-safe. Indexing tasks take an instance of required type from 
+	 * here and put it back when done, so that each instance is used by one task at a time, 
+	 * and instances are only created when all existing ones of the type are in use
+	 */
+	private final Map<Class<?>, Queue<SymbolExtractor<Symbol>>> symbolExtractors = new ConcurrentHashMap<>();
+	
 	@Inject
 	public DefaultIndexManager(ListenerRegistry listenerRegistry, StorageManager storageManager, 
-			BatchWorkManager batchWorkManager, SessionManager sessionManager, ProjectManager projectManager) {
+			BatchWorkManager batchWorkManager, SessionManager sessionManager, ProjectManager projectManager, 
+			ExecutorService executorService) {
 		this.listenerRegistry = listenerRegistry;
 		this.storageManager = storageManager;
 		this.batchWorkManager = batchWorkManager;
 		this.sessionManager = sessionManager;
 		this.projectManager = projectManager;
+		this.executorService = executorService;
 	}
 
 	private String getCommitIndexVersion(final IndexSearcher searcher, AnyObjectId commitId) throws IOException {
@@ -144,27 +174,40 @@ public class DefaultIndexManager implements IndexManager {
 		return indexVersion.get();
 	}
 	
+	/*
+	 * Get last indexed commit so that only files changed since then need to be checked. Null 
+	 * is returned if there is no such commit, or it is indexed with a different index version
+	 */
+	@Nullable
+	private ObjectId getLastCommit(Repository repository, @Nullable IndexSearcher searcher) throws IOException {
+		if (searcher != null) {
+			TopDocs topDocs = searcher.search(META.query(LAST_COMMIT.name()), 1);
+			if (topDocs.scoreDocs.length != 0) {
+				Document doc = searcher.doc(topDocs.scoreDocs[0].doc);
+				String lastCommitIndexVersion = doc.get(LAST_COMMIT_INDEX_VERSION.name());
+				if (lastCommitIndexVersion.equals(getIndexVersion())) {
+					String lastCommitHash = doc.get(LAST_COMMIT_HASH.name());
+					ObjectId lastCommitId = ObjectId.fromString(lastCommitHash);
+					if (repository.hasObject(lastCommitId)) 
+						return lastCommitId;
+				}
+			}
+		}
+		return null;
+	}
+	
 	private IndexResult index(Repository repository, AnyObjectId commitId, 
-			IndexWriter writer, final IndexSearcher searcher) throws Exception {
+			IndexWriter writer, final IndexSearcher searcher, @Nullable ObjectId lastCommitId, 
+			boolean storeContent, WorkProgress progress) throws Exception {
+		BlobIndexer blobIndexer = new BlobIndexer(repository, writer, storeContent, progress);
 		try (	RevWalk revWalk = new RevWalk(repository); 
 				TreeWalk treeWalk = new TreeWalk(repository)) {
 			treeWalk.addTree(revWalk.parseCommit(commitId).getTree());
 			treeWalk.setRecursive(true);
 			
-			if (searcher != null) {
-				TopDocs topDocs = searcher.search(META.query(LAST_COMMIT.name()), 1);
-				if (topDocs.scoreDocs.length != 0) {
-					Document doc = searcher.doc(topDocs.scoreDocs[0].doc);
-					String lastCommitIndexVersion = doc.get(LAST_COMMIT_INDEX_VERSION.name());
-					if (lastCommitIndexVersion.equals(getIndexVersion())) {
-						String lastCommitHash = doc.get(LAST_COMMIT_HASH.name());
-						ObjectId lastCommitId = ObjectId.fromString(lastCommitHash);
-						if (repository.hasObject(lastCommitId)) { 
-							treeWalk.addTree(revWalk.parseCommit(lastCommitId).getTree());
-							treeWalk.setFilter(TreeFilter.ANY_DIFF);
-						}
-					}
-				}
+			if (lastCommitId != null) {
+				treeWalk.addTree(revWalk.parseCommit(lastCommitId).getTree());
+				treeWalk.setFilter(TreeFilter.ANY_DIFF);
 			}
 	
 			int indexed = 0;
@@ -211,16 +254,22 @@ public class DefaultIndexManager implements IndexManager {
 					String blobIndexVersion = blobIndexVersionRef.get();
 					if (blobIndexVersion != null) {
 						if (!blobIndexVersion.equals(currentBlobIndexVersion)) {
+							/*
+							 * Delete synchronously so that it is applied before the new document 
+							 * is added by blob indexer
+							 */
 							writer.deleteDocuments(query);
-							indexBlob(writer, repository, extractor, blobId, blobPath);
+							blobIndexer.submit(extractor, blobId, blobPath);
 							indexed++;
 						}
 					} else {
-						indexBlob(writer, repository, extractor, blobId, blobPath);
+						blobIndexer.submit(extractor, blobId, blobPath);
 						indexed++;
 					}
 				}
 			}
+			
+			blobIndexer.await();
 	
 			// record current commit so that we know which commit has been indexed
 			Document document = new Document();
@@ -236,15 +285,19 @@ public class DefaultIndexManager implements IndexManager {
 			writer.updateDocument(META.term(LAST_COMMIT.name()), document);
 			
 			return new IndexResult(checked, indexed);
+		} finally {
+			// blobs submitted before an error may still be writing to the index
+			blobIndexer.waitForCompletion();
 		}
 	}
 	
 	private void indexBlob(IndexWriter writer, Repository repository, 
-			SymbolExtractor<Symbol> extractor, ObjectId blobId, String blobPath) throws IOException {
+			SymbolExtractor<Symbol> extractor, ObjectId blobId, String blobPath, 
+			boolean storeContent) throws IOException {
 		Document document = new Document();
 		
 		document.add(new StoredField(BLOB_INDEX_VERSION.name(), getIndexVersion(extractor)));
-		document.add(new StringField(BLOB_HASH.name(), blobId.name(), Store.NO));
+		document.add(new StringField(BLOB_HASH.name(), blobId.name(), Store.YES));
 		document.add(new StringField(BLOB_PATH.name(), blobPath, Store.NO));
 		document.add(new BinaryDocValuesField(BLOB_PATH.name(), new BytesRef(blobPath.getBytes(StandardCharsets.UTF_8))));
 		
@@ -261,6 +314,13 @@ public class DefaultIndexManager implements IndexManager {
 			if (content != null) {
 				document.add(new TextField(BLOB_TEXT.name(), content, Store.NO));
 				
+				/*
+				 * Stored fields are compressed by Lucene. Storing converted content here 
+				 * saves text search from reading the blob and detecting its charset 
+				 */
+				if (storeContent)
+					document.add(new StoredField(BLOB_CONTENT.name(), content));
+				
 				if (extractor != null) {
 					List<Symbol> symbols = null;
 					try {
@@ -321,13 +381,39 @@ public class DefaultIndexManager implements IndexManager {
 	}
 
 	private IndexResult doIndex(Project project, ObjectId commit, Directory directory, IndexSearcher searcher) {
+		ObjectId lastCommitId;
+		try {
+			lastCommitId = getLastCommit(project.getRepository(), searcher);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		
 		IndexWriterConfig writerConfig = new IndexWriterConfig(new NGramAnalyzer(NGRAM_SIZE, NGRAM_SIZE));
 		writerConfig.setOpenMode(OpenMode.CREATE_OR_APPEND);
+		
+		/*
+		 * Without last commit, all files of the commit are walked and possibly indexed, which is 
+		 * a bulk load. Use a larger RAM buffer and allow more segments per tier to flush and merge 
+		 * less often. Incremental indexing only touches a few files and keeps the defaults
+		 */
+		if (lastCommitId == null) {
+			writerConfig.setRAMBufferSizeMB(INDEXING_RAM_BUFFER_MB);
+			TieredMergePolicy mergePolicy = new TieredMergePolicy();
+			mergePolicy.setSegmentsPerTier(INDEXING_SEGMENTS_PER_TIER);
+			writerConfig.setMergePolicy(mergePolicy);
+		}
+		
+		WorkProgress progress = new WorkProgress();
+		indexingProgresses.put(project.getId(), progress);
 		try (IndexWriter writer = new IndexWriter(directory, writerConfig)) {
 			try {
 				logger.debug("Indexing commit (project: {}, commit: {})", project.getName(), commit.getName());
-				IndexResult indexResult = index(project.getRepository(), commit, writer, searcher);
+				IndexResult indexResult = index(project.getRepository(), commit, writer, searcher, 
+						lastCommitId, project.isStoreIndexedContent(), progress);
 				writer.commit();
+				logger.debug("Indexed commit (project: {}, commit: {}, blobs: {}, blobs/second: {})", 
+						project.getName(), commit.getName(), progress.getProcessed(), 
+						progress.getProcessedPerSecond());
 				return indexResult;
 			} catch (Exception e) {
 				writer.rollback();
@@ -335,6 +421,8 @@ public class DefaultIndexManager implements IndexManager {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
+		} finally {
+			indexingProgresses.remove(project.getId());
 		}
 	}
 	
@@ -371,6 +459,11 @@ public class DefaultIndexManager implements IndexManager {
 		return DigestUtils.md5Hex(version);
 	}
 
+	@Override
+	public WorkProgress getIndexingProgress(Project project) {
+		return indexingProgresses.get(project.getId());
+	}
+	
 	@Override
 	public boolean isIndexed(Project project, ObjectId commit) {
 		File indexDir = storageManager.getProjectIndexDir(project.getId());
@@ -431,6 +524,99 @@ public class DefaultIndexManager implements IndexManager {
 		batchWorkManager.submit(getBatchWorker(project.getId()), work);
 	}
 	
+	/**
+	 * Reads, converts, tokenizes and extracts symbols of blobs in multiple threads. Number of 
+	 * blobs being indexed concurrently is bounded so that tree walking thread is blocked when 
+	 * indexing threads can not keep up. 
+	 */
+	private class BlobIndexer {
+		
+		private final Repository repository;
+		
+		private final IndexWriter writer;
+		
+		private final boolean storeContent;
+		
+		private final WorkProgress progress;
+		
+		private final Semaphore semaphore = new Semaphore(INDEXING_CONCURRENCY);
+		
+		private final AtomicReference<Exception> exceptionRef = new AtomicReference<>(null);
+		
+		BlobIndexer(Repository repository, IndexWriter writer, boolean storeContent, WorkProgress progress) {
+			this.repository = repository;
+			this.writer = writer;
+			this.storeContent = storeContent;
+			this.progress = progress;
+		}
+		
+		void submit(@Nullable SymbolExtractor<Symbol> extractor, ObjectId blobId, String blobPath) 
+				throws Exception {
+			checkException();
+			semaphore.acquire();
+			progress.addTotal(1);
+			try {
+				executorService.execute(new Runnable() {
+	
+					@Override
+					public void run() {
+						try {
+							if (extractor != null) {
+								Queue<SymbolExtractor<Symbol>> extractors = symbolExtractors.computeIfAbsent(
+										extractor.getClass(), key -> new ConcurrentLinkedQueue<>());
+								SymbolExtractor<Symbol> taskExtractor = extractors.poll();
+								if (taskExtractor == null)
+									taskExtractor = newExtractor(extractor);
+								try {
+									indexBlob(writer, repository, taskExtractor, blobId, blobPath, storeContent);
+								} finally {
+									extractors.offer(taskExtractor);
+								}
+							} else {
+								indexBlob(writer, repository, null, blobId, blobPath, storeContent);
+							}
+							progress.addProcessed(1);
+						} catch (Exception e) {
+							exceptionRef.compareAndSet(null, e);
+						} finally {
+							semaphore.release();
+						}
+					}
+					
+				});
+			} catch (Exception e) {
+				semaphore.release();
+				throw e;
+			}
+		}
+		
+		@SuppressWarnings("unchecked")
+		private SymbolExtractor<Symbol> newExtractor(SymbolExtractor<Symbol> extractor) {
+			try {
+				return extractor.getClass().getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new RuntimeException(e);
+			}
+		}
+		
+		void await() throws Exception {
+			semaphore.acquire(INDEXING_CONCURRENCY);
+			semaphore.release(INDEXING_CONCURRENCY);
+			checkException();
+		}
+		
+		void waitForCompletion() {
+			semaphore.acquireUninterruptibly(INDEXING_CONCURRENCY);
+			semaphore.release(INDEXING_CONCURRENCY);
+		}
+		
+		private void checkException() throws Exception {
+			if (exceptionRef.get() != null)
+				throw exceptionRef.get();
+		}
+		
+	}
+	
 	private static class IndexWork extends Prioritized {
 
 		private final ObjectId commitId;
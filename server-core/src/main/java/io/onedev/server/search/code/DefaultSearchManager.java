@@ -1,5 +1,6 @@
 package io.onedev.server.search.code;
 
+import static io.onedev.server.search.code.FieldConstants.BLOB_CONTENT;
 import static io.onedev.server.search.code.FieldConstants.BLOB_HASH;
 import static io.onedev.server.search.code.FieldConstants.BLOB_INDEX_VERSION;
 import static io.onedev.server.search.code.FieldConstants.BLOB_PATH;
@@ -7,12 +8,22 @@ import static io.onedev.server.search.code.FieldConstants.BLOB_SYMBOL_LIST;
 
 import java.io.IOException;
 import java.nio.channels.ClosedByInterruptException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
@@ -23,16 +34,19 @@ import org.apache.commons.lang.SerializationUtils;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.index.BinaryDocValues;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.LeafReader;
 import org.apache.lucene.index.LeafReaderContext;
 import org.apache.lucene.search.BooleanClause.Occur;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.SimpleCollector;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.lucene.util.BytesRef;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
@@ -40,6 +54,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
 
 import io.onedev.commons.jsymbol.Symbol;
 import io.onedev.commons.jsymbol.SymbolExtractorRegistry;
@@ -52,39 +67,97 @@ import io.onedev.server.persistence.annotation.Transactional;
 import io.onedev.server.search.code.hit.QueryHit;
 import io.onedev.server.search.code.query.BlobQuery;
 import io.onedev.server.storage.StorageManager;
+import io.onedev.server.util.Pair;
 
 @Singleton
 public class DefaultSearchManager implements SearchManager {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultSearchManager.class);
 	
+	private static final Set<String> STORED_CONTENT_FIELDS = Sets.newHashSet(BLOB_HASH.name(), BLOB_CONTENT.name());
+	
+	// close least recently used searcher managers to bound memory used by opened indexes 
+	private static final int MAX_SEARCHER_MANAGERS = 256;
+	
+	private static final int SEARCH_CONCURRENCY = Runtime.getRuntime().availableProcessors();
+	
 	private final StorageManager storageManager;
 	
-	private final Map<Long, SearcherManager> searcherManagers = new ConcurrentHashMap<>();
+	private final Map<Long, SearcherManager> searcherManagers = 
+			new LinkedHashMap<Long, SearcherManager>(16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long, SearcherManager> eldest) {
+			if (size() > MAX_SEARCHER_MANAGERS) {
+				try {
+					eldest.getValue().close();
+				} catch (IOException e) {
+					logger.error("Error closing searcher manager", e);
+				}
+				return true;
+			} else {
+				return false;
+			}
+		}
+		
+	};
 	
 	private final IndexManager indexManager;
 	
+	private final ExecutorService executorService;
+	
 	@Inject
-	public DefaultSearchManager(StorageManager storageManager, IndexManager indexManager) {
+	public DefaultSearchManager(StorageManager storageManager, IndexManager indexManager, 
+			ExecutorService executorService) {
 		this.storageManager = storageManager;
 		this.indexManager = indexManager;
+		this.executorService = executorService;
 	}
 	
+	/**
+	 * Acquire searcher of index of specified project. Acquired searcher should be released 
+	 * via {@link #releaseSearcher(IndexSearcher)}
+	 * 
+	 * @return
+	 * 			acquired searcher, or <tt>null</tt> if index of specified project does not exist
+	 */
 	@Nullable
-	private SearcherManager getSearcherManager(Project project) throws InterruptedException {
+	private IndexSearcher acquireSearcher(Long projectId) throws InterruptedException {
 		try {
-			SearcherManager searcherManager = searcherManagers.get(project.getId());
-			if (searcherManager == null) synchronized (searcherManagers) {
-				searcherManager = searcherManagers.get(project.getId());
+			// acquire inside the lock as searcher manager will be closed once evicted
+			synchronized (searcherManagers) {
+				SearcherManager searcherManager = searcherManagers.get(projectId);
+				if (searcherManager != null)
+					return searcherManager.acquire();
+			}
+			
+			/*
+			 * Open index outside of the lock as it may take a while, and should not block 
+			 * searches of other projects. Index opened by a concurrent search wins if any
+			 */
+			Directory directory = FSDirectory.open(storageManager.getProjectIndexDir(projectId).toPath());
+			if (!DirectoryReader.indexExists(directory)) {
+				directory.close();
+				return null;
+			}
+			SearcherManager openedSearcherManager = new SearcherManager(directory, null);
+			IndexSearcher searcher;
+			synchronized (searcherManagers) {
+				SearcherManager searcherManager = searcherManagers.get(projectId);
 				if (searcherManager == null) {
-					Directory directory = FSDirectory.open(storageManager.getProjectIndexDir(project.getId()).toPath());
-					if (DirectoryReader.indexExists(directory)) {
-						searcherManager = new SearcherManager(directory, null);
-						searcherManagers.put(project.getId(), searcherManager);
-					}
+					searcherManager = openedSearcherManager;
+					searcherManagers.put(projectId, searcherManager);
+					openedSearcherManager = null;
 				}
+				searcher = searcherManager.acquire();
 			}
-			return searcherManager;
+			if (openedSearcherManager != null) {
+				openedSearcherManager.close();
+				directory.close();
+			}
+			return searcher;
 		} catch (ClosedByInterruptException e) {
 			// catch this exception and convert to normal InterruptedException as 
 			// we do not want to throw the original exception to surprise the user
@@ -97,22 +170,111 @@ public class DefaultSearchManager implements SearchManager {
 		}
 	}
 	
+	/*
+	 * This does the same as SearcherManager.release, and still works after the searcher 
+	 * manager is closed due to eviction 
+	 */
+	private void releaseSearcher(IndexSearcher searcher) throws IOException {
+		searcher.getIndexReader().decRef();
+	}
+	
 	@Override
-	public List<QueryHit> search(Project project, ObjectId commit, final BlobQuery query) 
+	public List<QueryHit> search(Project project, ObjectId commit, BlobQuery query) 
 			throws InterruptedException {
+		return search(project.getForkRoot().getId(), project.getRepository(), commit, query);
+	}
+	
+	@Override
+	public Map<Project, List<QueryHit>> search(Collection<Project> projects, BlobQuery query) 
+			throws InterruptedException {
+		// throw TooGeneralQueryException early in calling thread
+		query.asLuceneQuery();
+		
+		/*
+		 * Resolve everything relying on hibernate session in calling thread, and only 
+		 * searches index and repository in search threads
+		 */
+		List<Project> sortedProjects = new ArrayList<>(projects);
+		Collections.sort(sortedProjects);
+		List<Callable<Pair<Project, List<QueryHit>>>> searchTasks = new ArrayList<>();
+		for (Project project: sortedProjects) {
+			String defaultBranch = project.getDefaultBranch();
+			ObjectId commitId = defaultBranch!=null? project.getObjectId(defaultBranch, false): null;
+			if (commitId != null) {
+				Long indexProjectId = project.getForkRoot().getId();
+				Repository repository = project.getRepository();
+				searchTasks.add(new Callable<Pair<Project, List<QueryHit>>>() {
+
+					@Override
+					public Pair<Project, List<QueryHit>> call() throws Exception {
+						return new Pair<>(project, search(indexProjectId, repository, commitId, query));
+					}
+					
+				});
+			}
+		}
+		Iterator<Callable<Pair<Project, List<QueryHit>>>> tasks = searchTasks.iterator();
+		
+		/*
+		 * Results are merged in project order instead of completion order, and hits of each 
+		 * project are ordered by blob path, so that same query always gets same hits. Up to 
+		 * SEARCH_CONCURRENCY projects are searched ahead of the one being merged
+		 */
+		Map<Project, List<QueryHit>> hits = new LinkedHashMap<>();
+		Deque<Future<Pair<Project, List<QueryHit>>>> futures = new ArrayDeque<>();
+		try {
+			int count = 0;
+			while (count < query.getCount()) {
+				while (futures.size() < SEARCH_CONCURRENCY && tasks.hasNext())
+					futures.add(executorService.submit(tasks.next()));
+				if (futures.isEmpty())
+					break;
+				Pair<Project, List<QueryHit>> result = futures.remove().get();
+				List<QueryHit> hitsOfProject = new ArrayList<>(result.getSecond());
+				if (!hitsOfProject.isEmpty()) {
+					Collections.sort(hitsOfProject, new Comparator<QueryHit>() {
+
+						@Override
+						public int compare(QueryHit o1, QueryHit o2) {
+							return o1.getBlobPath().compareTo(o2.getBlobPath());
+						}
+						
+					});
+					if (count + hitsOfProject.size() > query.getCount())
+						hitsOfProject = new ArrayList<>(hitsOfProject.subList(0, query.getCount() - count));
+					hits.put(result.getFirst(), hitsOfProject);
+					count += hitsOfProject.size();
+				}
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof InterruptedException)
+				throw (InterruptedException) e.getCause();
+			else
+				throw ExceptionUtils.unchecked(e.getCause());
+		} finally {
+			// stop searching remaining projects once we have enough hits 
+			for (Future<?> future: futures)
+				future.cancel(true);
+		}
+		return hits;
+	}
+	
+	private List<QueryHit> search(Long indexProjectId, Repository repository, ObjectId commit, 
+			BlobQuery query) throws InterruptedException {
 		List<QueryHit> hits = new ArrayList<>();
 
-		SearcherManager searcherManager = getSearcherManager(project.getForkRoot());
-		if (searcherManager != null) {
+		IndexSearcher searcher = acquireSearcher(indexProjectId);
+		if (searcher != null) {
 			try {
-				final IndexSearcher searcher = searcherManager.acquire();
 				try {
-					try (RevWalk revWalk = new RevWalk(project.getRepository())){
+					try (RevWalk revWalk = new RevWalk(repository)){
 						final RevTree revTree = revWalk.parseCommit(commit).getTree();
 						final Set<String> checkedBlobPaths = new HashSet<>();
 						
 						searcher.search(query.asLuceneQuery(), new SimpleCollector() {
 	
+							private LeafReader reader;
+							
 							private BinaryDocValues blobPathValues;
 							
 							@Override
@@ -122,9 +284,16 @@ public class DefaultSearchManager implements SearchManager {
 									String blobPath = blobPathValues.binaryValue().utf8ToString();
 									
 									if (!checkedBlobPaths.contains(blobPath)) {
-										TreeWalk treeWalk = TreeWalk.forPath(project.getRepository(), blobPath, revTree);									
-										if (treeWalk != null)
-											query.collect(searcher, treeWalk, hits);
+										TreeWalk treeWalk = TreeWalk.forPath(repository, blobPath, revTree);									
+										if (treeWalk != null) {
+											String blobContent = null;
+											if (query.isContentAware())
+												blobContent = getStoredContent(reader, doc, treeWalk.getObjectId(0));
+											if (blobContent != null)
+												query.collect(blobPath, blobContent, hits);
+											else
+												query.collect(searcher, treeWalk, hits);
+										}
 										checkedBlobPaths.add(blobPath);
 									}
 								}
@@ -132,7 +301,8 @@ public class DefaultSearchManager implements SearchManager {
 	
 							@Override
 							protected void doSetNextReader(LeafReaderContext context) throws IOException {
-								blobPathValues  = context.reader().getBinaryDocValues(FieldConstants.BLOB_PATH.name());
+								reader = context.reader();
+								blobPathValues  = reader.getBinaryDocValues(FieldConstants.BLOB_PATH.name());
 							}
 
 							@Override
@@ -143,7 +313,7 @@ public class DefaultSearchManager implements SearchManager {
 						});
 					}
 				} finally {
-					searcherManager.release(searcher);
+					releaseSearcher(searcher);
 				}
 			} catch (IOException e) {
 				throw ExceptionUtils.unchecked(e);
@@ -155,17 +325,29 @@ public class DefaultSearchManager implements SearchManager {
 		return hits;
 	}
 
+	/**
+	 * Get text content of specified blob stored in index. Index document of a blob path 
+	 * might be created for a different revision of the blob, so we check blob hash here
+	 */
+	@Nullable
+	private String getStoredContent(LeafReader reader, int doc, ObjectId blobId) throws IOException {
+		Document document = reader.document(doc, STORED_CONTENT_FIELDS);
+		if (blobId.name().equals(document.get(BLOB_HASH.name())))
+			return document.get(BLOB_CONTENT.name());
+		else
+			return null;
+	}
+	
 	@Override
 	public List<Symbol> getSymbols(Project project, ObjectId blobId, String blobPath) {
 		try {
-			SearcherManager searcherManager = getSearcherManager(project.getForkRoot());
-			if (searcherManager != null) {
+			IndexSearcher searcher = acquireSearcher(project.getForkRoot().getId());
+			if (searcher != null) {
 				try {
-					IndexSearcher searcher = searcherManager.acquire();
 					try {
 						return getSymbols(searcher, blobId, blobPath);
 					} finally {
-						searcherManager.release(searcher);
+						releaseSearcher(searcher);
 					}
 				} catch (IOException e) {
 					throw ExceptionUtils.unchecked(e);
@@ -231,12 +413,18 @@ public class DefaultSearchManager implements SearchManager {
 	
 	@Listen
 	public void on(CommitIndexed event) {
-		try {
-			SearcherManager searcherManager = getSearcherManager(event.getProject().getForkRoot()); 
-			if (searcherManager != null)
+		SearcherManager searcherManager;
+		synchronized (searcherManagers) {
+			searcherManager = searcherManagers.get(event.getProject().getForkRoot().getId());
+		}
+		if (searcherManager != null) {
+			try {
 				searcherManager.maybeRefresh();
-		} catch (InterruptedException | IOException e) {
-			throw ExceptionUtils.unchecked(e);
+			} catch (AlreadyClosedException e) {
+				// evicted in the meantime, a fresh one will be opened on next search
+			} catch (IOException e) {
+				throw ExceptionUtils.unchecked(e);
+			}
 		}
 	}
 
@@ -7,6 +7,7 @@ import org.eclipse.jgit.lib.ObjectId;
 import io.onedev.commons.jsymbol.Symbol;
 import io.onedev.commons.jsymbol.SymbolExtractor;
 import io.onedev.server.model.Project;
+import io.onedev.server.util.WorkProgress;
 
 public interface IndexManager {
 	
@@ -14,6 +15,17 @@ public interface IndexManager {
 	
 	boolean isIndexed(Project project, ObjectId commit);
 	
+	/**
+	 * Get progress of code indexing
+	 * 
+	 * @param project
+	 * 			project to get indexing progress for
+	 * @return
+	 * 			indexing progress, or <tt>null</tt> if project is not being indexed
+	 */
+	@Nullable
+	WorkProgress getIndexingProgress(Project project);
+	
 	String getIndexVersion();
 	
 	String getIndexVersion(@Nullable SymbolExtractor<Symbol> extractor);
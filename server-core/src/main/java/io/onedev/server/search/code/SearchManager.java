@@ -1,6 +1,8 @@
 package io.onedev.server.search.code;
 
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -27,6 +29,20 @@ public interface SearchManager {
 	List<QueryHit> search(Project project, ObjectId commit, BlobQuery query) 
 			throws InterruptedException, TooGeneralQueryException;
 	
+	/**
+	 * Search default branches of specified projects with specified query. Projects are searched 
+	 * concurrently, and searching stops once number of hits reaches count of the query.
+	 * 
+	 * @return
+	 * 			map of project to hits ordered by blob path, in order of project id. Projects 
+	 * 			without hits are not included
+	 * @throws 
+	 * 			TooGeneralQueryException if supplied query term is too general to possibly cause query slow
+	 * 			InterruptedException if the search process is interrupted
+	 */
+	Map<Project, List<QueryHit>> search(Collection<Project> projects, BlobQuery query) 
+			throws InterruptedException, TooGeneralQueryException;
+	
 	@Nullable
 	List<Symbol> getSymbols(Project project, ObjectId blobId, String blobPath);
 	
@@ -37,6 +37,31 @@ public abstract class BlobQuery {
 
 	public abstract void collect(IndexSearcher searcher, TreeWalk treeWalk, List<QueryHit> hits);
 
+	/**
+	 * Whether or not this query collects hits by inspecting blob content. If true, text content 
+	 * stored in index will be passed to {@link #collect(String, String, List)} when available 
+	 * to avoid reading the blob from repository
+	 */
+	public boolean isContentAware() {
+		return false;
+	}
+	
+	/**
+	 * Collect hits from text content of specified blob. This is called instead of 
+	 * {@link #collect(IndexSearcher, TreeWalk, List)} when content of the blob is stored in 
+	 * index, which only happens for content aware queries. Queries not being content aware 
+	 * do not need to override this
+	 * 
+	 * @param blobPath
+	 * 			path of the blob
+	 * @param blobContent
+	 * 			text content of the blob, converted the same way as when the blob is indexed
+	 * @param hits
+	 * 			list to add hits into
+	 */
+	public void collect(String blobPath, String blobContent, List<QueryHit> hits) {
+	}
+
 	/**
 	 * Get lucene query representation of this query
 	 * 
@@ -6,6 +6,8 @@ import static io.onedev.server.search.code.IndexConstants.NGRAM_SIZE;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -19,6 +21,8 @@ import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.WildcardQuery;
 import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
@@ -28,12 +32,18 @@ import io.onedev.commons.utils.PlanarRange;
 import io.onedev.server.search.code.IndexConstants;
 import io.onedev.server.search.code.hit.QueryHit;
 import io.onedev.server.search.code.hit.TextHit;
+import io.onedev.server.search.code.query.regex.LinearRegex;
 import io.onedev.server.search.code.query.regex.RegexLiterals;
 import io.onedev.server.util.ContentDetector;
 
 public class TextQuery extends BlobQuery {
 
+	private static final Logger logger = LoggerFactory.getLogger(TextQuery.class);
+	
 	private static int MAX_LINE_LEN = 1024;
+	
+	// bound cost of matching a line with java regex, which backtracks
+	private static int MAX_REGEX_STEPS = 1000000;
 
 	private final String term;
 	
@@ -47,6 +57,8 @@ public class TextQuery extends BlobQuery {
 	
 	private transient Pattern pattern;
 	
+	private transient Optional<LinearRegex> linearRegex;
+	
 	private TextQuery(String term, boolean regex, boolean caseSensitive, boolean wholeWord, 
 			@Nullable String directory, @Nullable String fileNames, int count) {
 		super(directory, count);
@@ -58,17 +70,22 @@ public class TextQuery extends BlobQuery {
 		this.fileNames = fileNames;
 	}
 
+	private String getExpression() {
+		String expression = term;
+		if (wholeWord) {
+			if (!expression.startsWith("\\b"))
+				expression = "\\b" + expression;
+			if (!expression.endsWith("\\b"))
+				expression = expression + "\\b";
+		}
+		return expression;
+	}
+	
 	@Nullable
 	private Pattern getPattern() {
 		if (regex) {
 			if (pattern == null) {
-				String expression = term;
-				if (wholeWord) {
-					if (!expression.startsWith("\\b"))
-						expression = "\\b" + expression;
-					if (!expression.endsWith("\\b"))
-						expression = expression + "\\b";
-				}
+				String expression = getExpression();
 				if (caseSensitive)
 					pattern = Pattern.compile(expression);
 				else
@@ -80,6 +97,17 @@ public class TextQuery extends BlobQuery {
 		}
 	}
 	
+	/**
+	 * Get linear time matcher of the regex. Null will be returned if the regex can not 
+	 * be handled by {@link LinearRegex}, and java regex should be used instead
+	 */
+	@Nullable
+	private LinearRegex getLinearRegex() {
+		if (linearRegex == null)
+			linearRegex = Optional.ofNullable(LinearRegex.compile(getExpression(), !caseSensitive));
+		return linearRegex.orElse(null);
+	}
+	
 	@Override
 	public void collect(IndexSearcher searcher, TreeWalk treeWalk, List<QueryHit> hits) {
 		ObjectLoader objectLoader;
@@ -88,86 +116,167 @@ public class TextQuery extends BlobQuery {
 			if (objectLoader.getSize() <= IndexConstants.MAX_INDEXABLE_SIZE) {
 				String blobPath = treeWalk.getPathString();
 				String content = ContentDetector.convertToText(objectLoader.getCachedBytes(), blobPath);
-				if (content != null) {
-					Pattern pattern = getPattern();
-					if (pattern != null) {
-						int lineNo = 0;
-						for (String line: Splitter.on('\n').split(content)) {
-							if (line.length() <= MAX_LINE_LEN) {
-								Matcher matcher = pattern.matcher(line);
-								while (matcher.find()) {
-									LinearRange range = new LinearRange(matcher.start(), matcher.end());
-									PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
-									hits.add(new TextHit(blobPath, line, position));
-									if (hits.size() >= getCount())
-										break;
-								}
+				if (content != null) 
+					collect(blobPath, content, hits);
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	@Override
+	public boolean isContentAware() {
+		return true;
+	}
+
+	@Override
+	public void collect(String blobPath, String content, List<QueryHit> hits) {
+		Pattern pattern = getPattern();
+		if (pattern != null) {
+			LinearRegex linearRegex = getLinearRegex();
+			
+			// shared by all lines of the blob, and refilled before matching each line
+			AtomicInteger regexSteps = new AtomicInteger();
+			int lineNo = 0;
+			for (String line: Splitter.on('\n').split(content)) {
+				if (Thread.currentThread().isInterrupted())
+					break;
+				if (line.length() <= MAX_LINE_LEN) {
+					if (linearRegex != null) {
+						int from = 0;
+						int[] match;
+						while (from <= line.length() && (match = linearRegex.find(line, from)) != null) {
+							LinearRange range = new LinearRange(match[0], match[1]);
+							PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
+							hits.add(new TextHit(blobPath, line, position));
+							if (hits.size() >= getCount())
+								break;
+							if (match[1] > match[0])
+								from = match[1];
+							else
+								from = match[1] + 1;
+						}
+					} else {
+						regexSteps.set(MAX_REGEX_STEPS);
+						Matcher matcher = pattern.matcher(new BoundedCharSequence(line, regexSteps));
+						try {
+							while (matcher.find()) {
+								LinearRange range = new LinearRange(matcher.start(), matcher.end());
+								PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
+								hits.add(new TextHit(blobPath, line, position));
 								if (hits.size() >= getCount())
 									break;
 							}
-							lineNo++;
+						} catch (RegexTooComplexException e) {
+							logger.debug("Regex too complex to match (regex: {}, blob path: {}, line: {})", 
+									term, blobPath, lineNo+1);
 						}
-					} else {
-						String normalizedTerm;
-						if (!caseSensitive)
-							normalizedTerm = term.toLowerCase();
-						else
-							normalizedTerm = term;
-						
-						int lineNo = 0;
-						for (String line: Splitter.on('\n').split(content)) {
-							if (line.length() <= MAX_LINE_LEN) {
-								String normalizedLine;
-								if (!caseSensitive)
-									normalizedLine = line.toLowerCase();
-								else
-									normalizedLine = line;
-								
-								int start = normalizedLine.indexOf(normalizedTerm, 0);
-								while (start != -1) {
-									int end = start + normalizedTerm.length();
-									if (wholeWord) {
-										char beforeChar;
-										if (start == 0)
-											beforeChar = ' ';
-										else 
-											beforeChar = line.charAt(start-1);
-										
-										char afterChar;
-										if (end == line.length())
-											afterChar = ' ';
-										else
-											afterChar = line.charAt(end);
-										
-										if (!isWordChar(beforeChar) && !isWordChar(afterChar)) {
-											LinearRange range = new LinearRange(start, end);
-											PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
-											hits.add(new TextHit(blobPath, line, position));
-											if (hits.size() >= getCount())
-												break;
-										}
-									} else {
-										LinearRange range = new LinearRange(start, end);
-										PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
-										hits.add(new TextHit(blobPath, line, position));
-										if (hits.size() >= getCount())
-											break;
-									}
-									start = normalizedLine.indexOf(normalizedTerm, end);
-								}
+					}
+					if (hits.size() >= getCount())
+						break;
+				}
+				lineNo++;
+			}
+		} else {
+			String normalizedTerm;
+			if (!caseSensitive)
+				normalizedTerm = term.toLowerCase();
+			else
+				normalizedTerm = term;
+			
+			int lineNo = 0;
+			for (String line: Splitter.on('\n').split(content)) {
+				if (line.length() <= MAX_LINE_LEN) {
+					String normalizedLine;
+					if (!caseSensitive)
+						normalizedLine = line.toLowerCase();
+					else
+						normalizedLine = line;
+					
+					int start = normalizedLine.indexOf(normalizedTerm, 0);
+					while (start != -1) {
+						int end = start + normalizedTerm.length();
+						if (wholeWord) {
+							char beforeChar;
+							if (start == 0)
+								beforeChar = ' ';
+							else 
+								beforeChar = line.charAt(start-1);
+							
+							char afterChar;
+							if (end == line.length())
+								afterChar = ' ';
+							else
+								afterChar = line.charAt(end);
+							
+							if (!isWordChar(beforeChar) && !isWordChar(afterChar)) {
+								LinearRange range = new LinearRange(start, end);
+								PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
+								hits.add(new TextHit(blobPath, line, position));
 								if (hits.size() >= getCount())
 									break;
 							}
-							lineNo++;
+						} else {
+							LinearRange range = new LinearRange(start, end);
+							PlanarRange position = new PlanarRange(lineNo, range.getFrom(), lineNo, range.getTo());
+							hits.add(new TextHit(blobPath, line, position));
+							if (hits.size() >= getCount())
+								break;
 						}
+						start = normalizedLine.indexOf(normalizedTerm, end);
 					}
+					if (hits.size() >= getCount())
+						break;
 				}
+				lineNo++;
 			}
-		} catch (IOException e) {
-			throw new RuntimeException(e);
 		}
 	}
 
+	/*
+	 * Char sequence aborting java regex matching after specified number of char accesses
+	 */
+	private static class BoundedCharSequence implements CharSequence {
+
+		private final CharSequence delegate;
+		
+		private final AtomicInteger budget;
+		
+		BoundedCharSequence(CharSequence delegate, AtomicInteger budget) {
+			this.delegate = delegate;
+			this.budget = budget;
+		}
+		
+		@Override
+		public int length() {
+			return delegate.length();
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (budget.decrementAndGet() < 0)
+				throw new RegexTooComplexException();
+			return delegate.charAt(index);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return new BoundedCharSequence(delegate.subSequence(start, end), budget);
+		}
+
+		@Override
+		public String toString() {
+			return delegate.toString();
+		}
+		
+	}
+	
+	private static class RegexTooComplexException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+		
+	}
+	
 	private boolean isWordChar(char ch) {
 		return CharUtils.isAsciiAlphanumeric(ch) || ch == '_';
 	}
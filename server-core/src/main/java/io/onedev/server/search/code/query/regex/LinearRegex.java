@@ -0,0 +1,755 @@
+package io.onedev.server.search.code.query.regex;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+import javax.annotation.Nullable;
+
+/**
+ * Regular expression matcher running in time linear to length of the input. The expression
+ * is compiled into a program executed by simulating all possible threads in lock step (the
+ * Pike VM), so that no backtracking happens. Thread priorities are tracked to report the
+ * same match as {@link java.util.regex.Pattern} for supported constructs.
+ * <p>
+ * Supported constructs are literals, escapes, character classes, dot, anchors, word
+ * boundaries, groups, alternations and greedy/reluctant quantifiers. Expressions using other
+ * constructs (back references, look arounds, possessive quantifiers, etc.) can not be
+ * compiled, and caller should fall back to {@link java.util.regex.Pattern}.
+ * <p>
+ * This class is immutable and thread-safe.
+ */
+public class LinearRegex {
+
+	// limit size of compiled program to bound cost of matching each character
+	private static final int MAX_PROGRAM_SIZE = 5000;
+
+	private static final int OP_CHAR = 0;
+
+	private static final int OP_SPLIT = 1;
+
+	private static final int OP_JUMP = 2;
+
+	private static final int OP_ASSERT = 3;
+
+	private static final int OP_MATCH = 4;
+
+	private static final int ASSERT_BEGIN = 0;
+
+	private static final int ASSERT_END = 1;
+
+	private static final int ASSERT_WORD_BOUNDARY = 2;
+
+	private static final int ASSERT_NON_WORD_BOUNDARY = 3;
+
+	private static final int ASSERT_INPUT_END = 4;
+
+	private final int[] ops;
+
+	private final int[] args1;
+
+	private final int[] args2;
+
+	private final IntPredicate[] predicates;
+
+	private LinearRegex(Program program) {
+		int size = program.ops.size();
+		ops = new int[size];
+		args1 = new int[size];
+		args2 = new int[size];
+		predicates = program.predicates.toArray(new IntPredicate[size]);
+		for (int i=0; i<size; i++) {
+			ops[i] = program.ops.get(i);
+			args1[i] = program.args1.get(i);
+			args2[i] = program.args2.get(i);
+		}
+	}
+
+	/**
+	 * Compile specified expression.
+	 *
+	 * @param regex
+	 * 			expression to compile
+	 * @param caseInsensitive
+	 * 			whether or not to match case insensitively. Similar to {@link java.util.regex.Pattern#CASE_INSENSITIVE},
+	 * 			only US-ASCII characters are folded
+	 * @return
+	 * 			compiled regex, or <tt>null</tt> if specified expression uses constructs not supported
+	 * 			by this class, or is too complex
+	 */
+	@Nullable
+	public static LinearRegex compile(String regex, boolean caseInsensitive) {
+		try {
+			Parser parser = new Parser(regex, caseInsensitive);
+			Node node = parser.parseAlternation();
+			if (parser.pos != regex.length())
+				return null;
+			Program program = new Program();
+			node.emit(program);
+			program.add(OP_MATCH, 0, 0, null);
+			return new LinearRegex(program);
+		} catch (UnsupportedRegexException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Find next match in specified input starting from specified position.
+	 *
+	 * @return
+	 * 			two element array containing start (inclusive) and end (exclusive) of the
+	 * 			match, or <tt>null</tt> if no match is found
+	 */
+	@Nullable
+	public int[] find(CharSequence input, int from) {
+		int length = input.length();
+		ThreadList current = new ThreadList(ops.length);
+		ThreadList next = new ThreadList(ops.length);
+		int[] stack = new int[ops.length*2+1];
+
+		int matchStart = -1;
+		int matchEnd = -1;
+		for (int pos=from; pos<=length; pos++) {
+			if (matchStart == -1)
+				addThread(current, stack, 0, pos, pos, input);
+			if (current.size == 0) {
+				if (matchStart != -1)
+					break;
+				current.clear();
+				continue;
+			}
+
+			for (int i=0; i<current.size; i++) {
+				int pc = current.pcs[i];
+				if (ops[pc] == OP_CHAR) {
+					if (pos < length && predicates[pc].test(input.charAt(pos)))
+						addThread(next, stack, pc+1, pos+1, current.starts[i], input);
+				} else {
+					// threads after a matched one have lower priority, cut them off
+					matchStart = current.starts[i];
+					matchEnd = pos;
+					break;
+				}
+			}
+
+			ThreadList temp = current;
+			current = next;
+			next = temp;
+			next.clear();
+		}
+
+		if (matchStart != -1)
+			return new int[] {matchStart, matchEnd};
+		else
+			return null;
+	}
+
+	/*
+	 * Follow jumps, splits and assertions from specified pc in order of priority, and add
+	 * reached char/match instructions to the list
+	 */
+	private void addThread(ThreadList list, int[] stack, int pc, int pos, int start, CharSequence input) {
+		int top = 0;
+		stack[top++] = pc;
+		while (top != 0) {
+			pc = stack[--top];
+			if (list.visit(pc)) {
+				switch (ops[pc]) {
+				case OP_JUMP:
+					stack[top++] = args1[pc];
+					break;
+				case OP_SPLIT:
+					stack[top++] = args2[pc];
+					stack[top++] = args1[pc];
+					break;
+				case OP_ASSERT:
+					if (holds(args1[pc], input, pos))
+						stack[top++] = pc+1;
+					break;
+				default:
+					list.add(pc, start);
+				}
+			}
+		}
+	}
+
+	private boolean holds(int assertion, CharSequence input, int pos) {
+		int length = input.length();
+		switch (assertion) {
+		case ASSERT_BEGIN:
+			return pos == 0;
+		case ASSERT_INPUT_END:
+			return pos == length;
+		case ASSERT_END:
+			// same as java regex, '$' also matches before a final line terminator
+			return pos == length
+					|| pos == length-1 && isLineTerminator(input.charAt(pos))
+					|| pos == length-2 && input.charAt(pos) == '\r' && input.charAt(pos+1) == '\n';
+		default:
+			boolean wordBefore = pos > 0 && isWordChar(input.charAt(pos-1));
+			boolean wordAfter = pos < length && isWordChar(input.charAt(pos));
+			if (assertion == ASSERT_WORD_BOUNDARY)
+				return wordBefore != wordAfter;
+			else
+				return wordBefore == wordAfter;
+		}
+	}
+
+	private static boolean isWordChar(char ch) {
+		return Character.isLetterOrDigit(ch) || ch == '_';
+	}
+
+	private static boolean isLineTerminator(int ch) {
+		return ch == '\n' || ch == '\r' || ch == '\u0085' || ch == '\u2028' || ch == '\u2029';
+	}
+
+	private static int flipCase(int ch) {
+		if (ch >= 'a' && ch <= 'z')
+			return ch - 'a' + 'A';
+		else if (ch >= 'A' && ch <= 'Z')
+			return ch - 'A' + 'a';
+		else
+			return ch;
+	}
+
+	private static class ThreadList {
+
+		final int[] pcs;
+
+		final int[] starts;
+
+		int size;
+
+		// sparse set recording visited pcs in current step
+		final int[] dense;
+
+		final int[] sparse;
+
+		int visited;
+
+		ThreadList(int capacity) {
+			pcs = new int[capacity];
+			starts = new int[capacity];
+			dense = new int[capacity];
+			sparse = new int[capacity];
+		}
+
+		boolean visit(int pc) {
+			int index = sparse[pc];
+			if (index < visited && dense[index] == pc)
+				return false;
+			sparse[pc] = visited;
+			dense[visited++] = pc;
+			return true;
+		}
+
+		void add(int pc, int start) {
+			pcs[size] = pc;
+			starts[size] = start;
+			size++;
+		}
+
+		void clear() {
+			size = 0;
+			visited = 0;
+		}
+
+	}
+
+	private static class Program {
+
+		final List<Integer> ops = new ArrayList<>();
+
+		final List<Integer> args1 = new ArrayList<>();
+
+		final List<Integer> args2 = new ArrayList<>();
+
+		final List<IntPredicate> predicates = new ArrayList<>();
+
+		int add(int op, int arg1, int arg2, @Nullable IntPredicate predicate) {
+			if (ops.size() >= MAX_PROGRAM_SIZE)
+				throw new UnsupportedRegexException();
+			ops.add(op);
+			args1.add(arg1);
+			args2.add(arg2);
+			predicates.add(predicate);
+			return ops.size() - 1;
+		}
+
+		int size() {
+			return ops.size();
+		}
+
+		void setArg1(int pc, int arg1) {
+			args1.set(pc, arg1);
+		}
+
+		void setArg2(int pc, int arg2) {
+			args2.set(pc, arg2);
+		}
+
+	}
+
+	private static abstract class Node {
+
+		abstract void emit(Program program);
+
+	}
+
+	private static class CharNode extends Node {
+
+		final IntPredicate predicate;
+
+		CharNode(IntPredicate predicate) {
+			this.predicate = predicate;
+		}
+
+		@Override
+		void emit(Program program) {
+			program.add(OP_CHAR, 0, 0, predicate);
+		}
+
+	}
+
+	private static class AssertNode extends Node {
+
+		final int assertion;
+
+		AssertNode(int assertion) {
+			this.assertion = assertion;
+		}
+
+		@Override
+		void emit(Program program) {
+			program.add(OP_ASSERT, assertion, 0, null);
+		}
+
+	}
+
+	private static class ConcatNode extends Node {
+
+		final List<Node> elements;
+
+		ConcatNode(List<Node> elements) {
+			this.elements = elements;
+		}
+
+		@Override
+		void emit(Program program) {
+			for (Node element: elements)
+				element.emit(program);
+		}
+
+	}
+
+	private static class AlternationNode extends Node {
+
+		final List<Node> alternatives;
+
+		AlternationNode(List<Node> alternatives) {
+			this.alternatives = alternatives;
+		}
+
+		@Override
+		void emit(Program program) {
+			List<Integer> jumps = new ArrayList<>();
+			for (int i=0; i<alternatives.size(); i++) {
+				if (i < alternatives.size()-1) {
+					int split = program.add(OP_SPLIT, 0, 0, null);
+					program.setArg1(split, program.size());
+					alternatives.get(i).emit(program);
+					jumps.add(program.add(OP_JUMP, 0, 0, null));
+					program.setArg2(split, program.size());
+				} else {
+					alternatives.get(i).emit(program);
+				}
+			}
+			for (int jump: jumps)
+				program.setArg1(jump, program.size());
+		}
+
+	}
+
+	private static class RepeatNode extends Node {
+
+		final Node element;
+
+		final int min;
+
+		// -1 means unbounded
+		final int max;
+
+		final boolean greedy;
+
+		RepeatNode(Node element, int min, int max, boolean greedy) {
+			this.element = element;
+			this.min = min;
+			this.max = max;
+			this.greedy = greedy;
+		}
+
+		@Override
+		void emit(Program program) {
+			for (int i=0; i<min; i++)
+				element.emit(program);
+			if (max == -1) {
+				int split = program.add(OP_SPLIT, 0, 0, null);
+				element.emit(program);
+				program.add(OP_JUMP, split, 0, null);
+				setBranches(program, split, split+1, program.size());
+			} else {
+				List<Integer> splits = new ArrayList<>();
+				for (int i=min; i<max; i++) {
+					int split = program.add(OP_SPLIT, 0, 0, null);
+					splits.add(split);
+					element.emit(program);
+				}
+				for (int split: splits)
+					setBranches(program, split, split+1, program.size());
+			}
+		}
+
+		private void setBranches(Program program, int split, int repeat, int skip) {
+			if (greedy) {
+				program.setArg1(split, repeat);
+				program.setArg2(split, skip);
+			} else {
+				program.setArg1(split, skip);
+				program.setArg2(split, repeat);
+			}
+		}
+
+	}
+
+	private static class Parser {
+
+		final String regex;
+
+		final boolean caseInsensitive;
+
+		int pos;
+
+		Parser(String regex, boolean caseInsensitive) {
+			this.regex = regex;
+			this.caseInsensitive = caseInsensitive;
+		}
+
+		boolean more() {
+			return pos < regex.length();
+		}
+
+		char peek() {
+			return regex.charAt(pos);
+		}
+
+		char next() {
+			if (!more())
+				throw new UnsupportedRegexException();
+			return regex.charAt(pos++);
+		}
+
+		Node parseAlternation() {
+			List<Node> alternatives = new ArrayList<>();
+			alternatives.add(parseConcat());
+			while (more() && peek() == '|') {
+				pos++;
+				alternatives.add(parseConcat());
+			}
+			if (alternatives.size() == 1)
+				return alternatives.get(0);
+			else
+				return new AlternationNode(alternatives);
+		}
+
+		Node parseConcat() {
+			List<Node> elements = new ArrayList<>();
+			while (more() && peek() != '|' && peek() != ')')
+				elements.add(parseRepeat(parseAtom()));
+			return new ConcatNode(elements);
+		}
+
+		Node parseRepeat(Node atom) {
+			while (more()) {
+				int min, max;
+				char ch = peek();
+				if (ch == '*') {
+					min = 0;
+					max = -1;
+					pos++;
+				} else if (ch == '+') {
+					min = 1;
+					max = -1;
+					pos++;
+				} else if (ch == '?') {
+					min = 0;
+					max = 1;
+					pos++;
+				} else if (ch == '{') {
+					pos++;
+					min = parseNumber();
+					if (next() == ',') {
+						if (peek() == '}') {
+							max = -1;
+						} else {
+							max = parseNumber();
+							if (max < min)
+								throw new UnsupportedRegexException();
+						}
+						if (next() != '}')
+							throw new UnsupportedRegexException();
+					} else {
+						max = min;
+						if (regex.charAt(pos-1) != '}')
+							throw new UnsupportedRegexException();
+					}
+				} else {
+					break;
+				}
+				if (atom instanceof AssertNode)
+					throw new UnsupportedRegexException();
+				boolean greedy = true;
+				if (more() && peek() == '?') {
+					greedy = false;
+					pos++;
+				} else if (more() && peek() == '+') {
+					// possessive quantifier
+					throw new UnsupportedRegexException();
+				}
+				atom = new RepeatNode(atom, min, max, greedy);
+			}
+			return atom;
+		}
+
+		int parseNumber() {
+			int start = pos;
+			while (more() && isDigit(peek()) && pos-start<4)
+				pos++;
+			if (pos == start || more() && isDigit(peek()))
+				throw new UnsupportedRegexException();
+			return Integer.parseInt(regex.substring(start, pos));
+		}
+
+		Node parseAtom() {
+			char ch = next();
+			switch (ch) {
+			case '(':
+				if (more() && peek() == '?') {
+					pos++;
+					if (more() && peek() == ':') {
+						pos++;
+					} else if (more() && peek() == '<' && pos+1 < regex.length()
+							&& Character.isLetter(regex.charAt(pos+1))) {
+						// named group
+						int end = regex.indexOf('>', pos);
+						if (end == -1)
+							throw new UnsupportedRegexException();
+						pos = end + 1;
+					} else {
+						throw new UnsupportedRegexException();
+					}
+				}
+				Node group = parseAlternation();
+				if (next() != ')')
+					throw new UnsupportedRegexException();
+				return group;
+			case '[':
+				return new CharNode(parseClass());
+			case '.':
+				return new CharNode(it -> !isLineTerminator(it));
+			case '^':
+				return new AssertNode(ASSERT_BEGIN);
+			case '$':
+				return new AssertNode(ASSERT_END);
+			case '\\':
+				return parseEscape();
+			case '*': case '+': case '?': case '{': case ')':
+				throw new UnsupportedRegexException();
+			default:
+				return new CharNode(fold(it -> it == ch));
+			}
+		}
+
+		Node parseEscape() {
+			char ch = next();
+			switch (ch) {
+			case 'b':
+				return new AssertNode(ASSERT_WORD_BOUNDARY);
+			case 'B':
+				return new AssertNode(ASSERT_NON_WORD_BOUNDARY);
+			case 'A':
+				return new AssertNode(ASSERT_BEGIN);
+			case 'z':
+				return new AssertNode(ASSERT_INPUT_END);
+			case 'Z':
+				return new AssertNode(ASSERT_END);
+			default:
+				pos--;
+				return new CharNode(fold(parseEscapedChar()));
+			}
+		}
+
+		/*
+		 * Parse escaped char or predefined char class after the backslash
+		 */
+		IntPredicate parseEscapedChar() {
+			char ch = next();
+			switch (ch) {
+			case 'd':
+				return it -> it >= '0' && it <= '9';
+			case 'D':
+				return it -> !(it >= '0' && it <= '9');
+			case 'w':
+				return it -> isAsciiWordChar(it);
+			case 'W':
+				return it -> !isAsciiWordChar(it);
+			case 's':
+				return it -> isSpace(it);
+			case 'S':
+				return it -> !isSpace(it);
+			case 't':
+				return it -> it == '\t';
+			case 'n':
+				return it -> it == '\n';
+			case 'r':
+				return it -> it == '\r';
+			case 'f':
+				return it -> it == '\f';
+			case 'a':
+				return it -> it == '\u0007';
+			case 'e':
+				return it -> it == '\u001B';
+			case 'x':
+				return equalTo(parseHex(2));
+			case 'u':
+				return equalTo(parseHex(4));
+			default:
+				if (Character.isLetterOrDigit(ch))
+					throw new UnsupportedRegexException();
+				else
+					return it -> it == ch;
+			}
+		}
+
+		int parseHex(int digits) {
+			if (pos + digits > regex.length())
+				throw new UnsupportedRegexException();
+			try {
+				int value = Integer.parseInt(regex.substring(pos, pos+digits), 16);
+				pos += digits;
+				return value;
+			} catch (NumberFormatException e) {
+				throw new UnsupportedRegexException();
+			}
+		}
+
+		IntPredicate parseClass() {
+			boolean negated = false;
+			if (more() && peek() == '^') {
+				negated = true;
+				pos++;
+			}
+			if (more() && peek() == ']')
+				throw new UnsupportedRegexException();
+
+			IntPredicate predicate = it -> false;
+			while (true) {
+				char ch = next();
+				if (ch == ']')
+					break;
+				if (ch == '[' || ch == '&' && more() && peek() == '&')
+					throw new UnsupportedRegexException();
+
+				int from;
+				if (ch == '\\') {
+					int start = pos;
+					IntPredicate item = parseEscapedChar();
+					if (pos - start == 1 && "dDwWsS".indexOf(regex.charAt(start)) != -1) {
+						predicate = predicate.or(item);
+						continue;
+					}
+					from = getSingleChar(start);
+				} else {
+					from = ch;
+				}
+
+				if (more() && peek() == '-' && pos+1 < regex.length() && regex.charAt(pos+1) != ']') {
+					pos++;
+					int to;
+					char toCh = next();
+					if (toCh == '\\') {
+						int start = pos;
+						parseEscapedChar();
+						to = getSingleChar(start);
+					} else if (toCh == '[') {
+						throw new UnsupportedRegexException();
+					} else {
+						to = toCh;
+					}
+					if (to < from)
+						throw new UnsupportedRegexException();
+					int rangeFrom = from;
+					int rangeTo = to;
+					predicate = predicate.or(it -> it >= rangeFrom && it <= rangeTo);
+				} else {
+					int single = from;
+					predicate = predicate.or(it -> it == single);
+				}
+			}
+			// fold before negating, so that '[^a]' does not match 'A' when case insensitive
+			predicate = fold(predicate);
+			if (negated)
+				return predicate.negate();
+			else
+				return predicate;
+		}
+
+		/*
+		 * Get char represented by an escape sequence starting at specified position
+		 */
+		int getSingleChar(int start) {
+			char ch = regex.charAt(start);
+			switch (ch) {
+			case 't': return '\t';
+			case 'n': return '\n';
+			case 'r': return '\r';
+			case 'f': return '\f';
+			case 'a': return '\u0007';
+			case 'e': return '\u001B';
+			case 'x': return Integer.parseInt(regex.substring(start+1, start+3), 16);
+			case 'u': return Integer.parseInt(regex.substring(start+1, start+5), 16);
+			default: return ch;
+			}
+		}
+
+		IntPredicate fold(IntPredicate predicate) {
+			if (caseInsensitive)
+				return it -> predicate.test(it) || predicate.test(flipCase(it));
+			else
+				return predicate;
+		}
+
+		static boolean isDigit(char ch) {
+			return ch >= '0' && ch <= '9';
+		}
+
+		static IntPredicate equalTo(int value) {
+			return it -> it == value;
+		}
+
+		static boolean isAsciiWordChar(int ch) {
+			return ch >= 'a' && ch <= 'z' || ch >= 'A' && ch <= 'Z' || ch >= '0' && ch <= '9' || ch == '_';
+		}
+
+		static boolean isSpace(int ch) {
+			return ch == ' ' || ch == '\t' || ch == '\n' || ch == '\u000B' || ch == '\f' || ch == '\r';
+		}
+
+	}
+
+	private static class UnsupportedRegexException extends RuntimeException {
+
+		private static final long serialVersionUID = 1L;
+
+	}
+
+}
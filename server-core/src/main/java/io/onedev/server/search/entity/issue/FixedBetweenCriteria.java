@@ -21,7 +21,7 @@ import org.eclipse.jgit.revwalk.RevWalk;
 import io.onedev.server.OneDev;
 import io.onedev.server.OneException;
 import io.onedev.server.entitymanager.IssueManager;
-import io.onedev.server.git.GitUtils;
+import io.onedev.server.infomanager.CommitInfoManager;
 import io.onedev.server.model.Build;
 import io.onedev.server.model.Issue;
 import io.onedev.server.model.Project;
@@ -80,7 +80,8 @@ public class FixedBetweenCriteria extends IssueCriteria {
 		Set<Long> fixedIssueNumbers = new HashSet<>();
 		
 		Repository repository = project.getRepository();
-		ObjectId mergeBaseId = GitUtils.getMergeBase(repository, firstCommitId, secondCommitId);
+		ObjectId mergeBaseId = OneDev.getInstance(CommitInfoManager.class)
+				.getMergeBase(project, firstCommitId, secondCommitId);
 		if (mergeBaseId != null) {
 			try (RevWalk revWalk = new RevWalk(repository)) {
 				revWalk.markStart(revWalk.parseCommit(secondCommitId));
@@ -114,7 +115,8 @@ public class FixedBetweenCriteria extends IssueCriteria {
 	public boolean matches(Issue issue) {
 		if (project.equals(issue.getProject())) {
 			Repository repository = issue.getProject().getRepository();
-			ObjectId mergeBaseId = GitUtils.getMergeBase(repository, firstCommitId, secondCommitId);
+			ObjectId mergeBaseId = OneDev.getInstance(CommitInfoManager.class)
+					.getMergeBase(issue.getProject(), firstCommitId, secondCommitId);
 			if (mergeBaseId != null) {
 				try (RevWalk revWalk = new RevWalk(repository)) {
 					revWalk.markStart(revWalk.parseCommit(secondCommitId));
@@ -0,0 +1,29 @@
+package io.onedev.server.security;
+
+import java.util.Collection;
+
+import org.apache.shiro.authz.Permission;
+
+public interface AuthorizationManager {
+
+	/**
+	 * Check if specified user is permitted for specified permission
+	 *
+	 * @param userId
+	 * 			id of the user, <tt>0</tt> for anonymous user
+	 * @param permission
+	 * 			permission to check
+	 */
+	boolean isPermitted(Long userId, Permission permission);
+
+	/**
+	 * Get ids of projects on which specified user is granted specified privilege
+	 *
+	 * @param userId
+	 * 			id of the user, <tt>0</tt> for anonymous user
+	 * @param privilege
+	 * 			project privilege, for instance {@link io.onedev.server.security.permission.ReadCode}
+	 */
+	Collection<Long> getPermittedProjectIds(Long userId, Permission privilege);
+
+}
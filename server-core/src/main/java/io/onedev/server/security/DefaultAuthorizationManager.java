@@ -0,0 +1,428 @@
+package io.onedev.server.security;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.shiro.authz.Permission;
+import org.hibernate.query.Query;
+
+import com.google.common.collect.Sets;
+
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.server.entitymanager.GroupManager;
+import io.onedev.server.entitymanager.SettingManager;
+import io.onedev.server.entitymanager.UserManager;
+import io.onedev.server.event.entity.EntityEvent;
+import io.onedev.server.event.entity.EntityPersisted;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.issue.fieldspec.FieldSpec;
+import io.onedev.server.model.Group;
+import io.onedev.server.model.GroupAuthorization;
+import io.onedev.server.model.Membership;
+import io.onedev.server.model.Project;
+import io.onedev.server.model.Role;
+import io.onedev.server.model.Setting;
+import io.onedev.server.model.User;
+import io.onedev.server.model.UserAuthorization;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.annotation.Sessional;
+import io.onedev.server.persistence.annotation.Transactional;
+import io.onedev.server.persistence.dao.Dao;
+import io.onedev.server.security.permission.AccessBuildLog;
+import io.onedev.server.security.permission.CreateProjects;
+import io.onedev.server.security.permission.EditIssueField;
+import io.onedev.server.security.permission.JobPermission;
+import io.onedev.server.security.permission.ProjectPermission;
+import io.onedev.server.security.permission.ReadCode;
+import io.onedev.server.security.permission.UserAdministration;
+
+/**
+ * Caches permissions of users across requests. Privileges of roles granted to a user are
+ * resolved when the cache entry is built, and are held together with bit sets over project
+ * ordinals the role is granted on, so that checking does not access database. Permissions of
+ * affected users are invalidated after commit when memberships, groups, roles, authorizations,
+ * users, projects or settings change. Permissions calculated inside a transaction are not
+ * cached, and projects are assigned ordinals only after they are committed.
+ */
+@Singleton
+public class DefaultAuthorizationManager implements AuthorizationManager {
+
+	private final Dao dao;
+
+	private final UserManager userManager;
+
+	private final GroupManager groupManager;
+
+	private final SettingManager settingManager;
+
+	private final SessionManager sessionManager;
+
+	private final TransactionManager transactionManager;
+
+	private final Map<Long, UserPermissions> userPermissions = new ConcurrentHashMap<>();
+
+	// increased on every invalidation to avoid caching permissions calculated from stale data
+	private final AtomicLong version = new AtomicLong();
+
+	private final Map<Long, Integer> projectOrdinals = new HashMap<>();
+
+	// project ids indexed by ordinal, null for removed projects
+	private final List<Long> projectIds = new ArrayList<>();
+
+	private final ReadWriteLock projectsLock = new ReentrantReadWriteLock();
+
+	@Inject
+	public DefaultAuthorizationManager(Dao dao, UserManager userManager, GroupManager groupManager,
+			SettingManager settingManager, SessionManager sessionManager,
+			TransactionManager transactionManager) {
+		this.dao = dao;
+		this.userManager = userManager;
+		this.groupManager = groupManager;
+		this.settingManager = settingManager;
+		this.sessionManager = sessionManager;
+		this.transactionManager = transactionManager;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Sessional
+	@Listen
+	public void on(SystemStarted event) {
+		Query<?> query = dao.getSession().createQuery("select id from Project order by id");
+		projectsLock.writeLock().lock();
+		try {
+			for (Long projectId: (List<Long>)query.list())
+				getProjectOrdinal(projectId);
+		} finally {
+			projectsLock.writeLock().unlock();
+		}
+	}
+
+	@Transactional
+	@Listen
+	public void on(EntityPersisted event) {
+		if (event.getEntity() instanceof Project) {
+			if (event.isNew()) {
+				Long projectId = event.getEntity().getId();
+				transactionManager.runAfterCommit(new Runnable() {
+
+					@Override
+					public void run() {
+						projectsLock.writeLock().lock();
+						try {
+							getProjectOrdinal(projectId);
+						} finally {
+							projectsLock.writeLock().unlock();
+						}
+					}
+
+				});
+			}
+		} else {
+			invalidateAffectedUsers(event);
+		}
+	}
+
+	@Transactional
+	@Listen
+	public void on(EntityRemoved event) {
+		if (event.getEntity() instanceof Project) {
+			Long projectId = event.getEntity().getId();
+			transactionManager.runAfterCommit(new Runnable() {
+
+				@Override
+				public void run() {
+					projectsLock.writeLock().lock();
+					try {
+						Integer ordinal = projectOrdinals.remove(projectId);
+						if (ordinal != null)
+							projectIds.set(ordinal, null);
+					} finally {
+						projectsLock.writeLock().unlock();
+					}
+					invalidate(null);
+				}
+
+			});
+		} else if (event.getEntity() instanceof Group || event.getEntity() instanceof Role) {
+			// authorizations and memberships are removed via cascade
+			invalidateAfterCommit(null);
+		} else {
+			invalidateAffectedUsers(event);
+		}
+	}
+
+	private void invalidateAffectedUsers(EntityEvent event) {
+		if (event.getEntity() instanceof Membership) {
+			invalidateAfterCommit(Sets.newHashSet(((Membership) event.getEntity()).getUser().getId()));
+		} else if (event.getEntity() instanceof UserAuthorization) {
+			invalidateAfterCommit(Sets.newHashSet(((UserAuthorization) event.getEntity()).getUser().getId()));
+		} else if (event.getEntity() instanceof User) {
+			invalidateAfterCommit(Sets.newHashSet(event.getEntity().getId()));
+		} else if (event.getEntity() instanceof Group) {
+			invalidateAfterCommit(getMemberIds((Group) event.getEntity()));
+		} else if (event.getEntity() instanceof GroupAuthorization) {
+			invalidateAfterCommit(getMemberIds(((GroupAuthorization) event.getEntity()).getGroup()));
+		} else if (event.getEntity() instanceof Role) {
+			// privileges of roles are resolved into cached permissions
+			invalidateAfterCommit(null);
+		} else if (event.getEntity() instanceof Setting) {
+			// anonymous group and issue fields are defined in settings
+			invalidateAfterCommit(null);
+		}
+	}
+
+	@Nullable
+	private Collection<Long> getMemberIds(Group group) {
+		if (group.equals(groupManager.findAnonymous())) {
+			return null;
+		} else {
+			Collection<Long> memberIds = new HashSet<>();
+			for (Membership membership: group.getMemberships())
+				memberIds.add(membership.getUser().getId());
+			return memberIds;
+		}
+	}
+
+	/**
+	 * @param userIds
+	 * 			ids of users to invalidate, <tt>null</tt> to invalidate all users
+	 */
+	private void invalidateAfterCommit(@Nullable Collection<Long> userIds) {
+		transactionManager.runAfterCommit(new Runnable() {
+
+			@Override
+			public void run() {
+				invalidate(userIds);
+			}
+
+		});
+	}
+
+	private void invalidate(@Nullable Collection<Long> userIds) {
+		version.incrementAndGet();
+		if (userIds != null)
+			userPermissions.keySet().removeAll(userIds);
+		else
+			userPermissions.clear();
+	}
+
+	/*
+	 * Must be called with write lock of projects held
+	 */
+	private int getProjectOrdinal(Long projectId) {
+		Integer ordinal = projectOrdinals.get(projectId);
+		if (ordinal == null) {
+			ordinal = projectIds.size();
+			projectIds.add(projectId);
+			projectOrdinals.put(projectId, ordinal);
+		}
+		return ordinal;
+	}
+
+	private UserPermissions getUserPermissions(Long userId) {
+		UserPermissions permissions = userPermissions.get(userId);
+		if (permissions == null) {
+			long versionBeforeCalc = version.get();
+			permissions = sessionManager.call(new Callable<UserPermissions>() {
+
+				@Override
+				public UserPermissions call() throws Exception {
+					UserPermissions calculated = calcUserPermissions(userId);
+					/*
+					 * Permissions calculated inside a transaction may reflect uncommitted changes
+					 * which will not be invalidated if the transaction is rolled back
+					 */
+					if (!transactionManager.getTransaction().isActive() && version.get() == versionBeforeCalc)
+						userPermissions.put(userId, calculated);
+					return calculated;
+				}
+
+			});
+		}
+		return permissions;
+	}
+
+	private UserPermissions calcUserPermissions(Long userId) {
+		UserPermissions permissions = new UserPermissions();
+		User user = null;
+		if (userId != 0L) {
+			user = userManager.load(userId);
+			if (user.isRoot() || user.isSystem())
+				permissions.administrator = true;
+			permissions.globalPermissions.add(new UserAdministration(user));
+			for (Group group: user.getGroups())
+				addGroupPermissions(permissions, group, user);
+			for (UserAuthorization authorization: user.getProjectAuthorizations())
+				addRole(permissions, authorization.getProject(), authorization.getRole(), user);
+		}
+		Group group = groupManager.findAnonymous();
+		if (group != null)
+			addGroupPermissions(permissions, group, user);
+		return permissions;
+	}
+
+	private void addGroupPermissions(UserPermissions permissions, Group group, @Nullable User user) {
+		if (group.isAdministrator()) {
+			if (user != null) {
+				permissions.administrator = true;
+			} else {
+				permissions.allProjectPrivileges.add(new ReadCode());
+				for (FieldSpec field: settingManager.getIssueSetting().getFieldSpecs())
+					permissions.allProjectPrivileges.add(new EditIssueField(Sets.newHashSet(field.getName())));
+				permissions.allProjectPrivileges.add(new JobPermission("*", new AccessBuildLog()));
+			}
+		}
+		if (user != null && group.isCreateProjects())
+			permissions.globalPermissions.add(new CreateProjects());
+		for (GroupAuthorization authorization: group.getProjectAuthorizations())
+			addRole(permissions, authorization.getProject(), authorization.getRole(), user);
+	}
+
+	private void addRole(UserPermissions permissions, Project project, Role role, @Nullable User user) {
+		Integer ordinal;
+		projectsLock.readLock().lock();
+		try {
+			ordinal = projectOrdinals.get(project.getId());
+		} finally {
+			projectsLock.readLock().unlock();
+		}
+		RolePermissions rolePermissions = permissions.rolePermissions.get(role.getId());
+		if (rolePermissions == null) {
+			rolePermissions = new RolePermissions(role.getPermissions(user == null));
+			permissions.rolePermissions.put(role.getId(), rolePermissions);
+		}
+		// ordinals are assigned after project is committed
+		if (ordinal != null)
+			rolePermissions.projectOrdinals.set(ordinal);
+		else
+			rolePermissions.projectIds.add(project.getId());
+	}
+
+	@Override
+	public boolean isPermitted(Long userId, Permission permission) {
+		UserPermissions permissions = getUserPermissions(userId);
+		if (permissions.administrator)
+			return true;
+		for (Permission each: permissions.globalPermissions) {
+			if (each.implies(permission))
+				return true;
+		}
+		if (permission instanceof ProjectPermission) {
+			ProjectPermission projectPermission = (ProjectPermission) permission;
+			Permission privilege = projectPermission.getPrivilege();
+			for (Permission each: permissions.allProjectPrivileges) {
+				if (each.implies(privilege))
+					return true;
+			}
+			Long projectId = projectPermission.getProject().getId();
+			Integer ordinal;
+			projectsLock.readLock().lock();
+			try {
+				ordinal = projectOrdinals.get(projectId);
+			} finally {
+				projectsLock.readLock().unlock();
+			}
+			for (RolePermissions rolePermissions: permissions.rolePermissions.values()) {
+				if ((ordinal != null && rolePermissions.projectOrdinals.get(ordinal)
+							|| rolePermissions.projectIds.contains(projectId))
+						&& rolePermissions.implies(privilege)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public Collection<Long> getPermittedProjectIds(Long userId, Permission privilege) {
+		UserPermissions permissions = getUserPermissions(userId);
+		boolean allProjects = permissions.administrator;
+		for (Permission each: permissions.allProjectPrivileges) {
+			if (each.implies(privilege))
+				allProjects = true;
+		}
+
+		BitSet permittedOrdinals = new BitSet();
+		Collection<Long> permittedProjectIds = new HashSet<>();
+		if (!allProjects) {
+			for (RolePermissions rolePermissions: permissions.rolePermissions.values()) {
+				if (rolePermissions.implies(privilege)) {
+					permittedOrdinals.or(rolePermissions.projectOrdinals);
+					permittedProjectIds.addAll(rolePermissions.projectIds);
+				}
+			}
+		}
+
+
+		projectsLock.readLock().lock();
+		try {
+			if (allProjects) {
+				permittedProjectIds.addAll(projectOrdinals.keySet());
+			} else {
+				for (int i = permittedOrdinals.nextSetBit(0); i >= 0; i = permittedOrdinals.nextSetBit(i+1)) {
+					Long projectId = projectIds.get(i);
+					if (projectId != null)
+						permittedProjectIds.add(projectId);
+				}
+			}
+		} finally {
+			projectsLock.readLock().unlock();
+		}
+		return permittedProjectIds;
+	}
+
+	private static class UserPermissions {
+
+		boolean administrator;
+
+		final Collection<Permission> globalPermissions = new ArrayList<>();
+
+		// privileges granted on all projects
+		final Collection<Permission> allProjectPrivileges = new ArrayList<>();
+
+		// keyed by role id
+		final Map<Long, RolePermissions> rolePermissions = new HashMap<>();
+
+	}
+
+	private static class RolePermissions {
+
+		final Collection<Permission> privileges;
+
+		// ordinals of projects the role is granted on
+		final BitSet projectOrdinals = new BitSet();
+
+		// ids of projects the role is granted on but not assigned ordinals yet
+		final Collection<Long> projectIds = new HashSet<>();
+
+		RolePermissions(Collection<Permission> privileges) {
+			this.privileges = privileges;
+		}
+
+		boolean implies(Permission privilege) {
+			for (Permission each: privileges) {
+				if (each.implies(privilege))
+					return true;
+			}
+			return false;
+		}
+
+	}
+
+}
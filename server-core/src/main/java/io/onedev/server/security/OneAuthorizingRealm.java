@@ -1,14 +1,10 @@
 package io.onedev.server.security;
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.concurrent.Callable;
 
-import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
@@ -22,8 +18,6 @@ import org.apache.shiro.authz.AuthorizationInfo;
 import org.apache.shiro.authz.Permission;
 import org.apache.shiro.realm.AuthorizingRealm;
 import org.apache.shiro.subject.PrincipalCollection;
-import org.apache.wicket.MetaDataKey;
-import org.apache.wicket.request.cycle.RequestCycle;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,31 +25,16 @@ import com.google.common.collect.Sets;
 
 import io.onedev.commons.launcher.loader.AppLoader;
 import io.onedev.commons.utils.ExceptionUtils;
-import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.GroupManager;
 import io.onedev.server.entitymanager.MembershipManager;
-import io.onedev.server.entitymanager.ProjectManager;
 import io.onedev.server.entitymanager.SettingManager;
 import io.onedev.server.entitymanager.UserManager;
-import io.onedev.server.issue.fieldspec.FieldSpec;
 import io.onedev.server.model.Group;
-import io.onedev.server.model.GroupAuthorization;
 import io.onedev.server.model.Membership;
-import io.onedev.server.model.Project;
 import io.onedev.server.model.User;
-import io.onedev.server.model.UserAuthorization;
 import io.onedev.server.model.support.administration.authenticator.Authenticated;
 import io.onedev.server.model.support.administration.authenticator.Authenticator;
-import io.onedev.server.persistence.SessionManager;
 import io.onedev.server.persistence.TransactionManager;
-import io.onedev.server.security.permission.AccessBuildLog;
-import io.onedev.server.security.permission.CreateProjects;
-import io.onedev.server.security.permission.EditIssueField;
-import io.onedev.server.security.permission.JobPermission;
-import io.onedev.server.security.permission.ProjectPermission;
-import io.onedev.server.security.permission.ReadCode;
-import io.onedev.server.security.permission.SystemAdministration;
-import io.onedev.server.security.permission.UserAdministration;
 
 @Singleton
 public class OneAuthorizingRealm extends AuthorizingRealm {
@@ -70,21 +49,14 @@ public class OneAuthorizingRealm extends AuthorizingRealm {
     
     private final GroupManager groupManager;
     
-    private final ProjectManager projectManager;
-    
-    private final SessionManager sessionManager;
-    
     private final TransactionManager transactionManager;
     
-    @SuppressWarnings("serial")
-	private final MetaDataKey<Map<Long, AuthorizationInfo>> authorizationInfosKey = 
-			new MetaDataKey<Map<Long, AuthorizationInfo>>() {};    
+    private final AuthorizationManager authorizationManager;
     
 	@Inject
     public OneAuthorizingRealm(UserManager userManager, SettingManager settingManager, 
     		MembershipManager membershipManager, GroupManager groupManager, 
-    		ProjectManager projectManager, SessionManager sessionManager, 
-    		TransactionManager transactionManager) {
+    		TransactionManager transactionManager, AuthorizationManager authorizationManager) {
 	    PasswordMatcher passwordMatcher = new PasswordMatcher();
 	    passwordMatcher.setPasswordService(AppLoader.getInstance(PasswordService.class));
 		setCredentialsMatcher(passwordMatcher);
@@ -93,58 +65,21 @@ public class OneAuthorizingRealm extends AuthorizingRealm {
     	this.settingManager = settingManager;
     	this.membershipManager = membershipManager;
     	this.groupManager = groupManager;
-    	this.projectManager = projectManager;
-    	this.sessionManager = sessionManager;
     	this.transactionManager = transactionManager;
+    	this.authorizationManager = authorizationManager;
     }
 
-	private Collection<Permission> getGroupPermissions(Group group, @Nullable User user) {
-		Collection<Permission> permissions = new ArrayList<>();
-		if (group.isAdministrator()) {
-			if (user != null) {
-				permissions.add(new SystemAdministration());
-			} else {
-				for (Project project: projectManager.query()) {
-					permissions.add(new ProjectPermission(project, new ReadCode()));
-					for (FieldSpec field: OneDev.getInstance(SettingManager.class).getIssueSetting().getFieldSpecs())
-						permissions.add(new ProjectPermission(project, new EditIssueField(Sets.newHashSet(field.getName()))));
-					permissions.add(new ProjectPermission(project, new JobPermission("*", new AccessBuildLog())));
-				}
-			}
-		}
-		if (user != null && group.isCreateProjects())
-			permissions.add(new CreateProjects());
-		for (GroupAuthorization authorization: group.getProjectAuthorizations()) 
-			permissions.add(new ProjectPermission(authorization.getProject(), authorization.getRole()));
-		return permissions;
-	}
-	
-	private AuthorizationInfo newAuthorizationInfo(Long userId) {
-		Collection<Permission> permissions = sessionManager.call(new Callable<Collection<Permission>>() {
+	@Override
+	protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
+		Long userId = (Long) principals.getPrimaryPrincipal();						
+		Permission permission = new Permission() {
 
 			@Override
-			public Collection<Permission> call() throws Exception {
-				Collection<Permission> permissions = new ArrayList<>();
-
-				User user = null;
-		        if (userId != 0L) { 
-		            user = userManager.load(userId);
-		        	if (user.isRoot() || user.isSystem()) 
-		        		permissions.add(new SystemAdministration());
-		        	permissions.add(new UserAdministration(user));
-		           	for (Group group: user.getGroups())
-		           		permissions.addAll(getGroupPermissions(group, user));
-		        	for (UserAuthorization authorization: user.getProjectAuthorizations()) 
-    					permissions.add(new ProjectPermission(authorization.getProject(), authorization.getRole()));
-		        } 
-	        	Group group = groupManager.findAnonymous();
-	        	if (group != null)
-	           		permissions.addAll(getGroupPermissions(group, user));
-				return permissions;
+			public boolean implies(Permission p) {
+				return authorizationManager.isPermitted(userId, p);
 			}
 			
-		});
-		
+		};
 		return new AuthorizationInfo() {
 			
 			private static final long serialVersionUID = 1L;
@@ -161,32 +96,11 @@ public class OneAuthorizingRealm extends AuthorizingRealm {
 			
 			@Override
 			public Collection<Permission> getObjectPermissions() {
-				return permissions;
+				return Sets.newHashSet(permission);
 			}
 		};		
 	}
 	
-	@Override
-	protected AuthorizationInfo doGetAuthorizationInfo(PrincipalCollection principals) {
-		Long userId = (Long) principals.getPrimaryPrincipal();						
-		RequestCycle requestCycle = RequestCycle.get();
-		if (requestCycle != null) {
-			Map<Long, AuthorizationInfo> authorizationInfos = requestCycle.getMetaData(authorizationInfosKey);
-			if (authorizationInfos == null) {
-				authorizationInfos = new HashMap<>();
-				requestCycle.setMetaData(authorizationInfosKey, authorizationInfos);
-			}
-			AuthorizationInfo authorizationInfo = authorizationInfos.get(userId);
-			if (authorizationInfo == null) {
-				authorizationInfo = newAuthorizationInfo(userId);
-				authorizationInfos.put(userId, authorizationInfo);
-			}
-			return authorizationInfo;
-		} else {
-			return newAuthorizationInfo(userId);
-		}
-	}
-	
 	@Override
 	protected final AuthenticationInfo doGetAuthenticationInfo(AuthenticationToken token) throws AuthenticationException {
 		return transactionManager.call(new Callable<AuthenticationInfo>() {
@@ -0,0 +1,45 @@
+package io.onedev.server.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Progress and throughput of a long running work, such as commit information collection 
+ * and code indexing
+ */
+public class WorkProgress {
+
+	private final long startTime = System.currentTimeMillis();
+	
+	private final AtomicInteger total = new AtomicInteger(0);
+	
+	private final AtomicInteger processed = new AtomicInteger(0);
+	
+	public long getStartTime() {
+		return startTime;
+	}
+	
+	public int getTotal() {
+		return total.get();
+	}
+
+	public int getProcessed() {
+		return processed.get();
+	}
+	
+	public void addTotal(int count) {
+		total.addAndGet(count);
+	}
+	
+	public void addProcessed(int count) {
+		processed.addAndGet(count);
+	}
+	
+	public long getProcessedPerSecond() {
+		long elapsed = System.currentTimeMillis() - startTime;
+		if (elapsed != 0)
+			return processed.get() * 1000L / elapsed;
+		else
+			return 0;
+	}
+	
+}
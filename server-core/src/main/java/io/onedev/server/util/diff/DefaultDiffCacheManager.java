@@ -0,0 +1,249 @@
+package io.onedev.server.util.diff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.quartz.ScheduleBuilder;
+import org.quartz.SimpleScheduleBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.jsyntax.Tokenized;
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
+import io.onedev.commons.launcher.loader.Listen;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.event.system.SystemStarted;
+import io.onedev.server.event.system.SystemStopping;
+import io.onedev.server.git.Blob;
+import io.onedev.server.util.diff.DiffMatchPatch.Operation;
+import io.onedev.server.util.schedule.SchedulableTask;
+import io.onedev.server.util.schedule.TaskScheduler;
+
+@Singleton
+public class DefaultDiffCacheManager implements DiffCacheManager, SchedulableTask {
+
+	private static final Logger logger = LoggerFactory.getLogger(DefaultDiffCacheManager.class);
+
+	// increase this if format of cache file or diff algorithm changes
+	private static final int CACHE_VERSION = 1;
+
+	private static final String CACHE_DIR = "cache/diff";
+
+	private static final int MAX_MEMORY_LINES = 500000;
+
+	private static final long MAX_DISK_SIZE = 512L*1024*1024;
+
+	private final TaskScheduler taskScheduler;
+
+	// access ordered so that least recently used entries are evicted first
+	private final Map<String, List<DiffBlock<Tokenized>>> memoryCache = new LinkedHashMap<>(16, 0.75f, true);
+
+	private int memoryLines;
+
+	private String taskId;
+
+	@Inject
+	public DefaultDiffCacheManager(TaskScheduler taskScheduler) {
+		this.taskScheduler = taskScheduler;
+	}
+
+	private File getCacheDir() {
+		return new File(Bootstrap.getSiteDir(), CACHE_DIR);
+	}
+
+	@Override
+	public List<DiffBlock<Tokenized>> diff(Blob oldBlob, String oldFileName, Blob newBlob, String newFileName,
+			WhitespaceOption whitespaceOption) {
+		String key = DigestUtils.sha1Hex(CACHE_VERSION + ":" + oldBlob.getBlobId().name() + ":"
+				+ newBlob.getBlobId().name() + ":" + whitespaceOption.name() + ":" + oldFileName + ":" + newFileName);
+
+		synchronized (memoryCache) {
+			List<DiffBlock<Tokenized>> diffBlocks = memoryCache.get(key);
+			if (diffBlocks != null)
+				return diffBlocks;
+		}
+
+		File cacheFile = new File(getCacheDir(), key.substring(0, 2) + "/" + key);
+		List<DiffBlock<Tokenized>> diffBlocks = null;
+		if (cacheFile.exists()) {
+			try {
+				diffBlocks = read(cacheFile);
+				cacheFile.setLastModified(System.currentTimeMillis());
+			} catch (Exception e) {
+				logger.error("Error reading diff cache file '" + cacheFile.getAbsolutePath() + "'", e);
+				FileUtils.deleteFile(cacheFile);
+			}
+		}
+		if (diffBlocks == null) {
+			DiffResult<Tokenized> result = DiffUtils.calcDiff(oldBlob.getText().getLines(), oldFileName,
+					newBlob.getText().getLines(), newFileName, whitespaceOption);
+			diffBlocks = result.getDiffBlocks();
+			
+			// timed out diff may succeed next time, for instance when server is less busy
+			if (result.isTimedOut())
+				return diffBlocks;
+			
+			try {
+				write(cacheFile, diffBlocks);
+			} catch (Exception e) {
+				logger.error("Error writing diff cache file '" + cacheFile.getAbsolutePath() + "'", e);
+			}
+		}
+
+		int lines = getLines(diffBlocks);
+		if (lines <= MAX_MEMORY_LINES) {
+			synchronized (memoryCache) {
+				List<DiffBlock<Tokenized>> prevDiffBlocks = memoryCache.put(key, diffBlocks);
+				if (prevDiffBlocks != null)
+					memoryLines -= getLines(prevDiffBlocks);
+				memoryLines += lines;
+				Iterator<List<DiffBlock<Tokenized>>> it = memoryCache.values().iterator();
+				while (memoryLines > MAX_MEMORY_LINES && it.hasNext()) {
+					memoryLines -= getLines(it.next());
+					it.remove();
+				}
+			}
+		}
+		return diffBlocks;
+	}
+
+	private int getLines(List<DiffBlock<Tokenized>> diffBlocks) {
+		int lines = 0;
+		for (DiffBlock<Tokenized> diffBlock: diffBlocks)
+			lines += diffBlock.getUnits().size();
+		return lines;
+	}
+
+	static List<DiffBlock<Tokenized>> read(File file) throws IOException {
+		try (DataInputStream is = new DataInputStream(new BufferedInputStream(
+				new InflaterInputStream(new FileInputStream(file))))) {
+			Operation[] operations = Operation.values();
+			int blockCount = is.readInt();
+			List<DiffBlock<Tokenized>> diffBlocks = new ArrayList<>(blockCount);
+			for (int i=0; i<blockCount; i++) {
+				Operation operation = operations[is.readByte()];
+				int oldStart = is.readInt();
+				int newStart = is.readInt();
+				int unitCount = is.readInt();
+				List<Tokenized> units = new ArrayList<>(unitCount);
+				for (int j=0; j<unitCount; j++) {
+					byte[] bytes = new byte[is.readInt()];
+					is.readFully(bytes);
+					long[] tokens = new long[is.readInt()];
+					for (int k=0; k<tokens.length; k++)
+						tokens[k] = is.readLong();
+					units.add(new Tokenized(new String(bytes, StandardCharsets.UTF_8), tokens));
+				}
+				diffBlocks.add(new DiffBlock<>(operation, units, oldStart, newStart));
+			}
+			return diffBlocks;
+		}
+	}
+
+	/*
+	 * Write into a temp file first and then move it in place, so that readers never see
+	 * partially written cache
+	 */
+	static void write(File file, List<DiffBlock<Tokenized>> diffBlocks) throws IOException {
+		FileUtils.createDir(file.getParentFile());
+		File tempFile = new File(file.getParentFile(), file.getName() + "." + UUID.randomUUID() + ".tmp");
+		try {
+			try (DataOutputStream os = new DataOutputStream(new BufferedOutputStream(
+					new DeflaterOutputStream(new FileOutputStream(tempFile))))) {
+				os.writeInt(diffBlocks.size());
+				for (DiffBlock<Tokenized> diffBlock: diffBlocks) {
+					os.writeByte(diffBlock.getOperation().ordinal());
+					os.writeInt(diffBlock.getOldStart());
+					os.writeInt(diffBlock.getNewStart());
+					os.writeInt(diffBlock.getUnits().size());
+					for (Tokenized unit: diffBlock.getUnits()) {
+						byte[] bytes = unit.getText().getBytes(StandardCharsets.UTF_8);
+						os.writeInt(bytes.length);
+						os.write(bytes);
+						os.writeInt(unit.getTokens().length);
+						for (long token: unit.getTokens())
+							os.writeLong(token);
+					}
+				}
+			}
+			Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			if (tempFile.exists())
+				FileUtils.deleteFile(tempFile);
+		}
+	}
+
+	@Listen
+	public void on(SystemStarted event) {
+		taskId = taskScheduler.schedule(this);
+	}
+
+	@Listen
+	public void on(SystemStopping event) {
+		taskScheduler.unschedule(taskId);
+	}
+
+	/*
+	 * Remove least recently used cache files if cache directory grows too large. Cache
+	 * files are touched when read, so last modified time reflects last access time
+	 */
+	@Override
+	public void execute() {
+		try {
+			File cacheDir = getCacheDir();
+			if (cacheDir.exists()) {
+				List<File> cacheFiles = new ArrayList<>();
+				long totalSize = 0;
+				for (File subDir: cacheDir.listFiles()) {
+					File[] files = subDir.listFiles();
+					if (files != null) {
+						for (File file: files) {
+							cacheFiles.add(file);
+							totalSize += file.length();
+						}
+					}
+				}
+				if (totalSize > MAX_DISK_SIZE) {
+					cacheFiles.sort(Comparator.comparing(File::lastModified));
+					for (File file: cacheFiles) {
+						if (totalSize <= MAX_DISK_SIZE*3/4)
+							break;
+						totalSize -= file.length();
+						FileUtils.deleteFile(file);
+					}
+				}
+			}
+		} catch (Exception e) {
+			logger.error("Error cleaning up diff cache", e);
+		}
+	}
+
+	@Override
+	public ScheduleBuilder<?> getScheduleBuilder() {
+		return SimpleScheduleBuilder.repeatHourlyForever();
+	}
+
+}
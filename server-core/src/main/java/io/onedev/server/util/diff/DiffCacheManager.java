@@ -0,0 +1,31 @@
+package io.onedev.server.util.diff;
+
+import java.util.List;
+
+import io.onedev.commons.jsyntax.Tokenized;
+import io.onedev.server.git.Blob;
+
+public interface DiffCacheManager {
+
+	/**
+	 * Diff text of specified blobs. Result is cached by blob ids, file names and whitespace
+	 * option, so that the same pair of blobs is only diffed once no matter how many times
+	 * it is displayed
+	 *
+	 * @param oldBlob
+	 * 			old blob, must have text content
+	 * @param oldFileName
+	 * 			file name used to tokenize old lines
+	 * @param newBlob
+	 * 			new blob, must have text content
+	 * @param newFileName
+	 * 			file name used to tokenize new lines
+	 * @param whitespaceOption
+	 * 			whitespace option used to compare lines
+	 * @return
+	 * 			diff blocks of specified blobs
+	 */
+	List<DiffBlock<Tokenized>> diff(Blob oldBlob, String oldFileName, Blob newBlob, String newFileName,
+			WhitespaceOption whitespaceOption);
+
+}
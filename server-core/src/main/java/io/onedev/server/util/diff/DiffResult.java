@@ -0,0 +1,29 @@
+package io.onedev.server.util.diff;
+
+import java.util.List;
+
+public class DiffResult<T> {
+
+	private final List<DiffBlock<T>> diffBlocks;
+	
+	private final boolean timedOut;
+	
+	public DiffResult(List<DiffBlock<T>> diffBlocks, boolean timedOut) {
+		this.diffBlocks = diffBlocks;
+		this.timedOut = timedOut;
+	}
+
+	public List<DiffBlock<T>> getDiffBlocks() {
+		return diffBlocks;
+	}
+
+	/**
+	 * @return
+	 * 			<tt>true</tt> if diff is not calculated in time and whole file is reported as 
+	 * 			replaced instead
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+	
+}
@@ -10,7 +10,6 @@ import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
-import com.google.common.base.Preconditions;
 import com.google.common.base.Splitter;
 
 import io.onedev.commons.jsyntax.TextToken;
@@ -28,7 +27,7 @@ public class DiffUtils {
 
 	private static final int CHANGE_CALC_TIMEOUT = 100;
 	
-	public static final int MAX_DIFF_SIZE = 65535;
+	private static final int DIFF_TIMEOUT = 1000;
 	
 	private static final Pattern pattern = Pattern.compile("\\w+");
 	
@@ -105,9 +104,15 @@ public class DiffUtils {
 	 */
 	public static List<DiffBlock<Tokenized>> diff(List<String> oldLines, @Nullable String oldFileName, 
 			List<String> newLines, @Nullable String newFileName, WhitespaceOption whitespaceOption) {
-		Preconditions.checkArgument(oldLines.size() + newLines.size() <= MAX_DIFF_SIZE, 
-				"Total size of old lines and new lines should be less than " + MAX_DIFF_SIZE + ".");
-		
+		return calcDiff(oldLines, oldFileName, newLines, newFileName, whitespaceOption).getDiffBlocks();
+	}
+	
+	/**
+	 * Diff two list of strings, with result telling whether or not the diff is timed out.
+	 * Timed out result reports whole file as replaced and should not be cached
+	 */
+	public static DiffResult<Tokenized> calcDiff(List<String> oldLines, @Nullable String oldFileName, 
+			List<String> newLines, @Nullable String newFileName, WhitespaceOption whitespaceOption) {
 		List<String> processedOldLines = new ArrayList<>();
 		for (String line: oldLines) 
 			processedOldLines.add(whitespaceOption.process(line));
@@ -119,73 +124,55 @@ public class DiffUtils {
 		List<Tokenized> oldTokenizedLines = tokenize(oldLines, oldFileName);
 		List<Tokenized> newTokenizedLines = tokenize(newLines, newFileName);
 
-		DiffMatchPatch dmp = new DiffMatchPatch();
-		TokensToCharsResult<String> result1 = tokensToChars(processedOldLines, processedNewLines);
-		
-		List<DiffMatchPatch.Diff> diffs = dmp.diff_main(result1.chars1, result1.chars2, false);
-
-		List<DiffBlock<Tokenized>> diffBlocks = new ArrayList<>();
-		int oldLineNo = 0;
-		int newLineNo = 0;
-		for (Diff diff : diffs) {
-			List<Tokenized> lines = new ArrayList<>();
-			if (diff.operation == Operation.EQUAL) {
-				for (int i = 0; i < diff.text.length(); i++) {
-					lines.add(newTokenizedLines.get(newLineNo));
-					oldLineNo++;
-					newLineNo++;
-				}
-				diffBlocks.add(new DiffBlock<>(diff.operation, lines, 
-						oldLineNo-lines.size(), newLineNo-lines.size()));
-			} else if (diff.operation == Operation.INSERT) {
-				for (int i = 0; i < diff.text.length(); i++)
-					lines.add(newTokenizedLines.get(newLineNo++));
-				diffBlocks.add(new DiffBlock<>(diff.operation, lines, 
-						oldLineNo, newLineNo-lines.size()));
-			} else {
-				for (int i = 0; i < diff.text.length(); i++)
-					lines.add(oldTokenizedLines.get(oldLineNo++));
-				diffBlocks.add(new DiffBlock<>(diff.operation, lines, 
-						oldLineNo-lines.size(), newLineNo));
-			}
-		}
-		
-		return diffBlocks;
+		return diff(oldTokenizedLines, processedOldLines, newTokenizedLines, processedNewLines);
 	}
 	
 	public static <T> List<DiffBlock<T>> diff(List<T> oldLines, List<T> newLines) {
-		Preconditions.checkArgument(oldLines.size() + newLines.size() <= MAX_DIFF_SIZE, 
-				"Total size of old lines and new lines should be less than " + MAX_DIFF_SIZE + ".");
+		return diff(oldLines, oldLines, newLines, newLines).getDiffBlocks();
+	}
+	
+	/*
+	 * Diff units by comparing their keys. Units of equal blocks are taken from new units
+	 */
+	private static <T, K> DiffResult<T> diff(List<T> oldUnits, List<K> oldKeys, 
+			List<T> newUnits, List<K> newKeys) {
+		Map<K, Integer> ids = new HashMap<>();
+		int[] oldIds = new int[oldKeys.size()];
+		int index = 0;
+		for (K key: oldKeys) 
+			oldIds[index++] = ids.computeIfAbsent(key, it -> ids.size());
+		int[] newIds = new int[newKeys.size()];
+		index = 0;
+		for (K key: newKeys) 
+			newIds[index++] = ids.computeIfAbsent(key, it -> ids.size());
 		
-		DiffMatchPatch dmp = new DiffMatchPatch();
-		TokensToCharsResult<T> result1 = tokensToChars(oldLines, newLines);
+		MyersDiff myersDiff = new MyersDiff(oldIds, newIds, System.currentTimeMillis() + DIFF_TIMEOUT);
 		
-		List<DiffMatchPatch.Diff> diffs = dmp.diff_main(result1.chars1, result1.chars2, false);
-
 		List<DiffBlock<T>> diffBlocks = new ArrayList<>();
 		int oldLineNo = 0;
 		int newLineNo = 0;
-		for (Diff diff : diffs) {
-			List<T> lines = new ArrayList<>();
-			if (diff.operation == Operation.EQUAL) {
-				for (int i = 0; i < diff.text.length(); i++) {
-					lines.add(newLines.get(newLineNo));
+		while (oldLineNo < oldIds.length || newLineNo < newIds.length) {
+			List<T> units = new ArrayList<>();
+			if (oldLineNo < oldIds.length && myersDiff.isDeleted(oldLineNo)) {
+				while (oldLineNo < oldIds.length && myersDiff.isDeleted(oldLineNo))
+					units.add(oldUnits.get(oldLineNo++));
+				diffBlocks.add(new DiffBlock<T>(Operation.DELETE, units, oldLineNo-units.size(), newLineNo));
+			} else if (newLineNo < newIds.length && myersDiff.isInserted(newLineNo)) {
+				while (newLineNo < newIds.length && myersDiff.isInserted(newLineNo))
+					units.add(newUnits.get(newLineNo++));
+				diffBlocks.add(new DiffBlock<T>(Operation.INSERT, units, oldLineNo, newLineNo-units.size()));
+			} else {
+				while (oldLineNo < oldIds.length && newLineNo < newIds.length 
+						&& !myersDiff.isDeleted(oldLineNo) && !myersDiff.isInserted(newLineNo)) {
+					units.add(newUnits.get(newLineNo));
 					oldLineNo++;
 					newLineNo++;
 				}
-				diffBlocks.add(new DiffBlock<T>(diff.operation, lines, oldLineNo-lines.size(), newLineNo-lines.size()));
-			} else if (diff.operation == Operation.INSERT) {
-				for (int i = 0; i < diff.text.length(); i++)
-					lines.add(newLines.get(newLineNo++));
-				diffBlocks.add(new DiffBlock<T>(diff.operation, lines, oldLineNo, newLineNo-lines.size()));
-			} else {
-				for (int i = 0; i < diff.text.length(); i++)
-					lines.add(oldLines.get(oldLineNo++));
-				diffBlocks.add(new DiffBlock<T>(diff.operation, lines, oldLineNo-lines.size(), newLineNo));
+				diffBlocks.add(new DiffBlock<T>(Operation.EQUAL, units, oldLineNo-units.size(), newLineNo-units.size()));
 			}
 		}
 		
-		return diffBlocks;
+		return new DiffResult<T>(diffBlocks, myersDiff.isTimedOut());
 	}
 	
 	/**
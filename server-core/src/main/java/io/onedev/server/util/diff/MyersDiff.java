@@ -0,0 +1,224 @@
+package io.onedev.server.util.diff;
+
+import java.util.Arrays;
+
+/**
+ * Line diff based on the linear space variant of Myers' O(ND) algorithm. Lines are
+ * compared by interned integer ids, so there is no limit on number of distinct lines. 
+ * If either side has more than {@link #MAX_LINES} lines, or calculation does not finish 
+ * before specified deadline, all old lines are reported as deleted and all new lines as 
+ * inserted, the same as replacing the whole file.
+ */
+class MyersDiff {
+
+	static final int MAX_LINES = 1000000;
+
+	private final int[] oldIds;
+
+	private final int[] newIds;
+
+	private final long deadline;
+
+	private final boolean[] deleted;
+
+	private final boolean[] inserted;
+
+	// diagonal arrays shared by all bisections as they never overlap in time
+	private final int[] forward;
+
+	private final int[] backward;
+
+	private boolean timedOut;
+
+	/**
+	 * @param oldIds
+	 * 			ids of old lines. Equal lines should have equal ids
+	 * @param newIds
+	 * 			ids of new lines. Equal lines should have equal ids
+	 * @param deadline
+	 * 			time in milliseconds since epoch after which whole file is reported as replaced
+	 */
+	MyersDiff(int[] oldIds, int[] newIds, long deadline) {
+		this.oldIds = oldIds;
+		this.newIds = newIds;
+		this.deadline = deadline;
+		deleted = new boolean[oldIds.length];
+		inserted = new boolean[newIds.length];
+		if (oldIds.length <= MAX_LINES && newIds.length <= MAX_LINES) {
+			int maxD = (oldIds.length + newIds.length + 1) / 2;
+			forward = new int[2 * maxD + 2];
+			backward = new int[2 * maxD + 2];
+			if (!compare()) {
+				timedOut = true;
+				markChanged(0, oldIds.length, 0, newIds.length);
+			}
+		} else {
+			forward = null;
+			backward = null;
+			markChanged(0, oldIds.length, 0, newIds.length);
+		}
+	}
+
+	/**
+	 * @return
+	 * 			<tt>true</tt> if whole file is reported as replaced as deadline is reached
+	 */
+	boolean isTimedOut() {
+		return timedOut;
+	}
+
+	boolean isDeleted(int oldIndex) {
+		return deleted[oldIndex];
+	}
+
+	boolean isInserted(int newIndex) {
+		return inserted[newIndex];
+	}
+
+	/*
+	 * Divide regions iteratively with an explicit stack instead of recursion, so that deeply 
+	 * nested divisions of large inputs do not overflow the thread stack. Returns false if 
+	 * deadline is reached
+	 */
+	private boolean compare() {
+		int[] regions = new int[64];
+		int top = 0;
+		regions[top++] = 0;
+		regions[top++] = oldIds.length;
+		regions[top++] = 0;
+		regions[top++] = newIds.length;
+		while (top != 0) {
+			int newTo = regions[--top];
+			int newFrom = regions[--top];
+			int oldTo = regions[--top];
+			int oldFrom = regions[--top];
+			while (oldFrom < oldTo && newFrom < newTo && oldIds[oldFrom] == newIds[newFrom]) {
+				oldFrom++;
+				newFrom++;
+			}
+			while (oldFrom < oldTo && newFrom < newTo && oldIds[oldTo-1] == newIds[newTo-1]) {
+				oldTo--;
+				newTo--;
+			}
+			if (oldFrom == oldTo || newFrom == newTo) {
+				markChanged(oldFrom, oldTo, newFrom, newTo);
+			} else {
+				int[] split = bisect(oldFrom, oldTo, newFrom, newTo);
+				if (split == null) {
+					if (System.currentTimeMillis() > deadline)
+						return false;
+					markChanged(oldFrom, oldTo, newFrom, newTo);
+					continue;
+				}
+				if (top + 8 > regions.length)
+					regions = Arrays.copyOf(regions, regions.length*2);
+				regions[top++] = split[0];
+				regions[top++] = oldTo;
+				regions[top++] = split[1];
+				regions[top++] = newTo;
+				regions[top++] = oldFrom;
+				regions[top++] = split[0];
+				regions[top++] = newFrom;
+				regions[top++] = split[1];
+			}
+		}
+		return true;
+	}
+
+	private void markChanged(int oldFrom, int oldTo, int newFrom, int newTo) {
+		for (int i=oldFrom; i<oldTo; i++)
+			deleted[i] = true;
+		for (int i=newFrom; i<newTo; i++)
+			inserted[i] = true;
+	}
+
+	/*
+	 * Find the middle snake of specified region by searching from both ends at the same
+	 * time, and return the split point. Returns null if deadline is reached or no split 
+	 * point is found.
+	 */
+	private int[] bisect(int oldFrom, int oldTo, int newFrom, int newTo) {
+		int oldLen = oldTo - oldFrom;
+		int newLen = newTo - newFrom;
+		int maxD = (oldLen + newLen + 1) / 2;
+		int offset = maxD;
+		int length = 2 * maxD;
+		for (int i=0; i<length+2; i++) {
+			forward[i] = -1;
+			backward[i] = -1;
+		}
+		forward[offset + 1] = 0;
+		backward[offset + 1] = 0;
+		int delta = oldLen - newLen;
+
+		// if total length is odd, the forward path will collide with the reverse path
+		boolean front = (delta % 2 != 0);
+
+		// offsets for start and end of k loop, to prevent mapping of space beyond the grid
+		int forwardStart = 0;
+		int forwardEnd = 0;
+		int backwardStart = 0;
+		int backwardEnd = 0;
+		for (int d=0; d<maxD; d++) {
+			if (System.currentTimeMillis() > deadline)
+				return null;
+
+			for (int k=-d+forwardStart; k<=d-forwardEnd; k+=2) {
+				int kOffset = offset + k;
+				int x;
+				if (k == -d || (k != d && forward[kOffset-1] < forward[kOffset+1]))
+					x = forward[kOffset+1];
+				else
+					x = forward[kOffset-1] + 1;
+				int y = x - k;
+				while (x < oldLen && y < newLen && oldIds[oldFrom+x] == newIds[newFrom+y]) {
+					x++;
+					y++;
+				}
+				forward[kOffset] = x;
+				if (x > oldLen) {
+					forwardEnd += 2;
+				} else if (y > newLen) {
+					forwardStart += 2;
+				} else if (front) {
+					int reverseOffset = offset + delta - k;
+					if (reverseOffset >= 0 && reverseOffset < length && backward[reverseOffset] != -1) {
+						if (x >= oldLen - backward[reverseOffset])
+							return new int[] {oldFrom + x, newFrom + y};
+					}
+				}
+			}
+
+			for (int k=-d+backwardStart; k<=d-backwardEnd; k+=2) {
+				int kOffset = offset + k;
+				int x;
+				if (k == -d || (k != d && backward[kOffset-1] < backward[kOffset+1]))
+					x = backward[kOffset+1];
+				else
+					x = backward[kOffset-1] + 1;
+				int y = x - k;
+				while (x < oldLen && y < newLen
+						&& oldIds[oldTo-x-1] == newIds[newTo-y-1]) {
+					x++;
+					y++;
+				}
+				backward[kOffset] = x;
+				if (x > oldLen) {
+					backwardEnd += 2;
+				} else if (y > newLen) {
+					backwardStart += 2;
+				} else if (!front) {
+					int forwardOffset = offset + delta - k;
+					if (forwardOffset >= 0 && forwardOffset < length && forward[forwardOffset] != -1) {
+						int forwardX = forward[forwardOffset];
+						int forwardY = offset + forwardX - forwardOffset;
+						if (forwardX >= oldLen - x)
+							return new int[] {oldFrom + forwardX, newFrom + forwardY};
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+}
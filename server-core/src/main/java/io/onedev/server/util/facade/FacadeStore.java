@@ -0,0 +1,278 @@
+package io.onedev.server.util.facade;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Compact in-memory store of entity facades grouped by project. Instead of holding a facade
+ * object per entity, ids and keys (issue number, commit hash etc.) of entities of each project
+ * are held in primitive arrays sorted by entity id. Keys are fixed number of longs specified
+ * by key width.
+ * <p>
+ * Readers never lock. Each project is represented by an immutable snapshot which is replaced
+ * by writers. Appending to a project reuses arrays of current snapshot if there is spare
+ * capacity, as a snapshot never looks beyond its own size. Removing an entity marks its id as
+ * negative, and arrays are compacted into new copies when too many entities are removed.
+ * <p>
+ * Keys are indexed by a sorted array of key hashes and positions. Entities appended after
+ * the index is built are scanned linearly, and index is rebuilt when there are too many of
+ * them.
+ */
+public class FacadeStore {
+
+	private static final int MIN_UNINDEXED = 1024;
+
+	private final int keyWidth;
+
+	private final Map<Long, Snapshot> snapshots = new ConcurrentHashMap<>();
+
+	public FacadeStore(int keyWidth) {
+		Preconditions.checkArgument(keyWidth > 0);
+		this.keyWidth = keyWidth;
+	}
+
+	public synchronized void put(Long projectId, Long id, long... key) {
+		Preconditions.checkArgument(id > 0);
+		Preconditions.checkArgument(key.length == keyWidth);
+
+		Snapshot snapshot = snapshots.get(projectId);
+		if (snapshot == null) {
+			snapshot = new Snapshot(new long[16], new long[16*keyWidth], 0, 0, new long[0], 0);
+		} else {
+			int pos = snapshot.find(id);
+			if (pos != -1) {
+				if (snapshot.matches(pos, key))
+					return;
+				snapshot = snapshot.compact(pos);
+			}
+		}
+		snapshots.put(projectId, snapshot.add(id, key));
+	}
+
+	public synchronized void remove(Long projectId, Long id) {
+		Snapshot snapshot = snapshots.get(projectId);
+		if (snapshot != null) {
+			int pos = snapshot.find(id);
+			if (pos != -1)
+				snapshots.put(projectId, snapshot.remove(pos));
+		}
+	}
+
+	public synchronized void remove(Long projectId) {
+		snapshots.remove(projectId);
+	}
+
+	public Collection<Long> getIds(Long projectId) {
+		Collection<Long> ids = new HashSet<>();
+		Snapshot snapshot = snapshots.get(projectId);
+		if (snapshot != null) {
+			for (int pos=0; pos<snapshot.size; pos++) {
+				long id = snapshot.ids[pos];
+				if (id > 0)
+					ids.add(id);
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Get ids of entities in specified project matching any of specified keys
+	 */
+	public Collection<Long> getIds(Long projectId, Collection<long[]> keys) {
+		Collection<Long> ids = new HashSet<>();
+		Snapshot snapshot = snapshots.get(projectId);
+		if (snapshot != null) {
+			for (long[] key: keys) {
+				Preconditions.checkArgument(key.length == keyWidth);
+				snapshot.collectIndexed(key, ids);
+			}
+			for (int pos=snapshot.indexed; pos<snapshot.size; pos++) {
+				long id = snapshot.ids[pos];
+				if (id > 0) {
+					for (long[] key: keys) {
+						if (snapshot.matches(pos, key)) {
+							ids.add(id);
+							break;
+						}
+					}
+				}
+			}
+		}
+		return ids;
+	}
+
+	/**
+	 * Get specified key component of all entities in specified project
+	 */
+	public Collection<Long> getKeys(Long projectId, int keyIndex) {
+		Preconditions.checkArgument(keyIndex >= 0 && keyIndex < keyWidth);
+		Collection<Long> keys = new HashSet<>();
+		Snapshot snapshot = snapshots.get(projectId);
+		if (snapshot != null) {
+			for (int pos=0; pos<snapshot.size; pos++) {
+				if (snapshot.ids[pos] > 0)
+					keys.add(snapshot.keys[pos*keyWidth+keyIndex]);
+			}
+		}
+		return keys;
+	}
+
+	/**
+	 * @return
+	 * 			number of entities in this store
+	 */
+	public int size() {
+		int size = 0;
+		for (Snapshot snapshot: snapshots.values())
+			size += snapshot.size - snapshot.removed;
+		return size;
+	}
+
+	private static int hash(long key) {
+		return Long.hashCode(key) * 0x9E3779B9;
+	}
+
+	private class Snapshot {
+
+		// sorted by absolute value, removed ones are negative
+		final long[] ids;
+
+		final long[] keys;
+
+		final int size;
+
+		final int removed;
+
+		// sorted entries of hash of first key component in high 32 bits and position in low 32 bits
+		final long[] index;
+
+		// number of leading positions covered by index
+		final int indexed;
+
+		Snapshot(long[] ids, long[] keys, int size, int removed, long[] index, int indexed) {
+			this.ids = ids;
+			this.keys = keys;
+			this.size = size;
+			this.removed = removed;
+			this.index = index;
+			this.indexed = indexed;
+		}
+
+		int find(long id) {
+			int low = 0;
+			int high = size - 1;
+			while (low <= high) {
+				int mid = (low + high) >>> 1;
+				long midId = Math.abs(ids[mid]);
+				if (midId < id)
+					low = mid + 1;
+				else if (midId > id)
+					high = mid - 1;
+				else if (ids[mid] > 0)
+					return mid;
+				else
+					return -1;
+			}
+			return -1;
+		}
+
+		boolean matches(int pos, long[] key) {
+			for (int i=0; i<keyWidth; i++) {
+				if (keys[pos*keyWidth+i] != key[i])
+					return false;
+			}
+			return true;
+		}
+
+		void collectIndexed(long[] key, Collection<Long> ids) {
+			long from = (long)hash(key[0]) << 32;
+			int i = Arrays.binarySearch(index, from);
+			if (i < 0)
+				i = -i - 1;
+			for (; i<index.length && (index[i] >>> 32) == (from >>> 32); i++) {
+				int pos = (int) index[i];
+				if (this.ids[pos] > 0 && matches(pos, key))
+					ids.add(this.ids[pos]);
+			}
+		}
+
+		Snapshot add(long id, long[] key) {
+			if (size == 0 || id > Math.abs(ids[size-1])) {
+				long[] newIds = ids;
+				long[] newKeys = keys;
+				if (size == ids.length) {
+					int capacity = size + (size >> 1) + 1;
+					newIds = Arrays.copyOf(ids, capacity);
+					newKeys = Arrays.copyOf(keys, capacity*keyWidth);
+				}
+				newIds[size] = id;
+				System.arraycopy(key, 0, newKeys, size*keyWidth, keyWidth);
+				Snapshot snapshot = new Snapshot(newIds, newKeys, size+1, removed, index, indexed);
+				if (snapshot.size - indexed > Math.max(MIN_UNINDEXED, snapshot.size/8))
+					snapshot = snapshot.reindex();
+				return snapshot;
+			} else if (removed != 0) {
+				return compact(-1).add(id, key);
+			} else {
+				// out of order insertion only happens when data is imported, just copy
+				int pos = 0;
+				while (Math.abs(ids[pos]) < id)
+					pos++;
+				long[] newIds = new long[size+1];
+				long[] newKeys = new long[(size+1)*keyWidth];
+				System.arraycopy(ids, 0, newIds, 0, pos);
+				System.arraycopy(keys, 0, newKeys, 0, pos*keyWidth);
+				newIds[pos] = id;
+				System.arraycopy(key, 0, newKeys, pos*keyWidth, keyWidth);
+				System.arraycopy(ids, pos, newIds, pos+1, size-pos);
+				System.arraycopy(keys, pos*keyWidth, newKeys, (pos+1)*keyWidth, (size-pos)*keyWidth);
+				return new Snapshot(newIds, newKeys, size+1, removed, null, 0).reindex();
+			}
+		}
+
+		/*
+		 * Readers of this snapshot may or may not see the removal, which is fine as
+		 * removal is only performed after transaction commit
+		 */
+		Snapshot remove(int pos) {
+			ids[pos] = -ids[pos];
+			if (removed + 1 > size/4)
+				return compact(-1);
+			else
+				return new Snapshot(ids, keys, size, removed+1, index, indexed);
+		}
+
+		/*
+		 * Copy live entities into new arrays, excluding entity at specified position
+		 */
+		Snapshot compact(int excludePos) {
+			int capacity = Math.max(16, size - removed);
+			long[] newIds = new long[capacity];
+			long[] newKeys = new long[capacity*keyWidth];
+			int newSize = 0;
+			for (int pos=0; pos<size; pos++) {
+				if (ids[pos] > 0 && pos != excludePos) {
+					newIds[newSize] = ids[pos];
+					System.arraycopy(keys, pos*keyWidth, newKeys, newSize*keyWidth, keyWidth);
+					newSize++;
+				}
+			}
+			return new Snapshot(newIds, newKeys, newSize, 0, null, 0).reindex();
+		}
+
+		Snapshot reindex() {
+			long[] newIndex = new long[size];
+			for (int pos=0; pos<size; pos++)
+				newIndex[pos] = ((long)hash(keys[pos*keyWidth]) << 32) | pos;
+			Arrays.sort(newIndex);
+			return new Snapshot(ids, keys, size, removed, newIndex, size);
+		}
+
+	}
+
+}
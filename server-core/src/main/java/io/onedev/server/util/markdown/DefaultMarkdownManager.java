@@ -1,15 +1,20 @@
 package io.onedev.server.util.markdown;
 
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.text.StringEscapeUtils;
+import org.apache.wicket.request.cycle.RequestCycle;
 import org.jsoup.nodes.Document;
 
 import com.vladsch.flexmark.Extension;
@@ -28,22 +33,33 @@ import com.vladsch.flexmark.util.options.MutableDataSet;
 
 import io.onedev.commons.utils.HtmlUtils;
 import io.onedev.server.model.Project;
+import io.onedev.server.web.component.markdown.emoji.EmojiNodeRenderer;
+import io.onedev.server.web.component.markdown.emoji.EmojiOnes;
 
 @Singleton
 public class DefaultMarkdownManager implements MarkdownManager {
 	
-	private final Set<Extension> contributedExtensions;
+	private static final int MAX_CACHE_SIZE = 8*1024*1024; // max total length of cached html
 	
 	private final Set<MarkdownProcessor> htmlTransformers;
 	
+	private final Parser parser;
+	
+	private final HtmlRenderer htmlRenderer;
+	
+	/*
+	 * Rendered html keyed by hash of markdown and render context, access ordered so that 
+	 * least recently used entries are evicted first. Only rendering is cached as result 
+	 * of processing depends on current data and permissions
+	 */
+	private final Map<String, String> renderCache = new LinkedHashMap<>(16, 0.75f, true);
+	
+	private int renderCacheSize;
+	
 	@Inject
 	public DefaultMarkdownManager(Set<Extension> contributedExtensions, Set<MarkdownProcessor> htmlTransformers) {
-		this.contributedExtensions = contributedExtensions;
 		this.htmlTransformers = htmlTransformers;
-	}
-
-	@Override
-	public String render(String markdown) {
+		
 		List<Extension> extensions = new ArrayList<>();
 		extensions.add(AnchorLinkExtension.create());
 		extensions.add(TablesExtension.create());
@@ -66,14 +82,54 @@ public class DefaultMarkdownManager implements MarkdownManager {
 				.set(TablesExtension.HEADER_SEPARATOR_COLUMN_MATCH, true)
 				.set(Parser.EXTENSIONS, extensions);
 
-		Parser parser = Parser.builder(options).build();
+		// parser and renderer are immutable and can be shared by multiple threads
+		parser = Parser.builder(options).build();
+		htmlRenderer = HtmlRenderer.builder(options).build();
+	}
 
-		HtmlRenderer htmlRenderer = HtmlRenderer.builder(options).build();
+	@Override
+	public String render(String markdown) {
+		String key = DigestUtils.sha1Hex(markdown) + ":" + getRenderContext();
+		synchronized (renderCache) {
+			String html = renderCache.get(key);
+			if (html != null)
+				return html;
+		}
 		
 		Node document = parser.parse(markdown);
-		return htmlRenderer.render(document);
+		String html = htmlRenderer.render(document);
+		
+		if (html.length() <= MAX_CACHE_SIZE) {
+			synchronized (renderCache) {
+				String prevHtml = renderCache.put(key, html);
+				if (prevHtml != null)
+					renderCacheSize -= prevHtml.length();
+				renderCacheSize += html.length();
+				Iterator<String> it = renderCache.values().iterator();
+				while (renderCacheSize > MAX_CACHE_SIZE && it.hasNext()) {
+					renderCacheSize -= it.next().length();
+					it.remove();
+				}
+			}
+		}
+		return html;
 	}
 
+	/*
+	 * Emoji urls are the only request dependent part of rendered html. They are relative to 
+	 * base url of current request, and share the same prefix. So url of the first emoji 
+	 * identifies how all emoji urls are rendered for current request. Html rendered outside 
+	 * of a web request does not contain emoji urls
+	 */
+	private String getRenderContext() {
+		if (RequestCycle.get() != null) {
+			Iterator<String> it = EmojiOnes.getInstance().all().values().iterator();
+			if (it.hasNext())
+				return EmojiNodeRenderer.getEmojiUrl(it.next());
+		}
+		return "";
+	}
+	
 	@Override
 	public String escape(String markdown) {
 		markdown = StringEscapeUtils.escapeHtml4(markdown);
@@ -92,6 +92,7 @@ import io.onedev.server.web.page.project.stats.ProjectContribsPage;
 import io.onedev.server.web.page.project.stats.SourceLinesPage;
 import io.onedev.server.web.page.project.tags.ProjectTagsPage;
 import io.onedev.server.web.page.pullrequests.PullRequestListPage;
+import io.onedev.server.web.page.search.CodeSearchPage;
 import io.onedev.server.web.page.security.ForgetPage;
 import io.onedev.server.web.page.security.LoginPage;
 import io.onedev.server.web.page.security.LogoutPage;
@@ -105,6 +106,7 @@ public class OneUrlMapper extends CompoundRequestMapper {
 		add(new OnePageMapper("issues", IssueListPage.class));
 		add(new OnePageMapper("pull-requests", PullRequestListPage.class));
 		add(new OnePageMapper("builds", BuildListPage.class));
+		add(new OnePageMapper("code-search", CodeSearchPage.class));
 		addProjectPages();
 		addMyPages();
 		addAdministrationPages();
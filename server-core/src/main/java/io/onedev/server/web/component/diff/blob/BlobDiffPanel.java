@@ -21,7 +21,6 @@ import io.onedev.server.model.CodeComment;
 import io.onedev.server.model.Project;
 import io.onedev.server.model.PullRequest;
 import io.onedev.server.model.support.MarkPos;
-import io.onedev.server.util.diff.DiffUtils;
 import io.onedev.server.web.WebConstants;
 import io.onedev.server.web.component.diff.DiffRenderer;
 import io.onedev.server.web.component.diff.blob.text.TextDiffPanel;
@@ -72,9 +71,7 @@ public class BlobDiffPanel extends Panel implements SourceAware {
 	
 	private void showBlob(Blob blob) {
 		if (blob.getText() != null) {
-			if (blob.getText().getLines().size() > DiffUtils.MAX_DIFF_SIZE) {
-				add(newFragment("Unable to diff as the file is too large.", true));
-			} else if (change.getAdditions()+change.getDeletions() > WebConstants.MAX_SINGLE_DIFF_LINES) {
+			if (change.getAdditions()+change.getDeletions() > WebConstants.MAX_SINGLE_DIFF_LINES) {
 				add(newFragment("Diff is too large to be displayed.", true));
 			} else if (change.getDiffBlocks().isEmpty()) {
 				if (change.getNewBlobIdent().path != null)
@@ -110,9 +107,7 @@ public class BlobDiffPanel extends Panel implements SourceAware {
 			showBlob(change.getOldBlob());
 		} else {
 			if (change.getOldText() != null && change.getNewText() != null) {
-				if (change.getOldText().getLines().size() + change.getNewText().getLines().size() > DiffUtils.MAX_DIFF_SIZE) {
-					add(newFragment("Unable to diff as the file is too large.", true));
-				} else if (change.getAdditions() + change.getDeletions() > WebConstants.MAX_SINGLE_DIFF_LINES) {
+				if (change.getAdditions() + change.getDeletions() > WebConstants.MAX_SINGLE_DIFF_LINES) {
 					add(newFragment("Diff is too large to be displayed.", true));
 				} else if (change.getAdditions() + change.getDeletions() == 0 
 						&& (commentSupport == null || commentSupport.getComments().isEmpty())) {
@@ -82,7 +82,6 @@ import io.onedev.server.search.code.IndexManager;
 import io.onedev.server.util.PathComparator;
 import io.onedev.server.util.ProjectAndRevision;
 import io.onedev.server.util.SecurityUtils;
-import io.onedev.server.util.diff.DiffUtils;
 import io.onedev.server.util.diff.WhitespaceOption;
 import io.onedev.server.util.match.Matcher;
 import io.onedev.server.util.match.PathMatcher;
@@ -308,8 +307,7 @@ public class RevisionDiffPanel extends Panel {
 		    				&& !markedPaths.contains(change.getPath())) {
 		    			Blob.Text oldText = change.getOldText();
 		    			Blob.Text newText = change.getNewText();
-		    			if (oldText != null && newText != null 
-		    					&& (oldText.getLines().size() + newText.getLines().size()) <= DiffUtils.MAX_DIFF_SIZE) {
+		    			if (oldText != null && newText != null) {
 			    			it.remove();
 		    			}
 		    		}
@@ -730,16 +728,11 @@ public class RevisionDiffPanel extends Panel {
 				
 				boolean barVisible;
 				if (change.getType() == ChangeType.ADD || change.getType() == ChangeType.COPY) {
-					Blob.Text text = change.getNewText();
-					barVisible = (text != null && text.getLines().size() <= DiffUtils.MAX_DIFF_SIZE);
+					barVisible = change.getNewText() != null;
 				} else if (change.getType() == ChangeType.DELETE) {
-					Blob.Text text = change.getOldText();
-					barVisible = (text != null && text.getLines().size() <= DiffUtils.MAX_DIFF_SIZE);
+					barVisible = change.getOldText() != null;
 				} else {
-					Blob.Text oldText = change.getOldText();
-					Blob.Text newText = change.getNewText();
-					barVisible = (oldText != null && newText != null 
-							&& oldText.getLines().size()+newText.getLines().size() <= DiffUtils.MAX_DIFF_SIZE);
+					barVisible = change.getOldText() != null && change.getNewText() != null;
 				}
 				item.add(new DiffStatBar("bar", change.getAdditions(), change.getDeletions(), false).setVisible(barVisible));
 			}
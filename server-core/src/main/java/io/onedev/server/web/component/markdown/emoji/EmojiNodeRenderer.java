@@ -38,10 +38,8 @@ public class EmojiNodeRenderer implements NodeRenderer {
     	String emojiUrl = null;
 		if (RequestCycle.get() != null) {
 			String emojiCode = EmojiOnes.getInstance().all().get(emojiName);
-			if (emojiCode != null) {
-				emojiUrl = RequestCycle.get().urlFor(new PackageResourceReference(
-						EmojiOnes.class, "icon/" + emojiCode + ".png"), new PageParameters()).toString();
-			} 
+			if (emojiCode != null) 
+				emojiUrl = getEmojiUrl(emojiCode);
 		}
 
 		if (emojiUrl != null) {
@@ -63,6 +61,15 @@ public class EmojiNodeRenderer implements NodeRenderer {
 		
     }
 
+    /**
+     * Get url of specified emoji icon. The url is relative to base url of current request, and 
+     * urls of all emojis share the same prefix 
+     */
+    public static String getEmojiUrl(String emojiCode) {
+    	return RequestCycle.get().urlFor(new PackageResourceReference(
+    			EmojiOnes.class, "icon/" + emojiCode + ".png"), new PageParameters()).toString();
+    }
+    
     public static class Factory implements NodeRendererFactory {
         @Override
         public NodeRenderer create(final DataHolder options) {
@@ -0,0 +1,267 @@
+package io.onedev.server.web.download;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.http.WebRequest;
+import org.apache.wicket.request.resource.ContentDisposition;
+import org.apache.wicket.request.resource.AbstractResource;
+import org.eclipse.jetty.server.HttpOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.commons.utils.LockUtils;
+
+/**
+ * Serves files in build storage with support of conditional requests, byte ranges and
+ * pre-compressed text content. File content is written directly from the file channel
+ * to the connector whenever possible.
+ */
+public abstract class AbstractFileDownloadResource extends AbstractResource {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = LoggerFactory.getLogger(AbstractFileDownloadResource.class);
+
+	private static final String HEADER_ETAG = "ETag";
+
+	private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+	private static final String HEADER_RANGE = "Range";
+
+	private static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+
+	private static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+
+	private static final String HEADER_VARY = "Vary";
+
+	private static final String GZIP = "gzip";
+
+	private static final long MIN_COMPRESS_SIZE = 1024;
+
+	private static final long MAX_COMPRESS_SIZE = 64L*1024*1024;
+
+	private static final long MAX_MAP_SIZE = 16L*1024*1024;
+
+	/**
+	 * Create response to serve specified file
+	 *
+	 * @param attributes
+	 * 			attributes of the request
+	 * @param file
+	 * 			file to serve
+	 * @param contentType
+	 * 			content type of the file
+	 * @param fileName
+	 * 			file name presented to client
+	 * @param compressedDir
+	 * 			directory to hold compressed copy of the file if it is textual
+	 * @param lockKey
+	 * 			key of the lock to read the file with, <tt>null</tt> if file can be read
+	 * 			without locking
+	 * @param resourceType
+	 * 			type of the resource for logging purpose
+	 */
+	protected ResourceResponse newFileResponse(Attributes attributes, File file, String contentType,
+			String fileName, File compressedDir, @Nullable String lockKey, String resourceType) {
+		ResourceResponse response = new ResourceResponse();
+		response.setContentType(contentType);
+		response.disableCaching();
+		
+		// download as file even if browser is able to display the content type
+		response.setContentDisposition(ContentDisposition.ATTACHMENT);
+		try {
+			response.setFileName(URLEncoder.encode(fileName, StandardCharsets.UTF_8.name()));
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+
+		WebRequest request = (WebRequest) attributes.getRequest();
+
+		String version = Long.toHexString(file.length()) + "-" + Long.toHexString(file.lastModified());
+		boolean compress = false;
+		if (isCompressible(contentType) && file.length() >= MIN_COMPRESS_SIZE
+				&& file.length() <= MAX_COMPRESS_SIZE) {
+			response.getHeaders().addHeader(HEADER_VARY, HEADER_ACCEPT_ENCODING);
+			String acceptEncoding = request.getHeader(HEADER_ACCEPT_ENCODING);
+			compress = request.getHeader(HEADER_RANGE) == null
+					&& acceptEncoding != null && acceptEncoding.contains(GZIP);
+		}
+
+		String etag;
+		if (compress)
+			etag = "\"" + version + "-" + GZIP + "\"";
+		else
+			etag = "\"" + version + "\"";
+		response.getHeaders().addHeader(HEADER_ETAG, etag);
+		String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+		if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+			response.setStatusCode(HttpServletResponse.SC_NOT_MODIFIED);
+			return response;
+		}
+
+		// only compress after etag check, so that revalidation does not pay for compressing
+		File compressedFile;
+		if (compress) {
+			String prefix = DigestUtils.sha1Hex(file.getAbsolutePath()) + "-";
+			compressedFile = new File(compressedDir, prefix + version + ".gz");
+			compress(file, compressedFile, prefix, lockKey);
+		} else {
+			compressedFile = null;
+		}
+
+		File fileToServe;
+		if (compressedFile != null) {
+			fileToServe = compressedFile;
+			response.getHeaders().addHeader(HEADER_CONTENT_ENCODING, GZIP);
+		} else {
+			fileToServe = file;
+			response.setAcceptRange(ContentRangeType.BYTES);
+		}
+		long length = fileToServe.length();
+		response.setContentLength(length);
+
+		response.setWriteCallback(new WriteCallback() {
+
+			@Override
+			public void writeData(Attributes attributes) throws IOException {
+				Long startByte = RequestCycle.get().getMetaData(CONTENT_RANGE_STARTBYTE);
+				Long endByte = RequestCycle.get().getMetaData(CONTENT_RANGE_ENDBYTE);
+				if (startByte == null || fileToServe != file)
+					startByte = 0L;
+				if (endByte == null || endByte == -1 || fileToServe != file)
+					endByte = length - 1;
+				long position = startByte;
+				long count = endByte - startByte + 1;
+
+				HttpServletResponse servletResponse =
+						(HttpServletResponse) attributes.getResponse().getContainerResponse();
+				ServletOutputStream os = servletResponse.getOutputStream();
+
+				long time = System.currentTimeMillis();
+				read(lockKey, new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						try (FileChannel channel = FileChannel.open(fileToServe.toPath(), StandardOpenOption.READ)) {
+							transfer(channel, position, count, os);
+						}
+						return null;
+					}
+
+				});
+
+				if (logger.isDebugEnabled()) {
+					long elapsed = Math.max(System.currentTimeMillis() - time, 1);
+					logger.debug("Served {} (bytes: {}, elapsed: {} ms, throughput: {} KB/s)",
+							resourceType, count, elapsed, count * 1000 / 1024 / elapsed);
+				}
+			}
+
+		});
+
+		return response;
+	}
+
+	/*
+	 * Jetty writes mapped buffers to the socket without copying them into heap, otherwise
+	 * fall back to channel transfer
+	 */
+	private void transfer(FileChannel channel, long position, long count, OutputStream os) throws IOException {
+		if (os instanceof HttpOutput) {
+			HttpOutput httpOutput = (HttpOutput) os;
+			while (count > 0) {
+				long size = Math.min(count, MAX_MAP_SIZE);
+				httpOutput.write(channel.map(FileChannel.MapMode.READ_ONLY, position, size));
+				position += size;
+				count -= size;
+			}
+		} else {
+			WritableByteChannel target = Channels.newChannel(os);
+			while (count > 0) {
+				long transferred = channel.transferTo(position, count, target);
+				if (transferred <= 0)
+					break;
+				position += transferred;
+				count -= transferred;
+			}
+		}
+	}
+
+	private void compress(File file, File compressedFile, String prefix, @Nullable String lockKey) {
+		if (compressedFile.exists())
+			return;
+		read(lockKey, new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				FileUtils.createDir(compressedFile.getParentFile());
+				File tempFile = new File(compressedFile.getParentFile(),
+						compressedFile.getName() + "." + UUID.randomUUID() + ".tmp");
+				try {
+					try (	InputStream is = Files.newInputStream(file.toPath());
+							OutputStream os = new GZIPOutputStream(new BufferedOutputStream(
+									Files.newOutputStream(tempFile.toPath())))) {
+						IOUtils.copy(is, os);
+					}
+					Files.move(tempFile.toPath(), compressedFile.toPath(),
+							StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+					// remove compressed copies of previous versions of the file
+					for (File each: compressedFile.getParentFile().listFiles()) {
+						if (each.getName().startsWith(prefix) && each.getName().endsWith(".gz")
+								&& !each.equals(compressedFile)) {
+							FileUtils.deleteFile(each);
+						}
+					}
+				} finally {
+					if (tempFile.exists())
+						FileUtils.deleteFile(tempFile);
+				}
+				return null;
+			}
+
+		});
+	}
+
+	private void read(@Nullable String lockKey, Callable<Void> callable) {
+		if (lockKey != null) {
+			LockUtils.read(lockKey, callable);
+		} else {
+			try {
+				callable.call();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		}
+	}
+
+	private boolean isCompressible(String contentType) {
+		return contentType.startsWith("text/") || contentType.contains("json")
+				|| contentType.contains("xml") || contentType.contains("javascript");
+	}
+
+}
@@ -1,25 +1,30 @@
 package io.onedev.server.web.download;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 
 import javax.persistence.EntityNotFoundException;
+import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.shiro.authz.UnauthorizedException;
 import org.apache.tika.mime.MimeTypes;
+import org.apache.wicket.request.cycle.RequestCycle;
+import org.apache.wicket.request.http.WebRequest;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
 import org.apache.wicket.request.resource.AbstractResource;
-import org.eclipse.jgit.api.ArchiveCommand;
-import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.api.errors.GitAPIException;
-import org.eclipse.jgit.archive.TgzFormat;
-import org.eclipse.jgit.archive.ZipFormat;
+import org.eclipse.jgit.lib.ObjectId;
 
 import io.onedev.server.OneDev;
 import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.git.archive.ArchiveCacheManager;
 import io.onedev.server.model.Project;
 import io.onedev.server.util.SecurityUtils;
 
@@ -37,6 +42,10 @@ public class ArchiveDownloadResource extends AbstractResource {
 	
 	public static final String FORMAT_TGZ = "tgz";
 	
+	private static final String HEADER_ETAG = "ETag";
+	
+	private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+	
 	@Override
 	protected ResourceResponse newResourceResponse(Attributes attributes) {
 		PageParameters params = attributes.getParameters();
@@ -62,10 +71,42 @@ public class ArchiveDownloadResource extends AbstractResource {
 		if (!SecurityUtils.canReadCode(project)) 
 			throw new UnauthorizedException();
 
+		ObjectId commitId = project.getRevCommit(revision, true).copy();
+		ArchiveCacheManager archiveCacheManager = OneDev.getInstance(ArchiveCacheManager.class);
+
 		ResourceResponse response = new ResourceResponse();
 		response.setContentType(MimeTypes.OCTET_STREAM);
 		
-		response.disableCaching();
+		if (!ObjectId.isId(revision))
+			response.disableCaching();
+		
+		// Archive of a commit never changes, so commit id serves as a strong etag
+		String etag = "\"" + commitId.name() + "-" + format + "\"";
+		response.getHeaders().addHeader(HEADER_ETAG, etag);
+		String ifNoneMatch = ((WebRequest) attributes.getRequest()).getHeader(HEADER_IF_NONE_MATCH);
+		if (ifNoneMatch != null && (ifNoneMatch.contains(etag) || ifNoneMatch.trim().equals("*"))) {
+			response.setStatusCode(HttpServletResponse.SC_NOT_MODIFIED);
+			return response;
+		}
+		
+		/*
+		 * Open cached archive right now instead of when writing data, otherwise it may be 
+		 * evicted in between
+		 */
+		FileChannel archiveChannel = archiveCacheManager.openArchive(commitId, format);
+		long archiveSize;
+		if (archiveChannel != null) {
+			try {
+				archiveSize = archiveChannel.size();
+			} catch (IOException e) {
+				IOUtils.closeQuietly(archiveChannel);
+				throw new RuntimeException(e);
+			}
+			response.setAcceptRange(ContentRangeType.BYTES);
+			response.setContentLength(archiveSize);
+		} else {
+			archiveSize = 0;
+		}
 		
 		try {
 			String fileName;
@@ -81,20 +122,21 @@ public class ArchiveDownloadResource extends AbstractResource {
 
 			@Override
 			public void writeData(Attributes attributes) throws IOException {
-				if (format.equals("zip"))
-					ArchiveCommand.registerFormat(format, new ZipFormat());
-				else
-					ArchiveCommand.registerFormat(format, new TgzFormat());
-				try {
-					ArchiveCommand archive = Git.wrap(project.getRepository()).archive();
-					archive.setFormat(format);
-					archive.setTree(project.getRevCommit(revision, true).getId());
-					archive.setOutputStream(attributes.getResponse().getOutputStream());
-					archive.call();
-				} catch (GitAPIException e) {
-					throw new RuntimeException(e);
-				} finally {
-					ArchiveCommand.unregisterFormat(format);
+				OutputStream os = attributes.getResponse().getOutputStream();
+				if (archiveChannel != null) {
+					Long startByte = RequestCycle.get().getMetaData(CONTENT_RANGE_STARTBYTE);
+					Long endByte = RequestCycle.get().getMetaData(CONTENT_RANGE_ENDBYTE);
+					if (startByte == null)
+						startByte = 0L;
+					if (endByte == null || endByte == -1)
+						endByte = archiveSize - 1;
+					try (InputStream is = Channels.newInputStream(archiveChannel.position(startByte))) {
+						IOUtils.copyLarge(is, os, 0, endByte - startByte + 1);
+					}
+				} else {
+					try (InputStream is = archiveCacheManager.generateArchive(project, commitId, format)) {
+						IOUtils.copyLarge(is, os);
+					}
 				}
 			}				
 		});
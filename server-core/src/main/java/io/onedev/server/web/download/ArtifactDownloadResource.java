@@ -2,26 +2,18 @@ package io.onedev.server.web.download;
 
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.IOException;
 import java.io.InputStream;
-import java.io.UnsupportedEncodingException;
-import java.net.URLEncoder;
-import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.concurrent.Callable;
 
 import javax.persistence.EntityNotFoundException;
 
 import org.apache.commons.lang3.StringUtils;
 import org.apache.shiro.authz.UnauthorizedException;
-import org.apache.tika.io.IOUtils;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
-import org.apache.wicket.request.resource.AbstractResource;
 
 import com.google.common.base.Joiner;
 
-import io.onedev.commons.utils.LockUtils;
 import io.onedev.server.OneDev;
 import io.onedev.server.OneException;
 import io.onedev.server.entitymanager.BuildManager;
@@ -31,7 +23,7 @@ import io.onedev.server.model.Project;
 import io.onedev.server.util.ContentDetector;
 import io.onedev.server.util.SecurityUtils;
 
-public class ArtifactDownloadResource extends AbstractResource {
+public class ArtifactDownloadResource extends AbstractFileDownloadResource {
 
 	private static final long serialVersionUID = 1L;
 
@@ -41,6 +33,8 @@ public class ArtifactDownloadResource extends AbstractResource {
 
 	private static final String PARAM_PATH = "path";
 	
+	private static final String COMPRESSED_DIR = "compressed-artifacts";
+	
 	@Override
 	protected ResourceResponse newResourceResponse(Attributes attributes) {
 		PageParameters params = attributes.getParameters();
@@ -93,40 +87,15 @@ public class ArtifactDownloadResource extends AbstractResource {
 			throw new OneException(message);
 		}
 			
-		ResourceResponse response = new ResourceResponse();
+		String contentType;
 		try (InputStream is = new FileInputStream(artifactFile)) {
-			response.setContentType(ContentDetector.detectMediaType(is, artifactPath).toString());
+			contentType = ContentDetector.detectMediaType(is, artifactPath).toString();
 		} catch (Exception e) {
 			throw new RuntimeException(e);
 		}
 		
-		response.disableCaching();
-		
-		try {
-			response.setFileName(URLEncoder.encode(artifactFile.getName(), StandardCharsets.UTF_8.name()));
-		} catch (UnsupportedEncodingException e) {
-			throw new RuntimeException(e);
-		}
-		response.setWriteCallback(new WriteCallback() {
-
-			@Override
-			public void writeData(Attributes attributes) throws IOException {
-				LockUtils.read(build.getArtifactsLockKey(), new Callable<Void>() {
-
-					@Override
-					public Void call() throws Exception {
-						try (InputStream is = new FileInputStream(artifactFile)) {
-							IOUtils.copy(is, attributes.getResponse().getOutputStream());
-						}
-						return null;
-					}
-					
-				});
-			}			
-			
-		});
-
-		return response;
+		return newFileResponse(attributes, artifactFile, contentType, artifactFile.getName(), 
+				new File(build.getPublishDir(), COMPRESSED_DIR), build.getArtifactsLockKey(), "artifact");
 	}
 
 	public static PageParameters paramsOf(Project project, Long buildNumber, String path) {
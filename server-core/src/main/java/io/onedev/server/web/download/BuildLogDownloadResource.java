@@ -1,5 +1,6 @@
 package io.onedev.server.web.download;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
@@ -13,7 +14,6 @@ import org.apache.shiro.authz.UnauthorizedException;
 import org.apache.tika.io.IOUtils;
 import org.apache.tika.mime.MimeTypes;
 import org.apache.wicket.request.mapper.parameter.PageParameters;
-import org.apache.wicket.request.resource.AbstractResource;
 
 import io.onedev.server.OneDev;
 import io.onedev.server.buildspec.job.log.LogManager;
@@ -23,7 +23,7 @@ import io.onedev.server.model.Build;
 import io.onedev.server.model.Project;
 import io.onedev.server.util.SecurityUtils;
 
-public class BuildLogDownloadResource extends AbstractResource {
+public class BuildLogDownloadResource extends AbstractFileDownloadResource {
 
 	private static final long serialVersionUID = 1L;
 
@@ -31,6 +31,8 @@ public class BuildLogDownloadResource extends AbstractResource {
 	
 	private static final String PARAM_BUILD = "build";
 	
+	private static final String LOG_FILE_NAME = "build-log.txt";
+	
 	@Override
 	protected ResourceResponse newResourceResponse(Attributes attributes) {
 		PageParameters params = attributes.getParameters();
@@ -60,13 +62,21 @@ public class BuildLogDownloadResource extends AbstractResource {
 		if (!SecurityUtils.canAccessLog(build))
 			throw new UnauthorizedException();
 	
+		LogManager logManager = OneDev.getInstance(LogManager.class);
+		File logTextFile = logManager.getLogTextFile(build);
+		if (logTextFile != null) {
+			return newFileResponse(attributes, logTextFile, MimeTypes.PLAIN_TEXT, LOG_FILE_NAME, 
+					logTextFile.getParentFile(), null, "build log");
+		}
+		
+		// log of running build is still growing, stream it as is 
 		ResourceResponse response = new ResourceResponse();
 		response.setContentType(MimeTypes.OCTET_STREAM);
 		
 		response.disableCaching();
 		
 		try {
-			response.setFileName(URLEncoder.encode("build-log.txt", StandardCharsets.UTF_8.name()));
+			response.setFileName(URLEncoder.encode(LOG_FILE_NAME, StandardCharsets.UTF_8.name()));
 		} catch (UnsupportedEncodingException e) {
 			throw new RuntimeException(e);
 		}
@@ -74,7 +84,7 @@ public class BuildLogDownloadResource extends AbstractResource {
 
 			@Override
 			public void writeData(Attributes attributes) throws IOException {
-				try (InputStream is = OneDev.getInstance(LogManager.class).openLogStream(build)) {
+				try (InputStream is = logManager.openLogStream(build)) {
 					IOUtils.copy(is, attributes.getResponse().getOutputStream());
 				}
 			}			
@@ -0,0 +1,39 @@
+package io.onedev.server.web.page.layout;
+
+import org.apache.wicket.Component;
+import org.apache.wicket.model.IModel;
+import org.apache.wicket.model.Model;
+
+import io.onedev.server.web.component.link.ViewStateAwarePageLink;
+import io.onedev.server.web.page.search.CodeSearchPage;
+
+public class CodeSearchTab implements MainTab {
+
+	private static final long serialVersionUID = 1L;
+
+	@Override
+	public Component render(String componentId) {
+		return new ViewStateAwarePageLink<Void>(componentId, 
+				CodeSearchPage.class, CodeSearchPage.paramsOf(null, false, false)) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			public IModel<?> getBody() {
+				return Model.of("Code Search");
+			}
+			
+		};
+	}
+
+	@Override
+	public boolean isAuthorized() {
+		return true;
+	}
+
+	@Override
+	public boolean isActive(LayoutPage page) {
+		return page instanceof CodeSearchPage; 
+	}
+
+}
@@ -41,7 +41,7 @@ public class GeneralSettingPage extends ProjectSettingPage {
 		
 		add(new Label("help", "Git repository of this project is stored at: " + getProject().getGitDir()));
 		
-		Collection<String> properties = Sets.newHashSet("name", "description");
+		Collection<String> properties = Sets.newHashSet("name", "description", "storeIndexedContent");
 		
 		editor = BeanContext.editModel("editor", new IModel<Serializable>() {
 
@@ -0,0 +1,219 @@
+package io.onedev.server.web.page.search;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.annotation.Nullable;
+
+import org.apache.commons.lang3.StringUtils;
+import org.apache.wicket.behavior.AttributeAppender;
+import org.apache.wicket.markup.html.WebMarkupContainer;
+import org.apache.wicket.markup.html.basic.Label;
+import org.apache.wicket.markup.html.form.CheckBox;
+import org.apache.wicket.markup.html.form.Form;
+import org.apache.wicket.markup.html.form.TextField;
+import org.apache.wicket.markup.html.link.BookmarkablePageLink;
+import org.apache.wicket.markup.html.list.ListItem;
+import org.apache.wicket.markup.html.list.ListView;
+import org.apache.wicket.model.LoadableDetachableModel;
+import org.apache.wicket.model.PropertyModel;
+import org.apache.wicket.request.mapper.parameter.PageParameters;
+import org.eclipse.jgit.lib.FileMode;
+
+import io.onedev.server.OneDev;
+import io.onedev.server.entitymanager.ProjectManager;
+import io.onedev.server.git.BlobIdent;
+import io.onedev.server.model.Project;
+import io.onedev.server.search.code.SearchManager;
+import io.onedev.server.search.code.hit.QueryHit;
+import io.onedev.server.search.code.query.BlobQuery;
+import io.onedev.server.search.code.query.TextQuery;
+import io.onedev.server.search.code.query.TooGeneralQueryException;
+import io.onedev.server.security.permission.ReadCode;
+import io.onedev.server.web.page.layout.LayoutPage;
+import io.onedev.server.web.page.project.blob.ProjectBlobPage;
+import io.onedev.server.web.page.project.blob.render.renderers.source.SourceRendererProvider;
+
+/**
+ * Search text in default branches of all projects accessible by current user
+ */
+@SuppressWarnings("serial")
+public class CodeSearchPage extends LayoutPage {
+
+	private static final String PARAM_TERM = "term";
+	
+	private static final String PARAM_REGEX = "regex";
+	
+	private static final String PARAM_CASE_SENSITIVE = "caseSensitive";
+	
+	private static final int MAX_QUERY_ENTRIES = 1000;
+	
+	private String term;
+	
+	private boolean regex;
+	
+	private boolean caseSensitive;
+	
+	private String errorMessage;
+	
+	public CodeSearchPage(PageParameters params) {
+		super(params);
+		term = params.get(PARAM_TERM).toOptionalString();
+		regex = params.get(PARAM_REGEX).toBoolean(false);
+		caseSensitive = params.get(PARAM_CASE_SENSITIVE).toBoolean(false);
+	}
+
+	@Override
+	protected void onInitialize() {
+		super.onInitialize();
+		
+		Form<?> form = new Form<Void>("form") {
+
+			@Override
+			protected void onSubmit() {
+				super.onSubmit();
+				setResponsePage(CodeSearchPage.class, paramsOf(term, regex, caseSensitive));
+			}
+			
+		};
+		form.add(new TextField<String>("term", new PropertyModel<String>(this, "term")));
+		form.add(new CheckBox("regex", new PropertyModel<Boolean>(this, "regex")));
+		form.add(new CheckBox("caseSensitive", new PropertyModel<Boolean>(this, "caseSensitive")));
+		add(form);
+		
+		LoadableDetachableModel<List<ProjectHits>> hitsModel = new LoadableDetachableModel<List<ProjectHits>>() {
+
+			@Override
+			protected List<ProjectHits> load() {
+				List<ProjectHits> hits = new ArrayList<>();
+				errorMessage = null;
+				if (StringUtils.isNotBlank(term)) {
+					try {
+						if (regex)
+							Pattern.compile(term);
+						BlobQuery query = new TextQuery.Builder()
+								.term(term)
+								.regex(regex)
+								.caseSensitive(caseSensitive)
+								.count(MAX_QUERY_ENTRIES)
+								.build();
+						ProjectManager projectManager = OneDev.getInstance(ProjectManager.class);
+						SearchManager searchManager = OneDev.getInstance(SearchManager.class);
+						Map<Project, List<QueryHit>> hitsOfProjects = searchManager.search(
+								projectManager.getPermittedProjects(new ReadCode()), query);
+						for (Map.Entry<Project, List<QueryHit>> entry: hitsOfProjects.entrySet()) {
+							Project project = entry.getKey();
+							hits.add(new ProjectHits(project.getId(), project.getName(), 
+									project.getDefaultBranch(), new ArrayList<>(entry.getValue())));
+						}
+					} catch (PatternSyntaxException e) {
+						errorMessage = "Invalid PCRE syntax";
+					} catch (TooGeneralQueryException e) {
+						errorMessage = "Search is too general";
+					} catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+				}
+				return hits;
+			}
+			
+		};
+		
+		add(new ListView<ProjectHits>("projects", hitsModel) {
+
+			@Override
+			protected void populateItem(ListItem<ProjectHits> item) {
+				ProjectHits projectHits = item.getModelObject();
+				Project project = OneDev.getInstance(ProjectManager.class).load(projectHits.projectId);
+				item.add(new Label("name", projectHits.projectName));
+				
+				item.add(new ListView<QueryHit>("hits", projectHits.hits) {
+
+					@Override
+					protected void populateItem(ListItem<QueryHit> hitItem) {
+						QueryHit hit = hitItem.getModelObject();
+						BlobIdent blobIdent = new BlobIdent(projectHits.revision, hit.getBlobPath(), 
+								FileMode.REGULAR_FILE.getBits());
+						ProjectBlobPage.State state = new ProjectBlobPage.State(blobIdent);
+						state.position = SourceRendererProvider.getPosition(hit.getTokenPos());
+						BookmarkablePageLink<Void> link = new BookmarkablePageLink<Void>("link", 
+								ProjectBlobPage.class, ProjectBlobPage.paramsOf(project, state));
+						link.add(hit.renderIcon("icon"));
+						link.add(new Label("blobPath", hit.getBlobPath()));
+						if (hit.getTokenPos() != null)
+							link.add(new Label("lineNo", String.valueOf(hit.getTokenPos().getFromRow()+1) + ":"));
+						else
+							link.add(new Label("lineNo").setVisible(false));
+						link.add(hit.render("label"));
+						hitItem.add(link);
+					}
+					
+				});
+			}
+			
+		});
+		
+		add(new WebMarkupContainer("noMatchingResult") {
+
+			@Override
+			protected void onConfigure() {
+				super.onConfigure();
+				setVisible(StringUtils.isNotBlank(term) && errorMessage == null && hitsModel.getObject().isEmpty());
+			}
+			
+		});
+		
+		add(new Label("error", new LoadableDetachableModel<String>() {
+
+			@Override
+			protected String load() {
+				hitsModel.getObject();
+				return errorMessage;
+			}
+			
+		}) {
+
+			@Override
+			protected void onConfigure() {
+				super.onConfigure();
+				setVisible(getDefaultModelObject() != null);
+			}
+			
+		}.add(AttributeAppender.append("class", "alert alert-danger")));
+	}
+	
+	public static PageParameters paramsOf(@Nullable String term, boolean regex, boolean caseSensitive) {
+		PageParameters params = new PageParameters();
+		if (term != null)
+			params.add(PARAM_TERM, term);
+		if (regex)
+			params.add(PARAM_REGEX, regex);
+		if (caseSensitive)
+			params.add(PARAM_CASE_SENSITIVE, caseSensitive);
+		return params;
+	}
+	
+	private static class ProjectHits implements Serializable {
+		
+		final Long projectId;
+		
+		final String projectName;
+		
+		final String revision;
+		
+		final ArrayList<QueryHit> hits;
+		
+		ProjectHits(Long projectId, String projectName, String revision, ArrayList<QueryHit> hits) {
+			this.projectId = projectId;
+			this.projectName = projectName;
+			this.revision = revision;
+			this.hits = hits;
+		}
+		
+	}
+	
+}
@@ -2,12 +2,13 @@ package io.onedev.server.web.websocket;
 
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -26,8 +27,6 @@ import org.quartz.SimpleScheduleBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.google.common.collect.Sets;
-
 import io.onedev.commons.launcher.loader.Listen;
 import io.onedev.commons.utils.StringUtils;
 import io.onedev.server.event.system.SystemStarted;
@@ -43,6 +42,9 @@ public class DefaultWebSocketManager implements WebSocketManager {
 
 	private static final Logger logger = LoggerFactory.getLogger(DefaultWebSocketManager.class);
 	
+	// observables changed within this window are sent to a page in a single message
+	private static final int FLUSH_INTERVAL = 100;
+	
 	private final Application application;
 	
 	private final TransactionManager transactionManager;
@@ -51,26 +53,37 @@ public class DefaultWebSocketManager implements WebSocketManager {
 	
 	private final TaskScheduler taskScheduler;
 	
-	private final ExecutorService executorService;
-	
 	private final Map<String, Map<IKey, Collection<String>>> registeredObservables = new ConcurrentHashMap<>();
 	
 	private final IWebSocketConnectionRegistry connectionRegistry = new SimpleWebSocketConnectionRegistry();
 	
 	private final Map<String, Date> notifiedObservables = new ConcurrentHashMap<>();
 	
+	// inverted index of registeredObservables, guarded by itself for modification
+	private final Map<String, Set<PageKey>> observers = new ConcurrentHashMap<>();
+	
+	// observables pending to be sent to each page, keyed by page, guarded by itself
+	private final Map<PageKey, PendingNotification> pendingNotifications = new HashMap<>();
+	
+	private final AtomicLong sentMessages = new AtomicLong(0);
+	
+	private final AtomicLong sentObservables = new AtomicLong(0);
+	
+	private final AtomicLong fanOutNanos = new AtomicLong(0);
+	
 	private String keepAliveTaskId;
 
 	private String notifiedObservableCleanupTaskId;
 	
+	private volatile Thread dispatcher;
+	
 	@Inject
 	public DefaultWebSocketManager(Application application, TransactionManager transactionManager, 
-			WebSocketPolicy webSocketPolicy, TaskScheduler taskScheduler, ExecutorService executorService) {
+			WebSocketPolicy webSocketPolicy, TaskScheduler taskScheduler) {
 		this.application = application;
 		this.transactionManager = transactionManager;
 		this.webSocketPolicy = webSocketPolicy;
 		this.taskScheduler = taskScheduler;
-		this.executorService = executorService;
 	}
 	
 	@Override
@@ -84,7 +97,25 @@ public class DefaultWebSocketManager implements WebSocketManager {
 			}
 			IKey pageKey = new PageIdKey(page.getPageId());
 			Collection<String> observables = page.findWebSocketObservables();
-			Collection<String> prevObservables = sessionPages.put(pageKey, observables);
+			Collection<String> prevObservables;
+			synchronized (observers) {
+				prevObservables = sessionPages.put(pageKey, observables);
+				PageKey observer = new PageKey(sessionId, pageKey);
+				if (prevObservables != null) {
+					for (String observable: prevObservables) {
+						if (!observables.contains(observable))
+							removeObserver(observable, observer);
+					}
+				}
+				for (String observable: observables) {
+					Set<PageKey> observablePages = observers.get(observable);
+					if (observablePages == null) {
+						observablePages = ConcurrentHashMap.newKeySet();
+						observers.put(observable, observablePages);
+					}
+					observablePages.add(observer);
+				}
+			}
 			if (prevObservables != null && !prevObservables.containsAll(observables)) {
 				IWebSocketConnection connection = connectionRegistry.getConnection(application, sessionId, pageKey);
 				if (connection != null)
@@ -95,7 +126,28 @@ public class DefaultWebSocketManager implements WebSocketManager {
 	
 	@Override
 	public void onDestroySession(String sessionId) {
-		registeredObservables.remove(sessionId);
+		synchronized (observers) {
+			Map<IKey, Collection<String>> sessionPages = registeredObservables.remove(sessionId);
+			if (sessionPages != null) {
+				for (Map.Entry<IKey, Collection<String>> entry: sessionPages.entrySet()) {
+					PageKey observer = new PageKey(sessionId, entry.getKey());
+					for (String observable: entry.getValue())
+						removeObserver(observable, observer);
+					synchronized (pendingNotifications) {
+						pendingNotifications.remove(observer);
+					}
+				}
+			}
+		}
+	}
+	
+	private void removeObserver(String observable, PageKey observer) {
+		Set<PageKey> observablePages = observers.get(observable);
+		if (observablePages != null) {
+			observablePages.remove(observer);
+			if (observablePages.isEmpty())
+				observers.remove(observable);
+		}
 	}
 	
 	@Nullable
@@ -128,26 +180,78 @@ public class DefaultWebSocketManager implements WebSocketManager {
 
 			@Override
 			public void run() {
-				executorService.execute(new Runnable() {
-
-					@Override
-					public void run() {
-						notifiedObservables.put(observable, new Date());
-						for (IWebSocketConnection connection: connectionRegistry.getConnections(application)) {
-							Collection<String> registeredObservables = getRegisteredObservables(connection); 
-							if (registeredObservables != null && registeredObservables.contains(observable))
-								notifyObservables(connection, Sets.newHashSet(observable));
-						}
-					}
-					
-				});
+				notifiedObservables.put(observable, new Date());
+				Set<PageKey> observablePages = observers.get(observable);
+				if (observablePages != null) {
+					for (PageKey observer: observablePages)
+						queueNotification(observer, observable);
+				}
 			}
 			
 		});
 	}
 	
+	/*
+	 * Observables queued for a page are sent by the dispatcher thread after the flush
+	 * interval, so that a burst of changes results in a single message per page
+	 */
+	private void queueNotification(PageKey observer, String observable) {
+		synchronized (pendingNotifications) {
+			if (pendingNotifications.isEmpty())
+				pendingNotifications.notify();
+			PendingNotification pending = pendingNotifications.get(observer);
+			if (pending == null) {
+				pending = new PendingNotification();
+				pendingNotifications.put(observer, pending);
+			}
+			pending.observables.add(observable);
+		}
+	}
+	
+	private void dispatchNotifications() {
+		while (dispatcher != null) {
+			try {
+				synchronized (pendingNotifications) {
+					while (dispatcher != null && pendingNotifications.isEmpty())
+						pendingNotifications.wait();
+				}
+				Thread.sleep(FLUSH_INTERVAL);
+			} catch (InterruptedException e) {
+				continue;
+			}
+			
+			Map<PageKey, PendingNotification> notifications;
+			synchronized (pendingNotifications) {
+				notifications = new HashMap<>(pendingNotifications);
+				pendingNotifications.clear();
+			}
+			for (Map.Entry<PageKey, PendingNotification> entry: notifications.entrySet()) {
+				PageKey observer = entry.getKey();
+				PendingNotification pending = entry.getValue();
+				IWebSocketConnection connection = connectionRegistry.getConnection(
+						application, observer.getSessionId(), observer.getPageId());
+				if (connection != null && connection.isOpen()) {
+					notifyObservables(connection, pending.observables);
+					sentMessages.incrementAndGet();
+					sentObservables.addAndGet(pending.observables.size());
+					fanOutNanos.addAndGet(System.nanoTime() - pending.timestamp);
+				}
+			}
+		}
+	}
+	
 	@Listen
 	public void on(SystemStarted event) {
+		dispatcher = new Thread(new Runnable() {
+
+			@Override
+			public void run() {
+				dispatchNotifications();
+			}
+			
+		}, "Websocket Notification Dispatcher");
+		dispatcher.start();
+		
 		keepAliveTaskId = taskScheduler.schedule(new SchedulableTask() {
 			
 			@Override
@@ -185,6 +289,16 @@ public class DefaultWebSocketManager implements WebSocketManager {
 					if (it.next().getValue().before(threshold))
 						it.remove();
 				}
+				
+				long messages = sentMessages.getAndSet(0);
+				long observables = sentObservables.getAndSet(0);
+				long nanos = fanOutNanos.getAndSet(0);
+				if (messages != 0 && logger.isDebugEnabled()) {
+					logger.debug("Websocket notifications (messages/s: {}, observables/message: {}, "
+							+ "average fan-out latency: {} ms)", 
+							messages/TOLERATE_SECONDS, (double)observables/messages, 
+							nanos/messages/1000000);
+				}
 			}
 			
 		});
@@ -194,6 +308,11 @@ public class DefaultWebSocketManager implements WebSocketManager {
 	public void on(SystemStopping event) {
 		taskScheduler.unschedule(keepAliveTaskId);
 		taskScheduler.unschedule(notifiedObservableCleanupTaskId);
+		
+		Thread dispatcher = this.dispatcher;
+		this.dispatcher = null;
+		if (dispatcher != null)
+			dispatcher.interrupt();
 	}
 	
 	/**
@@ -208,6 +327,14 @@ public class DefaultWebSocketManager implements WebSocketManager {
 		notifyPastObservables(connection);
 	}
 
+	private static class PendingNotification {
+		
+		final long timestamp = System.nanoTime();
+		
+		final Set<String> observables = new HashSet<>();
+		
+	}
+	
 	private void notifyPastObservables(IWebSocketConnection connection) {
 		Collection<String> registeredObservables = getRegisteredObservables(connection);
 		if (registeredObservables != null) {
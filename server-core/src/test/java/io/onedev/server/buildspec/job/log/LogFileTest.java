@@ -0,0 +1,100 @@
+package io.onedev.server.buildspec.job.log;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+import io.onedev.commons.utils.FileUtils;
+
+public class LogFileTest {
+
+	@Test
+	public void test() {
+		File tempDir = FileUtils.createTempDir();
+		try {
+			LogFile logFile = new LogFile(new File(tempDir, "log.data"), new File(tempDir, "log.index"));
+			assertEquals(0, logFile.count());
+			assertEquals(0, logFile.read(0, 0).size());
+			
+			List<JobLogEntry> entries = new ArrayList<>();
+			for (int i=0; i<2500; i++) 
+				entries.add(new JobLogEntry(new Date(i), "message " + i));
+			logFile.append(entries.subList(0, 999));
+			logFile.append(entries.subList(999, 1000));
+			logFile.append(entries.subList(1000, 2500));
+			
+			assertEquals(2500, logFile.count());
+			
+			List<JobLogEntry> read = logFile.read(0, 0);
+			assertEquals(2500, read.size());
+			assertEquals("message 0", read.get(0).getMessage());
+			assertEquals(2499L, read.get(2499).getDate().getTime());
+			
+			read = logFile.read(1999, 3);
+			assertEquals(3, read.size());
+			assertEquals("message 1999", read.get(0).getMessage());
+			assertEquals("message 2001", read.get(2).getMessage());
+			
+			read = logFile.read(2400, 0);
+			assertEquals(100, read.size());
+			assertEquals("message 2400", read.get(0).getMessage());
+			
+			assertEquals(0, logFile.read(2500, 0).size());
+			assertEquals(0, logFile.read(5000, 10).size());
+		} finally {
+			FileUtils.deleteDir(tempDir);
+		}
+	}
+	
+	@Test
+	public void shouldRecoverFromPartialAppend() throws Exception {
+		File tempDir = FileUtils.createTempDir();
+		try {
+			File dataFile = new File(tempDir, "log.data");
+			File indexFile = new File(tempDir, "log.index");
+			LogFile logFile = new LogFile(dataFile, indexFile);
+			
+			List<JobLogEntry> entries = new ArrayList<>();
+			for (int i=0; i<1500; i++) 
+				entries.add(new JobLogEntry(new Date(i), "message " + i));
+			logFile.append(entries.subList(0, 1200));
+			
+			// partially written entry
+			try (FileOutputStream os = new FileOutputStream(dataFile, true)) {
+				os.write(new byte[] {0, 0, 0, 0, 0, 0, 1});
+			}
+			logFile.append(entries.subList(1200, 1300));
+			assertEquals(1300, logFile.count());
+			assertEquals("message 1200", logFile.read(1200, 1).get(0).getMessage());
+			
+			// index record without entry
+			try (RandomAccessFile indexAccess = new RandomAccessFile(indexFile, "rw")) {
+				indexAccess.seek(indexAccess.length());
+				indexAccess.writeLong(dataFile.length());
+			}
+			logFile.append(entries.subList(1300, 1400));
+			assertEquals(1400, logFile.count());
+			assertEquals("message 1399", logFile.read(1399, 1).get(0).getMessage());
+			
+			// entries without index record are discarded
+			try (RandomAccessFile indexAccess = new RandomAccessFile(indexFile, "rw")) {
+				indexAccess.setLength(Long.BYTES);
+			}
+			logFile.append(entries.subList(1000, 1500));
+			assertEquals(1500, logFile.count());
+			List<JobLogEntry> read = logFile.read(0, 0);
+			for (int i=0; i<1500; i++)
+				assertEquals("message " + i, read.get(i).getMessage());
+		} finally {
+			FileUtils.deleteDir(tempDir);
+		}
+	}
+	
+}
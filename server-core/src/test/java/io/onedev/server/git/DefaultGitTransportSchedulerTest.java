@@ -0,0 +1,151 @@
+package io.onedev.server.git;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import io.onedev.server.git.exception.ServerBusyException;
+
+public class DefaultGitTransportSchedulerTest {
+
+	private ExecutorService executor;
+
+	private final CountDownLatch finish = new CountDownLatch(1);
+
+	@Before
+	public void before() {
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@After
+	public void after() {
+		finish.countDown();
+		executor.shutdownNow();
+	}
+
+	/*
+	 * Submit a git request which holds its admission until the test finishes
+	 */
+	private CountDownLatch hold(GitTransportScheduler scheduler, Long userId, String remoteAddress, Long projectId) {
+		CountDownLatch started = new CountDownLatch(1);
+		executor.submit(new Callable<Void>() {
+
+			@Override
+			public Void call() throws Exception {
+				return scheduler.call(userId, remoteAddress, projectId, new Callable<Void>() {
+
+					@Override
+					public Void call() throws Exception {
+						started.countDown();
+						finish.await();
+						return null;
+					}
+
+				});
+			}
+
+		});
+		return started;
+	}
+
+	private Future<String> submit(GitTransportScheduler scheduler, Long userId, String remoteAddress, Long projectId) {
+		return executor.submit(new Callable<String>() {
+
+			@Override
+			public String call() throws Exception {
+				return scheduler.call(userId, remoteAddress, projectId, new Callable<String>() {
+
+					@Override
+					public String call() throws Exception {
+						return "done";
+					}
+
+				});
+			}
+
+		});
+	}
+
+	@Test
+	public void shouldQueueRequestsPastLimit() throws Exception {
+		GitTransportScheduler scheduler = new DefaultGitTransportScheduler(2, 2, 2);
+		assertTrue(hold(scheduler, 1L, null, 1L).await(5, TimeUnit.SECONDS));
+		assertTrue(hold(scheduler, 2L, null, 2L).await(5, TimeUnit.SECONDS));
+
+		Future<String> queued = submit(scheduler, 3L, null, 3L);
+		Thread.sleep(200);
+		assertFalse(queued.isDone());
+
+		finish.countDown();
+		assertEquals("done", queued.get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void shouldRejectRequestsOverUserQuota() throws Exception {
+		GitTransportScheduler scheduler = new DefaultGitTransportScheduler(4, 1, 4,
+				TimeUnit.MILLISECONDS.toNanos(500));
+		assertTrue(hold(scheduler, 1L, null, 1L).await(5, TimeUnit.SECONDS));
+
+		// requests of other users are not held up by the exhausted quota
+		assertEquals("done", submit(scheduler, 2L, null, 1L).get(5, TimeUnit.SECONDS));
+
+		try {
+			submit(scheduler, 1L, null, 2L).get(5, TimeUnit.SECONDS);
+			fail("Request over user quota should be rejected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ServerBusyException);
+		}
+	}
+
+	@Test
+	public void shouldReleaseAdmissionOnFailure() throws Exception {
+		GitTransportScheduler scheduler = new DefaultGitTransportScheduler(1, 1, 1,
+				TimeUnit.MILLISECONDS.toNanos(500));
+		try {
+			scheduler.call(1L, null, 1L, new Callable<Void>() {
+
+				@Override
+				public Void call() throws Exception {
+					throw new IllegalStateException("failed");
+				}
+
+			});
+			fail("Exception of the task should be propagated");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IllegalStateException);
+		}
+
+		assertEquals("done", submit(scheduler, 1L, null, 1L).get(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void shouldAccountAnonymousRequestsByAddress() throws Exception {
+		GitTransportScheduler scheduler = new DefaultGitTransportScheduler(4, 1, 4,
+				TimeUnit.MILLISECONDS.toNanos(500));
+		assertTrue(hold(scheduler, 0L, "10.0.0.1", 1L).await(5, TimeUnit.SECONDS));
+
+		// anonymous requests from other addresses are not held up by the exhausted quota
+		assertEquals("done", submit(scheduler, 0L, "10.0.0.2", 1L).get(5, TimeUnit.SECONDS));
+
+		try {
+			submit(scheduler, 0L, "10.0.0.1", 2L).get(5, TimeUnit.SECONDS);
+			fail("Anonymous request over quota of its address should be rejected");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof ServerBusyException);
+		}
+	}
+
+}
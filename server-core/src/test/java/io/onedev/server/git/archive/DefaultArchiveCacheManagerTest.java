@@ -0,0 +1,100 @@
+package io.onedev.server.git.archive;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import io.onedev.commons.launcher.bootstrap.Bootstrap;
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.git.AbstractGitTest;
+import io.onedev.server.model.Project;
+import io.onedev.server.util.schedule.TaskScheduler;
+
+public class DefaultArchiveCacheManagerTest extends AbstractGitTest {
+
+	private File installDir;
+	
+	private ExecutorService executor;
+	
+	@Override
+	protected void setup() {
+		super.setup();
+		installDir = FileUtils.createTempDir();
+		Bootstrap.installDir = installDir;
+		executor = Executors.newCachedThreadPool();
+	}
+
+	@Override
+	protected void teardown() {
+		executor.shutdownNow();
+		FileUtils.deleteDir(installDir);
+		super.teardown();
+	}
+
+	@Test
+	public void shouldShareConcurrentGeneration() throws Exception {
+		StringBuilder content = new StringBuilder();
+		for (int i=0; i<10000; i++)
+			content.append("line " + i + "\n");
+		addFileAndCommit("file", content.toString(), "commit");
+		ObjectId commitId = git.getRepository().resolve("master");
+		
+		Project project = Mockito.mock(Project.class);
+		Mockito.when(project.getRepository()).thenReturn(git.getRepository());
+		ExecutorService generationExecutor = Mockito.spy(executor);
+		DefaultArchiveCacheManager archiveCacheManager = new DefaultArchiveCacheManager(
+				Mockito.mock(TaskScheduler.class), generationExecutor);
+		
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<byte[]>> futures = new ArrayList<>();
+		for (int i=0; i<8; i++) {
+			futures.add(executor.submit(new Callable<byte[]>() {
+
+				@Override
+				public byte[] call() throws Exception {
+					start.await();
+					try (InputStream is = archiveCacheManager.generateArchive(project, commitId, "zip")) {
+						return IOUtils.toByteArray(is);
+					}
+				}
+				
+			}));
+		}
+		start.countDown();
+		
+		byte[] archive = futures.get(0).get(30, TimeUnit.SECONDS);
+		assertTrue(archive.length != 0);
+		for (Future<byte[]> future: futures)
+			assertArrayEquals(archive, future.get(30, TimeUnit.SECONDS));
+		
+		try (FileChannel channel = archiveCacheManager.openArchive(commitId, "zip")) {
+			assertNotNull(channel);
+			assertEquals(archive.length, channel.size());
+		}
+		
+		Mockito.verify(generationExecutor, Mockito.times(1)).execute(Mockito.any(Runnable.class));
+		
+		// temp file of the generation is moved in place
+		File cacheDir = new File(Bootstrap.getSiteDir(), "cache/archive/" + commitId.name().substring(0, 2));
+		assertEquals(1, cacheDir.list().length);
+	}
+	
+}
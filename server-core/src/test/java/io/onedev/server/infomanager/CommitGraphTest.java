@@ -0,0 +1,122 @@
+package io.onedev.server.infomanager;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import io.onedev.commons.utils.FileUtils;
+
+public class CommitGraphTest {
+
+	private ObjectId id(int value) {
+		return ObjectId.fromString(String.format("%040x", value));
+	}
+	
+	@Test
+	public void test() {
+		/*
+		 * 1 <- 2 <- 3 <- 5
+		 *        \      /
+		 *         <- 4 
+		 */
+		CommitGraph graph = new CommitGraph();
+		graph.addCommit(id(5), Lists.newArrayList(id(3), id(4)));
+		graph.addCommit(id(4), Lists.newArrayList(id(2)));
+		graph.addCommit(id(3), Lists.newArrayList(id(2)));
+		graph.addCommit(id(2), Lists.newArrayList(id(1)));
+		graph.addCommit(id(1), Lists.newArrayList());
+		
+		assertEquals(5, graph.size());
+		assertEquals(Sets.newHashSet(id(2), id(3), id(4), id(5)), graph.getDescendants(Lists.newArrayList(id(2))));
+		assertEquals(Sets.newHashSet(id(4), id(5)), graph.getDescendants(Lists.newArrayList(id(4))));
+		assertEquals(Sets.newHashSet(id(1), id(2), id(4)), graph.getAncestors(Lists.newArrayList(id(4))));
+		assertTrue(graph.isAncestor(id(1), id(5)));
+		assertFalse(graph.isAncestor(id(3), id(4)));
+		assertNull(graph.isAncestor(id(6), id(5)));
+		
+		assertFalse(graph.addCommit(id(5), Lists.newArrayList(id(3))));
+		
+		assertEquals(1, graph.getGeneration(id(1)));
+		assertEquals(3, graph.getGeneration(id(4)));
+		assertEquals(4, graph.getGeneration(id(5)));
+		assertEquals(id(2), graph.getMergeBase(id(3), id(4)).get());
+		assertEquals(id(4), graph.getMergeBase(id(4), id(5)).get());
+		assertNull(graph.getMergeBase(id(4), id(6)));
+		
+		File file = new File(FileUtils.createTempDir(), "graph");
+		try {
+			graph.save(file, id(5));
+			assertNull(CommitGraph.load(file, id(4)));
+			CommitGraph loaded = CommitGraph.load(file, id(5));
+			assertEquals(5, loaded.size());
+			assertEquals(Sets.newHashSet(id(2), id(3), id(4), id(5)), loaded.getDescendants(Lists.newArrayList(id(2))));
+			assertTrue(loaded.isAncestor(id(1), id(5)));
+		} finally {
+			FileUtils.deleteDir(file.getParentFile());
+		}
+	}
+
+	@Test
+	public void testIncrementalSave() {
+		File file = new File(FileUtils.createTempDir(), "graph");
+		try {
+			CommitGraph graph = new CommitGraph();
+			graph.addCommit(id(2), Lists.newArrayList(id(1)));
+			graph.save(file, id(2));
+			long length = file.length();
+			
+			graph.addCommit(id(1), Lists.newArrayList());
+			graph.addCommit(id(3), Lists.newArrayList(id(2)));
+			graph.save(file, id(3));
+			assertTrue(file.length() > length);
+			assertNull(CommitGraph.load(file, id(2)));
+			
+			CommitGraph loaded = CommitGraph.load(file, id(3));
+			assertEquals(3, loaded.size());
+			assertEquals(3, loaded.getGeneration(id(3)));
+			
+			loaded.addCommit(id(4), Lists.newArrayList(id(3)));
+			loaded.save(file, id(4));
+			loaded = CommitGraph.load(file, id(4));
+			assertEquals(4, loaded.getGeneration(id(4)));
+			assertEquals(Sets.newHashSet(id(2), id(3), id(4)), loaded.getDescendants(Lists.newArrayList(id(2))));
+		} finally {
+			FileUtils.deleteDir(file.getParentFile());
+		}
+	}
+	
+	@Test
+	public void testIncomplete() {
+		CommitGraph graph = new CommitGraph();
+		graph.addCommit(id(3), Lists.newArrayList(id(2)));
+		graph.addCommit(id(2), Lists.newArrayList(id(1)));
+		graph.addCommit(id(10), Lists.newArrayList());
+		
+		assertEquals(0, graph.getGeneration(id(3)));
+		assertNull(graph.getMergeBase(id(3), id(2)));
+		assertTrue(graph.isAncestor(id(1), id(3)));
+		assertNull(graph.isAncestor(id(10), id(3)));
+		
+		graph.addCommit(id(1), Lists.newArrayList());
+		assertEquals(3, graph.getGeneration(id(3)));
+		assertFalse(graph.isAncestor(id(10), id(3)));
+		assertFalse(graph.getMergeBase(id(10), id(3)).isPresent());
+	}
+	
+	@Test
+	public void testGrow() {
+		CommitGraph graph = new CommitGraph();
+		for (int i=1; i<5000; i++)
+			graph.addCommit(id(i+1), Lists.newArrayList(id(i)));
+		assertEquals(5000, graph.size());
+		assertEquals(5000, graph.getDescendants(Lists.newArrayList(id(1))).size());
+		assertTrue(graph.isAncestor(id(1), id(5000)));
+	}
+	
+}
@@ -0,0 +1,119 @@
+package io.onedev.server.migration;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dom4j.Element;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import io.onedev.commons.utils.FileUtils;
+
+public class XmlDataFilesTest {
+
+	@Test
+	public void test() throws Exception {
+		File tempDir = FileUtils.createTempDir();
+		try {
+			FileUtils.writeStringToFile(new File(tempDir, "Projects.xml"), ""
+					+ "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+					+ "<list>"
+					+ "<io.onedev.server.model.Project revision=\"1\"><id>1</id><name>a &amp; b</name></io.onedev.server.model.Project>"
+					+ "<io.onedev.server.model.Project revision=\"1\"><id>2</id><name>c</name></io.onedev.server.model.Project>"
+					+ "</list>", StandardCharsets.UTF_8);
+			FileUtils.writeStringToFile(new File(tempDir, "Users.xml"), ""
+					+ "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+					+ "<list><io.onedev.server.model.User><id>1</id></io.onedev.server.model.User></list>",
+					StandardCharsets.UTF_8);
+
+			XmlDataFiles.transform(tempDir, new ElementTransformer() {
+
+				@Override
+				public boolean isApplicable(String fileName) {
+					return fileName.startsWith("Projects.xml");
+				}
+
+				@Override
+				public boolean transform(String fileName, Element element) {
+					element.addElement("description").setText("<none>");
+					return !element.elementTextTrim("id").equals("2");
+				}
+
+			});
+
+			AtomicInteger count = new AtomicInteger(0);
+			XmlDataFiles.scan(tempDir, new ElementTransformer() {
+
+				@Override
+				public boolean isApplicable(String fileName) {
+					return true;
+				}
+
+				@Override
+				public boolean transform(String fileName, Element element) {
+					count.incrementAndGet();
+					return true;
+				}
+
+			});
+			assertEquals(2, count.get());
+
+			try (EntityXmlReader reader = new EntityXmlReader(new File(tempDir, "Projects.xml"))) {
+				assertEquals("list", reader.getRootName());
+				Element element = reader.next();
+				assertEquals("1", element.attributeValue("revision"));
+				assertEquals("a & b", element.elementText("name"));
+				assertEquals("<none>", element.elementText("description"));
+				assertNull(reader.next());
+			}
+		} finally {
+			FileUtils.deleteDir(tempDir);
+		}
+	}
+
+	@Test
+	public void shouldProcessPartsInOrder() throws Exception {
+		File tempDir = FileUtils.createTempDir();
+		try {
+			for (int part = 0; part < 3; part++) {
+				String fileName = part != 0? "Issues.xml." + part: "Issues.xml";
+				FileUtils.writeStringToFile(new File(tempDir, fileName), ""
+						+ "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+						+ "<list>"
+						+ "<io.onedev.server.model.Issue><id>" + (part*2+1) + "</id></io.onedev.server.model.Issue>"
+						+ "<io.onedev.server.model.Issue><id>" + (part*2+2) + "</id></io.onedev.server.model.Issue>"
+						+ "</list>", StandardCharsets.UTF_8);
+			}
+
+			List<String> ids = new ArrayList<>();
+			XmlDataFiles.transform(tempDir, new ElementTransformer() {
+
+				@Override
+				public boolean isApplicable(String fileName) {
+					return fileName.startsWith("Issues.xml");
+				}
+
+				@Override
+				public boolean transform(String fileName, Element element) {
+					ids.add(element.elementTextTrim("id"));
+					return true;
+				}
+
+			});
+			assertEquals(Lists.newArrayList("1", "2", "3", "4", "5", "6"), ids);
+			assertEquals(Sets.newHashSet("Issues.xml", "Issues.xml.1", "Issues.xml.2"),
+					Sets.newHashSet(tempDir.list()));
+		} finally {
+			FileUtils.deleteDir(tempDir);
+		}
+	}
+
+}
@@ -0,0 +1,201 @@
+package io.onedev.server.notification;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.onedev.commons.utils.FileUtils;
+import io.onedev.server.model.support.WebHook;
+
+public class WebHookDispatcherTest {
+
+	private HttpServer server;
+
+	private ExecutorService executor;
+
+	private File outboxDir;
+
+	private final List<String> payloads = new CopyOnWriteArrayList<>();
+
+	private final List<String> signatures = new CopyOnWriteArrayList<>();
+
+	private final AtomicInteger attempts = new AtomicInteger();
+
+	private final AtomicInteger resolves = new AtomicInteger();
+
+	private final AtomicInteger active = new AtomicInteger();
+
+	private final AtomicInteger maxActive = new AtomicInteger();
+
+	@Before
+	public void before() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", this::handle);
+		server.start();
+		executor = Executors.newCachedThreadPool();
+		outboxDir = FileUtils.createTempDir("outbox");
+	}
+
+	@After
+	public void after() {
+		server.stop(0);
+		executor.shutdownNow();
+		FileUtils.deleteDir(outboxDir);
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		int current = active.incrementAndGet();
+		maxActive.accumulateAndGet(current, Math::max);
+		try {
+			Thread.sleep(50);
+			String payload = IOUtils.toString(exchange.getRequestBody(), StandardCharsets.UTF_8);
+			int statusCode;
+			if (payload.startsWith("fail") && attempts.getAndIncrement() < 2) {
+				statusCode = 500;
+			} else {
+				payloads.add(payload);
+				signatures.add(exchange.getRequestHeaders().getFirst(WebHookDispatcher.SIGNATURE_HEAD));
+				statusCode = 200;
+			}
+			// leave before responding, as dispatcher may start next request once response is received
+			active.decrementAndGet();
+			exchange.sendResponseHeaders(statusCode, -1);
+		} catch (InterruptedException e) {
+			active.decrementAndGet();
+			throw new RuntimeException(e);
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private String getPostUrl() {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + "/hook";
+	}
+
+	private WebHookDispatcher newDispatcher() {
+		return new WebHookDispatcher(executor, outboxDir, 10, new WebHookDispatcher.WebHookResolver() {
+
+			@Override
+			public WebHook getWebHook(Long projectId, String postUrl) {
+				resolves.incrementAndGet();
+				WebHook webHook = new WebHook();
+				webHook.setPostUrl(postUrl);
+				webHook.setSecret("secret");
+				return webHook;
+			}
+
+		});
+	}
+
+	private void waitFor(int payloadCount, WebHookDispatcher dispatcher) throws InterruptedException {
+		long time = System.currentTimeMillis();
+		while ((payloads.size() < payloadCount || dispatcher.getQueueDepth() != 0)
+				&& System.currentTimeMillis() - time < 10000) {
+			Thread.sleep(10);
+		}
+	}
+
+	@Test
+	public void shouldRetryFailedDelivery() throws InterruptedException {
+		WebHookDispatcher dispatcher = newDispatcher();
+		dispatcher.start();
+		try {
+			dispatcher.dispatch(1L, getPostUrl(), "fail once");
+			waitFor(1, dispatcher);
+			assertEquals(3, attempts.get());
+			assertEquals("fail once", payloads.get(0));
+			assertEquals("secret", signatures.get(0));
+			assertEquals(0, outboxDir.listFiles().length);
+		} finally {
+			dispatcher.stop();
+		}
+	}
+
+	@Test
+	public void shouldLimitConcurrencyPerEndpoint() throws InterruptedException {
+		WebHookDispatcher dispatcher = newDispatcher();
+		dispatcher.start();
+		try {
+			for (int i=0; i<20; i++)
+				dispatcher.dispatch(1L, getPostUrl(), "event" + i);
+			waitFor(20, dispatcher);
+			assertEquals(20, payloads.size());
+			assertTrue(maxActive.get() <= WebHookDispatcher.MAX_ENDPOINT_CONCURRENCY);
+		} finally {
+			dispatcher.stop();
+		}
+	}
+
+	@Test
+	public void shouldDeliverPersistedDeliveriesAfterRestart() throws InterruptedException {
+		WebHookDispatcher dispatcher = newDispatcher();
+		dispatcher.dispatch(1L, getPostUrl(), "event");
+		assertEquals(1, outboxDir.listFiles().length);
+		dispatcher.stop();
+
+		dispatcher = newDispatcher();
+		dispatcher.start();
+		try {
+			waitFor(1, dispatcher);
+			Thread.sleep(100);
+			assertEquals(1, payloads.size());
+			assertEquals("event", payloads.get(0));
+			assertEquals(0, outboxDir.listFiles().length);
+		} finally {
+			dispatcher.stop();
+		}
+	}
+
+	@Test
+	public void shouldNotPersistSecret() throws IOException {
+		WebHookDispatcher dispatcher = newDispatcher();
+		dispatcher.dispatch(1L, getPostUrl(), "event");
+		dispatcher.stop();
+
+		File[] files = outboxDir.listFiles();
+		assertEquals(1, files.length);
+		String content = new String(Files.readAllBytes(files[0].toPath()), StandardCharsets.ISO_8859_1);
+		assertTrue(content.contains("event"));
+		assertFalse(content.contains("secret"));
+	}
+
+	@Test
+	public void shouldNotRetryMalformedPostUrl() throws InterruptedException {
+		WebHookDispatcher dispatcher = newDispatcher();
+		dispatcher.start();
+		try {
+			dispatcher.dispatch(1L, "http://bad url", "event");
+			long time = System.currentTimeMillis();
+			while ((outboxDir.listFiles().length != 0 || dispatcher.getQueueDepth() != 0)
+					&& System.currentTimeMillis() - time < 10000) {
+				Thread.sleep(10);
+			}
+			Thread.sleep(100);
+			assertEquals(1, resolves.get());
+			assertEquals(0, outboxDir.listFiles().length);
+		} finally {
+			dispatcher.stop();
+		}
+	}
+
+}
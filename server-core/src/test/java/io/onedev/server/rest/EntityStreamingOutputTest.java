@@ -0,0 +1,42 @@
+package io.onedev.server.rest;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.Sets;
+
+import io.onedev.server.model.User;
+import io.onedev.server.util.jackson.ObjectMapperProvider;
+
+public class EntityStreamingOutputTest {
+
+	@Test
+	public void shouldNotStreamPassword() throws Exception {
+		ObjectMapper objectMapper = new ObjectMapperProvider(Sets.newHashSet()).get();
+
+		User user = new User();
+		user.setId(2L);
+		user.setName("robin");
+		user.setPassword("secret-hash");
+
+		String json = new String(EntityStreamingOutput.newObjectWriter(objectMapper).writeValueAsBytes(user),
+				StandardCharsets.UTF_8);
+		assertFalse(json.contains("\n"));
+
+		JsonNode node = objectMapper.readTree(json);
+		assertEquals("robin", node.get("name").asText());
+		assertFalse(node.has("password"));
+		assertFalse(json.contains("secret-hash"));
+
+		// the application wide mapper still includes it, for instance when backing up database
+		assertTrue(objectMapper.readTree(objectMapper.writeValueAsString(user)).has("password"));
+	}
+
+}
@@ -0,0 +1,95 @@
+package io.onedev.server.search.query.regex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import com.google.common.base.Strings;
+
+import io.onedev.server.search.code.query.regex.LinearRegex;
+
+public class LinearRegexTest {
+
+	@Test
+	public void shouldMatchSameAsJavaRegex() {
+		assertSame("abc", "xxabcxxabc", false);
+		assertSame("a.c", "abc a\rc a-c", false);
+		assertSame("colou?r", "color colour colouur", false);
+		assertSame("a+", "baaab a", false);
+		assertSame("a+?", "baaab a", false);
+		assertSame("a*", "baaab", false);
+		assertSame("<.*>", "<a><b>", false);
+		assertSame("<.*?>", "<a><b>", false);
+		assertSame("ab{2}c|ab{3,}c|x{1,2}", "abbc abbbbc xxx", false);
+		assertSame("(foo|foobar)bar?", "foobarbar foobar", false);
+		assertSame("(?:a|ab)(?:c|bcd)(d*)", "abcd", false);
+		assertSame("(?<name>\\d+)-\\d+", "tel: 123-456", false);
+		assertSame("[a-c][^a-c]\\w\\W\\s\\S", "ab_ ab c  ad1!\tx", false);
+		assertSame("[-a\\]]+", "x-a]y", false);
+		assertSame("\\bint\\b", "int print int_ int", false);
+		assertSame("\\Bin\\B", "int print inside", false);
+		assertSame("^\\s*public", "  public class", false);
+		assertSame("\\);$", "foo();\r", false);
+		assertSame("(a*)*b", "aaaab", false);
+		assertSame("(a|)+b", "aab", false);
+		assertSame("\\x41\\u0042\\t", "AB\tAB ", false);
+		assertSame("hello", "HeLLo hello", true);
+		assertSame("[a-z]+", "ABC def", true);
+		assertSame("[^a]", "aAb", true);
+		assertSame("", "abc", false);
+	}
+
+	@Test
+	public void shouldRejectUnsupportedConstructs() {
+		assertNull(LinearRegex.compile("(a)\\1", false));
+		assertNull(LinearRegex.compile("foo(?=bar)", false));
+		assertNull(LinearRegex.compile("a++", false));
+		assertNull(LinearRegex.compile("\\p{Alpha}", false));
+		assertNull(LinearRegex.compile("(abc", false));
+		assertNull(LinearRegex.compile("abc)", false));
+		assertNull(LinearRegex.compile("(a{1000}){1000}", false));
+	}
+
+	@Test
+	public void shouldNotBacktrack() {
+		LinearRegex regex = LinearRegex.compile("(a|aa)*c", false);
+		assertNotNull(regex);
+		long time = System.currentTimeMillis();
+		assertNull(regex.find(Strings.repeat("a", 1000), 0));
+		assertEquals(true, System.currentTimeMillis()-time < 5000);
+	}
+
+	private void assertSame(String regex, String input, boolean caseInsensitive) {
+		Pattern pattern;
+		if (caseInsensitive)
+			pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+		else
+			pattern = Pattern.compile(regex);
+		List<String> expected = new ArrayList<>();
+		Matcher matcher = pattern.matcher(input);
+		while (matcher.find())
+			expected.add(matcher.start() + "-" + matcher.end());
+
+		LinearRegex linearRegex = LinearRegex.compile(regex, caseInsensitive);
+		assertNotNull(linearRegex);
+		List<String> actual = new ArrayList<>();
+		int from = 0;
+		int[] match;
+		while (from <= input.length() && (match = linearRegex.find(input, from)) != null) {
+			actual.add(match[0] + "-" + match[1]);
+			if (match[1] > match[0])
+				from = match[1];
+			else
+				from = match[1] + 1;
+		}
+		assertEquals(regex, expected, actual);
+	}
+
+}
@@ -0,0 +1,198 @@
+package io.onedev.server.security;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+
+import org.hibernate.Transaction;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.collect.Sets;
+
+import io.onedev.server.entitymanager.GroupManager;
+import io.onedev.server.entitymanager.SettingManager;
+import io.onedev.server.entitymanager.UserManager;
+import io.onedev.server.event.entity.EntityPersisted;
+import io.onedev.server.event.entity.EntityRemoved;
+import io.onedev.server.model.Group;
+import io.onedev.server.model.GroupAuthorization;
+import io.onedev.server.model.Membership;
+import io.onedev.server.model.Project;
+import io.onedev.server.model.Role;
+import io.onedev.server.model.User;
+import io.onedev.server.model.support.role.CodePrivilege;
+import io.onedev.server.model.support.role.NoneIssueFields;
+import io.onedev.server.persistence.SessionManager;
+import io.onedev.server.persistence.TransactionManager;
+import io.onedev.server.persistence.dao.Dao;
+import io.onedev.server.security.permission.ProjectPermission;
+import io.onedev.server.security.permission.ReadCode;
+
+public class DefaultAuthorizationManagerTest {
+
+	private static final Long USER_ID = 2L;
+
+	private final Collection<Membership> memberships = new ArrayList<>();
+
+	private DefaultAuthorizationManager authorizationManager;
+
+	private Project project;
+
+	private Role role;
+
+	private Group group;
+
+	private Membership membership;
+
+	private Transaction transaction;
+
+	@Before
+	public void before() {
+		project = new Project();
+		project.setId(1L);
+
+		role = new Role();
+		role.setId(1L);
+		role.setCodePrivilege(CodePrivilege.READ);
+		role.setEditableIssueFields(new NoneIssueFields());
+
+		group = new Group();
+		group.setId(1L);
+		GroupAuthorization authorization = new GroupAuthorization();
+		authorization.setGroup(group);
+		authorization.setProject(project);
+		authorization.setRole(role);
+		group.getProjectAuthorizations().add(authorization);
+
+		User user = new User();
+		user.setId(USER_ID);
+		membership = new Membership();
+		membership.setUser(user);
+		membership.setGroup(group);
+		group.getMemberships().add(membership);
+		memberships.add(membership);
+
+		UserManager userManager = Mockito.mock(UserManager.class);
+		Mockito.when(userManager.load(USER_ID)).thenAnswer(new Answer<User>() {
+
+			@Override
+			public User answer(InvocationOnMock invocation) throws Throwable {
+				User user = new User();
+				user.setId(USER_ID);
+				user.setGroups(new ArrayList<>(memberships));
+				return user;
+			}
+
+		});
+
+		SessionManager sessionManager = Mockito.mock(SessionManager.class);
+		Mockito.when(sessionManager.call(Mockito.any())).thenAnswer(new Answer<Object>() {
+
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				return ((Callable<?>) invocation.getArguments()[0]).call();
+			}
+
+		});
+
+		TransactionManager transactionManager = Mockito.mock(TransactionManager.class);
+		transaction = Mockito.mock(Transaction.class);
+		Mockito.when(transactionManager.getTransaction()).thenReturn(transaction);
+		Mockito.doAnswer(new Answer<Void>() {
+
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				((Runnable) invocation.getArguments()[0]).run();
+				return null;
+			}
+
+		}).when(transactionManager).runAfterCommit(Mockito.any(Runnable.class));
+
+		authorizationManager = new DefaultAuthorizationManager(Mockito.mock(Dao.class), userManager,
+				Mockito.mock(GroupManager.class), Mockito.mock(SettingManager.class), sessionManager,
+				transactionManager);
+	}
+
+	private boolean canReadCode() {
+		return authorizationManager.isPermitted(USER_ID, new ProjectPermission(project, new ReadCode()));
+	}
+
+	@Test
+	public void shouldInvalidateOnRoleChange() {
+		assertTrue(canReadCode());
+		assertEquals(Sets.newHashSet(project.getId()), authorizationManager.getPermittedProjectIds(USER_ID, new ReadCode()));
+
+		role.setCodePrivilege(CodePrivilege.NONE);
+		assertTrue(canReadCode());
+		authorizationManager.on(new EntityPersisted(role, false));
+		assertFalse(canReadCode());
+		assertTrue(authorizationManager.getPermittedProjectIds(USER_ID, new ReadCode()).isEmpty());
+
+		role.setCodePrivilege(CodePrivilege.READ);
+		authorizationManager.on(new EntityPersisted(role, false));
+		assertTrue(canReadCode());
+
+		group.getProjectAuthorizations().clear();
+		authorizationManager.on(new EntityRemoved(role));
+		assertFalse(canReadCode());
+	}
+
+	@Test
+	public void shouldInvalidateOnMembershipChange() {
+		assertTrue(canReadCode());
+
+		memberships.clear();
+		group.getMemberships().clear();
+		assertTrue(canReadCode());
+		authorizationManager.on(new EntityRemoved(membership));
+		assertFalse(canReadCode());
+
+		memberships.add(membership);
+		group.getMemberships().add(membership);
+		authorizationManager.on(new EntityPersisted(membership, true));
+		assertTrue(canReadCode());
+	}
+
+	@Test
+	public void shouldInvalidateOnGroupChange() {
+		assertTrue(canReadCode());
+
+		GroupAuthorization authorization = group.getProjectAuthorizations().iterator().next();
+		group.getProjectAuthorizations().clear();
+		assertTrue(canReadCode());
+		authorizationManager.on(new EntityPersisted(group, false));
+		assertFalse(canReadCode());
+
+		group.getProjectAuthorizations().add(authorization);
+		authorizationManager.on(new EntityPersisted(group, false));
+		assertTrue(canReadCode());
+
+		memberships.clear();
+		authorizationManager.on(new EntityRemoved(group));
+		assertFalse(canReadCode());
+	}
+
+	@Test
+	public void shouldNotCacheInsideTransaction() {
+		Mockito.when(transaction.isActive()).thenReturn(true);
+		assertTrue(canReadCode());
+
+		// changes made in a transaction are visible to the transaction without invalidation
+		role.setCodePrivilege(CodePrivilege.NONE);
+		assertFalse(canReadCode());
+
+		// and are not cached in case the transaction is rolled back
+		role.setCodePrivilege(CodePrivilege.READ);
+		Mockito.when(transaction.isActive()).thenReturn(false);
+		assertTrue(canReadCode());
+	}
+
+}
@@ -0,0 +1,48 @@
+package io.onedev.server.util.diff;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+import io.onedev.commons.jsyntax.Tokenized;
+import io.onedev.commons.utils.FileUtils;
+
+public class DefaultDiffCacheManagerTest {
+
+	@Test
+	public void shouldReadWhatIsWritten() throws Exception {
+		List<DiffBlock<Tokenized>> diffBlocks = DiffUtils.diff(
+				Lists.newArrayList("first line", "second line", "third line"), "test.java",
+				Lists.newArrayList("first line", "changed line", "third line", "fourth line"), "test.java",
+				WhitespaceOption.DEFAULT);
+		
+		File tempDir = FileUtils.createTempDir();
+		try {
+			File cacheFile = new File(tempDir, "ab/abcdef");
+			DefaultDiffCacheManager.write(cacheFile, diffBlocks);
+			List<DiffBlock<Tokenized>> read = DefaultDiffCacheManager.read(cacheFile);
+			assertEquals(diffBlocks.size(), read.size());
+			for (int i=0; i<diffBlocks.size(); i++) {
+				DiffBlock<Tokenized> expected = diffBlocks.get(i);
+				DiffBlock<Tokenized> actual = read.get(i);
+				assertEquals(expected.getOperation(), actual.getOperation());
+				assertEquals(expected.getOldStart(), actual.getOldStart());
+				assertEquals(expected.getNewStart(), actual.getNewStart());
+				assertEquals(expected.getUnits().size(), actual.getUnits().size());
+				for (int j=0; j<expected.getUnits().size(); j++) {
+					assertEquals(expected.getUnits().get(j).getText(), actual.getUnits().get(j).getText());
+					assertArrayEquals(expected.getUnits().get(j).getTokens(), actual.getUnits().get(j).getTokens());
+				}
+			}
+		} finally {
+			FileUtils.deleteDir(tempDir);
+		}
+	}
+	
+}
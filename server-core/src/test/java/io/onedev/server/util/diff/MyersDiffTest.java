@@ -0,0 +1,114 @@
+package io.onedev.server.util.diff;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class MyersDiffTest {
+
+	@Test
+	public void shouldFindMinimalDiff() {
+		Random random = new Random(0);
+		for (int i=0; i<2000; i++) {
+			int[] oldIds = random(random, random.nextInt(30), 1+random.nextInt(5));
+			int[] newIds = random(random, random.nextInt(30), 1+random.nextInt(5));
+			MyersDiff diff = new MyersDiff(oldIds, newIds, Long.MAX_VALUE);
+			assertArrayEquals(newIds, apply(diff, oldIds, newIds));
+			assertEquals(oldIds.length + newIds.length - 2*lcs(oldIds, newIds), countChanges(diff, oldIds, newIds));
+		}
+	}
+
+	@Test
+	public void shouldDiffLargeInput() {
+		int size = 500000;
+		int[] oldIds = new int[size];
+		int[] newIds = new int[size];
+		for (int i=0; i<size; i++) {
+			oldIds[i] = i;
+			newIds[i] = (i % 1000 == 0)? -i-1: i;
+		}
+		MyersDiff diff = new MyersDiff(oldIds, newIds, Long.MAX_VALUE);
+		assertFalse(diff.isTimedOut());
+		assertArrayEquals(newIds, apply(diff, oldIds, newIds));
+		assertEquals(2*size/1000, countChanges(diff, oldIds, newIds));
+	}
+
+	@Test
+	public void shouldFallbackWhenDeadlineReached() {
+		int[] oldIds = new int[] {1, 2, 3, 4, 5};
+		int[] newIds = new int[] {1, 3, 2, 5, 5};
+		MyersDiff diff = new MyersDiff(oldIds, newIds, 0);
+		assertTrue(diff.isTimedOut());
+		assertArrayEquals(newIds, apply(diff, oldIds, newIds));
+		assertEquals(oldIds.length + newIds.length, countChanges(diff, oldIds, newIds));
+	}
+
+	@Test
+	public void shouldReplaceWholeWhenTooLarge() {
+		int[] oldIds = new int[MyersDiff.MAX_LINES + 1];
+		int[] newIds = new int[10];
+		MyersDiff diff = new MyersDiff(oldIds, newIds, Long.MAX_VALUE);
+		assertFalse(diff.isTimedOut());
+		assertArrayEquals(newIds, apply(diff, oldIds, newIds));
+		assertEquals(oldIds.length + newIds.length, countChanges(diff, oldIds, newIds));
+	}
+
+	private int[] random(Random random, int length, int alphabet) {
+		int[] ids = new int[length];
+		for (int i=0; i<length; i++)
+			ids[i] = random.nextInt(alphabet);
+		return ids;
+	}
+
+	private int[] apply(MyersDiff diff, int[] oldIds, int[] newIds) {
+		List<Integer> result = new ArrayList<>();
+		int oldIndex = 0;
+		int newIndex = 0;
+		while (oldIndex < oldIds.length || newIndex < newIds.length) {
+			if (oldIndex < oldIds.length && diff.isDeleted(oldIndex)) {
+				oldIndex++;
+			} else if (newIndex < newIds.length && diff.isInserted(newIndex)) {
+				result.add(newIds[newIndex++]);
+			} else {
+				assertEquals(oldIds[oldIndex], newIds[newIndex]);
+				result.add(oldIds[oldIndex++]);
+				newIndex++;
+			}
+		}
+		return result.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	private int countChanges(MyersDiff diff, int[] oldIds, int[] newIds) {
+		int count = 0;
+		for (int i=0; i<oldIds.length; i++) {
+			if (diff.isDeleted(i))
+				count++;
+		}
+		for (int i=0; i<newIds.length; i++) {
+			if (diff.isInserted(i))
+				count++;
+		}
+		return count;
+	}
+
+	private int lcs(int[] oldIds, int[] newIds) {
+		int[][] lengths = new int[oldIds.length+1][newIds.length+1];
+		for (int i=1; i<=oldIds.length; i++) {
+			for (int j=1; j<=newIds.length; j++) {
+				if (oldIds[i-1] == newIds[j-1])
+					lengths[i][j] = lengths[i-1][j-1] + 1;
+				else
+					lengths[i][j] = Math.max(lengths[i-1][j], lengths[i][j-1]);
+			}
+		}
+		return lengths[oldIds.length][newIds.length];
+	}
+
+}
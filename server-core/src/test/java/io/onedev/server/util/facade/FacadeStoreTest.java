@@ -0,0 +1,96 @@
+package io.onedev.server.util.facade;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+public class FacadeStoreTest {
+
+	@Test
+	public void shouldMatchReference() {
+		Random random = new Random(0);
+		FacadeStore store = new FacadeStore(2);
+		Map<Long, Map<Long, Long>> reference = new HashMap<>();
+		long nextId = 1;
+		for (int i=0; i<50000; i++) {
+			long projectId = random.nextInt(5);
+			Map<Long, Long> facades = reference.computeIfAbsent(projectId, key -> new HashMap<>());
+			int operation = random.nextInt(10);
+			if (operation < 6) {
+				long id = random.nextInt(20) == 0? 1 + random.nextInt((int)nextId): nextId++;
+				long key = random.nextInt(500);
+				if (reference.values().stream().anyMatch(it -> it != facades && it.containsKey(id)))
+					continue;
+				store.put(projectId, id, key, -key);
+				facades.put(id, key);
+			} else if (operation < 9 && !facades.isEmpty()) {
+				List<Long> ids = new ArrayList<>(facades.keySet());
+				Long id = ids.get(random.nextInt(ids.size()));
+				store.remove(projectId, id);
+				facades.remove(id);
+			} else if (operation == 9 && random.nextInt(100) == 0) {
+				store.remove(projectId);
+				facades.clear();
+			}
+
+			if (i % 100 == 0) {
+				assertEquals(facades.keySet(), store.getIds(projectId));
+				Collection<long[]> keys = new ArrayList<>();
+				Collection<Long> keyValues = new HashSet<>();
+				for (int j=0; j<5; j++) {
+					long key = random.nextInt(500);
+					keys.add(new long[] {key, -key});
+					keyValues.add(key);
+				}
+				keys.add(new long[] {1, 1});
+				Collection<Long> expected = new HashSet<>();
+				for (Map.Entry<Long, Long> entry: facades.entrySet()) {
+					if (keyValues.contains(entry.getValue()))
+						expected.add(entry.getKey());
+				}
+				assertEquals(expected, store.getIds(projectId, keys));
+				assertEquals(new HashSet<>(facades.values()), store.getKeys(projectId, 0));
+			}
+		}
+		assertEquals(reference.values().stream().mapToInt(Map::size).sum(), store.size());
+	}
+
+	@Test
+	public void shouldLoadLookupAndRemove() {
+		int count = 10000;
+		int projects = 10;
+		FacadeStore store = new FacadeStore(2);
+		for (int i=1; i<=count; i++)
+			store.put((long)(i % projects), (long)i, i, -i);
+		assertEquals(count, store.size());
+		assertEquals(count/projects, store.getIds(0L).size());
+
+		Collection<long[]> keys = new ArrayList<>();
+		keys.add(new long[] {10, -10});
+		keys.add(new long[] {20, -20});
+		keys.add(new long[] {11, -11});
+		keys.add(new long[] {30, 30});
+		assertEquals(Sets.newHashSet(10L, 20L), store.getIds(0L, keys));
+
+		store.remove(0L, 10L);
+		assertEquals(Sets.newHashSet(20L), store.getIds(0L, keys));
+		assertEquals(count-1, store.size());
+
+		store.remove(0L);
+		assertTrue(store.getIds(0L).isEmpty());
+		assertEquals(Sets.newHashSet(11L), store.getIds(1L, keys));
+		assertEquals(count-count/projects, store.size());
+	}
+
+}